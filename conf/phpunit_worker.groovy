@@ -0,0 +1,13 @@
+// Runs PhpUnit tests in long-lived PHP processes (1 per thread) instead of starting PHP for each test
+// The bootstrap is only loaded once per process, which is much faster for test-packs with a large bootstrap (ex: Symfony)
+// A process is replaced after it crashes or times out, after a test changes global state, or after 100 tests
+//
+// To change how many tests a process runs or what global state is checked:
+// new PhpUnitWorkerScenario(50, EPhpUnitWorkerCheck.INI, EPhpUnitWorkerCheck.CWD)
+def scenarios() {
+	return new PhpUnitWorkerScenario();
+}
+
+def describe() {
+	"""Runs PhpUnit tests in long-lived PHP processes (CLI only). Processes are replaced after a crash, timeout, change to global state or 100 tests"""
+}
@@ -10,17 +10,47 @@ import java.util.WeakHashMap;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import com.ibm.icu.charset.CharsetDecoderICU;
+import com.ibm.icu.text.CharsetRecog_2022;
+import com.ibm.icu.text.CharsetRecog_mbcs;
+import com.ibm.icu.text.CharsetRecog_sbcs;
 import com.ibm.icu.text.CharsetRecognizer;
 
 @NotThreadSafe
 public abstract class AbstractDetectingCharsetReader extends AbstractReader {
+	/** most confidence any recognizer can match with */
+	public static final int MAX_CONFIDENCE = 100;
+	/** most confidence CharsetRecog_sbcs can match with: 98 if more than 33% of n-grams match, otherwise
+	 * (int)(match% * 300) (@see CharsetRecog_sbcs#match), which is only more than 98 if exactly 33% match */
+	public static final int SBCS_MAX_CONFIDENCE = Math.max(98, (int) (0.33 * 300.0));
+	/** exactly 33% (33/100) of n-grams can only match if there are at least 100 n-grams (CharsetRecog_sbcs
+	 * counts at most 1 n-gram for each byte plus 1). if fewer, CharsetRecog_sbcs can't match with more than 98 */
+	public static final int SBCS_MIN_LEN_FOR_MAX_CONFIDENCE = 100 - 1;
+	public static final int SBCS_SHORT_MAX_CONFIDENCE = 98;
+	/** most confidence CharsetRecog_mbcs can match a line without any non-ASCII bytes with (it has no multi-byte
+	 * characters, so its either 0 or 10 @see CharsetRecog_mbcs#match) */
+	public static final int MBCS_ASCII_MAX_CONFIDENCE = 10;
 	protected final CharsetDeciderDecoder cdd;
+	/** if FALSE, runs all recognizers on every line like before (@see #setFastPath) */
+	protected boolean fast_path = true;
 	
 	public AbstractDetectingCharsetReader(InputStream in, CharsetDeciderDecoder cdd) {
 		super(in);
 		this.cdd = cdd;
 	}
 	
+	/** if FALSE, runs all recognizers on every line. output is the same either way, this is for comparing against
+	 * the fast path
+	 * 
+	 * @param fast_path
+	 */
+	public void setFastPath(boolean fast_path) {
+		this.fast_path = fast_path;
+	}
+	
+	public boolean isFastPath() {
+		return fast_path;
+	}
+	
 	public Charset cs; // TODO
 	WeakHashMap<Charset,CharsetDecoderICU> cd_map = new WeakHashMap<Charset,CharsetDecoderICU>();
 	WeakHashMap<Charset,CharsetEncoder> ce_map = new WeakHashMap<Charset,CharsetEncoder>();
@@ -28,40 +58,139 @@ public abstract class AbstractDetectingCharsetReader extends AbstractReader {
 	CharsetDecoderICU cd;
 	public CharsetRecognizer[] recogs = CharsetDeciderDecoder.EXPRESS_RECOGNIZERS;//.ALL_RECOGNIZERS; // TODO
 	CharsetRec hc_cm = null; // TODO usually start over for each #detectCharset call
+	/** reused for each recognizer's match (only copied to #hc_cm if it has higher confidence) */
+	final CharsetRec match_cm = new CharsetRec();
 	protected void detectCharset(byte[] bytes, int off, int len) {
 		bytes = IOUtil.ensureLeftShifted(bytes, off, len);
 		
 		
 				
 		for (CharsetRecognizer r : recogs) {
-			CharsetRec cm = new CharsetRec();
-			
-			r.match(bytes, len, cm);
-			
-			if (hc_cm==null||cm.confidence>hc_cm.confidence)
-				hc_cm = cm;
+			match(r, bytes, len);
+		}
+		
+		useCharset(hc_cm.cs);
+	}
+	
+	/** same as #detectCharset, but only runs the recognizers that could match the bytes with more confidence
+	 * than the best match so far (#hc_cm), so the detected charset is always the same as #detectCharset's
+	 * 
+	 * @param bytes
+	 * @param off
+	 * @param len
+	 * @param non_ascii - TRUE if any bytes are not 7-bit ASCII
+	 * @param esc - TRUE if any bytes are ESC
+	 */
+	protected void detectCharsetIfChanged(byte[] bytes, int off, int len, boolean non_ascii, boolean esc) {
+		boolean shifted = false;
+		for (CharsetRecognizer r : recogs) {
+			// a recognizer only replaces the best match if it matches with more confidence
+			if (hc_cm!=null && maxConfidence(r, len, non_ascii, esc) <= hc_cm.confidence)
+				continue;
+			if (!shifted) {
+				bytes = IOUtil.ensureLeftShifted(bytes, off, len);
+				shifted = true;
+			}
+			match(r, bytes, len);
 		}
 		
-		CharsetRec cm = hc_cm;
+		if (cs!=hc_cm.cs)
+			useCharset(hc_cm.cs);
+	}
+	
+	/** most confidence recognizer could match bytes with
+	 * 
+	 * @param r
+	 * @param len - number of bytes
+	 * @param non_ascii - TRUE if any bytes are not 7-bit ASCII
+	 * @param esc - TRUE if any bytes are ESC
+	 * @return
+	 */
+	protected static int maxConfidence(CharsetRecognizer r, int len, boolean non_ascii, boolean esc) {
+		if (r instanceof CharsetRecog_sbcs)
+			return len < SBCS_MIN_LEN_FOR_MAX_CONFIDENCE ? SBCS_SHORT_MAX_CONFIDENCE : SBCS_MAX_CONFIDENCE;
+		else if (r instanceof CharsetRecog_2022)
+			// only matches escape sequences
+			return esc ? MAX_CONFIDENCE : 0;
+		else if (r instanceof CharsetRecog_mbcs)
+			return non_ascii ? MAX_CONFIDENCE : MBCS_ASCII_MAX_CONFIDENCE;
+		else
+			return MAX_CONFIDENCE;
+	}
+	
+	/** runs recognizer, keeping its match in #hc_cm if its better than the best match so far */
+	protected void match(CharsetRecognizer r, byte[] bytes, int len) {
+		CharsetRec.clear(match_cm);
+		
+		r.match(bytes, len, match_cm);
 		
+		if (hc_cm==null||match_cm.confidence>hc_cm.confidence) {
+			if (hc_cm==null)
+				hc_cm = new CharsetRec();
+			hc_cm.cs = match_cm.cs;
+			hc_cm.confidence = match_cm.confidence;
+			hc_cm.lang = match_cm.lang;
+		}
+	}
+	
+	protected void useCharset(Charset cs) {
 		//
-		cd = cd_map.get(cm.cs);
+		cd = cd_map.get(cs);
 		if (cd==null) {
-			cd = (CharsetDecoderICU) cm.cs.newDecoder();
+			cd = (CharsetDecoderICU) cs.newDecoder();
 			
-			cd_map.put(cm.cs, cd);
+			cd_map.put(cs, cd);
 		}
-		ce = ce_map.get(cm.cs);
+		ce = ce_map.get(cs);
 		if (ce==null) {
-			ce = cm.cs.newEncoder();
+			ce = cs.newEncoder();
 			
-			ce_map.put(cm.cs, ce);
+			ce_map.put(cs, ce);
 		}
 		//
 		
-		this.cs = cm.cs;
+		this.cs = cs;
 	}
 	
+	/** decodes 1 line. the same as #detectCharset then #convertLine, but faster.
+	 * 
+	 * The detected charset is the best match for any line so far, so a line only changes it if a recognizer matches
+	 * that line with more confidence. Each kind of recognizer can only match with so much confidence
+	 * (@see #maxConfidence) so recognizers that can't beat the best match so far aren't run. Usually, that is most
+	 * of them (ex: for 7-bit ASCII lines, the multi-byte and ISO-2022 recognizers can't match with more than 10,
+	 * and once a multi-byte charset is matched with 100, no recognizer is run again).
+	 * 
+	 * Output (and detected charset) is always exactly the same as with #setFastPath(false).
+	 * 
+	 * @see MultiCharsetByLineReaderBenchmark
+	 * @param bytes
+	 * @param off
+	 * @param len
+	 * @param end_of_input
+	 * @return
+	 */
+	protected String decodeLine(byte[] bytes, int off, int len, boolean end_of_input) {
+		if (!fast_path) {
+			detectCharset(bytes, off, len);
+			return convertLine(bytes, off, len, end_of_input);
+		}
+		boolean non_ascii = false, esc = false;
+		final int end = off + len;
+		for ( int i=off ; i < end ; i++ ) {
+			if (bytes[i] < 0) {
+				non_ascii = true;
+				if (esc)
+					break;
+			} else if (bytes[i]==0x1B) {
+				esc = true;
+				if (non_ascii)
+					break;
+			}
+		}
+		detectCharsetIfChanged(bytes, off, len, non_ascii, esc);
+		return convertLine(bytes, off, len, end_of_input);
+	} // end protected String decodeLine
+	
 	protected String convertLine(byte[] bytes, int off, int len, boolean end_of_input) {
 		char[] chars = new char[len];
 		convertChars(bytes, off, len+off, chars, 0, len, false, end_of_input); 
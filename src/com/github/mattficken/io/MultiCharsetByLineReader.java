@@ -24,8 +24,7 @@ public class MultiCharsetByLineReader extends AbstractMultiCharsetReader impleme
 	}
 	
 	private final String getString(boolean end_of_input) {
-		detectCharset(line_buf, 0, line_buf_len);
-		String str = convertLine(line_buf, 0, line_buf_len, end_of_input);
+		String str = decodeLine(line_buf, 0, line_buf_len, end_of_input);
 		line_buf_len = 0;
 		return str;
 	}
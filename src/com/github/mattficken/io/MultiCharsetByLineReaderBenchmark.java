@@ -0,0 +1,223 @@
+package com.github.mattficken.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Regression check and benchmark for MultiCharsetByLineReader's fast path.
+ *
+ * Reads each file in a corpus twice: with the fast path (@see AbstractDetectingCharsetReader#decodeLine) and
+ * without it (running all recognizers on every line). Every line (and the charset detected for the whole file)
+ * must be identical. Exits with 1 if not.
+ *
+ * Then times reading the whole corpus both ways and reports lines/second.
+ *
+ * Usage: java com.github.mattficken.io.MultiCharsetByLineReaderBenchmark [corpus dir]... [rounds]
+ *
+ * Corpus dirs should be real files: a test-pack (ex: php-src) and a result-pack (actual output of tests). Without
+ * any, uses a built-in corpus: PHPT-like ASCII and text in several charsets (Shift_JIS, EUC-KR, GB18030, KOI8-R,
+ * windows-1252, ISO-2022-JP and UTF-8) including mixed and invalid lines.
+ *
+ * @see MultiCharsetByLineReader
+ *
+ */
+
+public class MultiCharsetByLineReaderBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rounds = 5;
+		final LinkedHashMap<String,byte[]> corpus = new LinkedHashMap<String,byte[]>();
+		for ( String arg : args ) {
+			if (arg.matches("[0-9]+"))
+				rounds = Integer.parseInt(arg);
+			else
+				loadCorpus(corpus, new File(arg));
+		}
+		if (corpus.isEmpty())
+			corpus.putAll(builtInCorpus());
+
+		// regression check
+		int lines = 0, non_ascii_lines = 0, mismatches = 0;
+		for ( Map.Entry<String,byte[]> e : corpus.entrySet() ) {
+			ArrayList<String> slow = new ArrayList<String>();
+			ArrayList<String> fast = new ArrayList<String>();
+			Charset slow_cs = readLines(e.getValue(), false, slow);
+			Charset fast_cs = readLines(e.getValue(), true, fast);
+			if (slow_cs!=fast_cs) {
+				System.out.println("MISMATCH "+e.getKey()+": charset "+slow_cs+" without fast path, "+fast_cs+" with");
+				mismatches++;
+			}
+			if (slow.size()!=fast.size()) {
+				System.out.println("MISMATCH "+e.getKey()+": "+slow.size()+" lines without fast path, "+fast.size()+" with");
+				mismatches++;
+				continue;
+			}
+			for ( byte[] raw : splitLines(e.getValue()) ) {
+				for ( byte b : raw ) {
+					if (b < 0) {
+						non_ascii_lines++;
+						break;
+					}
+				}
+			}
+			for ( int i=0 ; i < slow.size() ; i++ ) {
+				lines++;
+				if (!slow.get(i).equals(fast.get(i))) {
+					mismatches++;
+					if (mismatches <= 20)
+						System.out.println("MISMATCH "+e.getKey()+":"+(i+1)+" expected=["+slow.get(i)+"] actual=["+fast.get(i)+"]");
+				}
+			}
+		}
+		System.out.println(corpus.size()+" files, "+lines+" lines, "+non_ascii_lines+" non-ASCII lines, "+mismatches+" mismatches");
+
+		// benchmark
+		for ( int i=0 ; i < rounds ; i++ ) {
+			report("  without fast path", corpus, false);
+			report("  with fast path   ", corpus, true);
+		}
+
+		if (mismatches > 0)
+			System.exit(1);
+	} // end public static void main
+
+	protected static void report(String name, Map<String,byte[]> corpus, boolean fast_path) throws IOException {
+		final long start = System.nanoTime();
+		long lines = 0;
+		final ArrayList<String> buf = new ArrayList<String>();
+		for ( byte[] bytes : corpus.values() ) {
+			buf.clear();
+			readLines(bytes, fast_path, buf);
+			lines += buf.size();
+		}
+		final long nanos = Math.max(1, System.nanoTime() - start);
+		System.out.println(name+" "+(nanos/1000000)+" ms, "+(lines * 1000000000L / nanos)+" lines/sec");
+	}
+
+	/** reads lines the same way LocalHost does
+	 *
+	 * @param bytes
+	 * @param fast_path
+	 * @param lines - lines are added to this
+	 * @return charset detected for whole file
+	 * @throws IOException
+	 */
+	protected static Charset readLines(byte[] bytes, boolean fast_path, List<String> lines) throws IOException {
+		MultiCharsetByLineReader reader = new MultiCharsetByLineReader(new ByteArrayInputStream(bytes), new DefaultCharsetDeciderDecoder(CharsetDeciderDecoder.EXPRESS_RECOGNIZERS));
+		reader.setFastPath(fast_path);
+		String line;
+		while (reader.hasMoreLines()) {
+			line = reader.readLine();
+			if (line==null)
+				break;
+			lines.add(line);
+		}
+		reader.close();
+		return reader.cs;
+	}
+
+	/** splits lines the same way MultiCharsetByLineReader does (\n ends a line, \r before \n is ignored) */
+	protected static ArrayList<byte[]> splitLines(byte[] bytes) {
+		ArrayList<byte[]> lines = new ArrayList<byte[]>();
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		for ( int i=0 ; i < bytes.length ; i++ ) {
+			if (bytes[i]=='\r' && i+1 < bytes.length && bytes[i+1]=='\n') {
+				continue;
+			} else if (bytes[i]=='\n') {
+				lines.add(line.toByteArray());
+				line.reset();
+			} else {
+				line.write(bytes[i]);
+			}
+		}
+		lines.add(line.toByteArray());
+		return lines;
+	}
+
+	protected static void loadCorpus(Map<String,byte[]> corpus, File file) throws IOException {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			if (files!=null) {
+				for ( File f : files )
+					loadCorpus(corpus, f);
+			}
+			return;
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int)file.length());
+			byte[] buf = new byte[8192];
+			int n;
+			while ( ( n = in.read(buf) ) != -1 )
+				out.write(buf, 0, n);
+			corpus.put(file.getPath(), out.toByteArray());
+		} finally {
+			in.close();
+		}
+	}
+
+	protected static Map<String,byte[]> builtInCorpus() {
+		final String phpt = "--TEST--\nTest str_replace() function\n--FILE--\n<?php\n$a = array(1, 2, 3);\nvar_dump(str_replace(\"a\", \"b\", \"abc\"));\n?>\n--EXPECTF--\nstring(3) \"bbc\"\nWarning: %s in %s on line %d\n";
+		final String ja = "\u65e5\u672c\u8a9e\u306e\u30c6\u30b9\u30c8\u3067\u3059\u3002\u6587\u5b57\u5217\u3092\u7f6e\u63db\u3057\u307e\u3059\u3002";
+		final String ko = "\ud55c\uad6d\uc5b4 \ud14c\uc2a4\ud2b8\uc785\ub2c8\ub2e4. \ubb38\uc790\uc5f4\uc744 \ubc14\uafc9\ub2c8\ub2e4.";
+		final String zh = "\u8fd9\u662f\u4e2d\u6587\u6d4b\u8bd5\u3002\u66ff\u6362\u5b57\u7b26\u4e32\u7684\u51fd\u6570\u3002";
+		final String ru = "\u042d\u0442\u043e \u0442\u0435\u0441\u0442 \u043d\u0430 \u0440\u0443\u0441\u0441\u043a\u043e\u043c \u044f\u0437\u044b\u043a\u0435.";
+		final String fr = "Ceci est un test en fran\u00e7ais, \u00e9t\u00e9 \u00e0 la plage \u2013 d\u00e9j\u00e0 vu.";
+
+		LinkedHashMap<String,byte[]> corpus = new LinkedHashMap<String,byte[]>();
+		StringBuilder big = new StringBuilder();
+		for ( int i=0 ; i < 2000 ; i++ )
+			big.append(phpt);
+		corpus.put("ascii.phpt", big.toString().getBytes(CharsetRec.US_ASCII));
+		corpus.put("ascii_crlf.out", phpt.replace("\n", "\r\n").getBytes(CharsetRec.US_ASCII));
+		corpus.put("shift_jis.phpt", text(phpt, ja, "Shift_JIS"));
+		corpus.put("euc_kr.phpt", text(phpt, ko, "EUC-KR"));
+		corpus.put("gb18030.phpt", text(phpt, zh, "GB18030"));
+		corpus.put("koi8_r.phpt", text(phpt, ru, "KOI8-R"));
+		corpus.put("windows_1252.phpt", text(phpt, fr, "windows-1252"));
+		corpus.put("iso_2022_jp.phpt", text(phpt, ja, "ISO-2022-JP"));
+		corpus.put("utf8_ja.phpt", text(phpt, ja, "UTF-8"));
+		corpus.put("utf8_ru.phpt", text(phpt, ru, "UTF-8"));
+		corpus.put("utf8_fr.out", text("", fr, "UTF-8"));
+
+		// mixed: UTF-8 lines then Shift_JIS lines (ex: output of a test that prints both)
+		ByteArrayOutputStream mixed = new ByteArrayOutputStream();
+		byte[] a = text(phpt, ja, "UTF-8"), b = text("", ja, "Shift_JIS");
+		mixed.write(a, 0, a.length);
+		mixed.write(b, 0, b.length);
+		corpus.put("mixed_utf8_sjis.out", mixed.toByteArray());
+
+		// invalid UTF-8: truncated sequence, overlong form, surrogate and stray continuation bytes
+		corpus.put("invalid_utf8.out", new byte[]{
+				'o', 'k', '\n',
+				(byte)0xE6, (byte)0x97, '\n',
+				(byte)0xC0, (byte)0xAF, '\n',
+				(byte)0xED, (byte)0xA0, (byte)0x80, '\n',
+				(byte)0x80, (byte)0x80, 'x', '\n'
+			});
+		return corpus;
+	} // end protected static Map<String,byte[]> builtInCorpus
+
+	/** ASCII text with a line of non-ASCII text after every 3rd line, encoded in charset */
+	protected static byte[] text(String ascii, String non_ascii, String charset) {
+		StringBuilder sb = new StringBuilder();
+		String[] lines = ascii.split("\n");
+		for ( int i=0 ; i < lines.length ; i++ ) {
+			sb.append(lines[i]).append('\n');
+			if (i % 3 == 2)
+				sb.append(non_ascii).append('\n');
+		}
+		for ( int i=0 ; i < 50 ; i++ )
+			sb.append(non_ascii).append(' ').append(i).append('\n');
+		return sb.toString().getBytes(Charset.forName(charset));
+	}
+
+} // end public class MultiCharsetByLineReaderBenchmark
@@ -0,0 +1,383 @@
+package com.mostc.pftt.host;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.mattficken.io.StringUtil;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.EPrintType;
+
+/** Copies a directory tree (ex: a test-pack) from the local host to a host, only transferring the files that
+ * changed since the last time it was copied to the same directory.
+ *
+ * A manifest of the copied files (size, modification time and, if known, SHA-1 hash of each) is stored in the
+ * destination directory. The next copy to that directory compares the source with the manifest:
+ * -unchanged files aren't copied again
+ * -files that were touched but still have the same content (same hash) aren't copied again
+ * -files that were deleted from the source are deleted (on the local host, directories too)
+ *
+ * On the local host, the destination is also checked against the manifest, so files that were changed or created
+ * there (ex: by tests) are restored or deleted. On a remote host, that would take a round-trip for each file, so
+ * only changes to the source are copied.
+ *
+ * On the local host, .phpt files are hardlinked instead of copied when possible (PFTT only reads them, tests don't write to them).
+ * Other files are copied since a test writing to a hardlinked file would change the source too.
+ *
+ * A lock file marks a directory being used by a test run, so 2 test runs don't share a copy.
+ *
+ * @see com.mostc.pftt.model.core.PhptSourceTestPack#install
+ *
+ */
+
+public final class ContentSync {
+	public static final String MANIFEST_FILE = ".pftt_manifest.txt";
+	public static final String LOCK_FILE = ".pftt_lock.txt";
+	/** if more files than this changed, upload them together with 7-Zip instead of 1 at a time */
+	public static final int MAX_SINGLE_UPLOADS = 500;
+	/** lock left by a test run that crashed */
+	protected static final long STALE_LOCK_MILLIS = 24L*60*60*1000;
+	protected static final String HEADER_SRC = "#src\t";
+	protected static final String NO_HASH = "-";
+
+	protected static class Entry {
+		protected final long size, mtime;
+		protected String hash;
+		/** modification time of copy (on local host) */
+		protected long dst_mtime;
+
+		protected Entry(long size, long mtime) {
+			this.size = size;
+			this.mtime = mtime;
+		}
+	}
+
+	public static class Stats {
+		public int unchanged, copied, linked, deleted;
+		public boolean used_7zip;
+
+		@Override
+		public String toString() {
+			return "unchanged="+unchanged+" copied="+copied+" linked="+linked+" deleted="+deleted+(used_7zip?" (7-Zip)":"");
+		}
+	}
+
+	/** checks if directory has a copy of the source directory made by #sync
+	 *
+	 * @param dst_host
+	 * @param dst_dir
+	 * @param src_dir
+	 * @return
+	 */
+	public static boolean isSyncedFrom(AHost dst_host, String dst_dir, String src_dir) {
+		try {
+			String manifest_file = dst_host.joinIntoOnePath(dst_dir, MANIFEST_FILE);
+			if (!dst_host.mExists(manifest_file))
+				return false;
+			return isManifestFor(dst_host.mGetContents(manifest_file), src_dir);
+		} catch ( Exception ex ) {
+			return false;
+		}
+	}
+
+	/** marks directory as being used by this test run
+	 *
+	 * @param host
+	 * @param dir
+	 * @return FALSE if another test run is using it
+	 */
+	public static boolean tryLock(AHost host, String dir) {
+		final String lock_file = host.joinIntoOnePath(dir, LOCK_FILE);
+		final long now = System.currentTimeMillis();
+		try {
+			if (host.mExists(lock_file)) {
+				String millis = StringUtil.toString(host.mGetContents(lock_file)).trim();
+				try {
+					if (now - Long.parseLong(millis) < STALE_LOCK_MILLIS)
+						return false;
+				} catch ( NumberFormatException ex ) {
+					// unreadable lock: treat as stale
+				}
+			}
+			host.mCreateDirs(dir);
+			return host.mSaveTextFile(lock_file, Long.toString(now));
+		} catch ( Exception ex ) {
+			return false;
+		}
+	}
+
+	public static void unlock(AHost host, String dir) {
+		host.mDeleteIfExists(host.joinIntoOnePath(dir, LOCK_FILE));
+	}
+
+	/** copies changed files from source directory (on local host) to destination directory on host
+	 *
+	 * @param cm
+	 * @param clazz
+	 * @param src_dir
+	 * @param dst_host
+	 * @param dst_dir
+	 * @return
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 * @throws Exception
+	 */
+	public static Stats sync(ConsoleManager cm, Class<?> clazz, String src_dir, AHost dst_host, String dst_dir) throws IllegalStateException, IOException, Exception {
+		final File src_root = new File(src_dir);
+		final boolean local = !dst_host.isRemote();
+		final Map<String,Entry> old = readManifest(dst_host, dst_dir, src_dir);
+		final LinkedHashMap<String,Entry> now = scan(src_root);
+		final Stats stats = new Stats();
+
+		final ArrayList<String> changed = new ArrayList<String>();
+		for ( Map.Entry<String,Entry> me : now.entrySet() ) {
+			final String rel = me.getKey();
+			final Entry e = me.getValue();
+			final Entry o = old.get(rel);
+			if (o!=null) {
+				if (o.size==e.size && o.mtime==e.mtime) {
+					e.hash = o.hash;
+					e.dst_mtime = o.dst_mtime;
+					if (!local || isUnchangedCopy(new File(dst_dir, rel), o)) {
+						stats.unchanged++;
+						continue;
+					}
+				} else if (!local && o.hash!=null && o.size==e.size) {
+					// touched, but may have same content
+					e.hash = hash(new File(src_root, rel));
+					if (e.hash.equals(o.hash)) {
+						stats.unchanged++;
+						continue;
+					}
+				}
+			}
+			changed.add(rel);
+		}
+		if (cm!=null)
+			cm.println(EPrintType.IN_PROGRESS, clazz, "sync "+src_dir+" to "+dst_dir+": "+changed.size()+" of "+now.size()+" files changed");
+
+		if (local) {
+			// delete files and directories removed from source or created in copy
+			stats.deleted = deleteOthers(src_root, new File(dst_dir), now);
+			for ( String rel : changed )
+				copyLocal(new File(src_root, rel), new File(dst_dir, rel), now.get(rel), stats);
+		} else {
+			for ( String rel : old.keySet() ) {
+				if (!now.containsKey(rel)) {
+					dst_host.mDeleteIfExists(dst_host.joinIntoOnePath(dst_dir, rel));
+					stats.deleted++;
+				}
+			}
+			if (changed.size() > MAX_SINGLE_UPLOADS) {
+				// faster to compress them all than to upload 1 at a time
+				dst_host.uploadCompressWith7Zip(cm, clazz, src_dir, LocalHost.getInstance(), dst_dir);
+				stats.used_7zip = true;
+				stats.copied = changed.size();
+			} else {
+				for ( String rel : changed ) {
+					File src_file = new File(src_root, rel);
+					Entry e = now.get(rel);
+					if (e.hash==null)
+						// hashing is cheap compared to uploading: lets touched files be skipped next time
+						e.hash = hash(src_file);
+					dst_host.upload(src_file.getAbsolutePath(), dst_host.joinIntoOnePath(dst_dir, rel));
+					stats.copied++;
+				}
+			}
+		}
+
+		writeManifest(dst_host, dst_dir, src_dir, now);
+		return stats;
+	} // end public static Stats sync
+
+	protected static boolean isUnchangedCopy(File dst_file, Entry o) {
+		return dst_file.length()==o.size && dst_file.lastModified()==o.dst_mtime;
+	}
+
+	protected static void copyLocal(File src_file, File dst_file, Entry e, Stats stats) throws IOException {
+		final Path src = src_file.toPath();
+		final Path dst = dst_file.toPath();
+		Files.createDirectories(dst.getParent());
+		Files.deleteIfExists(dst);
+		boolean linked = false;
+		if (src_file.getName().endsWith(".phpt")) {
+			try {
+				Files.createLink(dst, src);
+				linked = true;
+			} catch ( IOException ex ) {
+				// different file systems, etc...
+			} catch ( UnsupportedOperationException ex ) {
+			}
+		}
+		if (linked) {
+			stats.linked++;
+		} else {
+			Files.copy(src, dst, StandardCopyOption.COPY_ATTRIBUTES);
+			stats.copied++;
+		}
+		e.dst_mtime = dst_file.lastModified();
+	}
+
+	/** lists all files in source with their size and modification time */
+	protected static LinkedHashMap<String,Entry> scan(File src_root) throws IOException {
+		final LinkedHashMap<String,Entry> files = new LinkedHashMap<String,Entry>(32768);
+		final Path root = src_root.toPath();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (attrs.isRegularFile()) {
+						String rel = root.relativize(file).toString().replace('\\', '/');
+						if (!isSyncFile(rel))
+							files.put(rel, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis()));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException ex) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		return files;
+	}
+
+	/** deletes files and directories in copy that aren't in source
+	 *
+	 * @return number of files and directories deleted
+	 */
+	protected static int deleteOthers(final File src_root, File dst_root, final Map<String,Entry> keep) throws IOException {
+		if (!dst_root.isDirectory())
+			return 0;
+		final Path root = dst_root.toPath();
+		final int[] count = new int[1];
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					String rel = root.relativize(file).toString().replace('\\', '/');
+					if (!isSyncFile(rel) && !keep.containsKey(rel)) {
+						Files.deleteIfExists(file);
+						count[0]++;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+					if (dir.equals(root))
+						return FileVisitResult.CONTINUE;
+					String rel = root.relativize(dir).toString().replace('\\', '/');
+					if (!new File(src_root, rel).isDirectory()) {
+						// files in it were just deleted (unless a file couldn't be deleted)
+						try {
+							if (Files.deleteIfExists(dir))
+								count[0]++;
+						} catch ( IOException ex2 ) {
+							// not empty, etc...
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException ex) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		return count[0];
+	}
+
+	protected static boolean isSyncFile(String rel) {
+		return rel.equals(MANIFEST_FILE) || rel.equals(LOCK_FILE);
+	}
+
+	protected static Map<String,Entry> readManifest(AHost dst_host, String dst_dir, String src_dir) {
+		HashMap<String,Entry> entries = new HashMap<String,Entry>(32768);
+		String manifest;
+		try {
+			String manifest_file = dst_host.joinIntoOnePath(dst_dir, MANIFEST_FILE);
+			if (!dst_host.mExists(manifest_file))
+				return entries;
+			manifest = dst_host.mGetContents(manifest_file);
+		} catch ( Exception ex ) {
+			// copy everything
+			return entries;
+		}
+		if (!isManifestFor(manifest, src_dir))
+			// copy of something else
+			return entries;
+		for ( String line : StringUtil.splitLines(manifest) ) {
+			if (line.startsWith("#"))
+				continue;
+			String[] parts = line.split("\t");
+			if (parts.length!=5)
+				continue;
+			try {
+				Entry e = new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+				e.hash = parts[3].equals(NO_HASH) ? null : parts[3];
+				e.dst_mtime = Long.parseLong(parts[4]);
+				entries.put(parts[0], e);
+			} catch ( NumberFormatException ex ) {
+				// ignore line: file will be copied again
+			}
+		}
+		return entries;
+	} // end protected static Map<String,Entry> readManifest
+
+	protected static boolean isManifestFor(String manifest, String src_dir) {
+		if (manifest==null)
+			return false;
+		int i = manifest.indexOf('\n');
+		String header = i==-1 ? manifest : manifest.substring(0, i);
+		return header.trim().equals(HEADER_SRC+src_dir);
+	}
+
+	protected static void writeManifest(AHost dst_host, String dst_dir, String src_dir, Map<String,Entry> entries) throws IllegalStateException, IOException {
+		StringBuilder sb = new StringBuilder(64 + (entries.size() * 96));
+		sb.append(HEADER_SRC).append(src_dir).append('\n');
+		for ( Map.Entry<String,Entry> me : entries.entrySet() ) {
+			Entry e = me.getValue();
+			sb.append(me.getKey()).append('\t')
+				.append(e.size).append('\t')
+				.append(e.mtime).append('\t')
+				.append(e.hash==null?NO_HASH:e.hash).append('\t')
+				.append(e.dst_mtime).append('\n');
+		}
+		dst_host.mSaveTextFile(dst_host.joinIntoOnePath(dst_dir, MANIFEST_FILE), sb.toString());
+	}
+
+	protected static String hash(File file) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch ( Exception ex ) {
+			throw new IOException(ex);
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[64*1024];
+			int len;
+			while ( ( len = in.read(buf) ) != -1 )
+				md.update(buf, 0, len);
+		} finally {
+			in.close();
+		}
+		StringBuilder sb = new StringBuilder(40);
+		for ( byte b : md.digest() ) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private ContentSync() {}
+
+} // end public final class ContentSync
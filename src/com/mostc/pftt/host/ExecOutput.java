@@ -17,6 +17,10 @@ public class ExecOutput implements ICrashDetector {
 	public int exit_code;
 	/** command line that was executed */
 	public String cmd;
+	/** milliseconds from starting program until it exited, or -1 if not known */
+	public long wall_time_millis = -1;
+	/** milliseconds of CPU time PFTT used running the program (not CPU time the program used), or -1 if not known */
+	public long cpu_time_millis = -1;
 	
 	/** returns the output split into lines.
 	 * 
@@ -10,12 +10,26 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.runner.AbstractTestPackRunner.TestPackRunnerThread;
 import com.mostc.pftt.scenario.FileSystemScenario.IFileChooser;
+import com.mostc.pftt.util.TimerUtil;
+import com.mostc.pftt.util.TimerUtil.ScheduledTimeout;
 
 /** Allows a group of Hosts to be used as a single host (in most cases).
+ * 
+ * By default, operations are done on 1 host after another. After #setParallel, operations that change
+ * the hosts (exec, cmd, copy, upload, unzip, etc...) are done on several hosts at the same time, so
+ * doing something on a group of 10 hosts takes about as long as the slowest host instead of 10 times as long.
+ * 
+ * @see #forEachHost - to do any operation on all hosts (in parallel) and get the result or exception from each host
  * 
  * @author Matt Ficken
  *
@@ -23,6 +37,10 @@ import com.mostc.pftt.scenario.FileSystemScenario.IFileChooser;
 
 public class HostGroup extends Host implements List<Host> {
 	protected final List<Host> list;
+	/** 1 = sequential */
+	protected int max_parallel_hosts = 1;
+	/** 0 = no timeout */
+	protected int host_timeout_sec;
 	
 	public HostGroup() {
 		list = new LinkedList<Host>();
@@ -52,58 +70,322 @@ public class HostGroup extends Host implements List<Host> {
 		void collect(Host h, long v);
 	}
 	
+	/** operation to do on each host in a group @see #forEachHost */
+	public interface IHostOperation<E extends Object> {
+		E run(Host h) throws Exception;
+	}
+	
+	/** result of an IHostOperation on 1 host: the value it returned, the exception it threw or if it timed out */
+	public static class HostResult<E extends Object> {
+		protected final Host host;
+		protected final CountDownLatch done;
+		protected E result;
+		protected Throwable ex;
+		protected boolean timed_out;
+		
+		protected HostResult(Host host) {
+			this.host = host;
+			done = new CountDownLatch(1);
+		}
+		
+		protected void run(IHostOperation<E> op, int timeout_sec) {
+			final Thread thread = Thread.currentThread();
+			final ScheduledTimeout timer = timeout_sec < 1 ? null : TimerUtil.scheduleSeconds(timeout_sec, new Runnable() {
+					@Override
+					public void run() {
+						timeout(thread);
+					}
+				});
+			try {
+				E r = op.run(host);
+				synchronized(this) {
+					if (!timed_out)
+						result = r;
+				}
+			} catch ( Throwable t ) {
+				synchronized(this) {
+					if (!timed_out)
+						ex = t;
+				}
+			} finally {
+				if (timer!=null)
+					timer.close();
+				synchronized(this) {
+					done.countDown();
+					if (timed_out)
+						// don't leave interrupt from #timeout for the next operation run on this thread
+						Thread.interrupted();
+				}
+			}
+		}
+		
+		protected void timeout(Thread thread) {
+			synchronized(this) {
+				if (done.getCount()==0)
+					return;
+				timed_out = true;
+				// try to stop operation (ex: blocked on I/O). if it doesn't stop, its thread is abandoned
+				if (thread!=null)
+					thread.interrupt();
+				done.countDown();
+			}
+		}
+		
+		protected void await() throws InterruptedException {
+			done.await();
+		}
+		
+		public Host getHost() {
+			return host;
+		}
+		
+		/** value returned by the operation, or null if it threw an exception or timed out */
+		public synchronized E getResult() {
+			return result;
+		}
+		
+		/** exception thrown by the operation, or null */
+		public synchronized Throwable getException() {
+			return ex;
+		}
+		
+		public synchronized boolean isTimedOut() {
+			return timed_out;
+		}
+		
+		/** operation returned (TRUE if it returned a Boolean) without an exception or timing out */
+		public synchronized boolean isSuccess() {
+			return !timed_out && ex==null && !Boolean.FALSE.equals(result);
+		}
+		
+		@Override
+		public String toString() {
+			return host+(isTimedOut()?" timed out":getException()!=null?" "+getException():" "+getResult());
+		}
+	} // end public static class HostResult
+	
+	/** do operations on several hosts at the same time
+	 * 
+	 * @param max_parallel_hosts - max number of hosts to do an operation on at the same time. 1 = sequential
+	 * @param host_timeout_sec - max time an operation may take on each host (0 = no limit). only applies to parallel operations
+	 * @return
+	 */
+	public HostGroup setParallel(int max_parallel_hosts, int host_timeout_sec) {
+		this.max_parallel_hosts = Math.max(1, max_parallel_hosts);
+		this.host_timeout_sec = Math.max(0, host_timeout_sec);
+		return this;
+	}
+	
+	public HostGroup setParallel(int max_parallel_hosts) {
+		return setParallel(max_parallel_hosts, host_timeout_sec);
+	}
+	
+	public boolean isParallel() {
+		return max_parallel_hosts > 1;
+	}
+	
+	public int getMaxParallelHosts() {
+		return max_parallel_hosts;
+	}
+	
+	public int getHostTimeoutSeconds() {
+		return host_timeout_sec;
+	}
+	
+	/** does the operation on each host, in parallel if #setParallel was called.
+	 * 
+	 * @param op
+	 * @return result of operation for each host (in the same order as the hosts in this group)
+	 */
+	public <E extends Object> List<HostResult<E>> forEachHost(IHostOperation<E> op) {
+		return forEachHost(max_parallel_hosts, host_timeout_sec, op);
+	}
+	
+	/** does the operation on each host, using up to max_parallel_hosts threads. returns once the operation has
+	 * finished or timed out on every host.
+	 * 
+	 * If the operation doesn't stop when it times out (when its thread is interrupted), it is left running in
+	 * the background and its result is ignored.
+	 * 
+	 * @param max_parallel_hosts - 1 = sequential (on calling thread)
+	 * @param host_timeout_sec - max time operation may take on each host (0 = no limit). only applies if parallel
+	 * @param op
+	 * @return result of operation for each host (in the same order as the hosts in this group)
+	 */
+	public <E extends Object> List<HostResult<E>> forEachHost(int max_parallel_hosts, final int host_timeout_sec, final IHostOperation<E> op) {
+		final ArrayList<HostResult<E>> results = new ArrayList<HostResult<E>>(size());
+		for ( Host h : this )
+			results.add(new HostResult<E>(h));
+		if (max_parallel_hosts < 2 || results.size() < 2) {
+			for ( HostResult<E> r : results )
+				r.run(op, 0);
+			return results;
+		}
+		
+		final AtomicInteger thread_count = new AtomicInteger();
+		final int thread_max = Math.min(max_parallel_hosts, results.size());
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(thread_max, thread_max, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "HostGroup-"+thread_count.incrementAndGet());
+					// don't keep PFTT running for an operation that timed out and didn't stop
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		try {
+			for ( final HostResult<E> r : results ) {
+				executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							r.run(op, host_timeout_sec);
+						}
+					});
+			}
+			for ( HostResult<E> r : results )
+				r.await();
+		} catch ( InterruptedException ex ) {
+			// calling thread interrupted: stop waiting, hosts that haven't finished are reported as timed out
+			for ( HostResult<E> r : results )
+				r.timeout(null);
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+		return results;
+	} // end public List<HostResult<E>> forEachHost
+	
+	/** returns hosts the operation succeeded on @see HostResult#isSuccess */
+	public static <E extends Object> HostGroup getSucceeded(List<HostResult<E>> results) {
+		HostGroup g = new HostGroup(results.size());
+		for ( HostResult<E> r : results ) {
+			if (r.isSuccess())
+				g.add(r.getHost());
+		}
+		return g;
+	}
+	
+	/** returns hosts the operation failed, threw an exception or timed out on */
+	public static <E extends Object> HostGroup getFailed(List<HostResult<E>> results) {
+		HostGroup g = new HostGroup(results.size());
+		for ( HostResult<E> r : results ) {
+			if (!r.isSuccess())
+				g.add(r.getHost());
+		}
+		return g;
+	}
+	
+	/** does operation on every host and checks that it returned TRUE on every host.
+	 * 
+	 * if sequential, stops at first host that returns FALSE or throws an exception. if parallel, does
+	 * operation on all hosts and then throws the first exception (if any).
+	 * 
+	 * @param op
+	 * @return
+	 * @throws Exception
+	 */
+	protected boolean allHosts(IHostOperation<Boolean> op) throws Exception {
+		if (!isParallel()) {
+			for (Host h : this) {
+				if (!op.run(h))
+					return false;
+			}
+			return true;
+		}
+		boolean all = true;
+		for ( HostResult<Boolean> r : forEachHost(op) ) {
+			if (r.getException()!=null) {
+				if (r.getException() instanceof Exception)
+					throw (Exception) r.getException();
+				else
+					throw new Exception(r.getException());
+			}
+			if (!r.isSuccess())
+				all = false;
+		}
+		return all;
+	}
+	
+	/** like #allHosts for operations that may only throw IOException */
+	protected boolean allHostsIO(IHostOperation<Boolean> op) throws IOException {
+		try {
+			return allHosts(op);
+		} catch ( IOException ex ) {
+			throw ex;
+		} catch ( RuntimeException ex ) {
+			throw ex;
+		} catch ( Exception ex ) {
+			throw new IOException(ex);
+		}
+	}
+	
+	/** does operation on every host (@see #forEachHost) and passes each host's result to the collector, in order,
+	 * on the calling thread. FALSE if operation threw an exception or timed out.
+	 * 
+	 * @param op
+	 * @param c
+	 */
+	protected void collect(IHostOperation<Boolean> op, BooleanCollector c) {
+		for ( HostResult<Boolean> r : forEachHost(op) )
+			c.collect(r.getHost(), r.isSuccess());
+	}
+	
 	@Override
-	public boolean exec(ConsoleManager cm, String ctx_str, String cmd, int timeout_sec, Map<String, String> env, byte[] stdin_post, Charset charset, String current_dir) throws IllegalStateException, Exception {
-		for (Host h : this)
-			if (!h.exec(cm, ctx_str, cmd, timeout_sec, env, stdin_post, charset, current_dir))
-				return false;
-		return !isEmpty();
+	public boolean exec(final ConsoleManager cm, final String ctx_str, final String cmd, final int timeout_sec, final Map<String, String> env, final byte[] stdin_post, final Charset charset, final String current_dir) throws IllegalStateException, Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.exec(cm, ctx_str, cmd, timeout_sec, env, stdin_post, charset, current_dir);
+				}
+			}) && !isEmpty();
 	}
 	public void exec(String cmd, int timeout_sec, BooleanCollector c) {
 		exec(null, null, cmd, timeout_sec, c);
 	}
 	public void exec(ConsoleManager cm, String ctx_str, String cmd, int timeout_sec, BooleanCollector c) {
-		exec(cm, ctx_str, cmd, timeout_sec, c);
+		exec(cm, ctx_str, cmd, timeout_sec, null, null, null, null, c);
 	}
-	public void exec(ConsoleManager cm, String ctx_str, String cmd, int timeout_sec, Map<String, String> env, byte[] stdin_post, Charset charset, String current_dir, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.exec(cm, ctx_str, cmd, timeout_sec, env, stdin_post, charset, current_dir));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
+	public void exec(final ConsoleManager cm, final String ctx_str, final String cmd, final int timeout_sec, final Map<String, String> env, final byte[] stdin_post, final Charset charset, final String current_dir, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.exec(cm, ctx_str, cmd, timeout_sec, env, stdin_post, charset, current_dir);
+				}
+			}, c);
 	}
 	
 	@Override
-	public boolean exec(ConsoleManager cm, String ctx_str, String commandline, int timeout, Map<String, String> env, byte[] stdin, Charset charset, String chdir, TestPackRunnerThread thread, int thread_slow_sec) throws Exception {
-		for (Host h : this)
-			if (!h.exec(cm, ctx_str, commandline, timeout, env, stdin, charset, chdir, thread, thread_slow_sec))
-				return false;
-		return !isEmpty();
+	public boolean exec(final ConsoleManager cm, final String ctx_str, final String commandline, final int timeout, final Map<String, String> env, final byte[] stdin, final Charset charset, final String chdir, final TestPackRunnerThread thread, final int thread_slow_sec) throws Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.exec(cm, ctx_str, commandline, timeout, env, stdin, charset, chdir, thread, thread_slow_sec);
+				}
+			}) && !isEmpty();
 	}
 	
 	@Override
-	public boolean execElevated(ConsoleManager cm, String ctx_str, String cmd, int timeout_sec, Map<String, String> env, byte[] stdin_data, Charset charset, String chdir, TestPackRunnerThread test_thread, int slow_timeout_sec) throws Exception {
-		for (Host h : this)
-			if (!h.execElevated(cm, ctx_str, cmd, timeout_sec, env, stdin_data, charset, chdir, test_thread, slow_timeout_sec))
-				return false;
-		return !isEmpty();
+	public boolean execElevated(final ConsoleManager cm, final String ctx_str, final String cmd, final int timeout_sec, final Map<String, String> env, final byte[] stdin_data, final Charset charset, final String chdir, final TestPackRunnerThread test_thread, final int slow_timeout_sec) throws Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.execElevated(cm, ctx_str, cmd, timeout_sec, env, stdin_data, charset, chdir, test_thread, slow_timeout_sec);
+				}
+			}) && !isEmpty();
 	}
 	public void execElevated(String cmd, int timeout_sec, BooleanCollector c) {
 		execElevated(null, null, cmd, timeout_sec, c);
 	}
 	public void execElevated(ConsoleManager cm, String ctx_str, String cmd, int timeout_sec, BooleanCollector c) {
-		execElevated(cm, ctx_str, cmd, timeout_sec, c);
+		execElevated(cm, ctx_str, cmd, timeout_sec, null, null, null, null, null, FOUR_HOURS, c);
 	}
-	public void execElevated(ConsoleManager cm, String ctx_str, String cmd, int timeout_sec, Map<String, String> env, byte[] stdin_data, Charset charset, String chdir, TestPackRunnerThread test_thread, int slow_timeout_sec, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.execElevated(cm, ctx_str, cmd, timeout_sec, env, stdin_data, charset, chdir, test_thread, slow_timeout_sec));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
+	public void execElevated(final ConsoleManager cm, final String ctx_str, final String cmd, final int timeout_sec, final Map<String, String> env, final byte[] stdin_data, final Charset charset, final String chdir, final TestPackRunnerThread test_thread, final int slow_timeout_sec, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.execElevated(cm, ctx_str, cmd, timeout_sec, env, stdin_data, charset, chdir, test_thread, slow_timeout_sec);
+				}
+			}, c);
 	}
 	
 	@Override
@@ -135,178 +417,180 @@ public class HostGroup extends Host implements List<Host> {
 		return g;
 	}
 	@Override
-	public boolean cmd(String cmd, int timeout_sec, Map<String, String> env, byte[] stdin_data, Charset charset, String current_dir) throws IllegalStateException, Exception {
-		for (Host h : this)
-			if (!h.cmd(cmd, timeout_sec, env, stdin_data, charset, current_dir))
-				return false;
-		return !isEmpty();
+	public boolean cmd(final String cmd, final int timeout_sec, final Map<String, String> env, final byte[] stdin_data, final Charset charset, final String current_dir) throws IllegalStateException, Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.cmd(cmd, timeout_sec, env, stdin_data, charset, current_dir);
+				}
+			}) && !isEmpty();
 	}
 	public void cmd(String cmd, int timeout_sec, BooleanCollector c) {
-		cmd(cmd, timeout_sec, c);
+		cmd(cmd, timeout_sec, null, null, null, null, c);
 	}
-	public void cmd(String cmd, int timeout_sec, Map<String, String> env, byte[] stdin_data, Charset charset, String current_dir, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.cmd(cmd, timeout_sec, env, stdin_data, charset, current_dir));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
+	public void cmd(final String cmd, final int timeout_sec, final Map<String, String> env, final byte[] stdin_data, final Charset charset, final String current_dir, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.cmd(cmd, timeout_sec, env, stdin_data, charset, current_dir);
+				}
+			}, c);
 	}
 	@Override
-	public boolean cmdElevated(String cmd, int timeout_sec, Map<String, String> env, byte[] stdin_data, Charset charset, String current_dir) throws IllegalStateException, Exception {
-		for (Host h : this)
-			if (!h.cmdElevated(cmd, timeout_sec, env, stdin_data, charset, current_dir))
-				return false;
-		return !isEmpty();
+	public boolean cmdElevated(final String cmd, final int timeout_sec, final Map<String, String> env, final byte[] stdin_data, final Charset charset, final String current_dir) throws IllegalStateException, Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.cmdElevated(cmd, timeout_sec, env, stdin_data, charset, current_dir);
+				}
+			}) && !isEmpty();
 	}
 	public void cmdElevated(String cmd, int timeout_sec, BooleanCollector c) {
-		cmdElevated(cmd, timeout_sec, c);
-	}
-	public void cmdElevated(String cmd, int timeout_sec, Map<String, String> env, byte[] stdin_data, Charset charset, String current_dir, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.cmdElevated(cmd, timeout_sec, env, stdin_data, charset, current_dir));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
-	}
-	@Override
-	public boolean mSaveTextFile(String path, String string) throws IllegalStateException, IOException {
-		for (Host h : this) {
-			if (!h.mSaveTextFile(path, string))
-				return false;
-		}
-		return true;
-	}
-	public void saveTextFile(String path, String string, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.mSaveTextFile(path, string));
-			} catch ( Throwable t ) {
-				c.collect(h, false);
-			}
-		}
-	}
-	@Override
-	public boolean mSaveTextFile(String filename, String text, CharsetEncoder ce) throws IllegalStateException, IOException {
-		for (Host h : this) {
-			if (!h.mSaveTextFile(filename, text, ce))
-				return false;
-		}
-		return true;
-	}
-	public void saveTextFile(String filename, String text, CharsetEncoder ce, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.mSaveTextFile(filename, text, ce));
-			} catch ( Throwable t ) {
-				c.collect(h, false);
-			}
-		}
-	}
-	@Override
-	public boolean mDelete(String file) throws IllegalStateException, IOException {
-		for (Host h : this) {
-			if (!h.mDelete(file))
-				return false;
-		}
-		return true;
-	}
-	public void delete(String file, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.mDelete(file));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
-	}
-	@Override
-	public boolean mDeleteElevated(String file) throws IllegalStateException, IOException {
-		for (Host h : this) {
-			if (!h.mDeleteElevated(file))
-				return false;
-		}
-		return true;
-	}
-	public void deleteElevated(String file, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.mDeleteElevated(file));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
-	}
-	@Override
-	public boolean mCopy(String src, String dst) throws IllegalStateException, Exception {
-		for (Host h : this) {
-			if (!h.mCopy(src, dst))
-				return false;
-		}
-		return true;
-	}
-	public void copy(String src, String dst, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.mCopy(src, dst));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
-	}
-	@Override
-	public boolean mCopyElevated(String src, String dst) throws IllegalStateException, Exception {
-		for (Host h : this) {
-			if (!h.mCopyElevated(src, dst))
-				return false;
-		}
-		return true;
-	}
-	public void copyElevated(String src, String dst, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.mCopyElevated(src, dst));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
-	}
-	@Override
-	public boolean mMove(String src, String dst) throws IllegalStateException, Exception {
-		for (Host h : this) {
-			if (!h.mMove(src, dst))
-				return false;
-		}
-		return true;
-	}
-	public void move(String src, String dst, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.mMove(src, dst));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
-	}
-	@Override
-	public boolean mMoveElevated(String src, String dst) throws IllegalStateException, Exception {
-		for (Host h : this) {
-			if (!h.mMoveElevated(src, dst))
-				return false;
-		}
-		return true;
-	}
-	public void moveElevated(String src, String dst, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.mMoveElevated(src, dst));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
+		cmdElevated(cmd, timeout_sec, null, null, null, null, c);
+	}
+	public void cmdElevated(final String cmd, final int timeout_sec, final Map<String, String> env, final byte[] stdin_data, final Charset charset, final String current_dir, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.cmdElevated(cmd, timeout_sec, env, stdin_data, charset, current_dir);
+				}
+			}, c);
+	}
+	@Override
+	public boolean mSaveTextFile(final String path, final String string) throws IllegalStateException, IOException {
+		return allHostsIO(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mSaveTextFile(path, string);
+				}
+			});
+	}
+	public void saveTextFile(final String path, final String string, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mSaveTextFile(path, string);
+				}
+			}, c);
+	}
+	@Override
+	public boolean mSaveTextFile(final String filename, final String text, final CharsetEncoder ce) throws IllegalStateException, IOException {
+		return allHostsIO(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mSaveTextFile(filename, text, ce);
+				}
+			});
+	}
+	public void saveTextFile(final String filename, final String text, final CharsetEncoder ce, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mSaveTextFile(filename, text, ce);
+				}
+			}, c);
+	}
+	@Override
+	public boolean mDelete(final String file) throws IllegalStateException, IOException {
+		return allHostsIO(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mDelete(file);
+				}
+			});
+	}
+	public void delete(final String file, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mDelete(file);
+				}
+			}, c);
+	}
+	@Override
+	public boolean mDeleteElevated(final String file) throws IllegalStateException, IOException {
+		return allHostsIO(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mDeleteElevated(file);
+				}
+			});
+	}
+	public void deleteElevated(final String file, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mDeleteElevated(file);
+				}
+			}, c);
+	}
+	@Override
+	public boolean mCopy(final String src, final String dst) throws IllegalStateException, Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mCopy(src, dst);
+				}
+			});
+	}
+	public void copy(final String src, final String dst, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mCopy(src, dst);
+				}
+			}, c);
+	}
+	@Override
+	public boolean mCopyElevated(final String src, final String dst) throws IllegalStateException, Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mCopyElevated(src, dst);
+				}
+			});
+	}
+	public void copyElevated(final String src, final String dst, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mCopyElevated(src, dst);
+				}
+			}, c);
+	}
+	@Override
+	public boolean mMove(final String src, final String dst) throws IllegalStateException, Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mMove(src, dst);
+				}
+			});
+	}
+	public void move(final String src, final String dst, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mMove(src, dst);
+				}
+			}, c);
+	}
+	@Override
+	public boolean mMoveElevated(final String src, final String dst) throws IllegalStateException, Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mMoveElevated(src, dst);
+				}
+			});
+	}
+	public void moveElevated(final String src, final String dst, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mMoveElevated(src, dst);
+				}
+			}, c);
 	}
 	@Override
 	public String mDirSeparator() {
@@ -447,21 +731,21 @@ public class HostGroup extends Host implements List<Host> {
 		return g;
 	}
 	@Override
-	public boolean mCreateDirs(String path) throws IllegalStateException, IOException {
-		for (Host h : this) {
-			if (!h.mCreateDirs(path))
-				return false;
-		}
-		return true;
+	public boolean mCreateDirs(final String path) throws IllegalStateException, IOException {
+		return allHostsIO(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mCreateDirs(path);
+				}
+			});
 	}
-	public void mkdirs(String path, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.mCreateDirs(path));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
+	public void mkdirs(final String path, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.mCreateDirs(path);
+				}
+			}, c);
 	}
 	@Override
 	public String mPathsSeparator() {
@@ -530,21 +814,21 @@ public class HostGroup extends Host implements List<Host> {
 		return g;
 	}
 	@Override
-	public boolean upload(String local_file, String remote_file) throws IllegalStateException, IOException, Exception {
-		for (Host h : this) {
-			if (!h.upload(local_file, remote_file))
-				return false;
-		}
-		return true;
+	public boolean upload(final String local_file, final String remote_file) throws IllegalStateException, IOException, Exception {
+		return allHosts(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.upload(local_file, remote_file);
+				}
+			});
 	}
-	public void upload(String local_file, String remote_file, BooleanCollector c) {
-		for (Host h : this) {
-			try {
-				c.collect(h, h.upload(local_file, remote_file));
-			} catch (Throwable t) {
-				c.collect(h, false);
-			}
-		}
+	public void upload(final String local_file, final String remote_file, BooleanCollector c) {
+		collect(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.upload(local_file, remote_file);
+				}
+			}, c);
 	}
 	@Override
 	public String getSystemRoot() {
@@ -663,11 +947,19 @@ public class HostGroup extends Host implements List<Host> {
 			c.collect(h, h.getPfttDir());
 	}
 	@Override
-	public boolean unzip(ConsoleManager cm, String zip_file, String app_dir) {
-		for (Host h : this)
-			if (!h.unzip(cm, zip_file, app_dir))
-				return false;
-		return !isEmpty();
+	public boolean unzip(final ConsoleManager cm, final String zip_file, final String app_dir) {
+		if (!isParallel()) {
+			for (Host h : this)
+				if (!h.unzip(cm, zip_file, app_dir))
+					return false;
+			return !isEmpty();
+		}
+		return getFailed(forEachHost(new IHostOperation<Boolean>() {
+				@Override
+				public Boolean run(Host h) throws Exception {
+					return h.unzip(cm, zip_file, app_dir);
+				}
+			})).isEmpty() && !isEmpty();
 	}
 	@Override
 	public boolean isVistaOrBefore() {
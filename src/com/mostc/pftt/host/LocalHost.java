@@ -1,5 +1,6 @@
 package com.mostc.pftt.host;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -8,6 +9,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.ref.SoftReference;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
@@ -33,11 +36,11 @@ import java.util.regex.Pattern;
 
 import org.jvnet.winp.WinProcess;
 
-import com.github.mattficken.io.AbstractDetectingCharsetReader;
 import com.github.mattficken.io.ArrayUtil;
 import com.github.mattficken.io.ByLineReader;
 import com.github.mattficken.io.CharsetByLineReader;
 import com.github.mattficken.io.CharsetDeciderDecoder;
+import com.github.mattficken.io.CharsetRec;
 import com.github.mattficken.io.DefaultCharsetDeciderDecoder;
 import com.github.mattficken.io.IOUtil;
 import com.github.mattficken.io.MultiCharsetByLineReader;
@@ -47,10 +50,13 @@ import com.mostc.pftt.main.PfttMain;
 import com.mostc.pftt.model.core.PhptTestCase;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.results.EPhptPhase;
 import com.mostc.pftt.results.EPrintType;
+import com.mostc.pftt.results.PhptTimings;
 import com.mostc.pftt.runner.AbstractTestPackRunner.TestPackRunnerThread;
 import com.mostc.pftt.scenario.FileSystemScenario;
 import com.mostc.pftt.scenario.FileSystemScenario.IFileChooser;
+import com.mostc.pftt.util.CaptureBuffer;
 import com.mostc.pftt.util.TimerUtil;
 import com.mostc.pftt.util.TimerUtil.ObjectRunnable;
 import com.mostc.pftt.util.TimerUtil.TimerThread;
@@ -290,6 +296,8 @@ public abstract class LocalHost extends AHost {
 		out.output = output_sb.toString();
 		out.charset = eh.charset;
 		out.exit_code = eh.getExitCode();
+		out.wall_time_millis = eh.getWallTimeMillis();
+		out.cpu_time_millis = eh.getCpuTimeMillis();
 		
 		return out;	
 	}
@@ -350,6 +358,12 @@ public abstract class LocalHost extends AHost {
 		return System.getProperty("user.name");
 	}
 	
+	/** returns CPU time used by the current thread so far, or -1 if JVM can't measure it */
+	protected static long getThreadCpuTime() {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		return mx.isCurrentThreadCpuTimeSupported() ? mx.getCurrentThreadCpuTime() : -1;
+	}
+	
 	protected static final UncaughtExceptionHandler  IGNORE_EXCEPTION_HANDLER = new UncaughtExceptionHandler () {
 			@Override
 			public void uncaughtException(Thread arg0, Throwable arg1) {
@@ -364,6 +378,8 @@ public abstract class LocalHost extends AHost {
 		protected String image_name;
 		protected Charset charset;
 		protected final AtomicBoolean wait = new AtomicBoolean(true), timedout = new AtomicBoolean(false);
+		protected final long start_nanos = System.nanoTime();
+		protected long wall_nanos = -1, cpu_nanos = -1;
 		
 		public LocalExecHandle(Process process, OutputStream stdin, InputStream stdout, InputStream stderr, String[] cmd_array) {
 			this.process = new AtomicReference<Process>(process);
@@ -454,9 +470,7 @@ public abstract class LocalHost extends AHost {
 							tlock.notifyAll();
 						}
 						
-						// encourage JVM to free up the Windows process handle (may have problems if too many are left open too long)
 						process.set(null);
-						System.gc();
 					} // end public void run
 				});
 		} // end public void close
@@ -467,44 +481,20 @@ public abstract class LocalHost extends AHost {
 			final Process p = process.get();
 			if (p==null)
 				return;
+			final long cpu_start = getThreadCpuTime();
 			runSuspend(p, suspend_seconds);
 			
 			// read process' output (block until #close or exit)
 			exec_copy_lines(output_sb, max_chars, stdout, charset);
 			// ignores STDERR
-			for(;;) {
-				if (!doIsRunning(p))
-					break;
-				Thread.sleep(50);
-			}
-			// wait for process exit (shouldn't get here until exit or #close though)
-			/*for (int time = 50;wait.get();) {
-				try {
-					exit_code = p.exitValue();
-					break;
-				} catch ( IllegalThreadStateException ex ) {}
-				try {
-					Thread.sleep(time);
-				} catch ( InterruptedException ex ) {
-					break;
-				}
-				time *= 2; // wait longer next time
-				if (time>=400) {
-					if (run.get()) {
-						// limit max growth of time between checking `wait`
-						time = 50; // 50 100 200 400
-					} else {
-						// #close has now been called, but may not have
-						// finished yet (`wait` may still be true)
-						//
-						// waited long enough (750ms) anyway though, since #close
-						// will terminate the process eventually, return control to
-						// code that originally called #exec or #execThread
-						break;
-					}
-				}
-			}*/
-			//
+			
+			// block until process exits (or #close terminates it) rather than polling #doIsRunning,
+			// which costs at least 1 sleep per process
+			exit_code = p.waitFor();
+			
+			wall_nanos = System.nanoTime() - start_nanos;
+			if (cpu_start!=-1)
+				cpu_nanos = getThreadCpuTime() - cpu_start;
 			
 			active_proc_counter.decrementAndGet();
 			
@@ -515,37 +505,131 @@ public abstract class LocalHost extends AHost {
 				ensureClosedAfterRun(p);
 			}
 			
-			// encourage JVM to free up the Windows process handle (may have problems if too many are left open too long)
+			// close the process' pipes now instead of waiting for GC to (Windows may have problems if too
+			// many handles are left open too long)
+			closeStreams(p);
 			process.set(null);
-			System.gc();
 		} // end protected void run
 		
+		/** waits for process to exit and returns its exit code.
+		 * 
+		 * For processes whose STDIN and STDOUT are used directly (@see #getSTDIN @see #getSTDOUT) instead of
+		 * calling #run (which waits for the process itself).
+		 * 
+		 * @return
+		 * @throws InterruptedException
+		 */
+		public int waitForExit() throws InterruptedException {
+			final Process p = process.get();
+			if (p==null)
+				// already exited or #close'd
+				return exit_code;
+			exit_code = p.waitFor();
+			
+			wall_nanos = System.nanoTime() - start_nanos;
+			
+			active_proc_counter.decrementAndGet();
+			
+			if (process.get()!=null) {
+				ensureClosedAfterRun(p);
+			}
+			closeStreams(p);
+			process.set(null);
+			return exit_code;
+		} // end public int waitForExit
+		
 		protected abstract void ensureClosedAfterRun(Process p);
+		
+		protected void closeStreams(Process p) {
+			try {
+				p.getOutputStream().close();
+			} catch ( IOException ex ) {}
+			try {
+				p.getInputStream().close();
+			} catch ( IOException ex ) {}
+			try {
+				p.getErrorStream().close();
+			} catch ( IOException ex ) {}
+		}
+		
+		/** returns time from starting the process until it exited, or -1 if it hasn't been run yet
+		 * 
+		 * @return
+		 */
+		public long getWallTimeMillis() {
+			return wall_nanos == -1 ? -1 : wall_nanos / 1000000L;
+		}
+		
+		/** returns CPU time PFTT spent running the process (starting it, reading its output and waiting for it to exit),
+		 * not CPU time the process itself used. -1 if not known
+		 * 
+		 * @return
+		 */
+		public long getCpuTimeMillis() {
+			return cpu_nanos == -1 ? -1 : cpu_nanos / 1000000L;
+		}
 				
 		protected abstract void exec_copy_lines(final StringBuilder sb, final int max_chars, final InputStream in, final Charset charset) throws IOException;
 		
+		/** reads process output in bulk. output is only decoded line by line (detecting the charset of each line)
+		 * if it isn't plain ASCII, which most output is.
+		 * 
+		 * Output is the same as reading it with a ByLineReader: \r\n becomes \n, and a \n is added to the end.
+		 * 
+		 * @param sb
+		 * @param max_chars - stop reading after this much output
+		 * @param in
+		 * @param charset - if null, don't decode output (just widen each byte)
+		 * @throws IOException
+		 */
 		protected void do_exec_copy_lines(StringBuilder sb, int max_chars, InputStream in, Charset charset) throws IOException {
-			DefaultCharsetDeciderDecoder d = charset == null ? null : PhptTestCase.newCharsetDeciderDecoder();
-			ByLineReader reader = charset == null ? new NoCharsetByLineReader(new java.io.BufferedInputStream(in)) : new MultiCharsetByLineReader(in, d);
-			String line;
+			// read into pooled chunks (large output is spilled to a temp file) instead of a byte[] that keeps doubling
+			final CaptureBuffer capture = new CaptureBuffer();
 			try {
-				while (reader.hasMoreLines()&&wait.get()&&(max_chars<1||sb.length()<max_chars)) {
-					line = reader.readLine();
-					if (line==null)
-						break;
-					sb.append(line);
+				try {
+					while (wait.get()&&(max_chars<1||sb.length()+capture.size()<max_chars)) {
+						if (capture.read(in)==-1)
+							break;
+					}
+				} catch ( IOException ex ) {
+					ConsoleManagerUtil.printStackTrace(LocalHost.class, ex);
+				}
+				
+				in.close();
+				
+				// @see EPhptPhase#DECODE - only recorded if this thread is running PHPTs
+				final PhptTimings timings = PhptTimings.current();
+				final long decode_start = timings.start();
+				if (charset == null || capture.isAscii()) {
+					capture.appendTo(sb);
 					sb.append('\n');
+					if (charset != null)
+						this.charset = CharsetRec.US_ASCII;
+				} else {
+					// decode by line like before
+					DefaultCharsetDeciderDecoder d = PhptTestCase.newCharsetDeciderDecoder();
+					InputStream captured = capture.getInputStream();
+					try {
+						MultiCharsetByLineReader reader = new MultiCharsetByLineReader(captured, d);
+						String line;
+						while (reader.hasMoreLines()) {
+							line = reader.readLine();
+							if (line==null)
+								break;
+							sb.append(line);
+							sb.append('\n');
+						}
+						this.charset = reader.cs;// TODO d.getCommonCharset();
+					} finally {
+						captured.close();
+					}
 				}
-			} catch ( IOException ex ) {
-				ConsoleManagerUtil.printStackTrace(LocalHost.class, ex);
+				timings.end(EPhptPhase.DECODE, decode_start);
+			} finally {
+				capture.close();
 			}
-			
-			in.close();
-			
-			if (reader instanceof AbstractDetectingCharsetReader)
-				this.charset = ((AbstractDetectingCharsetReader)reader).cs;// TODO d.getCommonCharset();
-		}
-
+		} // end protected void do_exec_copy_lines
+		
 		@Override
 		public String getOutput(int max_len)  throws IOException {
 			return IOUtil.toString(getSTDOUT(), max_len);
@@ -669,6 +753,9 @@ public abstract class LocalHost extends AHost {
 	protected abstract Process handleExecImplException(Exception ex, ProcessBuilder builder) throws InterruptedException, Exception;
 	
 	protected LocalExecHandle exec_impl(String[] cmd_array, Map<String,String> env, String chdir, byte[] stdin_data) throws Exception, InterruptedException {
+		// @see EPhptPhase#SPAWN - only recorded if this thread is running PHPTs
+		final PhptTimings timings = PhptTimings.current();
+		final long spawn_start = timings.start();
 		Process process = null;
 		{
 			ProcessBuilder builder = new ProcessBuilder(cmd_array);
@@ -717,6 +804,8 @@ public abstract class LocalHost extends AHost {
 		
 		InputStream stdout = process.getInputStream();
 		InputStream stderr = process.getErrorStream();
+		
+		timings.end(EPhptPhase.SPAWN, spawn_start);
 
 		return createLocalExecHandle(process, stdin, stdout, stderr, cmd_array);
 	} // end protected LocalExecHandle exec_impl
@@ -585,4 +585,19 @@ public abstract class PSCAgentServer implements ConsoleManager, ITestResultRecei
 		return null;
 	}
 	
+	@Override
+	public boolean isCompactResults() {
+		return false;
+	}
+	
+	@Override
+	public boolean isNoSkipIfCache() {
+		return false;
+	}
+	
+	@Override
+	public boolean isExpectFDiff() {
+		return false;
+	}
+	
 } // end public abstract class PSCAgentServer
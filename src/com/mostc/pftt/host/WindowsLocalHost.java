@@ -167,13 +167,12 @@ public class WindowsLocalHost extends LocalHost {
 			 		it might be still to check whether no additional thread handling is required. Possibly no separate thread
 			 		is required at all with newer Java. */
 			while (wait.get()) {
-				//synchronized(run) {
-					try {
-						//run.wait(30000);
-						Thread.sleep(300);
-					} catch ( InterruptedException ex ) {}
-				//}
-				if (!copy_thread_lock.get()) {
+				try {
+					// returns as soon as copy thread is done (don't sleep a fixed time)
+					// check #wait every 300ms in case #close was called
+					copy_thread.join(300);
+				} catch ( InterruptedException ex ) {}
+				if (!copy_thread_lock.get() || !copy_thread.isAlive()) {
 					// stopped normally
 					break;
 				}
@@ -15,6 +15,9 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.varia.NullAppender;
@@ -27,6 +30,9 @@ import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.host.ExecOutput;
 import com.mostc.pftt.host.Host;
+import com.mostc.pftt.host.HostGroup;
+import com.mostc.pftt.host.HostGroup.HostResult;
+import com.mostc.pftt.host.HostGroup.IHostOperation;
 import com.mostc.pftt.host.LocalHost;
 import com.mostc.pftt.main.CmpReport.IRecvr;
 import com.mostc.pftt.main.CmpReport.Verify;
@@ -52,16 +58,19 @@ import com.mostc.pftt.model.smoke.TempDirWritableSmokeTest;
 import com.mostc.pftt.model.ui.EUITestExecutionStyle;
 import com.mostc.pftt.model.ui.UITestPack;
 import com.mostc.pftt.model.ui.UITestRunner;
+import com.mostc.pftt.results.AbstractPhptRW;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.ConsoleManagerUtil;
 import com.mostc.pftt.results.EPrintType;
 import com.mostc.pftt.results.LocalConsoleManager;
 import com.mostc.pftt.results.PhpResultPackReader;
 import com.mostc.pftt.results.PhpResultPackWriter;
+import com.mostc.pftt.results.PhptResultReader;
 import com.mostc.pftt.runner.AbstractLocalTestPackRunner;
 import com.mostc.pftt.runner.AbstractTestPackRunner.ETestPackRunnerState;
 import com.mostc.pftt.runner.LocalPhpUnitTestPackRunner;
 import com.mostc.pftt.runner.LocalPhptTestPackRunner;
+import com.mostc.pftt.runner.PhptSkipIfCache;
 import com.mostc.pftt.scenario.FileSystemScenario;
 //import com.mostc.pftt.runner.LocalSimpleTestPackRunner;
 import com.mostc.pftt.scenario.INIScenario;
@@ -374,6 +383,7 @@ public class PfttMain {
 		}
 		table.addRow("parse", "parses PHP code for analysis by configuration tasks")
 			.addRow("open", "open result-pack(s) for analysis")
+			.addRow("export_xml <result-pack>", "writes PHPT results stored with -compact_results as 1 XML file per test")
 			.addRow("report", "generate reports and optionally publish via email or qa.php.net")
 			.addRow("stop <build>", "cleans up after setup, stops web server and other services")
 			.addRow("setup <build>", "sets up scenarios from -config -- installs IIS or Apache to run PHP, etc...");
@@ -403,6 +413,7 @@ public class PfttMain {
 		System.out.println("   === Unattended Options ===");
 		table = new AlignedTable(2, 85)
 			.addRow("-no_result_file_for_pass_xskip_skip(-q)", "doesn't store all result data for PASS, SKIP or XSKIP tests")
+			.addRow("-compact_results", "stores PHPT results in a few compressed segment files instead of 1 XML file per test (less disk I/O). XML files can be exported later with `export_xml`")
 			.addRow("-disable_debug_prompt", "disables asking you if you want to debug PHP crashes (for automation. default=enabled) (alias: -debug_none)")
 			.addRow("-auto", "changes default options for automated testing (-uac -disable_debug_prompt -phpt_not_in_place)");
 		if (LocalHost.isLocalhostWindows()) {
@@ -434,7 +445,9 @@ public class PfttMain {
 			.addRow("-randomize_order", "randomizes test case run order")
 			.addRow("-skip_list <list files>", "skip tests in list (exact name)")
 			.addRow("-max_test_read_count <N>", "maximum number of tests to read (without other options, this will be the number of tests run also... tests are normally only run once)")
-			.addRow("-skip_name <test name,name 2, name 3>", "skip tests in COMMA separated list"));
+			.addRow("-skip_name <test name,name 2, name 3>", "skip tests in COMMA separated list")
+			.addRow("-no_skipif_cache", "runs all SKIPIF sections instead of using their output from previous runs of the same build and scenario set")
+			.addRow("-expectf_diff", "matches every EXPECTF section with both the fast EXPECTF matcher and the regular expression matcher and reports any test where they would give different results (GLOBAL_EXCEPTIONS.txt)"));
 		System.out.println();
 		System.out.println("   === Test Times ===");
 		System.out.println(new AlignedTable(2, 85)
@@ -693,18 +706,9 @@ public class PfttMain {
 				//break;
 			for ( ScenarioSet scenario_set : getScenarioSets(config, EScenarioSetPermutationLayer.FUNCTIONAL_TEST_CORE) ) {
 				//
-				for ( AHost storage_host : hosts ) {
-					LocalPhptTestPackRunner test_pack_runner = new LocalPhptTestPackRunner(tmgr.getConsoleManager(), tmgr, scenario_set, build, storage_host, host, config);
-					cm.showGUI(test_pack_runner);
-					if (!cm.isNonInteractive())
-						interactive(run_flag, test_pack_runner);
-					
-					test_pack_runner.runAllTests(config, test_pack);
-				
-					tmgr.notifyPhptFinished(host, test_pack_runner.getScenarioSetSetup(), test_pack);
-					if (!run_flag.get())
-						return;
-				}
+				runPhptOnHosts(hosts, scenario_set, build, test_pack, config, tmgr, run_flag, null);
+				if (!run_flag.get())
+					return;
 				
 				//
 				{
@@ -751,18 +755,9 @@ public class PfttMain {
 				test_pack.read(config, test_cases, names, tmgr.getConsoleManager(), tmgr, build, true, SAPIScenario.getSAPIScenario(scenario_set)); // TODO true?
 				cm.println(EPrintType.IN_PROGRESS, "PhptSourceTestPack", "enumerated test cases.");
 				
-				for ( AHost storage_host : hosts ) {
-					LocalPhptTestPackRunner test_pack_runner = new LocalPhptTestPackRunner(tmgr.getConsoleManager(), tmgr, scenario_set, build, storage_host, host, config);
-					if (!cm.isNonInteractive())
-						interactive(run_flag, test_pack_runner);
-					cm.showGUI(test_pack_runner);
-					
-					test_pack_runner.runTestList(test_pack, test_cases);
-				
-					tmgr.notifyPhptFinished(host, test_pack_runner.getScenarioSetSetup(), test_pack);
-					if (!run_flag.get())
-						return;
-				}
+				runPhptOnHosts(hosts, scenario_set, build, test_pack, config, tmgr, run_flag, test_cases);
+				if (!run_flag.get())
+					return;
 				
 				//
 				{
@@ -781,6 +776,89 @@ public class PfttMain {
 		}
 	} // end public void coreList
 	
+	/** runs the PHPT test-pack with each storage host. with more than 1 host, all hosts start at the same time
+	 * (@see HostGroup#forEachHost) instead of 1 after another.
+	 * 
+	 * The runners for all storage hosts write to the same PhptResultWriter, so it's only closed (@see PhpResultPackWriter#notifyPhptFinished)
+	 * once all of them have finished.
+	 * 
+	 * @param hosts - storage hosts
+	 * @param scenario_set
+	 * @param build
+	 * @param test_pack
+	 * @param config
+	 * @param tmgr
+	 * @param run_flag
+	 * @param test_cases - tests to run, or null to run all tests in test-pack
+	 * @throws Exception
+	 */
+	protected void runPhptOnHosts(List<AHost> hosts, final ScenarioSet scenario_set, final PhpBuild build, final PhptSourceTestPack test_pack, final Config config, final PhpResultPackWriter tmgr, final AtomicBoolean run_flag, List<PhptTestCase> test_cases) throws Exception {
+		if (hosts.size()==1) {
+			ScenarioSetSetup scenario_set_setup = runPhpt(hosts.get(0), scenario_set, build, test_pack, config, tmgr, run_flag, null, test_cases);
+			if (scenario_set_setup!=null)
+				tmgr.notifyPhptFinished(host, scenario_set_setup, test_pack);
+			return;
+		}
+		if (test_cases==null) {
+			// read test-pack once here, instead of on each host's thread at the same time (reading isn't thread-safe)
+			test_cases = new ArrayList<PhptTestCase>(13000);
+			test_pack.cleanup(cm);
+			cm.println(EPrintType.IN_PROGRESS, "PhptSourceTestPack", "enumerating test cases from test-pack...");
+			test_pack.read(config, test_cases, tmgr.getConsoleManager(), tmgr, build, SAPIScenario.getSAPIScenario(scenario_set));
+			cm.println(EPrintType.IN_PROGRESS, "PhptSourceTestPack", "enumerated test cases.");
+		}
+		final List<PhptTestCase> all_test_cases = test_cases;
+		// all runners run SKIPIFs on this host with the same build and scenario set, so they use the same cache file
+		final AtomicReference<PhptSkipIfCache> skipif_cache = new AtomicReference<PhptSkipIfCache>();
+		
+		HostGroup group = new HostGroup(hosts.size());
+		group.addAll(hosts);
+		group.setParallel(hosts.size());
+		ScenarioSetSetup scenario_set_setup = null;
+		for ( HostResult<ScenarioSetSetup> r : group.forEachHost(new IHostOperation<ScenarioSetSetup>() {
+				@Override
+				public ScenarioSetSetup run(Host storage_host) throws Exception {
+					// copy: each runner groups and sorts its list of tests
+					return runPhpt((AHost)storage_host, scenario_set, build, test_pack, config, tmgr, run_flag, skipif_cache, new ArrayList<PhptTestCase>(all_test_cases));
+				}
+			})) {
+			if (r.getException()!=null)
+				cm.addGlobalException(EPrintType.CANT_CONTINUE, getClass(), "runPhptOnHosts", r.getException(), "Test run failed with storage host", r.getHost());
+			else if (scenario_set_setup==null)
+				scenario_set_setup = r.getResult();
+		}
+		// all runners are done with the writer now
+		if (scenario_set_setup!=null)
+			tmgr.notifyPhptFinished(host, scenario_set_setup, test_pack);
+	} // end protected void runPhptOnHosts
+	
+	/** runs the PHPT test-pack with 1 storage host. doesn't close the PhptResultWriter @see #runPhptOnHosts
+	 * 
+	 * @param skipif_cache - SKIPIF cache shared with runners for other storage hosts (@see LocalPhptTestPackRunner#shareSkipIfCache) or null
+	 * @return the ScenarioSetSetup the test-pack was run with, or null if it wasn't run
+	 */
+	@Nullable
+	protected ScenarioSetSetup runPhpt(AHost storage_host, ScenarioSet scenario_set, PhpBuild build, PhptSourceTestPack test_pack, Config config, PhpResultPackWriter tmgr, AtomicBoolean run_flag, @Nullable AtomicReference<PhptSkipIfCache> skipif_cache, List<PhptTestCase> test_cases) throws Exception {
+		if (!run_flag.get())
+			// stopped (maybe by runner for another host)
+			return null;
+		LocalPhptTestPackRunner test_pack_runner = new LocalPhptTestPackRunner(tmgr.getConsoleManager(), tmgr, scenario_set, build, storage_host, host, config);
+		// if the run is stopped while running, stop this runner too (not just the runner the user interacted with)
+		test_pack_runner.setRunFlag(run_flag);
+		if (skipif_cache!=null)
+			test_pack_runner.shareSkipIfCache(skipif_cache);
+		cm.showGUI(test_pack_runner);
+		if (!cm.isNonInteractive())
+			interactive(run_flag, test_pack_runner);
+		
+		if (test_cases==null)
+			test_pack_runner.runAllTests(config, test_pack);
+		else
+			test_pack_runner.runTestList(test_pack, test_cases);
+		
+		return test_pack_runner.getScenarioSetSetup();
+	}
+	
 	public enum ERevisionGetOption {
 		ALL,
 		BUILD_ONLY,
@@ -1354,7 +1432,7 @@ public class PfttMain {
 		
 		Config config = null;
 		String debugger_name = null;
-		boolean is_uac = false, debug = false, randomize_order = false, no_result_file_for_pass_xskip_skip = false, pftt_debug = false, show_gui = false, overwrite = false, disable_debug_prompt = false, results_only = false, dont_cleanup_test_pack = false, phpt_not_in_place = false, thread_safety = true, skip_smoke_tests = false, pause = false, restart_each_test_all = false, no_restart_all = false, ignore_unknown_option = false, ini_actual_all = false, non_interactive = false, ignore_output = false;
+		boolean is_uac = false, debug = false, randomize_order = false, no_result_file_for_pass_xskip_skip = false, pftt_debug = false, show_gui = false, overwrite = false, disable_debug_prompt = false, results_only = false, dont_cleanup_test_pack = false, phpt_not_in_place = false, thread_safety = true, skip_smoke_tests = false, pause = false, restart_each_test_all = false, no_restart_all = false, ignore_unknown_option = false, ini_actual_all = false, non_interactive = false, ignore_output = false, compact_results = false, no_skipif_cache = false, expectf_diff = false;
 		long max_run_time_millis = 0;
 		int run_test_times_all = 1, run_test_pack = 1, delay_between_ms = 0, run_test_times_list_times = 1, run_group_times_all = 1, run_group_times_list_times = 1, max_test_read_count = 0, thread_count = 0, run_count = 0, suspend_seconds = 0;
 		LinkedList<String> debug_list = new LinkedList<String>();
@@ -1457,6 +1535,12 @@ public class PfttMain {
 				no_result_file_for_pass_xskip_skip = true;
 			} else if (args[args_i].equals("-ignore_output")) {
 				ignore_output = true;
+			} else if (args[args_i].equals("-compact_results")) {
+				compact_results = true;
+			} else if (args[args_i].equals("-no_skipif_cache")) {
+				no_skipif_cache = true;
+			} else if (args[args_i].equals("-expectf_diff")) {
+				expectf_diff = true;
 			} else if (args[args_i].equals("-randomize_order")) {
 				randomize_order = true;
 			} else if (args[args_i].equals("-run_test_pack")) {
@@ -1615,7 +1699,7 @@ public class PfttMain {
 		cm = new LocalConsoleManager(source_pack, debug_pack, overwrite, debug, results_only, show_gui, disable_debug_prompt, dont_cleanup_test_pack, phpt_not_in_place, pftt_debug, no_result_file_for_pass_xskip_skip, randomize_order, run_test_times_all, run_test_pack, 
 				thread_safety, run_test_times_list_times, run_group_times_all, run_group_times_list_times, debug_list, run_test_times_list, run_group_times_list, skip_list,
 				skip_smoke_tests, max_test_read_count, thread_count, restart_each_test_all, no_restart_all, delay_between_ms,
-				run_count, suspend_seconds, ini_actual_all, max_run_time_millis, non_interactive, ignore_output, debugger_name);
+				run_count, suspend_seconds, ini_actual_all, max_run_time_millis, non_interactive, ignore_output, debugger_name, compact_results, no_skipif_cache, expectf_diff);
 		p.cm = cm;
 		int exit_code = 0;
 		
@@ -1631,6 +1715,27 @@ public class PfttMain {
 				} else if (command.equals("open")) {
 					// TODO open result-packs and process them
 					
+				} else if (command.equals("export_xml")||command.equals("exportxml")||command.equals("ex")) {
+					if (!(args.length > args_i+1)) {
+						System.err.println("User Error: must include result-pack");
+						System.out.println("usage: pftt export_xml <result-pack> [result-pack2 ...]");
+						System.exit(-255);
+						return;
+					}
+					args_i++;
+					for ( ; args_i < args.length ; args_i++) {
+						PhpResultPackReader result_pack = PhpResultPackReader.open(cm, p.host, new File(args[args_i]));
+						for ( AbstractPhptRW phpt : result_pack.getPHPT() ) {
+							if (!(phpt instanceof PhptResultReader) || !((PhptResultReader)phpt).hasCompactResults())
+								// already 1 XML file per test
+								continue;
+							// write next to the segment files, so the XSL stylesheet reference works
+							int count = ((PhptResultReader)phpt).exportXml(new File(phpt.getPath()));
+							cm.println(EPrintType.COMPLETED_OPERATION, "export_xml", "Exported "+count+" results to: "+phpt.getPath());
+						}
+						result_pack.close();
+					}
+				
 				} else if (command.equals("report")) {
 					args_i++;
 					ArrayList<PhpResultPackReader> result_packs = new ArrayList<PhpResultPackReader>(args.length-args_i);
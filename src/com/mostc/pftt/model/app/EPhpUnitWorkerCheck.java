@@ -0,0 +1,51 @@
+package com.mostc.pftt.model.app;
+
+/** global state that a PhpUnit worker checks after each test, to detect if the test changed (polluted) it.
+ *
+ * A worker runs many PhpUnitTestCases in 1 PHP process. If a test changes global state, the tests after it
+ * could get different results than they would in their own process, so the worker is replaced with a new process.
+ *
+ * Each check is a PHP expression that the worker evaluates once after loading the bootstrap and again after
+ * each test. If the values differ, the test polluted that state.
+ *
+ * Note: state that can't be checked cheaply (ex: static properties of classes, open resources) isn't checked.
+ *       PhpUnitWorkerScenario limits how many tests a worker runs to limit that.
+ *
+ * @see PhpUnitTemplate#renderWorkerTemplate - defines the pftt_worker_* functions used here
+ * @see com.mostc.pftt.scenario.PhpUnitWorkerScenario
+ *
+ */
+
+public enum EPhpUnitWorkerCheck {
+	/** names and (scalar) values of global variables */
+	GLOBALS("pftt_worker_globals()"),
+	/** values of all INI directives (ex: changed by ini_set()) */
+	INI("ini_get_all(NULL, FALSE)"),
+	/** current working directory (ex: changed by chdir()) */
+	CWD("getcwd()"),
+	/** environment variables (ex: changed by putenv()) */
+	ENV("pftt_worker_env()"),
+	INCLUDE_PATH("get_include_path()"),
+	/** default timezone (ex: changed by date_default_timezone_set()) */
+	TIMEZONE("date_default_timezone_get()"),
+	LOCALE("setlocale(LC_ALL, 0)"),
+	/** error and exception handlers (ex: set by set_error_handler() and not restored) */
+	ERROR_HANDLER("pftt_worker_handlers()"),
+	/** output buffers left open by test */
+	OUTPUT_BUFFERS("ob_get_level()");
+
+	protected final String php_code;
+
+	private EPhpUnitWorkerCheck(String php_code) {
+		this.php_code = php_code;
+	}
+
+	/** PHP expression that returns the state to compare
+	 *
+	 * @return
+	 */
+	public String getPhpCode() {
+		return php_code;
+	}
+
+} // end public enum EPhpUnitWorkerCheck
@@ -4,19 +4,32 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.github.mattficken.Overridable;
 import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.host.Host;
+import com.mostc.pftt.host.LocalHost;
 import com.mostc.pftt.main.Config;
 import com.mostc.pftt.model.ApplicationSourceTestPack;
+import com.mostc.pftt.model.app.PhpUnitTestPackIndex.TestMethod;
 import com.mostc.pftt.model.core.PhpBuild;
 import com.mostc.pftt.model.core.PhpIni;
 import com.mostc.pftt.model.core.PhpParser;
@@ -24,6 +37,7 @@ import com.mostc.pftt.model.core.PhpParser.ClassDefinition;
 import com.mostc.pftt.model.core.PhpParser.FunctionDefinition;
 import com.mostc.pftt.model.core.PhpParser.PhpScript;
 import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.ConsoleManagerUtil;
 import com.mostc.pftt.results.ITestResultReceiver;
 import com.mostc.pftt.results.PhpResultPackWriter;
 import com.mostc.pftt.scenario.FileSystemScenario;
@@ -65,6 +79,9 @@ public abstract class PhpUnitSourceTestPack extends ApplicationSourceTestPack<Ph
 	protected final ArrayList<PhpUnitDist> php_unit_dists;
 	protected final ArrayList<String> blacklist_test_names, whitelist_test_names, include_dirs, include_files;
 	protected SoftReference<ArrayList<PhpUnitTestCase>> _ref_test_cases;
+	protected PhpUnitTestPackIndex index;
+	/** number of PHP files each fork/join task reads before it stops splitting */
+	protected static final int LOAD_BATCH_SIZE = 16;
 	
 	public PhpUnitSourceTestPack() {
 		blacklist_test_names = new ArrayList<String>(3);
@@ -221,10 +238,33 @@ public abstract class PhpUnitSourceTestPack extends ApplicationSourceTestPack<Ph
 	
 	protected void doRead(SAPIScenario sapi_scenario, Config config, ConsoleManager cm, List<PhpUnitTestCase> test_cases, List<String> test_names) throws IOException {
 		final int max_read_count = cm.getMaxTestReadCount();
+		ArrayList<PhpUnitFile> php_files = new ArrayList<PhpUnitFile>(1024);
+		HashSet<String> all_file_names = new HashSet<String>(1024);
 		for (PhpUnitDist php_unit_dist : php_unit_dists) {
-			readDir(sapi_scenario, config, max_read_count, test_cases, php_unit_dist, php_unit_dist.path, test_names);
+			readDir(sapi_scenario, php_unit_dist, test_names, php_files, all_file_names);
 		}
 		
+		final PhpUnitTestPackIndex index = getIndex(cm);
+		// forget files that were deleted from the test-pack since the index was saved
+		index.retainAll(all_file_names);
+		// with -max_test_read_count, parse only as many files as needed (files may have 0 or many tests)
+		final PhpUnitFile[] files = php_files.toArray(new PhpUnitFile[php_files.size()]);
+		final int round_size = max_read_count > 0 ? Math.max(max_read_count, LOAD_BATCH_SIZE) : files.length;
+		for ( int start=0 ; start < files.length ; start += round_size ) {
+			int end = Math.min(files.length, start + round_size);
+			loadTestFiles(index, files, start, end);
+			
+			// add tests in the order they were found (Config#processPhpUnit isn't thread-safe)
+			for ( int i=start ; i < end ; i++ ) {
+				if (addTestCases(config, cm, max_read_count, files[i], test_cases))
+					break;
+			}
+			if (max_read_count > 0 && test_cases.size() >= max_read_count)
+				break;
+		}
+		
+		index.save(cm);
+		
 		// alphabetize
 		Collections.sort(test_cases, new Comparator<PhpUnitTestCase>() {
 				@Override
@@ -232,6 +272,19 @@ public abstract class PhpUnitSourceTestPack extends ApplicationSourceTestPack<Ph
 					return a.getName().compareTo(b.getName());
 				}
 			});
+	} // end protected void doRead
+	
+	/** returns the index of previously parsed PHP files from this test-pack, reading it from disk the first time.
+	 * 
+	 * @param cm
+	 * @return
+	 */
+	protected synchronized PhpUnitTestPackIndex getIndex(ConsoleManager cm) {
+		if (index==null) {
+			index = new PhpUnitTestPackIndex(PhpUnitTestPackIndex.getIndexFile(LocalHost.getInstance().getPfttDir(), getNameAndVersionString()));
+			index.load(cm);
+		}
+		return index;
 	}
 	
 	/** Many test-packs store their phpunit tests only in files that end with `Test.php`,
@@ -259,119 +312,230 @@ public abstract class PhpUnitSourceTestPack extends ApplicationSourceTestPack<Ph
 		return function_name.startsWith("test");
 	}
 	
-	/** scans for *Test.php files and reads PhpUnitTestCase(s) from them
+	/** a PHP file found while scanning the test-pack, and the methods read from it */
+	protected static class PhpUnitFile {
+		protected final PhpUnitDist php_unit_dist;
+		protected final File file;
+		protected final String rel_test_file_name, abs_test_file_name;
+		protected final long mtime, size;
+		protected List<TestMethod> methods;
+		protected Exception ex;
+		
+		protected PhpUnitFile(PhpUnitDist php_unit_dist, File file, String rel_test_file_name, String abs_test_file_name, long mtime, long size) {
+			this.php_unit_dist = php_unit_dist;
+			this.file = file;
+			this.rel_test_file_name = rel_test_file_name;
+			this.abs_test_file_name = abs_test_file_name;
+			this.mtime = mtime;
+			this.size = size;
+		}
+	}
+	
+	/** scans for *Test.php files (@see #isFileNameATest), adding the ones that match the test names
+	 * (if given), aren't blacklisted and are whitelisted (if there is a whitelist) to php_files
 	 * 
-	 * @param config
-	 * @param max_read_count - max number of test cases to read (0=unlimited)
-	 * @param test_cases
+	 * @param sapi_scenario
 	 * @param php_unit_dist
-	 * @param dir
+	 * @param test_names
+	 * @param php_files
+	 * @param all_file_names - absolute names of all *Test.php files found, even those that are filtered out (@see PhpUnitTestPackIndex#retainAll)
 	 * @throws IOException
 	 */
-	protected void readDir(SAPIScenario sapi_scenario, Config config, final int max_read_count, List<PhpUnitTestCase> test_cases, PhpUnitDist php_unit_dist, File dir, List<String> test_names) throws IOException {
-		if (max_read_count > 0 && test_cases.size() >= max_read_count)
+	protected void readDir(final SAPIScenario sapi_scenario, final PhpUnitDist php_unit_dist, final List<String> test_names, final List<PhpUnitFile> php_files, final Set<String> all_file_names) throws IOException {
+		if (!php_unit_dist.path.isDirectory())
 			return;
-		
-		File[] list_files = dir.listFiles();
-		if (list_files==null)
-			return;
-		
-		for ( File file : list_files ) {
-			if (file.isDirectory()) {
-				if (max_read_count > 0 && test_cases.size() >= max_read_count)
-					return;
-				readDir(sapi_scenario, config, max_read_count, test_cases, php_unit_dist, file, test_names);
-				if (max_read_count > 0 && test_cases.size() >= max_read_count)
-					return;
-			} else if (isFileNameATest(file.getName())) {
-				String rel_file_name = PhpUnitActiveTestPack.norm(sapi_scenario, PhpUnitTestCase.normalizeFileName(Host.pathFrom(php_unit_dist.path.getAbsolutePath(), file.getAbsolutePath())));
-				
-				String abs_file_name = PhpUnitActiveTestPack.norm(sapi_scenario, PhpUnitTestCase.normalizeFileName(file.getAbsolutePath()));
-								
-				String lc_test_file_name = rel_file_name.toLowerCase();
-				if (test_names!=null) {
-					boolean skip = true;
-					for ( String test_name : test_names ) {
-						if (lc_test_file_name.contains(test_name)) {
-							skip = false;
-							break;
+		final String dist_path = php_unit_dist.path.getAbsolutePath();
+		// file attributes come with the directory listing (at least on Windows), so this is only 1 system call per directory
+		Files.walkFileTree(php_unit_dist.path.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+					if (attrs.isDirectory())
+						// loop of symlinks(junctions)
+						return FileVisitResult.CONTINUE;
+					File file = path.toFile();
+					if (!isFileNameATest(file.getName()))
+						return FileVisitResult.CONTINUE;
+					
+					String rel_file_name = PhpUnitActiveTestPack.norm(sapi_scenario, PhpUnitTestCase.normalizeFileName(Host.pathFrom(dist_path, file.getAbsolutePath())));
+					
+					String abs_file_name = PhpUnitActiveTestPack.norm(sapi_scenario, PhpUnitTestCase.normalizeFileName(file.getAbsolutePath()));
+					all_file_names.add(abs_file_name);
+					
+					String lc_test_file_name = rel_file_name.toLowerCase();
+					if (test_names!=null) {
+						boolean skip = true;
+						for ( String test_name : test_names ) {
+							if (lc_test_file_name.contains(test_name)) {
+								skip = false;
+								break;
+							}
 						}
+						if (skip)
+							return FileVisitResult.CONTINUE;
 					}
-					if (skip)
-						continue;
+					if (blacklist_test_names.contains(lc_test_file_name))
+						return FileVisitResult.CONTINUE;
+					else if (!whitelist_test_names.isEmpty() && !whitelist_test_names.contains(lc_test_file_name))
+						return FileVisitResult.CONTINUE;
+					
+					php_files.add(new PhpUnitFile(php_unit_dist, file, rel_file_name, abs_file_name, attrs.lastModifiedTime().toMillis(), attrs.size()));
+					
+					return FileVisitResult.CONTINUE;
 				}
-				if (blacklist_test_names.contains(lc_test_file_name))
-					continue;
-				else if (!whitelist_test_names.isEmpty() && !whitelist_test_names.contains(lc_test_file_name))
-					continue;
-				
-				readTestFile(config, max_read_count, rel_file_name, abs_file_name, php_unit_dist, test_cases, file);
 				
-				if (max_read_count > 0 && test_cases.size() >= max_read_count)
-					return;
-			}
+				@Override
+				public FileVisitResult visitFileFailed(Path path, IOException ex) {
+					// can't read file or directory (or symlink(junction) loop): skip it
+					return FileVisitResult.CONTINUE;
+				}
+			});
+	} // end protected void readDir
+	
+	/** reads the methods from php_files[start] to php_files[end-1] in parallel, using the index to skip any file
+	 * that hasn't changed since it was last parsed.
+	 * 
+	 * sets PhpUnitFile#methods or PhpUnitFile#ex for each file.
+	 * 
+	 * @param index
+	 * @param php_files
+	 * @param start
+	 * @param end
+	 */
+	protected void loadTestFiles(PhpUnitTestPackIndex index, PhpUnitFile[] php_files, int start, int end) {
+		LoadTask task = new LoadTask(index, php_files, start, end);
+		if (end - start <= LOAD_BATCH_SIZE) {
+			task.compute();
+			return;
 		}
+		// fork/join: idle threads steal the other half of a busy thread's range, so a directory of big
+		// test files doesn't leave the other threads waiting
+		//
+		// use the common pool rather than a new pool for each round (this thread helps out while it waits)
+		ForkJoinPool.commonPool().invoke(task);
+	}
+	
+	protected class LoadTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		protected final PhpUnitTestPackIndex index;
+		protected final PhpUnitFile[] php_files;
+		protected final int start, end;
 		
-	} // end protected void readDir
+		protected LoadTask(PhpUnitTestPackIndex index, PhpUnitFile[] php_files, int start, int end) {
+			this.index = index;
+			this.php_files = php_files;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start > LOAD_BATCH_SIZE) {
+				int mid = (start + end) >>> 1;
+				invokeAll(
+						new LoadTask(index, php_files, start, mid),
+						new LoadTask(index, php_files, mid, end)
+					);
+				return;
+			}
+			PhpUnitFile pf;
+			for ( int i=start ; i < end ; i++ ) {
+				pf = php_files[i];
+				try {
+					pf.methods = index.get(pf.abs_test_file_name, pf.mtime, pf.size);
+					if (pf.methods!=null)
+						continue;
+					byte[] hash = PhpUnitTestPackIndex.hash(pf.file);
+					pf.methods = index.get(pf.abs_test_file_name, pf.mtime, pf.size, hash);
+					if (pf.methods!=null)
+						continue;
+					// if parse fails, this throws and the file is left out of the index, so it's parsed again next time
+					pf.methods = readTestFile(pf.file);
+					index.put(pf.abs_test_file_name, pf.mtime, pf.size, hash, pf.methods);
+				} catch ( Exception ex ) {
+					pf.ex = ex;
+				}
+			}
+		}
+	} // end protected class LoadTask
 	
-	/** reads PhpUnitTestCase(s) from given PHP file
+	/** parses the given PHP file and returns the methods of its non-abstract classes. called from several threads at once.
 	 * 
-	 * @param config 
-	 * @param max_read_count
-	 * @param rel_test_file_name
-	 * @param abs_test_file_name
-	 * @param php_unit_dist
-	 * @param test_cases
 	 * @param file
+	 * @return
+	 * @throws IOException - if file couldn't be parsed
 	 */
-	protected void readTestFile(Config config, final int max_read_count, String rel_test_file_name, String abs_test_file_name, PhpUnitDist php_unit_dist, List<PhpUnitTestCase> test_cases, File file) {
+	protected static List<TestMethod> readTestFile(File file) throws IOException {
 		PhpScript script = PhpParser.parseScript(file);
-		String dataProviderMethodName, dependsMethodName;
+		if (!script.isParsed())
+			// don't confuse a parse error with a file that has no tests
+			throw new IOException("Failed to parse PHP file: "+file);
+		ArrayList<TestMethod> methods = new ArrayList<TestMethod>();
 		
 		for ( ClassDefinition clazz : script.getClasses() ) {
 			if (clazz.isAbstract()||clazz.isInterface())
 				continue;
 			
 			for ( FunctionDefinition func : clazz.getFunctions() ) {
-				// search class for functions that start with 'test'
-				if (isFunctionATest(func.getName())) {
-					// this is a test case
-					//
-					//
-					// some tests use these annotations to provide the name of a function (in same class)
-					// to call to get the arguments for this test case method
-					//
-					// @see http://phpunit.de/manual/3.7/en/appendixes.annotations.html#appendixes.annotations.dataProvider
-					dataProviderMethodName = cleanFunctionName(func.getAnnotationValue("dataProvider"));
-					// @see http://phpunit.de/manual/3.7/en/appendixes.annotations.html#appendixes.annotations.depends
-					dependsMethodName = cleanFunctionName(func.getAnnotationValue("depends"));
-					
-					boolean exception_expected = StringUtil.isNotEmpty(func.getAnnotationValue("expectedException"));
-					
-					PhpUnitTestCase test_case = new PhpUnitTestCase(
-							php_unit_dist,
-							abs_test_file_name,
-							rel_test_file_name,
-							// some PhpUnits use the namespace keyword and/or \\ in the class name (namespaces)
-							// InterpretedclassDef#getName will provide the absolute class name (including namespace)
-							// in such cases, so nothing special needs to be done here for them
-							clazz.getName(),
-							// name of method within the class
-							func.getName(),
-							func.getArgumentCount(),
-							dataProviderMethodName,
-							dependsMethodName,
-							exception_expected
-						);
-					config.processPhpUnit(test_case);
-					test_cases.add(test_case);
-					
-					if (max_read_count > 0 && test_cases.size() >= max_read_count)
-						return;
-				}
+				methods.add(new TestMethod(
+						// some PhpUnits use the namespace keyword and/or \\ in the class name (namespaces)
+						// InterpretedclassDef#getName will provide the absolute class name (including namespace)
+						// in such cases, so nothing special needs to be done here for them
+						clazz.getName(),
+						// name of method within the class
+						func.getName(),
+						func.getArgumentCount(),
+						// some tests use these annotations to provide the name of a function (in same class)
+						// to call to get the arguments for this test case method
+						//
+						// @see http://phpunit.de/manual/3.7/en/appendixes.annotations.html#appendixes.annotations.dataProvider
+						cleanFunctionName(func.getAnnotationValue("dataProvider")),
+						// @see http://phpunit.de/manual/3.7/en/appendixes.annotations.html#appendixes.annotations.depends
+						cleanFunctionName(func.getAnnotationValue("depends")),
+						StringUtil.isNotEmpty(func.getAnnotationValue("expectedException"))
+					));
 			}
 		}
-	} // end protected void readTestFile
+		return methods;
+	} // end protected static List<TestMethod> readTestFile
+	
+	/** adds PhpUnitTestCase(s) for the test methods read from given PHP file
+	 * 
+	 * @param config
+	 * @param cm
+	 * @param max_read_count
+	 * @param pf
+	 * @param test_cases
+	 * @return TRUE if max_read_count reached
+	 */
+	protected boolean addTestCases(Config config, ConsoleManager cm, final int max_read_count, PhpUnitFile pf, List<PhpUnitTestCase> test_cases) {
+		if (pf.ex!=null) {
+			ConsoleManagerUtil.printStackTrace(PhpUnitSourceTestPack.class, cm, pf.ex);
+			return false;
+		}
+		for ( TestMethod m : pf.methods ) {
+			// search class for functions that start with 'test'
+			if (!isFunctionATest(m.getMethodName()))
+				continue;
+			// this is a test case
+			PhpUnitTestCase test_case = new PhpUnitTestCase(
+					pf.php_unit_dist,
+					pf.abs_test_file_name,
+					pf.rel_test_file_name,
+					m.getClassName(),
+					m.getMethodName(),
+					m.getArgCount(),
+					m.getDataProviderMethodName(),
+					m.getDependsMethodName(),
+					m.isExceptionExpected()
+				);
+			config.processPhpUnit(test_case);
+			test_cases.add(test_case);
+			
+			if (max_read_count > 0 && test_cases.size() >= max_read_count)
+				return true;
+		}
+		return false;
+	} // end protected boolean addTestCases
 	
 	protected static String cleanFunctionName(String name) {
 		if (StringUtil.isEmpty(name))
@@ -487,65 +487,8 @@ pw.println("""clearstatcache();
 	//                 Exception#getMessage. this provides a stack trace to
 	//                 the exact part of the test that throws the exception
 	//
-pw.println("""	
-	// PFTT
-	switch(\$status) {
-	case PHPUnit_Runner_BaseTestRunner::STATUS_PASSED:
-		echo 'status=PASS'; echo PHP_EOL;
-trigger_error("\nstatus=PASS\n"); // TODO temp
-		echo "run_time=\$run_time"; echo PHP_EOL;
-		dump_coverage();
-		break;
-	case PHPUnit_Runner_BaseTestRunner::STATUS_SKIPPED:
-		echo 'status=SKIP'; echo PHP_EOL;
-		echo "run_time=\$run_time"; echo PHP_EOL;
-		dump_coverage();
-		echo \$status_msg;
-		echo PHP_EOL;
-		echo \$output;
-		dump_info();
-		break;
-	case PHPUnit_Runner_BaseTestRunner::STATUS_INCOMPLETE:
-		echo 'status=NOT_IMPLEMENTED'; echo PHP_EOL;
-		echo "run_time=\$run_time"; echo PHP_EOL;
-		dump_coverage();
-		echo \$status_msg;
-		echo PHP_EOL;
-		echo \$output;
-		break;
-	case PHPUnit_Runner_BaseTestRunner::STATUS_FAILURE:
-		echo 'status=FAILURE'; echo PHP_EOL;
-		echo "run_time=\$run_time"; echo PHP_EOL;
-		dump_coverage();
-		echo \$status_msg;
-		echo PHP_EOL;
-		echo \$output;
-		dump_info();
-		break;
-	case PHPUnit_Runner_BaseTestRunner::STATUS_ERROR:
-		\$status = 'ERROR';
-		foreach ( \$result->errors() as \$e ) {
-			if (\$e instanceof PHPUnit_Framework_Error_Warning) {
-				\$status = 'WARNING';
-				break;
-			} else if (\$e instanceof PHPUnit_Framework_Error_Notice) {
-				\$status = 'NOTICE';
-				break;
-			} else if (\$e instanceof PHPUnit_Framework_Error_Deprecated) {
-				\$status = 'DEPRECATED';
-				break;
-			}
-		}
-		echo "status=\$status"; echo PHP_EOL;
-		echo "run_time=\$run_time"; echo PHP_EOL;
-		dump_coverage();
-		echo \$status_msg;
-		echo PHP_EOL;
-		echo \$output;
-		dump_info();
-		break;
-	}
-
+		printStatus(pw);
+pw.println("""
 	\$GLOBALS['ignore_exit'] = TRUE;
 
 """);
@@ -650,6 +593,434 @@ ob_end_clean();
 		return sw.toString();
 	} // end static String renderTemplate
 
+	/** generates the PHP code for a PhpUnit worker: a long-lived PHP process that loads the bootstrap once and then
+	 * runs each PhpUnitTestCase it reads from STDIN, one after another.
+	 * 
+	 * Prints `pftt_worker_ready` on its own line once the bootstrap is loaded. Then reads 1 request per line, with
+	 * these fields separated by tabs: className, methodName, abs_filename, dependsMethodName, dataProviderMethodName, argCount
+	 * and a nonce. Runs the test the same way as #renderTemplate does with reflection_only and prints the same status=, run_time= and output.
+	 * Then prints `pftt_worker_end=<nonce> polluted=<checks>` on its own line, where checks are the names of
+	 * the EPhpUnitWorkerCheck(s) whose state the test changed (comma separated, empty if none).
+	 * 
+	 * Exits when STDIN is closed.
+	 * 
+	 * Note: if code coverage is collected, the bootstrap's code coverage is only included for the first test
+	 * 
+	 * @see com.mostc.pftt.runner.PhpUnitWorker
+	 * @see #renderTemplate - for the other parameters
+	 * @param checks - global state to check after each test
+	 * @return
+	 */
+	public static String renderWorkerTemplate(AHost host, ScenarioSet scenario_set, String prebootstrap_code, String bootstrap_file, String postbootstrap_code, String include_path, String[] included_files, Map<String, String> globals, Map<String, String> constants, HashMap<String, String> env, String my_temp_dir, Collection<EPhpUnitWorkerCheck> checks) {
+		StringWriter sw = new StringWriter(16384);
+		PrintWriter pw = new PrintWriter(sw);
+		
+		my_temp_dir = StringUtil.cslashes(host.fixPath(my_temp_dir));
+		
+		def use_xdebug = scenario_set.contains(XDebugScenario.class);
+		def pftt_scenario_set = scenario_set.getName();
+		
+		// same preamble as #renderTemplate
+		pw.print(
+"""<?php
+set_include_path('$include_path');
+
+//
+date_default_timezone_set('UTC');
+ini_set('date.timezone', 'UTC');
+
+putenv('TMP=$my_temp_dir');
+putenv('TEMP=$my_temp_dir');
+putenv('TMPDIR=$my_temp_dir');
+putenv('PFTT_IS=true');
+putenv('PFTT_SCENARIO_SET=$pftt_scenario_set');
+
+function define_checked(\$name, \$value) {
+	if (\\define(\$name, \$value)) {
+		echo "PFTT Notice: defined \$name to \$value" . PHP_EOL;
+		if (constant(\$name)!=\$value) {
+			echo "PFTT Warning: can't get value for \$name" . PHP_EOL;
+		}
+	} else {
+		echo "PFTT Warning: couldn't define \$name to be \$value" . PHP_EOL;
+	}
+}
+
+
+""")
+		if (constants!=null) {
+			for (String name : constants.keySet()) {
+				String value = constants.get(name);
+				
+				pw.println("define_checked('$name', '$value');");
+			}
+		}
+		
+		if (globals!=null) {
+			for (String name : globals.keySet()) {
+				String value = globals.get(name);
+				if (value==null)
+					continue;
+					
+				value = StringUtil.cslashes(value);
+				
+				pw.println("define_checked('$name', '$value');");
+			}
+		}
+		
+		pw.print(
+"""
+
+require 'PHPUnit/Autoload.php';
+
+
+function dump_coverage() {
+""");
+		if (use_xdebug) {
+			pw.print(
+"""	foreach ( xdebug_get_code_coverage() as \$filename => \$coverage ) {
+		echo "file=\$filename"; echo PHP_EOL;
+		foreach ( \$coverage as \$line_num => \$type ) {
+			if (\$type==1) {
+				echo "exe=\$line_num"; echo PHP_EOL;
+			} else if (\$type==-1) {
+				echo "didnt_exe=\$line_num"; echo PHP_EOL;
+			} else if (\$type==-2) {
+				echo "no_exe=\$line_num"; echo PHP_EOL;
+			}
+		}
+		xdebug_stop_code_coverage(TRUE);
+	}
+""")
+		} // end if (use_xdebug)
+		pw.print(
+"""
+}
+""")
+		if (use_xdebug) {
+			pw.print(
+"""xdebug_start_code_coverage( XDEBUG_CC_UNUSED | XDEBUG_CC_DEAD_CODE );
+""");
+		}
+		
+		if (StringUtil.isNotEmpty(prebootstrap_code)) {
+			pw.print(prebootstrap_code);
+		}
+		if (StringUtil.isNotEmpty(bootstrap_file)) {
+			pw.print("""require_once '$bootstrap_file';
+""");
+		}
+		if (StringUtil.isNotEmpty(postbootstrap_code)) {
+			pw.print(postbootstrap_code);
+		}
+		
+		// the test being run is stored in \$GLOBALS['__pftt_current'] (so it can be reported if there's a fatal error)
+		//
+		// globals starting with __pftt are the worker's own and aren't checked for pollution (@see EPhpUnitWorkerCheck#GLOBALS)
+		pw.print(
+"""
+function dump_info() {
+	echo "Loaded Extensions:";echo PHP_EOL;
+	var_dump(get_loaded_extensions());
+	if (array_key_exists('PATH', \$_ENV)) {
+		echo "ENV:";echo PHP_EOL;
+		var_dump(\$_ENV['PATH']);
+	}
+	echo "Include Path:";echo PHP_EOL;
+	var_dump(get_include_path());
+	echo "File name:";echo PHP_EOL;
+	echo \$GLOBALS['__pftt_current'][2]; echo PHP_EOL;
+}
+
+function tryReportFatal() {
+	if (!isset(\$GLOBALS['__pftt_current'])) {
+		// not running a test (STDIN was closed)
+		return;
+	}
+
+	\$e = new Exception();
+	echo 'ERROR'; echo PHP_EOL;
+	echo \$GLOBALS['__pftt_current'][0]; echo PHP_EOL;
+	echo \$e->getTraceAsString(); echo PHP_EOL;
+	echo \$e->getMessage(); echo PHP_EOL;
+	dump_info();
+	ob_flush();
+}
+
+register_shutdown_function('tryReportFatal');
+
+function pftt_worker_globals() {
+	\$state = array();
+	foreach ( \$GLOBALS as \$name => \$value ) {
+		if (\$name==='GLOBALS' || strncmp(\$name, '__pftt', 6)===0) {
+			continue;
+		} else if (is_scalar(\$value) || \$value===NULL) {
+			\$state[\$name] = \$value;
+		} else if (is_array(\$value)) {
+			\$state[\$name] = 'array('.count(\$value).')';
+		} else if (is_object(\$value)) {
+			\$state[\$name] = get_class(\$value).'#'.spl_object_hash(\$value);
+		} else {
+			\$state[\$name] = gettype(\$value);
+		}
+	}
+	return \$state;
+}
+
+function pftt_worker_env() {
+	// getenv() only returns all ENV vars on PHP 7.1+
+	return version_compare(PHP_VERSION, '7.1.0', '>=') ? getenv() : \$_ENV;
+}
+
+function pftt_worker_callable_id(\$h) {
+	if (is_object(\$h)) {
+		return spl_object_hash(\$h);
+	} else if (is_array(\$h)) {
+		return (is_object(\$h[0]) ? spl_object_hash(\$h[0]) : \$h[0]).'::'.\$h[1];
+	} else {
+		return \$h;
+	}
+}
+
+function pftt_worker_handlers() {
+	\$error_handler = set_error_handler('pftt_worker_handlers');
+	restore_error_handler();
+	\$exception_handler = set_exception_handler('pftt_worker_handlers');
+	restore_exception_handler();
+	return array(pftt_worker_callable_id(\$error_handler), pftt_worker_callable_id(\$exception_handler));
+}
+
+function pftt_worker_state() {
+	return array(
+""");
+		for ( EPhpUnitWorkerCheck check : checks ) {
+			pw.println("		'$check' => ${check.getPhpCode()},");
+		}
+		pw.print(
+"""	);
+}
+
+function pftt_worker_run(\$className, \$methodName, \$abs_filename, \$dependsMethodName, \$dataProviderMethodName, \$argCount) {
+	\$ob_level = ob_get_level();
+	\$result = new PHPUnit_Framework_TestResult;
+
+	\$result->strictMode(false);
+
+	\$test = NULL;
+	\$status = PHPUnit_Runner_BaseTestRunner::STATUS_SKIPPED;
+	\$status_msg = NULL;
+	\$output = NULL;
+	\$start_time = 0;
+	\$run_time = 0;
+	try {
+		if (!class_exists(\$className)) {
+			require_once \$abs_filename;
+		}
+		ob_end_clean();
+		ob_start();
+
+		\$data = array();
+		if (strlen(\$dataProviderMethodName)>0) {
+			\$test = new \$className(\$dataProviderMethodName, array(), '');
+			\$test->setInIsolation(TRUE);
+			\$test->pftt_step1();
+
+			\$data = \$test->\$dataProviderMethodName();
+			\$data = array_shift(\$data);
+		} else if (strlen(\$dependsMethodName)>0) {
+			\$test = new \$className(\$dependsMethodName, array(), '');
+			\$test->setInIsolation(TRUE);
+			\$test->pftt_step1();
+
+			\$data = \$test->\$dependsMethodName();
+		}
+		\$test = new \$className(\$methodName, \$data, '');
+		\$test->setInIsolation(TRUE);
+
+""");
+		// always uses PhpUnit's reflection to call the test method (@see #renderTemplate with reflection_only). the method name
+		// is only known at run time, so a worker can't call it inline
+		pw.print(
+"""		\$start_time = microtime(TRUE);
+		\$test->run(\$result);
+		\$run_time = microtime(TRUE) - \$start_time;
+		\$status = \$test->getStatus();
+		\$status_msg = \$test->getStatusMessage();
+	} catch ( Exception \$e ) {
+		\$output = ob_get_clean();
+		echo 'ERROR'; echo PHP_EOL;
+		echo \$className; echo PHP_EOL;
+		echo \$e->getTraceAsString(); echo PHP_EOL;
+		echo \$e->getMessage(); echo PHP_EOL;
+		echo \$output;
+		dump_info();
+		return;
+	}
+""");
+		printStatus(pw);
+		// output buffer started before running the test may still be open (ex: test failed). it would be flushed
+		// at exit if the test had its own process. any other open buffers were left open by the test (@see EPhpUnitWorkerCheck#OUTPUT_BUFFERS)
+		pw.print(
+"""	if (ob_get_level()==\$ob_level) {
+		ob_end_flush();
+	}
+}
+
+""");
+		
+		if (included_files!=null) {
+			for (String file : included_files) {
+				pw.println("require_once '$file';");
+			}
+		}
+		
+		if (env!=null) {
+			for (String name : env.keySet()) {
+				String value = env.get(name);
+				
+				value = StringUtil.cslashes(value);
+				 
+				pw.println("\$GLOBALS['_SERVER']['$name'] = '$value';");
+			}
+		}
+		
+		if (globals!=null) {
+			for (String name : globals.keySet()) {
+				String value = globals.get(name);
+				if (value==null)
+					continue;
+					
+				value = StringUtil.cslashes(value);
+				
+				pw.println("\$GLOBALS['$name'] = '$value';");
+			}
+		}
+		
+		// the state after loading everything is what's compared after each test
+		//
+		// output buffers the test leaves open are flushed (they'd be flushed at exit if test had its own process)
+		pw.print("""
+if (isset(\$GLOBALS['__PHPUNIT_BOOTSTRAP'])) {
+	require_once \$GLOBALS['__PHPUNIT_BOOTSTRAP'];
+	unset(\$GLOBALS['__PHPUNIT_BOOTSTRAP']);
+}
+
+function pftt_worker_main() {
+	\$state = pftt_worker_state();
+	\$ob_level = ob_get_level();
+
+	echo PHP_EOL; echo 'pftt_worker_ready'; echo PHP_EOL;
+	flush();
+
+	while ( (\$line = fgets(STDIN)) !== FALSE ) {
+		\$request = explode("\\t", rtrim(\$line, "\\r\\n"));
+		if (count(\$request) < 7) {
+			break;
+		}
+		\$GLOBALS['__pftt_current'] = \$request;
+""");
+		if (use_xdebug) {
+			pw.print(
+"""		xdebug_start_code_coverage( XDEBUG_CC_UNUSED | XDEBUG_CC_DEAD_CODE );
+""");
+		}
+		pw.print(
+"""		ob_start();
+		pftt_worker_run(\$request[0], \$request[1], \$request[2], \$request[3], \$request[4], (int)\$request[5]);
+
+		\$after = pftt_worker_state();
+		while (ob_get_level() > \$ob_level) {
+			ob_end_flush();
+		}
+		unset(\$GLOBALS['__pftt_current']);
+
+		\$polluted = array();
+		foreach ( \$state as \$check => \$value ) {
+			if (\$after[\$check] !== \$value) {
+				\$polluted[] = \$check;
+			}
+		}
+		echo PHP_EOL; echo 'pftt_worker_end='.\$request[6].' polluted='.implode(',', \$polluted); echo PHP_EOL;
+		flush();
+	}
+}
+
+pftt_worker_main();
+""");
+
+		pw.flush();
+		return sw.toString();
+	} // end public static String renderWorkerTemplate
+	
+	/** prints PHP code that prints the status of a test (and its output, etc...) in the format AbstractPhpUnitTestCaseRunner reads.
+	 * 
+	 * PHP code expects $status, $status_msg, $run_time, $output and $result to be set.
+	 * 
+	 * @see #renderTemplate
+	 * @see #renderWorkerTemplate
+	 */
+	protected static void printStatus(PrintWriter pw) {
+pw.println("""	
+	// PFTT
+	switch(\$status) {
+	case PHPUnit_Runner_BaseTestRunner::STATUS_PASSED:
+		echo 'status=PASS'; echo PHP_EOL;
+trigger_error("\nstatus=PASS\n"); // TODO temp
+		echo "run_time=\$run_time"; echo PHP_EOL;
+		dump_coverage();
+		break;
+	case PHPUnit_Runner_BaseTestRunner::STATUS_SKIPPED:
+		echo 'status=SKIP'; echo PHP_EOL;
+		echo "run_time=\$run_time"; echo PHP_EOL;
+		dump_coverage();
+		echo \$status_msg;
+		echo PHP_EOL;
+		echo \$output;
+		dump_info();
+		break;
+	case PHPUnit_Runner_BaseTestRunner::STATUS_INCOMPLETE:
+		echo 'status=NOT_IMPLEMENTED'; echo PHP_EOL;
+		echo "run_time=\$run_time"; echo PHP_EOL;
+		dump_coverage();
+		echo \$status_msg;
+		echo PHP_EOL;
+		echo \$output;
+		break;
+	case PHPUnit_Runner_BaseTestRunner::STATUS_FAILURE:
+		echo 'status=FAILURE'; echo PHP_EOL;
+		echo "run_time=\$run_time"; echo PHP_EOL;
+		dump_coverage();
+		echo \$status_msg;
+		echo PHP_EOL;
+		echo \$output;
+		dump_info();
+		break;
+	case PHPUnit_Runner_BaseTestRunner::STATUS_ERROR:
+		\$status = 'ERROR';
+		foreach ( \$result->errors() as \$e ) {
+			if (\$e instanceof PHPUnit_Framework_Error_Warning) {
+				\$status = 'WARNING';
+				break;
+			} else if (\$e instanceof PHPUnit_Framework_Error_Notice) {
+				\$status = 'NOTICE';
+				break;
+			} else if (\$e instanceof PHPUnit_Framework_Error_Deprecated) {
+				\$status = 'DEPRECATED';
+				break;
+			}
+		}
+		echo "status=\$status"; echo PHP_EOL;
+		echo "run_time=\$run_time"; echo PHP_EOL;
+		dump_coverage();
+		echo \$status_msg;
+		echo PHP_EOL;
+		echo \$output;
+		dump_info();
+		break;
+	}
+""");
+	} // end protected static void printStatus
+
 	// PHP serialize() notes:
 	//
 	// serialized array in the form
@@ -0,0 +1,338 @@
+package com.mostc.pftt.model.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.github.mattficken.io.StringUtil;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.scenario.FileSystemScenario;
+
+/** On-disk index of the test methods found in the PHP files of a PhpUnit test-pack, so they don't have to be
+ * parsed again the next time the test-pack is read (for the next scenario set, the next build, the next run of PFTT, etc...)
+ *
+ * Each file is keyed by its absolute name, last modified time, size and a hash of its contents. If only the
+ * last modified time changed (ex: file was checked out again), the hash is checked and, if it matches, the
+ * file isn't parsed again.
+ *
+ * Methods of all non-abstract classes are stored (not just those PhpUnitSourceTestPack#isFunctionATest accepts)
+ * so the index stays valid if a test-pack changes what it considers a test.
+ *
+ * Thread-safe: files are looked up and added from several threads at once while a test-pack is scanned.
+ *
+ * @see PhpUnitSourceTestPack#read
+ * @see com.mostc.pftt.model.core.PhptTestPackIndex
+ *
+ */
+
+public class PhpUnitTestPackIndex {
+	protected static final byte[] MAGIC = new byte[]{'P', 'F', 'T', 'U', 'I', 'D', 'X', '1'};
+	/** entry was written without a data provider (or depends) */
+	protected static final int NO_STRING = -1;
+	protected static final String HASH_ALGORITHM = "SHA-1";
+	protected final File index_file;
+	protected final ConcurrentHashMap<String,Entry> entries;
+	protected volatile boolean dirty;
+
+	/** a method of a (non-abstract) class in a PHP file */
+	public static class TestMethod {
+		protected final String class_name, method_name, data_provider_method_name, depends_method_name;
+		protected final int arg_count;
+		protected final boolean exception_expected;
+
+		public TestMethod(String class_name, String method_name, int arg_count, String data_provider_method_name, String depends_method_name, boolean exception_expected) {
+			this.class_name = class_name;
+			this.method_name = method_name;
+			this.arg_count = arg_count;
+			this.data_provider_method_name = data_provider_method_name;
+			this.depends_method_name = depends_method_name;
+			this.exception_expected = exception_expected;
+		}
+
+		public String getClassName() {
+			return class_name;
+		}
+
+		public String getMethodName() {
+			return method_name;
+		}
+
+		public int getArgCount() {
+			return arg_count;
+		}
+
+		/** @see http://phpunit.de/manual/3.7/en/appendixes.annotations.html#appendixes.annotations.dataProvider */
+		public String getDataProviderMethodName() {
+			return data_provider_method_name;
+		}
+
+		/** @see http://phpunit.de/manual/3.7/en/appendixes.annotations.html#appendixes.annotations.depends */
+		public String getDependsMethodName() {
+			return depends_method_name;
+		}
+
+		public boolean isExceptionExpected() {
+			return exception_expected;
+		}
+	} // end public static class TestMethod
+
+	protected static class Entry {
+		protected final long mtime, size;
+		protected final byte[] hash;
+		protected final List<TestMethod> methods;
+
+		protected Entry(long mtime, long size, byte[] hash, List<TestMethod> methods) {
+			this.mtime = mtime;
+			this.size = size;
+			this.hash = hash;
+			this.methods = methods;
+		}
+	} // end protected static class Entry
+
+	/**
+	 *
+	 * @param index_file - file to store index in. if null, index is only kept in memory
+	 */
+	public PhpUnitTestPackIndex(File index_file) {
+		this.index_file = index_file;
+		entries = new ConcurrentHashMap<String,Entry>(16384);
+	}
+
+	/** decides where to store the index for the given test-pack: in the PFTT cache directory, or null if
+	 * the PFTT directory isn't known (index is then only kept in memory)
+	 *
+	 * @param pftt_dir
+	 * @param test_pack_name
+	 * @return
+	 */
+	public static File getIndexFile(String pftt_dir, String test_pack_name) {
+		if (StringUtil.isEmpty(pftt_dir))
+			return null;
+		return new File(pftt_dir+"/cache/index/phpunit_"+FileSystemScenario.basename(test_pack_name).replaceAll("[^A-Za-z0-9_.-]", "_")+"_"+Integer.toHexString(test_pack_name.hashCode())+".idx");
+	}
+
+	/** returns the indexed methods if the file's last modified time and size haven't changed since it was indexed, or null
+	 *
+	 * @param file_name - absolute name of PHP file
+	 * @param mtime
+	 * @param size
+	 * @return
+	 */
+	public List<TestMethod> get(String file_name, long mtime, long size) {
+		Entry e = entries.get(file_name);
+		if (e==null || e.mtime!=mtime || e.size!=size)
+			return null;
+		return e.methods;
+	}
+
+	/** returns the indexed methods if the file's contents haven't changed since it was indexed (even if its last modified
+	 * time has), or null. Call this after #get returns null.
+	 *
+	 * @param file_name - absolute name of PHP file
+	 * @param mtime
+	 * @param size
+	 * @param hash - @see #hash
+	 * @return
+	 */
+	public List<TestMethod> get(String file_name, long mtime, long size, byte[] hash) {
+		Entry e = entries.get(file_name);
+		if (e==null || e.size!=size || !Arrays.equals(e.hash, hash))
+			return null;
+		if (e.mtime!=mtime) {
+			// remember new last modified time so the hash doesn't need to be checked next time
+			entries.put(file_name, new Entry(mtime, size, hash, e.methods));
+			dirty = true;
+		}
+		return e.methods;
+	}
+
+	/** adds the methods from a file that was just parsed to the index
+	 *
+	 * @param file_name - absolute name of PHP file
+	 * @param mtime
+	 * @param size
+	 * @param hash - @see #hash
+	 * @param methods
+	 */
+	public void put(String file_name, long mtime, long size, byte[] hash, List<TestMethod> methods) {
+		entries.put(file_name, new Entry(mtime, size, hash, methods));
+		dirty = true;
+	}
+
+	/** removes the files that aren't in file_names (ex: deleted from the test-pack) from the index
+	 * 
+	 * @param file_names - absolute names of all PHP files currently in the test-pack
+	 */
+	public void retainAll(Collection<String> file_names) {
+		if (entries.keySet().retainAll(file_names))
+			dirty = true;
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+
+	/** hashes the contents of a PHP file
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] hash(File file) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch ( NoSuchAlgorithmException ex ) {
+			throw new IOException(ex);
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[8192];
+			int n;
+			while ( ( n = in.read(buf) ) != -1 )
+				md.update(buf, 0, n);
+		} finally {
+			in.close();
+		}
+		return md.digest();
+	}
+
+	/** reads the index from its file. if file is missing or unreadable, the index is left empty.
+	 *
+	 * @param cm
+	 */
+	public void load(ConsoleManager cm) {
+		if (index_file==null || !index_file.isFile())
+			return;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(index_file)), 128*1024));
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				return;
+			int count = in.readInt();
+			for ( int i=0 ; i < count ; i++ ) {
+				String file_name = readString(in);
+				long mtime = in.readLong();
+				long size = in.readLong();
+				byte[] hash = new byte[in.readInt()];
+				in.readFully(hash);
+				int method_count = in.readInt();
+				ArrayList<TestMethod> methods = new ArrayList<TestMethod>(method_count);
+				for ( int j=0 ; j < method_count ; j++ ) {
+					String class_name = readString(in);
+					String method_name = readString(in);
+					int arg_count = in.readInt();
+					String data_provider_method_name = readString(in);
+					String depends_method_name = readString(in);
+					boolean exception_expected = in.readBoolean();
+					methods.add(new TestMethod(class_name, method_name, arg_count, data_provider_method_name, depends_method_name, exception_expected));
+				}
+				entries.put(file_name, new Entry(mtime, size, hash, methods));
+			}
+		} catch ( Exception ex ) {
+			// index is only a cache: start over with an empty index
+			entries.clear();
+			ConsoleManagerUtil.printStackTrace(PhpUnitTestPackIndex.class, cm, ex);
+		} finally {
+			if (in!=null) {
+				try {
+					in.close();
+				} catch ( IOException ex ) {}
+			}
+		}
+	} // end public void load
+
+	/** writes the index to its file, if any files were added since it was read
+	 *
+	 * @param cm
+	 */
+	public void save(ConsoleManager cm) {
+		if (index_file==null || !dirty)
+			return;
+		dirty = false;
+		index_file.getParentFile().mkdirs();
+		// write to temp file first, so an interrupted save can't leave a truncated index
+		File tmp_file = new File(index_file.getPath()+".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tmp_file)), 128*1024));
+			out.write(MAGIC);
+			// copy first: entries may be added while saving
+			Map<String,Entry> copy = new HashMap<String,Entry>(entries);
+			out.writeInt(copy.size());
+			for ( Map.Entry<String,Entry> me : copy.entrySet() ) {
+				Entry e = me.getValue();
+				writeString(out, me.getKey());
+				out.writeLong(e.mtime);
+				out.writeLong(e.size);
+				out.writeInt(e.hash.length);
+				out.write(e.hash);
+				out.writeInt(e.methods.size());
+				for ( TestMethod m : e.methods ) {
+					writeString(out, m.class_name);
+					writeString(out, m.method_name);
+					out.writeInt(m.arg_count);
+					writeString(out, m.data_provider_method_name);
+					writeString(out, m.depends_method_name);
+					out.writeBoolean(m.exception_expected);
+				}
+			}
+			out.close();
+			out = null;
+
+			index_file.delete();
+			if (!tmp_file.renameTo(index_file))
+				tmp_file.delete();
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(PhpUnitTestPackIndex.class, cm, ex);
+		} finally {
+			if (out!=null) {
+				try {
+					out.close();
+				} catch ( IOException ex ) {}
+				tmp_file.delete();
+			}
+		}
+	} // end public void save
+
+	/** like DataOutputStream#writeUTF, but also handles null */
+	protected static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str==null) {
+			out.writeInt(NO_STRING);
+			return;
+		}
+		byte[] b = str.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	protected static String readString(DataInputStream in) throws IOException {
+		int len = in.readInt();
+		if (len==NO_STRING)
+			return null;
+		byte[] b = new byte[len];
+		in.readFully(b);
+		return new String(b, "UTF-8");
+	}
+
+} // end public class PhpUnitTestPackIndex
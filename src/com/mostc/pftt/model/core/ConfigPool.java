@@ -0,0 +1,107 @@
+package com.mostc.pftt.model.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/** Hash-conses PhpInis and ENV maps by content, so equal configurations share 1 read-only instance
+ * instead of each having its own copy.
+ *
+ * Each test result has a PhpIni and ENV map, but there are only as many different ones as there were test groups.
+ * A pool is kept for as long as its owner (1 run of a test-pack or 1 result-pack being read or written) and is then
+ * dropped along with it, so pools of different runs don't keep each other's configurations.
+ *
+ * Interning copies the configuration: PhpInis and ENV maps of running test groups are still changed by their
+ * scenarios and web servers (ex: PHPRC is added to the ENV), and the copy keeps what it was when it was interned.
+ *
+ * @see PhpIni#hashCode
+ * @see com.mostc.pftt.results.PhptTestResult#parse
+ * @see com.mostc.pftt.results.PhpResultPackWriter#addResult
+ *
+ */
+
+@ThreadSafe
+public final class ConfigPool {
+	/** if pool gets bigger than this, it's started over (so it can't grow forever if its owner lives a long time) */
+	protected static final int MAX_POOL_SIZE = 16384;
+	protected final ConcurrentHashMap<PhpIni,PhpIni> inis;
+	/** INI string (as stored in result-pack) -> interned PhpIni parsed from it */
+	protected final ConcurrentHashMap<String,PhpIni> ini_strs;
+	protected final ConcurrentHashMap<Map<String,String>,Map<String,String>> envs;
+
+	public ConfigPool() {
+		inis = new ConcurrentHashMap<PhpIni,PhpIni>();
+		ini_strs = new ConcurrentHashMap<String,PhpIni>();
+		envs = new ConcurrentHashMap<Map<String,String>,Map<String,String>>();
+	}
+
+	/** returns a read-only PhpIni with the same directives and values as the given PhpIni, shared with
+	 * every other equal PhpIni interned.
+	 *
+	 * @param ini
+	 * @return
+	 */
+	@Nullable
+	public PhpIni intern(@Nullable PhpIni ini) {
+		if (ini==null)
+			return null;
+		PhpIni shared = inis.get(ini);
+		if (shared!=null)
+			return shared;
+		if (inis.size() >= MAX_POOL_SIZE)
+			inis.clear();
+		shared = ini instanceof ReadOnlyPhpIni ? ini : new ReadOnlyPhpIni(ini);
+		PhpIni prev = inis.putIfAbsent(shared, shared);
+		return prev==null ? shared : prev;
+	}
+
+	/** parses INI string and returns an interned PhpIni for it
+	 *
+	 * @see #intern
+	 * @param ini_str
+	 * @return
+	 */
+	@Nullable
+	public PhpIni parseIni(@Nullable String ini_str) {
+		if (ini_str==null)
+			return null;
+		PhpIni ini = ini_strs.get(ini_str);
+		if (ini!=null)
+			return ini;
+		if (ini_strs.size() >= MAX_POOL_SIZE)
+			ini_strs.clear();
+		ini = intern(new PhpIni(ini_str));
+		ini_strs.putIfAbsent(ini_str, ini);
+		return ini;
+	}
+
+	/** returns an unmodifiable ENV map with the same names and values as the given map, shared with every other
+	 * equal ENV map interned.
+	 *
+	 * @param env
+	 * @return
+	 */
+	@Nullable
+	public Map<String,String> intern(@Nullable Map<String,String> env) {
+		if (env==null)
+			return null;
+		Map<String,String> shared = envs.get(env);
+		if (shared!=null)
+			return shared;
+		if (envs.size() >= MAX_POOL_SIZE)
+			envs.clear();
+		shared = Collections.unmodifiableMap(new HashMap<String,String>(env));
+		Map<String,String> prev = envs.putIfAbsent(shared, shared);
+		return prev==null ? shared : prev;
+	}
+
+	/** number of distinct PhpInis and ENV maps pooled */
+	public int size() {
+		return inis.size() + envs.size();
+	}
+
+} // end public final class ConfigPool
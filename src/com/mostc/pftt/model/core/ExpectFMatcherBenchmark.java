@@ -0,0 +1,172 @@
+package com.mostc.pftt.model.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.mattficken.io.ListByLineReader;
+import com.mostc.pftt.util.apache.regexp.RECompiler;
+import com.mostc.pftt.util.apache.regexp.REProgram;
+
+/** Compares speed of matching EXPECTF sections with their tokens (@see ExpectedOutputMatcher#forExpectF) against
+ * matching them with RE (the regular expression from PhptTestCase#prepareExpectF), on outputs that pass and outputs
+ * that fail.
+ *
+ * Also counts the passing outputs that each one matches and the failing outputs that each one doesn't match. Every
+ * passing output should be matched and no failing output should be (RE matches most failing outputs because it assumes
+ * a match when backtracking gets too deep, @see RE#matchNodes).
+ *
+ * Usage: java com.mostc.pftt.model.core.ExpectFMatcherBenchmark [test-pack dir]... [rounds]
+ *
+ * For each EXPECTF section in the test-pack(s), the passing output is made by replacing each wildcard with something
+ * it matches, and the failing output by changing the last line of that. Sections with a %r segment are skipped
+ * (they're matched with RE either way). Without any test-pack, uses built-in cases like the big var_dump()s and
+ * warnings of php-src's tests.
+ *
+ * @see ExpectedOutputMatcher
+ *
+ */
+
+public class ExpectFMatcherBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rounds = 5;
+		final LinkedHashMap<String,List<String>> test_pack = new LinkedHashMap<String,List<String>>();
+		for ( String arg : args ) {
+			if (arg.matches("[0-9]+"))
+				rounds = Integer.parseInt(arg);
+			else
+				PhptSectionParserBenchmark.loadTestPack(test_pack, new File(arg), new File(arg));
+		}
+		final ArrayList<Case> cases = new ArrayList<Case>();
+		if (test_pack.isEmpty())
+			builtInCases(cases);
+		else
+			testPackCases(test_pack, cases);
+
+		// results: every passing output should match and no failing output should
+		int tokens_pass = 0, re_pass = 0, tokens_fail = 0, re_fail = 0;
+		for ( Case c : cases ) {
+			if (c.matcher.match(c.pass))
+				tokens_pass++;
+			else
+				System.out.println("NOT MATCHED "+c.name+": tokens don't match passing output");
+			if (c.re_matcher.match(c.pass))
+				re_pass++;
+			if (c.matcher.match(c.fail))
+				System.out.println("MATCHED "+c.name+": tokens match failing output");
+			else
+				tokens_fail++;
+			if (!c.re_matcher.match(c.fail))
+				re_fail++;
+		}
+		System.out.println(cases.size()+" EXPECTF sections");
+		System.out.println("  tokens: "+tokens_pass+" passing outputs matched, "+tokens_fail+" failing outputs not matched");
+		System.out.println("  RE:     "+re_pass+" passing outputs matched, "+re_fail+" failing outputs not matched");
+
+		// benchmark
+		for ( int i=0 ; i < rounds ; i++ ) {
+			System.out.println("  pass: tokens "+time(cases, false, true)+" ms, RE "+time(cases, false, false)+" ms");
+			System.out.println("  fail: tokens "+time(cases, true, true)+" ms, RE "+time(cases, true, false)+" ms");
+		}
+	} // end public static void main
+
+	protected static class Case {
+		protected final String name;
+		protected final ExpectedOutputMatcher matcher, re_matcher;
+		protected final String pass, fail;
+
+		protected Case(String name, String expectf, String pass, String fail) {
+			this.name = name;
+			REProgram re_prog = new RECompiler().compile(PhptTestCase.prepareExpectF(expectf));
+			this.matcher = ExpectedOutputMatcher.forExpectF(expectf, re_prog);
+			this.re_matcher = ExpectedOutputMatcher.forRegex(re_prog);
+			this.pass = pass;
+			this.fail = fail;
+		}
+	}
+
+	protected static long time(List<Case> cases, boolean fail, boolean tokens) {
+		System.gc();
+		final long start = System.nanoTime();
+		for ( Case c : cases )
+			(tokens ? c.matcher : c.re_matcher).match(fail ? c.fail : c.pass);
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	protected static void testPackCases(Map<String,List<String>> test_pack, List<Case> cases) throws Exception {
+		for ( Map.Entry<String,List<String>> e : test_pack.entrySet() ) {
+			PhptTestCase test_case = new PhptTestCase(null, e.getKey());
+			PhptTestCase.readSections(test_case, new ListByLineReader(e.getValue()));
+			if (!test_case.containsSection(EPhptSection.EXPECTF))
+				continue;
+			String expectf = test_case.getTrim(EPhptSection.EXPECTF);
+			if (expectf.contains("%r"))
+				continue;
+			String pass = fillIn(expectf);
+			int nl = pass.lastIndexOf('\n');
+			String fail = pass.substring(0, nl+1)+"Fatal error: Allowed memory size exhausted";
+			cases.add(new Case(e.getKey(), expectf, pass, fail));
+		}
+	}
+
+	/** replaces each wildcard with something it matches */
+	protected static String fillIn(String expectf) {
+		String[][] replacements = new String[][]{
+				{"%binary_string_optional%", "string"}, {"%unicode_string_optional%", "string"},
+				{"%unicode|string%", "string"}, {"%string|unicode%", "string"}, {"%u|b%", ""}, {"%b|u%", ""},
+				{"%s", "abc"}, {"%S", ""}, {"%a", "a\nb"}, {"%A", ""}, {"%w", " "}, {"%i", "-42"}, {"%d", "42"},
+				{"%x", "ff"}, {"%f", "1.5"}, {"%c", "c"}, {"%e", "/"}
+			};
+		for ( String[] r : replacements )
+			expectf = expectf.replace(r[0], r[1]);
+		return expectf;
+	}
+
+	protected static void builtInCases(List<Case> cases) {
+		StringBuilder expectf, pass;
+		// like ext/standard/tests/array/*.phpt: var_dump() of big arrays
+		for ( int i=0 ; i < 50 ; i++ ) {
+			expectf = new StringBuilder(64*1024);
+			pass = new StringBuilder(64*1024);
+			expectf.append("array(1000) {\n");
+			pass.append("array(1000) {\n");
+			for ( int j=0 ; j < 1000 ; j++ ) {
+				expectf.append("  [").append(j).append("]=>\n  string(%d) \"%s\"\n");
+				pass.append("  [").append(j).append("]=>\n  string(8) \"").append(Integer.toHexString(0x10000000+j*7919+i)).append("\"\n");
+			}
+			expectf.append("}\nDone");
+			pass.append("}\nDone");
+			cases.add(new Case("var_dump_"+i, expectf.toString(), pass.toString(), pass.toString().replace("[999]=>", "[999]=>\n  NULL")));
+		}
+		// like Zend/tests/*.phpt: warnings with %s and %d, and %a for the rest of the output
+		for ( int i=0 ; i < 200 ; i++ ) {
+			expectf = new StringBuilder(1024);
+			pass = new StringBuilder(8*1024);
+			expectf.append("\nWarning: Undefined variable $x in %s on line %d\n%a\nFatal error: Uncaught Error: Call to undefined function f"+i+"() in %s:%d\nStack trace:\n#0 {main}\n  thrown in %s on line %d");
+			pass.append("\nWarning: Undefined variable $x in /php-src/Zend/tests/t"+i+".php on line 3\n");
+			for ( int j=0 ; j < 100 ; j++ )
+				pass.append("NULL\n");
+			String fatal = "\nFatal error: Uncaught Error: Call to undefined function f"+i+"() in /php-src/Zend/tests/t"+i+".php:5\nStack trace:\n#0 {main}\n  thrown in /php-src/Zend/tests/t"+i+".php on line 5";
+			cases.add(new Case("warning_"+i, expectf.toString(), pass+fatal, pass+fatal.replace("f"+i+"()", "g"+i+"()")));
+		}
+		// many %a: each one can end at any later line (what makes RE backtrack)
+		for ( int i=0 ; i < 10 ; i++ ) {
+			expectf = new StringBuilder(1024);
+			pass = new StringBuilder(64*1024);
+			for ( int j=0 ; j < 10 ; j++ )
+				expectf.append("%a\nstep ").append(j).append(" done\n");
+			expectf.append("%Aall done");
+			for ( int j=0 ; j < 10 ; j++ ) {
+				for ( int k=0 ; k < 200 ; k++ )
+					pass.append("output line ").append(k).append('\n');
+				pass.append("step ").append(j).append(" done\n");
+			}
+			pass.append("all done");
+			cases.add(new Case("many_a_"+i, expectf.toString(), pass.toString(), pass.toString().replace("all done", "not done")));
+		}
+	} // end protected static void builtInCases
+
+} // end public class ExpectFMatcherBenchmark
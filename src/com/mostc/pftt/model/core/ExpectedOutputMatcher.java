@@ -0,0 +1,764 @@
+package com.mostc.pftt.model.core;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.mostc.pftt.util.apache.regexp.RE;
+import com.mostc.pftt.util.apache.regexp.REProgram;
+
+/** Matches the actual output of a PHPT test against its EXPECTF or EXPECTREGEX section.
+ *
+ * EXPECTREGEX sections are matched using RE.
+ *
+ * EXPECTF sections are tokenized once into literals, line breaks and wildcards (%s %S %a %A %d %i %f %x %c %e %w)
+ * and matched directly against the output, line by line. Turning EXPECTF into a regular expression
+ * (@see PhptTestCase#prepareExpectF) wraps every line in .* and turns %a into (.|\n|\r)+. RE only gets through that
+ * because it assumes a match once it recurses more than a few levels deep (@see RE#matchNodes), so it matches
+ * almost any output of a multi-line EXPECTF section, including outputs that should fail.
+ *
+ * The tokens decide the result: RE isn't run, even for outputs that fail. Sections with a %r...%r segment are
+ * matched with RE only (@see #hasRegexSegment).
+ *
+ * The tokens match what run-tests.php's EXPECTF patterns match. That is a little different from matching with RE:
+ * -RE assumes a match when it recurses too deep, the tokens never do
+ * -%c%c is translated to 1 . for RE (@see PhptTestCase#prepareExpectF), the tokens match 2 characters
+ * -%e also matches | and the .s in %f match any character with RE, the tokens only match directory separators and .
+ *
+ * %d used to be translated to d+ (1 or more d characters) instead of \d+, so RE didn't match digits for it. The
+ * translation is now \d+, so %d matches digits both ways.
+ *
+ * With the -expectf_diff console option, every output is matched both ways and tests where the results differ are
+ * reported (@see #getDifference).
+ *
+ * Wildcards are matched greedily, like RE would. To keep backtracking bounded, each wildcard only tries the ends
+ * that could let the next token match (where the next literal starts, or the end of a line) and each
+ * (token, position) that failed is remembered so it is never tried again.
+ *
+ * Tokens for %r...%r segments are only used when checking with -expectf_diff: they match using java.util.regex, first
+ * their first match, then other matches that end on the same line.
+ *
+ * Matches the same way the regular expression from #prepareExpectF would: the expected output may start anywhere in
+ * the output, each line may have extra text at its end, and there may be any output after the expected output.
+ *
+ * @see PhptTestCase#getExpectedCompiled
+ *
+ */
+
+@ThreadSafe
+public abstract class ExpectedOutputMatcher {
+
+	/** checks if the actual output matches
+	 *
+	 * @param actual
+	 * @return
+	 */
+	public abstract boolean match(String actual);
+
+	/** matches the actual output with RE only (the way all outputs were matched before ExpectFMatcher) and, for an
+	 * EXPECTF section, with its tokens only.
+	 *
+	 * @param actual
+	 * @return description of the difference if the tokens and RE give different results, or null if both give the same result
+	 */
+	public String getDifference(String actual) {
+		return null;
+	}
+
+	/** matcher for an EXPECTREGEX section (or a section that was changed by an override)
+	 *
+	 * @param re_prog - if null, #match will throw an Error (marks a section that couldn't be compiled)
+	 * @return
+	 */
+	public static ExpectedOutputMatcher forRegex(REProgram re_prog) {
+		return new RegexMatcher(re_prog);
+	}
+
+	/** tokenizes the EXPECTF section
+	 *
+	 * @param expectf
+	 * @param re_prog - EXPECTF section translated by PhptTestCase#prepareExpectF and compiled. used for outputs the
+	 * tokens don't match
+	 * @return
+	 */
+	public static ExpectedOutputMatcher forExpectF(String expectf, REProgram re_prog) {
+		try {
+			return new ExpectFMatcher(expectf, re_prog);
+		} catch ( PatternSyntaxException ex ) {
+			// %r segment that java.util.regex can't compile, but RE can: match like before (with RE only)
+			return new RegexMatcher(re_prog);
+		}
+	}
+
+	protected static class RegexMatcher extends ExpectedOutputMatcher {
+		protected final REProgram re_prog;
+
+		protected RegexMatcher(REProgram re_prog) {
+			this.re_prog = re_prog;
+		}
+
+		@Override
+		public boolean match(String actual) {
+			// RE stores the state of the match: create 1 for each match so it can be used by several threads
+			return new RE(re_prog).match(actual);
+		}
+
+	} // end protected static class RegexMatcher
+
+	protected static final int T_LITERAL = 0;
+	protected static final int T_EOL = 1;
+	protected static final int T_REGEX = 2;
+	/** %s [^\r\n]+ */
+	protected static final int T_s = 3;
+	/** %S [^\r\n]* */
+	protected static final int T_S = 4;
+	/** %a .+ (including line breaks) */
+	protected static final int T_a = 5;
+	/** %A .* (including line breaks) */
+	protected static final int T_A = 6;
+	/** %w \s* */
+	protected static final int T_w = 7;
+	/** %d \d+ */
+	protected static final int T_d = 8;
+	/** %x [0-9a-fA-F]+ */
+	protected static final int T_x = 9;
+	/** %i [+-]?\d+ */
+	protected static final int T_i = 10;
+	/** %f [+-]?\.?\d+\.?\d*(?:[Ee][+-]?\d+)? */
+	protected static final int T_f = 11;
+	/** %c any 1 character except line break */
+	protected static final int T_c = 12;
+	/** %e directory separator */
+	protected static final int T_e = 13;
+	/** #nextEnd hasn't been called yet for choice point */
+	protected static final int NO_CURSOR = Integer.MAX_VALUE;
+
+	protected static class ExpectFMatcher extends RegexMatcher {
+		protected final int[] types;
+		protected final String[] literals;
+		protected final Pattern[] patterns;
+		/** true if tokens are used to match (@see #hasRegexSegment) */
+		protected final boolean use_tokens;
+
+		protected ExpectFMatcher(String expectf, REProgram re_prog) {
+			super(re_prog);
+			Tokenizer t = new Tokenizer(expectf);
+			types = new int[t.count];
+			literals = new String[t.count];
+			patterns = new Pattern[t.count];
+			System.arraycopy(t.types, 0, types, 0, t.count);
+			System.arraycopy(t.literals, 0, literals, 0, t.count);
+			System.arraycopy(t.patterns, 0, patterns, 0, t.count);
+			use_tokens = re_prog!=null && !hasRegexSegment(types);
+		}
+
+		@Override
+		public boolean match(String actual) {
+			return use_tokens ? matchTokens(actual) : super.match(actual);
+		}
+
+		protected boolean matchTokens(String actual) {
+			return new Matching(this, actual).match();
+		}
+
+		@Override
+		public String getDifference(String actual) {
+			final boolean tokens_match = matchTokens(actual);
+			final boolean re_match = super.match(actual);
+			if (tokens_match==re_match)
+				return null;
+			return "EXPECTF tokens "+(tokens_match?"match":"don't match")+", RE "+(re_match?"matches":"doesn't match")
+				+(use_tokens?" (tokens are used for this section)":" (RE is used for this section)");
+		}
+
+	} // end protected static class ExpectFMatcher
+
+	/** checks for a %r...%r segment. those are written for RE (which PHPTs were always matched with), but the tokens match
+	 * them with java.util.regex, which doesn't support all of the same syntax, so sections with any are matched with RE.
+	 *
+	 * @param types
+	 * @return
+	 */
+	protected static boolean hasRegexSegment(int[] types) {
+		for ( int type : types ) {
+			if (type==T_REGEX)
+				return true;
+		}
+		return false;
+	}
+
+	protected static class Tokenizer {
+		protected int count;
+		protected int[] types = new int[16];
+		protected String[] literals = new String[16];
+		protected Pattern[] patterns = new Pattern[16];
+		protected final StringBuilder lit = new StringBuilder(128);
+
+		protected Tokenizer(String expectf) {
+			final int len = expectf.length();
+			int i = 0;
+			char c;
+			while (i < len) {
+				c = expectf.charAt(i);
+				if (c=='\r'||c=='\n') {
+					add(T_EOL, String.valueOf(c), null);
+					i++;
+					continue;
+				} else if (c!='%'||i+1>=len) {
+					lit.append(c);
+					i++;
+					continue;
+				}
+				// these are replaced before the wildcards, so check them first
+				if (expectf.startsWith("%binary_string_optional%", i)) {
+					lit.append("string");
+					i += "%binary_string_optional%".length();
+					continue;
+				} else if (expectf.startsWith("%unicode_string_optional%", i)) {
+					lit.append("string");
+					i += "%unicode_string_optional%".length();
+					continue;
+				} else if (expectf.startsWith("%unicode|string%", i)||expectf.startsWith("%string|unicode%", i)) {
+					lit.append("string");
+					i += "%unicode|string%".length();
+					continue;
+				} else if (expectf.startsWith("%u|b%", i)||expectf.startsWith("%b|u%", i)) {
+					i += "%u|b%".length();
+					continue;
+				}
+				switch (expectf.charAt(i+1)) {
+				case 'r':
+					int end = expectf.indexOf("%r", i+2);
+					if (end==-1) {
+						// unbalanced tag, ignore it
+						lit.append("%r");
+						i += 2;
+						continue;
+					}
+					add(T_REGEX, null, Pattern.compile(toRegex(expectf.substring(i+2, end))));
+					i = end + 2;
+					continue;
+				case 's':
+					add(T_s, null, null);
+					break;
+				case 'S':
+					add(T_S, null, null);
+					break;
+				case 'a':
+					add(T_a, null, null);
+					break;
+				case 'A':
+					add(T_A, null, null);
+					break;
+				case 'w':
+					add(T_w, null, null);
+					break;
+				case 'd':
+					add(T_d, null, null);
+					break;
+				case 'x':
+					add(T_x, null, null);
+					break;
+				case 'i':
+					add(T_i, null, null);
+					break;
+				case 'f':
+					add(T_f, null, null);
+					break;
+				case 'c':
+					add(T_c, null, null);
+					break;
+				case 'e':
+					add(T_e, null, null);
+					break;
+				default:
+					// not a wildcard
+					lit.append(c);
+					i++;
+					continue;
+				}
+				i += 2;
+			} // end while
+			flushLiteral();
+		} // end protected Tokenizer
+
+		protected void add(int type, String literal, Pattern pattern) {
+			if (type!=T_LITERAL)
+				flushLiteral();
+			if (count==types.length) {
+				int[] t = new int[count*2];
+				String[] l = new String[count*2];
+				Pattern[] r = new Pattern[count*2];
+				System.arraycopy(types, 0, t, 0, count);
+				System.arraycopy(literals, 0, l, 0, count);
+				System.arraycopy(patterns, 0, r, 0, count);
+				types = t;
+				literals = l;
+				patterns = r;
+			}
+			types[count] = type;
+			literals[count] = literal;
+			patterns[count] = pattern;
+			count++;
+		}
+
+		protected void flushLiteral() {
+			if (lit.length()==0)
+				return;
+			String s = lit.toString();
+			lit.setLength(0);
+			add(T_LITERAL, s, null);
+		}
+
+	} // end protected static class Tokenizer
+
+	/** state of matching 1 output. (token, position) pairs that are being tried are kept on a stack instead of
+	 * recursing, so sections with thousands of lines can't overflow the thread's stack.
+	 */
+	protected static class Matching {
+		protected final int[] types;
+		protected final String[] literals;
+		protected final Pattern[] patterns;
+		protected final String actual;
+		protected final int len;
+		protected final int[] st_tok, st_pos, st_cursor;
+		protected final FailedSet failed;
+		protected int depth;
+
+		protected Matching(ExpectFMatcher m, String actual) {
+			this.types = m.types;
+			this.literals = m.literals;
+			this.patterns = m.patterns;
+			this.actual = actual;
+			len = actual.length();
+			st_tok = new int[types.length];
+			st_pos = new int[types.length];
+			st_cursor = new int[types.length];
+			failed = new FailedSet();
+		}
+
+		protected boolean match() {
+			if (types.length==0)
+				return true;
+			final int max_start = latestStart();
+			if (max_start==-1)
+				return false;
+			// expected output may start anywhere in the output. only try positions where the first token could match
+			switch (types[0]) {
+			case T_LITERAL:
+				for ( int p = actual.indexOf(literals[0]) ; p != -1 && p <= max_start ; p = actual.indexOf(literals[0], p+1) ) {
+					if (matchFrom(p))
+						return true;
+				}
+				return false;
+			case T_a:
+			case T_A:
+				// starting at the start of the output covers every other start
+				return matchFrom(0);
+			case T_EOL:
+			case T_s:
+			case T_S:
+				// starting anywhere on a line is the same as starting at the start of it
+				for ( int p=0 ; p <= max_start ; p++ ) {
+					if ((p==0 || isNewline(actual.charAt(p-1))) && matchFrom(p))
+						return true;
+				}
+				return false;
+			default:
+				for ( int p=0 ; p <= max_start ; p++ ) {
+					if (matchFrom(p))
+						return true;
+				}
+				return false;
+			}
+		} // end protected boolean match
+
+		/** every literal and line break must be in the output, in order. finds the latest each one can be, from the last one
+		 * back to the first: output that is missing any of them fails without backtracking, and starts after the latest
+		 * first one aren't tried.
+		 *
+		 * @return latest start or -1 if output can't match
+		 */
+		protected int latestStart() {
+			int end = len;
+			for ( int t = types.length - 1 ; t >= 0 ; t-- ) {
+				if (types[t]==T_LITERAL||types[t]==T_EOL) {
+					end = actual.lastIndexOf(literals[t], end - literals[t].length());
+					if (end==-1)
+						return -1;
+				}
+			}
+			return end;
+		}
+
+		protected boolean matchFrom(int pos) {
+			int tok = 0;
+			boolean advance = true;
+			depth = 0;
+			for (;;) {
+				if (advance) {
+					// tokens with only 1 possible end don't need a choice point
+					while (tok < types.length && pos != -1 && hasOneEnd(types[tok])) {
+						pos = nextEnd(tok, pos, NO_CURSOR);
+						tok++;
+					}
+					if (pos==-1) {
+						// fall through to backtrack
+					} else if (tok==types.length) {
+						return true;
+					} else if (!failed.contains(tok, pos)) {
+						st_tok[depth] = tok;
+						st_pos[depth] = pos;
+						st_cursor[depth] = NO_CURSOR;
+						depth++;
+					}
+				}
+				if (depth==0)
+					return false;
+				// try next end of token on top of stack
+				int t = st_tok[depth-1];
+				int p = st_pos[depth-1];
+				int e = nextEnd(t, p, st_cursor[depth-1]);
+				if (e < 0) {
+					// tried every end: never try this token at this position again
+					failed.add(t, p);
+					depth--;
+					advance = false;
+				} else {
+					st_cursor[depth-1] = e;
+					tok = t + 1;
+					pos = e;
+					advance = true;
+				}
+			}
+		} // end protected boolean matchFrom
+
+		/** returns next end (lower than cursor) of the token starting at the position, or -1 if no more
+		 *
+		 * @param tok
+		 * @param p
+		 * @param cursor - last end returned or NO_CURSOR
+		 * @return
+		 */
+		protected int nextEnd(int tok, int p, int cursor) {
+			final boolean first = cursor == NO_CURSOR;
+			int e;
+			switch (types[tok]) {
+			case T_LITERAL:
+				return first && actual.startsWith(literals[tok], p) ? p + literals[tok].length() : -1;
+			case T_EOL:
+				if (!first)
+					return -1;
+				// allow extra text at end of line
+				for ( e = p ; e < len && !isNewline(actual.charAt(e)) ; e++ ) {}
+				return actual.startsWith(literals[tok], e) ? e + literals[tok].length() : -1;
+			case T_c:
+				return first && p < len && !isNewline(actual.charAt(p)) ? p + 1 : -1;
+			case T_e:
+				return first && p < len && (actual.charAt(p)=='\\'||actual.charAt(p)=='/') ? p + 1 : -1;
+			case T_REGEX:
+				return nextRegexEnd(tok, p, cursor);
+			case T_s:
+			case T_S:
+			case T_a:
+			case T_A:
+			case T_w:
+			case T_d:
+			case T_x:
+				return nextRunEnd(tok, p, cursor);
+			case T_i:
+				e = p < len && (actual.charAt(p)=='+'||actual.charAt(p)=='-') ? p + 1 : p;
+				if (first)
+					return runEnd(T_d, e) > e ? runEnd(T_d, e) : -1;
+				return cursor - 1 > e ? cursor - 1 : -1;
+			case T_f:
+				return nextFloatEnd(p, cursor);
+			default:
+				return -1;
+			}
+		} // end protected int nextEnd
+
+		/** next end for a %r segment: its first match (like RE would find), then any other match that ends on the same line it starts on */
+		protected int nextRegexEnd(int tok, int p, int cursor) {
+			Matcher m = patterns[tok].matcher(actual);
+			m.region(p, len);
+			final int first_end = m.lookingAt() ? m.end() : -1;
+			if (cursor == NO_CURSOR && first_end != -1)
+				return first_end;
+			int line_end = p;
+			while (line_end < len && !isNewline(actual.charAt(line_end)))
+				line_end++;
+			for ( int e = cursor == NO_CURSOR || cursor == first_end ? line_end : Math.min(cursor - 1, line_end) ; e >= p ; e-- ) {
+				if (e == first_end)
+					continue;
+				m.region(p, e);
+				if (m.matches())
+					return e;
+			}
+			return -1;
+		} // end protected int nextRegexEnd
+
+		/** next end for a wildcard that matches a run of characters of 1 class */
+		protected int nextRunEnd(int tok, int p, int cursor) {
+			final int type = types[tok];
+			final int min_end = p + (type==T_S||type==T_A||type==T_w ? 0 : 1);
+			final boolean first = cursor == NO_CURSOR;
+			int hi = first ? runEnd(type, p) : cursor - 1;
+			if (hi < min_end)
+				return -1;
+			final int next_type = tok + 1 < types.length ? types[tok+1] : -1;
+			if (next_type==-1) {
+				// last token: anything can follow, so the greedy end is the only one needed
+				return first ? hi : -1;
+			} else if (next_type==T_LITERAL) {
+				// only ends where next literal starts
+				String next_lit = literals[tok+1];
+				for ( int e = hi ; e >= min_end ; e-- ) {
+					if (actual.startsWith(next_lit, e))
+						return e;
+				}
+				return -1;
+			} else if (next_type==T_EOL) {
+				switch (type) {
+				case T_s:
+				case T_S:
+					// rest of line will be allowed as extra text at end of line: every end is the same as the greedy end
+					return first ? hi : -1;
+				case T_a:
+				case T_A:
+					// only ends at line breaks. every end on a line is the same as the end of that line
+					for ( int e = hi ; e >= min_end ; e-- ) {
+						if (e < len && isNewline(actual.charAt(e)))
+							return e;
+					}
+					return -1;
+				}
+			}
+			return hi;
+		} // end protected int nextRunEnd
+
+		/** end of run of characters of the wildcard's class starting at p */
+		protected int runEnd(int type, int p) {
+			int e = p;
+			switch (type) {
+			case T_s:
+			case T_S:
+				while (e < len && !isNewline(actual.charAt(e)))
+					e++;
+				return e;
+			case T_a:
+			case T_A:
+				return len;
+			case T_w:
+				while (e < len && Character.isWhitespace(actual.charAt(e)))
+					e++;
+				return e;
+			case T_d:
+				while (e < len && Character.isDigit(actual.charAt(e)))
+					e++;
+				return e;
+			case T_x:
+				while (e < len && isHexDigit(actual.charAt(e)))
+					e++;
+				return e;
+			default:
+				return e;
+			}
+		} // end protected int runEnd
+
+		/** %f [+-]?\.?\d+\.?\d*(?:[Ee][+-]?\d+)? can end in several places: finds all of them and returns the next one */
+		protected int nextFloatEnd(int p, int cursor) {
+			int window = 0;
+			while (p + window < len && isFloatChar(actual.charAt(p + window)))
+				window++;
+			// reach[i] => can be at p+i after matching the elements so far
+			boolean[] reach = new boolean[window+1];
+			reach[0] = true;
+			reach = union(reach, step(p, reach, '+', '-'));
+			reach = union(reach, step(p, reach, '.', '.'));
+			reach = digits(p, reach);
+			reach = union(reach, step(p, reach, '.', '.'));
+			reach = union(reach, digits(p, reach));
+			// optional exponent
+			boolean[] exp = step(p, reach, 'e', 'E');
+			exp = union(exp, step(p, exp, '+', '-'));
+			reach = union(reach, digits(p, exp));
+
+			for ( int i = cursor == NO_CURSOR ? window : Math.min(window, cursor - p - 1) ; i >= 0 ; i-- ) {
+				if (reach[i])
+					return p + i;
+			}
+			return -1;
+		} // end protected int nextFloatEnd
+
+		/** positions reached by matching 1 character (a or b) from positions in reach */
+		protected boolean[] step(int p, boolean[] reach, char a, char b) {
+			boolean[] out = new boolean[reach.length];
+			for ( int i=0 ; i < reach.length - 1 ; i++ ) {
+				if (reach[i] && (actual.charAt(p+i)==a||actual.charAt(p+i)==b))
+					out[i+1] = true;
+			}
+			return out;
+		}
+
+		/** positions reached by matching \d+ from positions in reach */
+		protected boolean[] digits(int p, boolean[] reach) {
+			boolean[] out = new boolean[reach.length];
+			for ( int i=0 ; i < reach.length - 1 ; i++ ) {
+				if ((reach[i] || out[i]) && Character.isDigit(actual.charAt(p+i)))
+					out[i+1] = true;
+			}
+			return out;
+		}
+
+		protected static boolean[] union(boolean[] a, boolean[] b) {
+			for ( int i=0 ; i < a.length ; i++ )
+				a[i] = a[i] || b[i];
+			return a;
+		}
+
+		protected static boolean isFloatChar(char c) {
+			return Character.isDigit(c) || c=='+' || c=='-' || c=='.' || c=='e' || c=='E';
+		}
+
+		protected static boolean isHexDigit(char c) {
+			return (c>='0'&&c<='9') || (c>='a'&&c<='f') || (c>='A'&&c<='F');
+		}
+
+	} // end protected static class Matching
+
+	/** literals, line breaks, %c and %e can only end in 1 place */
+	protected static boolean hasOneEnd(int type) {
+		return type==T_LITERAL || type==T_EOL || type==T_c || type==T_e;
+	}
+
+	/** same characters RE treats as line breaks (can't be matched by . ) */
+	protected static boolean isNewline(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/** (token, position) pairs that failed to match: open addressing hash set of longs.
+	 *
+	 * stops growing at #MAX_SIZE (then pairs are just tried again) so matching huge output can't run out of memory.
+	 */
+	protected static class FailedSet {
+		protected static final int MAX_SIZE = 1 << 18;
+		protected long[] table = new long[64];
+		protected int size;
+
+		protected static long key(int tok, int pos) {
+			// +1 so no key is 0 (0 marks an empty slot)
+			return ( ( (long) tok ) << 32 ) + pos + 1;
+		}
+
+		protected boolean contains(int tok, int pos) {
+			final long k = key(tok, pos);
+			final int mask = table.length - 1;
+			for ( int i = hash(k) & mask ; table[i] != 0 ; i = (i + 1) & mask ) {
+				if (table[i]==k)
+					return true;
+			}
+			return false;
+		}
+
+		protected void add(int tok, int pos) {
+			if (size >= MAX_SIZE)
+				return;
+			if (size * 2 >= table.length) {
+				long[] old = table;
+				table = new long[old.length * 2];
+				size = 0;
+				for ( long k : old ) {
+					if (k!=0)
+						put(k);
+				}
+			}
+			put(key(tok, pos));
+		}
+
+		protected void put(long k) {
+			final int mask = table.length - 1;
+			int i;
+			for ( i = hash(k) & mask ; table[i] != 0 ; i = (i + 1) & mask ) {
+				if (table[i]==k)
+					return;
+			}
+			table[i] = k;
+			size++;
+		}
+
+		protected static int hash(long k) {
+			long h = k * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+
+	} // end protected static class FailedSet
+
+	/** turns a %r segment into a java.util.regex expression. EXPECTF patterns (ex: %s) can be used in it too
+	 * 
+	 * @see PhptTestCase#prepareExpectF
+	 * @param segment
+	 * @return
+	 */
+	protected static String toRegex(String segment) {
+		StringBuilder sb = new StringBuilder(segment.length()+16);
+		final int len = segment.length();
+		char c;
+		for ( int i=0 ; i < len ; i++ ) {
+			c = segment.charAt(i);
+			if (c=='\r'||c=='\n') {
+				// allow extra text at end of line, like outside of %r
+				sb.append(".*");
+				sb.append(c);
+				continue;
+			} else if (c!='%'||i+1>=len) {
+				sb.append(c);
+				continue;
+			}
+			switch (segment.charAt(i+1)) {
+			case 's':
+				sb.append("[^\\r\\n]+");
+				break;
+			case 'S':
+				sb.append("[^\\r\\n]*");
+				break;
+			case 'a':
+				sb.append("(?s:.+)");
+				break;
+			case 'A':
+				sb.append("(?s:.*)");
+				break;
+			case 'w':
+				sb.append("\\s*");
+				break;
+			case 'i':
+				sb.append("[+-]?\\d+");
+				break;
+			case 'd':
+				sb.append("\\d+");
+				break;
+			case 'x':
+				sb.append("[0-9a-fA-F]+");
+				break;
+			case 'f':
+				sb.append("[+-]?\\.?\\d+\\.?\\d*(?:[Ee][+-]?\\d+)?");
+				break;
+			case 'c':
+				sb.append('.');
+				break;
+			case 'e':
+				sb.append("[\\\\/]");
+				break;
+			default:
+				sb.append(c);
+				continue;
+			}
+			i++;
+		}
+		return sb.toString();
+	} // end protected static String toRegex
+
+
+} // end public abstract class ExpectedOutputMatcher
@@ -726,28 +726,41 @@ public class PhpBuild extends SAPIManager {
 		if (ini!=null)
 			ini = ini.getExtensionsOnly();
 		
-		WeakHashMap<String,Boolean> map = ext_enable_map.get(ini);
-		if (map!=null) {
-			Boolean b = map.get(ext_name);
-			return b == null ? false : b.booleanValue();
+		// CRITICAL: test cases are grouped by several threads @see AbstractLocalTestPackRunner#groupTestCases
+		WeakHashMap<String,Boolean> map;
+		synchronized(ext_enable_map) {
+			map = ext_enable_map.get(ini);
+			if (map!=null) {
+				Boolean b = map.get(ext_name);
+				if (b!=null)
+					return b.booleanValue();
+				// map is only stored once it has all the available extensions
+				map.put(ext_name, Boolean.FALSE);
+				return false;
+			}
 		}
-			
-		map = new WeakHashMap<String,Boolean>();
-		ext_enable_map.put(ini, map);
 		
 		String[] available_extensions = getLoadableExtensionList(cm, host, ini);
+		map = new WeakHashMap<String,Boolean>();
 		for (String available_ext_name:available_extensions)
 			// cache as FOUND for next time
 			map.put(available_ext_name, Boolean.TRUE);
 		
+		boolean found = false;
 		for (String available_ext_name:available_extensions) {
-			if (ext_name.equals(available_ext_name))
-				return true;
+			if (ext_name.equals(available_ext_name)) {
+				found = true;
+				break;
+			}
 		}
-		
-		// cache as NOT FOUND
-		map.put(ext_name, Boolean.FALSE);
-		return false;
+		if (!found)
+			// cache as NOT FOUND
+			map.put(ext_name, Boolean.FALSE);
+		synchronized(ext_enable_map) {
+			// store only after its filled in, so other threads don't see it empty
+			ext_enable_map.put(ini, map);
+		}
+		return found;
 	} // end public boolean isExtensionEnabled
 	
 	/** checks to see if the extension is enabled or statically builtin to this build <b>using the default PhpIni</b>
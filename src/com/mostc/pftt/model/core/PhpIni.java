@@ -4,6 +4,7 @@ import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -116,6 +117,8 @@ public class PhpIni {
 	private final HashMap<String, ArrayList<String>> ini_map;
 	private SoftReference<PhpIni> ext_ini;
 	private SoftReference<String> ini_str, cli_arg;
+	/** content hash: 0 if not computed yet (or changed since) */
+	private int hash_code;
 	public boolean is_default = false;
 	
 	public PhpIni() {
@@ -127,14 +130,18 @@ public class PhpIni {
 		// "" => replace {PWD} with "" 
 	}
 	
-	private PhpIni(HashMap<String, ArrayList<String>> ini_map) {
+	protected PhpIni(HashMap<String, ArrayList<String>> ini_map) {
 		this.ini_map = ini_map;
 	}
 	
 	@Override
 	public PhpIni clone() {
-		@SuppressWarnings("unchecked")
-		PhpIni o = new PhpIni((HashMap<String,ArrayList<String>>)this.ini_map.clone());
+		// copy values too: otherwise #putMulti on the clone would change this PhpIni without updating its #hashCode
+		HashMap<String,ArrayList<String>> map = new HashMap<String,ArrayList<String>>(Math.max(16, ini_map.size() * 2));
+		for ( Map.Entry<String,ArrayList<String>> e : ini_map.entrySet() )
+			map.put(e.getKey(), new ArrayList<String>(e.getValue()));
+		PhpIni o = new PhpIni(map);
+		o.hash_code = this.hash_code;
 		o.is_default = this.is_default;
 		o.ext_ini = this.ext_ini;
 		o.ini_str = this.ini_str;
@@ -347,6 +354,7 @@ public class PhpIni {
 		values.add(value);
 		ini_map.put(directive, values);
 		cli_arg = ini_str = null;
+		hash_code = 0;
 		is_default = false;
 	}
 
@@ -376,7 +384,13 @@ public class PhpIni {
 			return;
 		} else if (!values.contains(value)) {
 			values.add(value);
+		} else {
+			// already has value
+			is_default = false;
+			return;
 		}
+		cli_arg = ini_str = null;
+		hash_code = 0;
 		is_default = false;
 	}
 	
@@ -392,6 +406,7 @@ public class PhpIni {
 			ArrayList<String> new_value = ArrayUtil.toList(values);
 			ini_map.put(directive, new_value);
 			this.cli_arg = this.ini_str = null;
+			hash_code = 0;
 		}
 		is_default = false;
 	}
@@ -403,6 +418,7 @@ public class PhpIni {
 	public void remove(String directive) {
 		ini_map.remove(directive);
 		cli_arg = ini_str = null;
+		hash_code = 0;
 		is_default = false;
 	}
 	
@@ -415,6 +431,7 @@ public class PhpIni {
 		ArrayList<String> values = ini_map.get(directive);
 		if (values!=null) {
 			cli_arg = ini_str = null;
+			hash_code = 0;
 			is_default = false;
 			
 			while (values.remove(value)) {};
@@ -578,9 +595,13 @@ public class PhpIni {
 		return ini_str;
 	}
 	
+	/** hash of all directives and values. computed once, until this PhpIni is changed (for TestCaseGroupKey, etc...) */
 	@Override
 	public int hashCode() {
-		return ini_map.hashCode();
+		int hc = hash_code;
+		if (hc==0)
+			hash_code = hc = ini_map.hashCode();
+		return hc;
 	}
 	
 	@Override
@@ -589,6 +610,11 @@ public class PhpIni {
 	}
 	
 	public boolean equals(PhpIni ini) {
+		if (ini==this)
+			return true;
+		else if (ini==null || hashCode() != ini.hashCode())
+			// cheap: most PhpInis that differ will have a different hash
+			return false;
 		return this.ini_map.equals(ini.ini_map);
 	}
 	
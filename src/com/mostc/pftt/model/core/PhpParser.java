@@ -145,6 +145,14 @@ public class PhpParser {
 			this.prog = prog;
 		}
 		
+		/** returns false if the php code couldn't be parsed (the script is then empty)
+		 * 
+		 * @return
+		 */
+		public boolean isParsed() {
+			return prog!=null;
+		}
+		
 		/** returns the classes defined by this php script
 		 * 
 		 * @return
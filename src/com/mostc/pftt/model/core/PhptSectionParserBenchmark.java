@@ -0,0 +1,271 @@
+package com.mostc.pftt.model.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.github.mattficken.io.ByLineReader;
+import com.github.mattficken.io.ListByLineReader;
+import com.github.mattficken.io.MultiCharsetByLineReader;
+import com.github.mattficken.io.StringUtil;
+
+/** Regression check and benchmark for PhptTestCase#readSections (the section parser PhptTestCase#load uses).
+ *
+ * Parses each PHPT in a test-pack with #readSections and with the parser PhptTestCase#load used before it
+ * (@see #readSectionsOld, which re-concatenated a section for every line and ran a regex on every line).
+ * Every section must be byte-identical, and both must find the same bork and unsupported info. Exits with 1 if not.
+ *
+ * A test with a duplicated section is borked (never run). The old parser appended the duplicate section's text
+ * to the section before it, the new parser ignores it, so for those tests only the bork info is compared.
+ *
+ * Then times parsing the whole test-pack both ways. Files are decoded into lines once (like PhptTestCase#load
+ * does) before timing, so only the parsers are timed.
+ *
+ * Usage: java com.mostc.pftt.model.core.PhptSectionParserBenchmark [test-pack dir]... [rounds]
+ *
+ * The test-pack dir should be php-src (or a PHPT test-pack made from it). Without any, uses a built-in test-pack:
+ * small tests, tests with big EXPECTF/FILE sections (like the mbstring and iconv tests) and tests with unusual
+ * headers (--BVoyv-- in POST_RAW, ==DONE==, unsupported and duplicated sections).
+ *
+ * @see PhptTestCase#load
+ *
+ */
+
+public class PhptSectionParserBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rounds = 5;
+		final LinkedHashMap<String,List<String>> test_pack = new LinkedHashMap<String,List<String>>();
+		for ( String arg : args ) {
+			if (arg.matches("[0-9]+"))
+				rounds = Integer.parseInt(arg);
+			else
+				loadTestPack(test_pack, new File(arg), new File(arg));
+		}
+		if (test_pack.isEmpty())
+			test_pack.putAll(builtInTestPack());
+
+		// regression check
+		int lines = 0, sections = 0, borked = 0, mismatches = 0;
+		for ( Map.Entry<String,List<String>> e : test_pack.entrySet() ) {
+			lines += e.getValue().size();
+			PhptTestCase test_case = new PhptTestCase(null, e.getKey());
+			OldTestCase old_test_case = new OldTestCase(test_case.getName());
+			readSectionsOld(old_test_case, new ListByLineReader(e.getValue()));
+			PhptTestCase.readSections(test_case, new ListByLineReader(e.getValue()));
+
+			if (!equals(old_test_case.bork_info, test_case.getBorkInfo()) || !equals(old_test_case.unsupported_info, test_case.getUnsupportedInfo())) {
+				mismatches++;
+				System.out.println("MISMATCH "+e.getKey()+": bork=["+old_test_case.bork_info+"] unsupported=["+old_test_case.unsupported_info+"] with old parser, bork=["+test_case.getBorkInfo()+"] unsupported=["+test_case.getUnsupportedInfo()+"] with new");
+				continue;
+			}
+			if (old_test_case.bork_info!=null && old_test_case.bork_info.startsWith("duplicated ")) {
+				borked++;
+				continue;
+			}
+			if (!old_test_case.section_text.keySet().equals(test_case.getSections())) {
+				mismatches++;
+				System.out.println("MISMATCH "+e.getKey()+": sections "+old_test_case.section_text.keySet()+" with old parser, "+test_case.getSections()+" with new");
+				continue;
+			}
+			for ( EPhptSection section : test_case.getSections() ) {
+				sections++;
+				if (!old_test_case.section_text.get(section).equals(test_case.get(section))) {
+					mismatches++;
+					if (mismatches <= 20)
+						System.out.println("MISMATCH "+e.getKey()+": "+section+" section differs");
+				}
+			}
+		}
+		System.out.println(test_pack.size()+" tests, "+lines+" lines, "+sections+" sections, "+borked+" borked by duplicated section (bork info only), "+mismatches+" mismatches");
+		if (mismatches > 0)
+			System.exit(1);
+
+		// benchmark
+		for ( int i=0 ; i < rounds ; i++ ) {
+			long old_millis = time(test_pack, true);
+			long new_millis = time(test_pack, false);
+			System.out.println("  old parser "+old_millis+" ms, "+(old_millis==0?lines:lines*1000/old_millis)+" lines/sec");
+			System.out.println("  new parser "+new_millis+" ms, "+(new_millis==0?lines:lines*1000/new_millis)+" lines/sec");
+		}
+	} // end public static void main
+
+	protected static long time(Map<String,List<String>> test_pack, boolean old) throws IOException {
+		System.gc();
+		final long start = System.nanoTime();
+		for ( Map.Entry<String,List<String>> e : test_pack.entrySet() ) {
+			if (old)
+				readSectionsOld(new OldTestCase(e.getKey()), new ListByLineReader(e.getValue()));
+			else
+				PhptTestCase.readSections(new PhptTestCase(null, e.getKey()), new ListByLineReader(e.getValue()));
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	protected static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/** what the old parser read from a PHPT */
+	protected static class OldTestCase {
+		protected final HashMap<EPhptSection,String> section_text = new HashMap<EPhptSection,String>();
+		protected final String name;
+		protected String bork_info, unsupported_info;
+
+		protected OldTestCase(String name) {
+			this.name = name;
+		}
+
+		protected boolean containsSection(String section) {
+			return section_text.containsKey(EPhptSection.valueOfEx(section));
+		}
+
+		protected String get(String section) {
+			return section_text.get(EPhptSection.valueOf(section));
+		}
+	}
+
+	static final Pattern PATTERN_AZ = Pattern.compile("^--([_A-Z]+)--");
+	/** the loop PhptTestCase#load used to read sections, before #readSections */
+	protected static void readSectionsOld(OldTestCase test_case, ByLineReader reader) throws IOException {
+		String line = reader.readLine();
+		if (!line.startsWith("--TEST--")) {
+			test_case.bork_info = "tests must start with --TEST-- ["+test_case.name+"]";
+		}
+
+		EPhptSection section = EPhptSection.TEST;
+		String section_str = section.toString();
+		boolean secfile = false;
+		boolean secdone = false;
+
+		while (reader.hasMoreLines()) {
+			line = reader.readLine();
+			if (line==null)
+				break;
+
+			// Match the beginning of a section.
+			// important to require all uppercase letters only
+			// some sections(POST_RAW) on some PHPTs will have some text like --BVoyv--
+			String[] r = StringUtil.getMatches(PATTERN_AZ, line.trim());
+			if (StringUtil.isNotEmpty(r)) {
+				section_str = r[0];
+				if (test_case.containsSection(section_str)) {
+					test_case.bork_info =  "duplicated "+section_str+" section";
+					continue;
+				}
+
+				section = EPhptSection.valueOfEx(section_str);
+				if (section==null) {
+					test_case.unsupported_info = section_str;
+					continue;
+				}
+
+				test_case.section_text.put(section, "");
+				secfile = section.equals(EPhptSection.FILE);
+				secdone = false;
+				continue;
+			}
+
+			// Add to the section text.
+			if (!secdone) {
+				try {
+					String a = test_case.get(section_str);
+					if (a==null)
+						a = "";
+					test_case.section_text.put(section, a+line+"\n");
+				} catch ( IllegalArgumentException ex ) {
+
+				}
+			}
+
+			// End of actual test?
+			if (secfile && line.equals("==DONE==")) {
+				secdone = true;
+			}
+		} // end while
+	} // end protected static void readSectionsOld
+
+	protected static void loadTestPack(Map<String,List<String>> test_pack, File root, File file) throws IOException {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			if (files!=null) {
+				for ( File f : files )
+					loadTestPack(test_pack, root, f);
+			}
+		} else if (file.getName().endsWith(".phpt")) {
+			InputStream in = new FileInputStream(file);
+			try {
+				String name = file.getPath().substring(root.getPath().length());
+				test_pack.put(name, readLines(in));
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/** decodes lines the same way PhptTestCase#load does (@see AHost#mReadFileDetectCharset) */
+	protected static List<String> readLines(InputStream in) throws IOException {
+		MultiCharsetByLineReader reader = new MultiCharsetByLineReader(in, PhptTestCase.newCharsetDeciderDecoder());
+		ArrayList<String> lines = new ArrayList<String>();
+		String line;
+		while (reader.hasMoreLines()) {
+			line = reader.readLine();
+			if (line==null)
+				break;
+			lines.add(line);
+		}
+		reader.close();
+		return lines;
+	}
+
+	protected static Map<String,List<String>> builtInTestPack() throws IOException {
+		LinkedHashMap<String,List<String>> test_pack = new LinkedHashMap<String,List<String>>();
+		StringBuilder sb;
+		for ( int i=0 ; i < 2000 ; i++ ) {
+			sb = new StringBuilder(512);
+			sb.append("--TEST--\nTest "+i+": strlen() basic\n--SKIPIF--\n<?php if (!extension_loaded('standard')) die('skip'); ?>\n");
+			sb.append("--INI--\nprecision=14\n--FILE--\n<?php\nvar_dump(strlen(\"abc"+i+"\"));\n?>\n");
+			sb.append("--EXPECT--\nint("+(3+Integer.toString(i).length())+")\n");
+			put(test_pack, "ext/standard/tests/strings/strlen_"+i+".phpt", sb);
+		}
+		for ( int i=0 ; i < 20 ; i++ ) {
+			// like ext/mbstring/tests/*.phpt and ext/iconv/tests/*.phpt: thousands of lines of output
+			sb = new StringBuilder(256*1024);
+			sb.append("--TEST--\nmb_convert_encoding() all chars "+i+"\n--FILE--\n<?php\n");
+			for ( int j=0 ; j < 2000 ; j++ )
+				sb.append("echo bin2hex(mb_convert_encoding(chr("+(j%256)+"), 'UTF-8', 'ISO-8859-"+(1+j%15)+"')), \"\\n\";\n");
+			sb.append("echo \"Done\\n\";\n?>\n==DONE==\nnot part of the test\n--EXPECTF--\n");
+			for ( int j=0 ; j < 5000 ; j++ )
+				sb.append("string(%d) \"").append(Integer.toHexString(j*31+i)).append("\"\n");
+			sb.append("Done\n");
+			put(test_pack, "ext/mbstring/tests/mb_convert_encoding_all_"+i+".phpt", sb);
+		}
+		sb = new StringBuilder("--TEST--\nPOST with boundary\n--POST_RAW--\nContent-Type: multipart/form-data; boundary=---------------------------20896060251896012921717172737\n");
+		sb.append("-----------------------------20896060251896012921717172737\n--BVoyv--\nContent-Disposition: form-data; name=\"a\"\n\nb\n");
+		sb.append("--FILE--\n<?php var_dump($_POST); ?>\n--EXPECT--\narray(1) {\n  [\"a\"]=>\n  string(1) \"b\"\n}\n");
+		put(test_pack, "tests/basic/post_boundary.phpt", sb);
+		// like Zend/tests/019.phpt: lines that start and end with -- but aren't headers
+		sb = new StringBuilder("--TEST--\nlines that look like headers\n--FILE--\n<?php echo \"--x--\\n-- --\\n--A1--\\n\"; ?>\n--EXPECT--\n--x--\n-- --\n--A1--\n   --IN_INDENTED--\n");
+		put(test_pack, "Zend/tests/not_headers.phpt", sb);
+		sb = new StringBuilder("--TEST--\nunsupported section\n--FILE--\n<?php echo 1; ?>\n--NOT_A_SECTION--\nignored\n--EXPECT--\n1\n");
+		put(test_pack, "tests/basic/unsupported.phpt", sb);
+		sb = new StringBuilder("--TEST--\nduplicated section\n--FILE--\n<?php echo 1; ?>\n--EXPECT--\n1\n--FILE--\n<?php echo 2; ?>\n");
+		put(test_pack, "tests/basic/duplicated.phpt", sb);
+		sb = new StringBuilder("<?php echo 'no TEST section'; ?>\n--EXPECT--\nno TEST section\n");
+		put(test_pack, "tests/basic/no_test.phpt", sb);
+		return test_pack;
+	}
+
+	protected static void put(Map<String,List<String>> test_pack, String name, StringBuilder sb) throws IOException {
+		test_pack.put(name, readLines(new ByteArrayInputStream(sb.toString().getBytes("ISO-8859-1"))));
+	}
+
+} // end public class PhptSectionParserBenchmark
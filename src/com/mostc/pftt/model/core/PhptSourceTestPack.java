@@ -4,16 +4,28 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
+import com.mostc.pftt.host.ContentSync;
 import com.mostc.pftt.host.LocalHost;
 import com.mostc.pftt.main.Config;
 import com.mostc.pftt.model.SourceTestPack;
@@ -40,16 +52,19 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 	protected File test_pack_file;
 	protected AHost host;
 	protected FileSystemScenario fs;
-	protected final LinkedList<File> non_phpt_files;
+	protected final LinkedHashSet<File> non_phpt_files;
 	protected final HashMap<String,PhptTestCase> test_cases_by_name;
 	protected SoftReference<ArrayList<PhptTestCase>> _ref_test_cases;
+	protected PhptTestPackIndex index;
+	/** number of PHPT files each fork/join task loads before it stops splitting */
+	protected static final int LOAD_BATCH_SIZE = 32;
 	
 	public PhptSourceTestPack(String test_pack) {
 		this.test_pack_file = new File(test_pack);
 		this.test_pack = this.test_pack_file.getAbsolutePath();
 		
 		test_cases_by_name = new HashMap<String,PhptTestCase>();
-		non_phpt_files = new LinkedList<File>();
+		non_phpt_files = new LinkedHashSet<File>();
 	}
 	
 	@Override
@@ -299,7 +314,9 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 		if (names.size() > 0) {
 			// assume any remaining names are name fragments and search for tests with matching names
 			
-			add_test_files(config, test_pack_file.listFiles(), test_cases, names, cm, twriter, build, null, redirect_targets);
+			add_test_files(config, test_pack_file, test_cases, names, cm, twriter, build, null, redirect_targets);
+			
+			getIndex(cm).save(cm);
 		}
 		
 		if (!ignore_missing && names.size() > 0) {
@@ -340,7 +357,9 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 		
 		test_pack_file = new File(test_pack);
 		test_pack = test_pack_file.getAbsolutePath(); // normalize path
-		add_test_files(config, test_pack_file.listFiles(), test_cases, null, cm, twriter, build, null, new LinkedList<PhptTestCase>());
+		add_test_files(config, test_pack_file, test_cases, null, cm, twriter, build, null, new LinkedList<PhptTestCase>());
+		
+		getIndex(cm).save(cm);
 		
 		//
 		// cache for use next time
@@ -349,49 +368,200 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 		_ref_test_cases = new SoftReference<ArrayList<PhptTestCase>>(_test_cases);
 	}
 	
-	private void add_test_files(Config config, File[] files, List<PhptTestCase> test_files, List<String> names, ConsoleManager cm, ITestResultReceiver twriter, PhpBuild build, PhptTestCase redirect_parent, List<PhptTestCase> redirect_targets) throws FileNotFoundException, IOException, Exception {
-		if (files==null)
-			return;
-		main_loop:
-		for ( File f : files ) {
-			if (f.getName().toLowerCase().endsWith(PhptTestCase.PHPT_FILE_EXTENSION)) {
-				if (names!=null) {
-					boolean match = false;
-					for(String name: names) {
-						if (PhptTestCase.normalizeTestCaseName(f.getPath()).contains(name)) {
-							match = true;
-							break;
+	/** a PHPT file found while scanning the test-pack, and the test loaded from it */
+	protected static class PhptFile {
+		protected final String test_name;
+		protected final long mtime, size;
+		protected PhptTestCase test_case;
+		protected Exception ex;
+		
+		protected PhptFile(String test_name, long mtime, long size) {
+			this.test_name = test_name;
+			this.mtime = mtime;
+			this.size = size;
+		}
+	}
+	
+	private void add_test_files(Config config, File dir, List<PhptTestCase> test_files, List<String> names, ConsoleManager cm, ITestResultReceiver twriter, PhpBuild build, PhptTestCase redirect_parent, List<PhptTestCase> redirect_targets) throws FileNotFoundException, IOException, Exception {
+		ArrayList<PhptFile> phpt_files = find_test_files(dir, names);
+		if (names==null && redirect_parent==null && dir.equals(test_pack_file)) {
+			// scanned the whole test-pack: forget about tests that were deleted from it
+			HashSet<String> test_names = new HashSet<String>(phpt_files.size()*2);
+			for ( PhptFile pf : phpt_files )
+				test_names.add(pf.test_name);
+			getIndex(cm).retainAll(test_names);
+		}
+		
+		int start = 0, end;
+		while (start < phpt_files.size()) {
+			if (cm.getMaxTestReadCount() > 0) {
+				if (test_cases_by_name.size() >= cm.getMaxTestReadCount())
+					break;
+				// don't bother loading tests that #add_test_case won't add: only load as many as are still
+				// needed. #add_test_case may skip some of them, so keep loading until enough have been added
+				end = Math.min(phpt_files.size(), start + (cm.getMaxTestReadCount() - test_cases_by_name.size()));
+			} else {
+				end = phpt_files.size();
+			}
+			List<PhptFile> slice = phpt_files.subList(start, end);
+			load_test_files(cm, twriter, redirect_parent, slice.toArray(new PhptFile[slice.size()]));
+			
+			// add tests in the order they were found (Config#processPHPT and REDIRECTTEST handling aren't thread-safe)
+			for ( PhptFile pf : slice ) {
+				if (pf.ex!=null) {
+					ConsoleManagerUtil.printStackTrace(PhptSourceTestPack.class, cm, pf.ex);
+					continue;
+				}
+				try {
+					add_test_case(config, pf.test_case, test_files, names, cm, twriter, build, redirect_parent, redirect_targets);
+				} catch ( Exception ex ) {
+					ConsoleManagerUtil.printStackTrace(PhptSourceTestPack.class, cm, ex);
+				}
+			}
+			start = end;
+		}
+	}
+	
+	/** walks the directory, returning the PHPT files (matching any of the names, if given) and recording
+	 * non-PHPT files that tests may need in #non_phpt_files
+	 * 
+	 * @param dir
+	 * @param names
+	 * @return
+	 * @throws IOException
+	 */
+	private ArrayList<PhptFile> find_test_files(File dir, final List<String> names) throws IOException {
+		final ArrayList<PhptFile> phpt_files = new ArrayList<PhptFile>(1024);
+		if (!dir.isDirectory())
+			return phpt_files;
+		// file attributes come with the directory listing (at least on Windows), so this is only 1 system call per directory
+		Files.walkFileTree(dir.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+					if (attrs.isDirectory())
+						// loop of symlinks(junctions)
+						return FileVisitResult.CONTINUE;
+					File f = path.toFile();
+					String n = f.getName().toLowerCase();
+					if (n.endsWith(PhptTestCase.PHPT_FILE_EXTENSION)) {
+						if (names!=null) {
+							boolean match = false;
+							String normal_path = PhptTestCase.normalizeTestCaseName(f.getPath());
+							for(String name: names) {
+								if (normal_path.contains(name)) {
+									match = true;
+									break;
+								}
+							}
+							// test doesn't match any name, ignore it
+							if (!match)
+								return FileVisitResult.CONTINUE;
+						}
+						
+						String test_name = f.getAbsolutePath().substring(test_pack.length());
+						if (test_name.startsWith("/") || test_name.startsWith("\\"))
+							test_name = test_name.substring(1);
+						
+						phpt_files.add(new PhptFile(test_name, attrs.lastModifiedTime().toMillis(), attrs.size()));
+					} else if (attrs.isRegularFile()) {
+						if (!(n.endsWith(".sh") || n.endsWith(".php") || n.endsWith(".diff") || n.endsWith(".out") || n.endsWith(".exp") || n.endsWith(".cmd") || n.endsWith(".stdin"))) {
+							// ignore these files. they may be left over if the user ran run-test.php or PFTT and aren't actually used for testing
+							// 
+							// test files we need are usually .inc but may also be .db... may be others (especially in future)
+							// have to copy them all just in case they are needed
+							non_phpt_files.add(f);
 						}
 					}
-					// test doesn't match any name, ignore it
-					if (!match)
-						continue main_loop;
+					return FileVisitResult.CONTINUE;
 				}
-					
-				String test_name = f.getAbsolutePath().substring(test_pack.length());
-				if (test_name.startsWith("/") || test_name.startsWith("\\"))
-					test_name = test_name.substring(1);
 				
+				@Override
+				public FileVisitResult visitFileFailed(Path path, IOException ex) {
+					// can't read file or directory (or symlink(junction) loop): skip it
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		return phpt_files;
+	} // end private ArrayList<PhptFile> find_test_files
+	
+	/** loads the PHPT files in parallel, using the index to skip any that haven't changed since they were last loaded.
+	 * 
+	 * sets PhptFile#test_case or PhptFile#ex for each file.
+	 * 
+	 * @param cm
+	 * @param twriter
+	 * @param redirect_parent
+	 * @param phpt_files
+	 */
+	private void load_test_files(ConsoleManager cm, ITestResultReceiver twriter, PhptTestCase redirect_parent, PhptFile[] phpt_files) {
+		LoadTask task = new LoadTask(getIndex(cm), twriter, redirect_parent, phpt_files, 0, phpt_files.length);
+		if (phpt_files.length <= LOAD_BATCH_SIZE) {
+			task.compute();
+			return;
+		}
+		// fork/join: idle threads steal the other half of a busy thread's range, so a directory of big
+		// tests doesn't leave the other threads waiting
+		ForkJoinPool.commonPool().invoke(task);
+	}
+	
+	protected class LoadTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		protected final PhptTestPackIndex index;
+		protected final ITestResultReceiver twriter;
+		protected final PhptTestCase redirect_parent;
+		protected final PhptFile[] phpt_files;
+		protected final int start, end;
+		
+		protected LoadTask(PhptTestPackIndex index, ITestResultReceiver twriter, PhptTestCase redirect_parent, PhptFile[] phpt_files, int start, int end) {
+			this.index = index;
+			this.twriter = twriter;
+			this.redirect_parent = redirect_parent;
+			this.phpt_files = phpt_files;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start > LOAD_BATCH_SIZE) {
+				int mid = (start + end) >>> 1;
+				invokeAll(
+						new LoadTask(index, twriter, redirect_parent, phpt_files, start, mid),
+						new LoadTask(index, twriter, redirect_parent, phpt_files, mid, end)
+					);
+				return;
+			}
+			PhptFile pf;
+			for ( int i=start ; i < end ; i++ ) {
+				pf = phpt_files[i];
 				try {
-					PhptTestCase test_case = PhptTestCase.load(host, this, false, test_name, twriter, redirect_parent);
-				
-					add_test_case(config, test_case, test_files, names, cm, twriter, build, redirect_parent, redirect_targets);
+					// index only stores tests as loaded without a redirect parent
+					if (redirect_parent==null) {
+						pf.test_case = index.get(PhptSourceTestPack.this, pf.test_name, pf.mtime, pf.size);
+						if (pf.test_case!=null)
+							continue;
+					}
+					pf.test_case = PhptTestCase.load(host, PhptSourceTestPack.this, false, pf.test_name, twriter, redirect_parent);
+					if (redirect_parent==null)
+						index.put(pf.test_name, pf.mtime, pf.size, pf.test_case);
 				} catch ( Exception ex ) {
-					ConsoleManagerUtil.printStackTrace(PhptSourceTestPack.class, cm, ex);
-				}
-			} else if (f.isFile()) {
-				String n = f.getName().toLowerCase();
-				if (!(n.endsWith(".sh") || n.endsWith(".php") || n.endsWith(".diff") || n.endsWith(".out") || n.endsWith(".exp") || n.endsWith(".cmd") || n.endsWith(".stdin"))) {
-					// ignore these files. they may be left over if the user ran run-test.php or PFTT and aren't actually used for testing
-					// 
-					// test files we need are usually .inc but may also be .db... may be others (especially in future)
-					// have to copy them all just in case they are needed
-					if (!non_phpt_files.contains(f))
-						non_phpt_files.add(f);
+					pf.ex = ex;
 				}
 			}
-			add_test_files(config, f.listFiles(), test_files, names, cm, twriter, build, redirect_parent, redirect_targets);
 		}
+	} // end protected class LoadTask
+	
+	/** returns the index of previously loaded tests from this test-pack, reading it from disk the first time.
+	 * 
+	 * @param cm
+	 * @return
+	 */
+	protected synchronized PhptTestPackIndex getIndex(ConsoleManager cm) {
+		if (index==null) {
+			index = new PhptTestPackIndex(PhptTestPackIndex.getIndexFile(LocalHost.getInstance().getPfttDir(), test_pack));
+			index.load(cm);
+		}
+		return index;
 	}
 	
 	private void add_test_case(Config config, PhptTestCase test_case, List<PhptTestCase> test_cases, List<String> names, ConsoleManager cm, ITestResultReceiver twriter, PhpBuild build, PhptTestCase redirect_parent, List<PhptTestCase> redirect_targets) throws FileNotFoundException, IOException, Exception {
@@ -411,7 +581,7 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 					File dir = new File(test_pack+fs.dirSeparator()+target_test_name);
 					if (dir.isDirectory()) {
 						// add all PHPTs in directory 
-						add_test_files(config, dir.listFiles(), test_cases, names, cm, twriter, build, redirect_parent, redirect_targets);
+						add_test_files(config, dir, test_cases, names, cm, twriter, build, redirect_parent, redirect_targets);
 						
 					} else {
 						// test refers to a specific test, load it
@@ -494,8 +664,12 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 			// TODO temp
 			// ((AzureKuduVFSScenario)fs).putZip(remote_test_pack_dir, new File("c:\\php-sdk\\php-test-pack-5.4.38.zip")); 
 			
-		} else if (!this.host.isRemote() || this.host.equals(host)) {
-			// installing from local host to remote host OR from remote|local host to itself
+		} else if (!this.host.isRemote()) {
+			// installing from local host to local|remote host: only copy files that changed since it was last installed there
+			ContentSync.Stats stats = ContentSync.sync(cm, getClass(), test_pack, host, remote_test_pack_dir);
+			cm.println(EPrintType.IN_PROGRESS, getClass(), "installed test-pack: "+stats);
+		} else if (this.host.equals(host)) {
+			// installing from remote host to itself
 			host.uploadCompressWith7Zip(cm, getClass(), test_pack, this.host, remote_test_pack_dir);
 		} else if (!host.isRemote()) {
 			// installing from remote host to local host
@@ -560,6 +734,24 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 		return new PhptActiveTestPack(test_pack, test_pack_dir);
 	}
 
+	/** identifies the non-PHPT files found while reading the test-pack (ex: skipif.inc files that SKIPIF sections include).
+	 * 
+	 * changes if any of them are added, removed or modified (by last modified time and size)
+	 * 
+	 * @return
+	 */
+	public String getNonPhptFilesFingerprint() {
+		long hc = 1;
+		int count = 0;
+		for ( File f : non_phpt_files ) {
+			hc = ( hc * 31 ) + f.getPath().hashCode();
+			hc = ( hc * 31 ) + f.lastModified();
+			hc = ( hc * 31 ) + f.length();
+			count++;
+		}
+		return count+"-"+Long.toHexString(hc);
+	}
+
 	protected void uploadNonTestCaseFiles(AHost dst_host, String src_dir, String dst_dir) throws IllegalStateException, IOException, Exception {
 		String remote_name;
 		for ( File f : non_phpt_files ) {
@@ -4,12 +4,12 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -30,7 +30,6 @@ import com.mostc.pftt.model.TestCase;
 import com.mostc.pftt.model.core.PhpBuild.PHPOutput;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.ITestResultReceiver;
-import com.mostc.pftt.runner.PhptTestPreparer.PreparedPhptTestCase;
 import com.mostc.pftt.scenario.FileSystemScenario;
 import com.mostc.pftt.scenario.ScenarioSetSetup;
 import com.mostc.pftt.util.apache.regexp.RE;
@@ -126,12 +125,11 @@ public class PhptTestCase extends TestCase {
 	private PhptTestCase parent;
 	private WeakReference<PhpIni> ini;
 	private WeakReference<String> ini_pwd, ini_tmp, contents;
-	private SoftReference<RE> expected_re;
+	private ExpectedOutputMatcher expected_matcher, expected_matcher_no_warnings;
 	private PhptSourceTestPack test_pack;
 	private CharsetICU common_charset;
 	private CharsetEncoder ce;
 	public boolean redo = false; // TODO temp
-	public PreparedPhptTestCase prep; // TODO temp
 	
 	/** loads the named PHPT test from the given PhptSourceTestPack
 	 * 
@@ -166,7 +164,6 @@ public class PhptTestCase extends TestCase {
 		return load(host, test_pack, keep_all, test_name, twriter, null);
 	}
 		
-	static final Pattern PATTERN_AZ = Pattern.compile("^--([_A-Z]+)--");
 	public static PhptTestCase load(AHost host, PhptSourceTestPack test_pack, boolean keep_all, String test_name, ITestResultReceiver twriter, PhptTestCase parent) throws FileNotFoundException, IOException {
 		String file = host.fixPath(test_pack.getSourceDirectory()+host.mDirSeparator()+test_name); 
 		
@@ -177,62 +174,7 @@ public class PhptTestCase extends TestCase {
 		//ByLineReader reader = PhptTestCase.isNon8BitCharset(test_case.name) ? host.mReadFileDetectCharset(file, cdd) : host.mReadFile(file);
 		ByLineReader reader = host.mReadFileDetectCharset(file, cdd);
 		
-		String line = reader.readLine();
-		if (!line.startsWith("--TEST--")) {
-			test_case.bork_info = "tests must start with --TEST-- ["+test_case+"]";
-		}
-				
-		EPhptSection section = EPhptSection.TEST;
-		String section_str = section.toString();
-		boolean secfile = false;
-		boolean secdone = false;
-	
-		while (reader.hasMoreLines()) {
-			line = reader.readLine();
-			if (line==null)
-				break;
-				
-			// Match the beginning of a section.
-			// important to require all uppercase letters only
-			// some sections(POST_RAW) on some PHPTs will have some text like --BVoyv--
-			String[] r = StringUtil.getMatches(PATTERN_AZ, line.trim());
-			if (StringUtil.isNotEmpty(r)) {
-				section_str = r[0];
-				// BN: some tests (ex: Zend/tests/019.phpt) will have lines that start and end with "--" but are not sections, they"re part of the EXPECT* section
-				if (test_case.containsSection(section_str)) {
-					test_case.bork_info =  "duplicated "+section_str+" section";
-					continue;
-				}
-				
-				section = EPhptSection.valueOfEx(section_str);
-				if (section==null) {
-					test_case.unsupported_info = section_str;
-					continue;
-				}
-				
-				test_case.section_text.put(section, "");
-				secfile = section.equals(EPhptSection.FILE) || section_str.equals(EPhptSection.FILEEOF) || section_str.equals(EPhptSection.FILE_EXTERNAL) || section_str.equals(EPhptSection.EXPECTREGEX_EXTERNAL);
-				secdone = false;
-				continue;
-			}
-			
-			// Add to the section text.
-			if (!secdone) {
-				try {
-					String a = test_case.get(section_str);
-					if (a==null)
-						a = "";
-					test_case.section_text.put(section, a+line+"\n");
-				} catch ( IllegalArgumentException ex ) {
-					
-				}
-			}
-	
-			// End of actual test?
-			if (secfile && line.equals("==DONE==")) {
-				secdone = true;
-			}
-		} // end while
+		readSections(test_case, reader);
 		
 		// validate all sections
 		for ( EPhptSection v : test_case.getSections() ) {
@@ -344,8 +286,136 @@ public class PhptTestCase extends TestCase {
 		
 		return test_case;
 	} // end public static PhptTestCase load
+	
+	/** recreates a test case from the sections PhptTestPackIndex stored the last time it was loaded,
+	 * without reading or parsing the PHPT file again.
+	 * 
+	 * @see PhptTestPackIndex
+	 * @param test_pack
+	 * @param test_name
+	 * @param sections - sections as they were after #load (after EPhptSection#prepareSection)
+	 * @param bork_info
+	 * @param unsupported_info
+	 * @param charset - charset detected when test was loaded or null
+	 * @return
+	 */
+	static PhptTestCase loadIndexed(PhptSourceTestPack test_pack, String test_name, Map<EPhptSection,String> sections, String bork_info, String unsupported_info, CharsetICU charset) {
+		PhptTestCase test_case = new PhptTestCase(test_pack, test_name);
+		test_case.section_text.putAll(sections);
+		test_case.bork_info = bork_info;
+		test_case.unsupported_info = unsupported_info;
+		if (charset!=null) {
+			test_case.common_charset = charset;
+			test_case.ce = charset.newEncoder();
+		}
+		return test_case;
+	}
 	static final Pattern RE_EOF = Pattern.compile("[\r\n]+\\\\$");
 	
+	/** reads the sections of a PHPT from reader into test_case, in 1 pass (@see PhptSectionParserBenchmark).
+	 * 
+	 * sets bork_info if the test doesn't start with --TEST-- or has a duplicate section and unsupported_info
+	 * if it has a section PFTT doesn't support. the text of duplicate and unsupported sections is ignored.
+	 * 
+	 * @param test_case
+	 * @param reader
+	 * @throws IOException
+	 */
+	protected static void readSections(PhptTestCase test_case, ByLineReader reader) throws IOException {
+		String line = reader.readLine();
+		if (!line.startsWith("--TEST--")) {
+			test_case.bork_info = "tests must start with --TEST-- ["+test_case+"]";
+		}
+				
+		// read whole file once, appending each line to a builder for its section (instead of
+		// re-concatenating the section's whole string for every line, which is slow for big sections)
+		HashMap<EPhptSection,StringBuilder> section_builders = new HashMap<EPhptSection,StringBuilder>();
+		EPhptSection section = EPhptSection.TEST;
+		StringBuilder section_builder = null; // TEST section is only added once it has a line
+		String section_str;
+		boolean secfile = false;
+		boolean secdone = false;
+	
+		while (reader.hasMoreLines()) {
+			line = reader.readLine();
+			if (line==null)
+				break;
+				
+			// Match the beginning of a section.
+			section_str = getSectionHeaderName(line);
+			if (section_str!=null) {
+				section = EPhptSection.valueOfEx(section_str);
+				// BN: some tests (ex: Zend/tests/019.phpt) will have lines that start and end with "--" but are not sections, they"re part of the EXPECT* section
+				if (section!=null && section_builders.containsKey(section)) {
+					test_case.bork_info =  "duplicated "+section_str+" section";
+					// test is borked, ignore text of duplicate section
+					section_builder = null;
+					continue;
+				}
+				
+				if (section==null) {
+					test_case.unsupported_info = section_str;
+					// ignore text of unsupported section
+					section_builder = null;
+					continue;
+				}
+				
+				section_builder = new StringBuilder(256);
+				section_builders.put(section, section_builder);
+				secfile = section == EPhptSection.FILE;
+				secdone = false;
+				continue;
+			}
+			
+			// Add to the section text.
+			if (!secdone) {
+				if (section_builder==null && section == EPhptSection.TEST) {
+					section_builder = new StringBuilder(128);
+					section_builders.put(section, section_builder);
+				}
+				if (section_builder!=null) {
+					section_builder.append(line);
+					section_builder.append('\n');
+				}
+			}
+	
+			// End of actual test?
+			if (secfile && line.equals("==DONE==")) {
+				secdone = true;
+			}
+		} // end while
+		for ( EPhptSection s : section_builders.keySet() )
+			test_case.section_text.put(s, section_builders.get(s).toString());
+		section_builders = null; // for gc
+	} // end protected static void readSections
+	
+	/** checks if line is the start of a section (ex: --FILE--) without using a regular expression.
+	 * 
+	 * same as matching ^--([_A-Z]+)-- against the trimmed line. important to require all uppercase
+	 * letters only: some sections(POST_RAW) on some PHPTs will have some text like --BVoyv--
+	 * 
+	 * @param line
+	 * @return name of section or null if line isn't a section header
+	 */
+	public static String getSectionHeaderName(String line) {
+		final int len = line.length();
+		int start = 0;
+		while (start < len && line.charAt(start) <= ' ')
+			start++;
+		if (start+5 > len || line.charAt(start)!='-' || line.charAt(start+1)!='-')
+			return null;
+		int end = start + 2;
+		char c;
+		for ( ; end < len ; end++ ) {
+			c = line.charAt(end);
+			if ((c < 'A' || c > 'Z') && c != '_')
+				break;
+		}
+		if (end == start + 2 || end + 2 > len || line.charAt(end)!='-' || line.charAt(end+1)!='-')
+			return null;
+		return line.substring(start + 2, end);
+	}
+	
 	public PhptTestCase(PhptSourceTestPack test_pack, String name) {
 		this.test_pack = test_pack;
 		this.name = normalizeTestCaseName(name);
@@ -453,19 +523,22 @@ public class PhptTestCase extends TestCase {
 		return get(EPhptSection.EXPECT);
 	}
 	
-	/** returns the output that the test wants to count it as  pass, compiled as a regular expression
+	/** returns the output that the test wants to count it as  pass, compiled into an ExpectedOutputMatcher
 	 * 
 	 * some tests provide a regular expression (using the EXPECTF or EXPECTREGEX sections) to match against, rather than providing the exact value.
 	 * 
 	 * this compiles that expression and returns it, or null if neither the EXPECTF or EXPECTREGEX sections are used.
 	 * 
+	 * the compiled matcher is kept for as long as the test case (compiling it again for each scenario set and build is slower
+	 * than the memory it takes).
+	 * 
 	 * @param host
 	 * @param scenario_set
 	 * @param twriter
 	 * @param  
 	 * @return
 	 */
-	public RE getExpectedCompiled(AHost host, ScenarioSetSetup scenario_set, ITestResultReceiver twriter) {
+	public ExpectedOutputMatcher getExpectedCompiled(AHost host, ScenarioSetSetup scenario_set, ITestResultReceiver twriter) {
 		return getExpectedCompiled(host, scenario_set, twriter, false);
 	}
 	
@@ -498,53 +571,58 @@ public class PhptTestCase extends TestCase {
 		return sb.toString().trim();
 	}
 	
-	public RE getExpectedCompiled(AHost host, ScenarioSetSetup scenario_set, ITestResultReceiver twriter, boolean remove_warning_and_error) {
-		RE expected_re;
-		if (!remove_warning_and_error && this.expected_re!=null) {
-			expected_re = this.expected_re.get();
-			if (expected_re!=null)
-				return expected_re;
-		}
+	public ExpectedOutputMatcher getExpectedCompiled(AHost host, ScenarioSetSetup scenario_set, ITestResultReceiver twriter, boolean remove_warning_and_error) {
+		ExpectedOutputMatcher expected_matcher = remove_warning_and_error ? this.expected_matcher_no_warnings : this.expected_matcher;
+		if (expected_matcher!=null)
+			return expected_matcher;
 		
 		String expected_str, oexpected_str;		
+		boolean expectf = false;
 		if (containsSection(EPhptSection.EXPECTREGEX)) {
 			expected_str = oexpected_str = remove_warning_and_error ? removeWarningAndFatalError(get(EPhptSection.EXPECTREGEX)) : getTrim(EPhptSection.EXPECTREGEX);
 		} else if (containsSection(EPhptSection.EXPECTF)) {
 			//
 			// EXPECTF has special strings (ex: %s) that are replaced by builtin regular expressions
-			// after that replacement, it is treated just like EXPECTREGEX
+			// after that replacement, it is treated just like EXPECTREGEX (but ExpectedOutputMatcher tries to match it without
+			// the regular expression first), unless an override changes it
 			//
 			expected_str = oexpected_str = remove_warning_and_error ? removeWarningAndFatalError(get(EPhptSection.EXPECTF)) : getTrim(EPhptSection.EXPECTF);
 			
 			expected_str = prepareExpectF(expected_str);
+			expectf = true;
 		} else {
 			return null;
 		}
 				
 		{
 			String override_expected_str = PhptOverrideManager.replaceWithRegexOverrides(host, expected_str);
-			if (override_expected_str!=null) {
+			if (override_expected_str!=null && !override_expected_str.equals(expected_str)) {
 				expected_str = override_expected_str;
+				expectf = false;
 			}
 		}
 		
 		try {
 			REProgram wanted_re_prog = new RECompiler().compile(expected_str);
 			
-			expected_re = new RE(wanted_re_prog);
-			this.expected_re = new SoftReference<RE>(expected_re);
-			return expected_re;
+			if (expectf)
+				expected_matcher = ExpectedOutputMatcher.forExpectF(oexpected_str, wanted_re_prog);
+			else
+				expected_matcher = ExpectedOutputMatcher.forRegex(wanted_re_prog);
 		} catch ( Throwable ex ) {
 			// log exception
 			
 			// provide the regular expression and the original section from the PHPT test
 			
 			twriter.addTestException(host, scenario_set, this, ex, expected_str, oexpected_str);
-			expected_re = new RE(); // marker to avoid trying again
-			this.expected_re = new SoftReference<RE>(expected_re);
-			return expected_re;
+			expected_matcher = ExpectedOutputMatcher.forRegex(null); // marker to avoid trying again
 		}
-	} // end public RE getExpectedCompiled
+		if (remove_warning_and_error)
+			this.expected_matcher_no_warnings = expected_matcher;
+		else
+			this.expected_matcher = expected_matcher;
+		return expected_matcher;
+	} // end public ExpectedOutputMatcher getExpectedCompiled
 
 	/** tries matching actual output String against EXPECTF or EXPECTREGEX section and
 	 * writes debugging information and output to the given PrintWriters.
@@ -649,7 +727,7 @@ public class PhptTestCase extends TestCase {
 		expected_str = StringUtil.replaceAll(PAT_A, "(.|\\\\n|\\\\r)*", expected_str);
 		expected_str = StringUtil.replaceAll(PAT_w, "\\\\s*", expected_str);
 		expected_str = StringUtil.replaceAll(PAT_i, "[+-]?\\\\d+", expected_str);
-		expected_str = StringUtil.replaceAll(PAT_d, "\\d+", expected_str);
+		expected_str = StringUtil.replaceAll(PAT_d, "\\\\d+", expected_str);
 		expected_str = StringUtil.replaceAll(PAT_x, "[0-9a-fA-F]+", expected_str);
 		expected_str = StringUtil.replaceAll(PAT_f, "[+-]?\\.?\\\\d+\\.?\\\\d*(?:[Ee][+-]?\\\\d+)?", expected_str);
 		// 2 .. (produced by 2 %c) will be ignored... can only have 1 %c or 1 .
@@ -1310,7 +1388,9 @@ public class PhptTestCase extends TestCase {
 	 * @return
 	 */
 	public static boolean isEquivalentForTestCase(PhpIni a, PhpIni b) {
-		if (a==null)
+		if (a==b)
+			return true;
+		else if (a==null)
 			return b==null || !b.containsAny(DECISIVE_DIRECTIVES);
 		else if (b==null)
 			return a==null || !a.containsAny(DECISIVE_DIRECTIVES);
@@ -0,0 +1,263 @@
+package com.mostc.pftt.model.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.github.mattficken.io.StringUtil;
+import com.ibm.icu.charset.CharsetICU;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.scenario.FileSystemScenario;
+
+/** On-disk index of the PHPT tests in a test-pack, so they don't have to be read and parsed again
+ * the next time the test-pack is read (for the next scenario set, the next build, the next run of PFTT, etc...)
+ *
+ * Each test is keyed by its name, and its file's last modified time and size. If the file has changed, the
+ * test is loaded normally (@see PhptTestCase#load) and the index is updated.
+ *
+ * Tests that load an *_EXTERNAL section are not indexed because they depend on other files too.
+ *
+ * Thread-safe: tests are looked up and added from several threads at once while a test-pack is scanned.
+ *
+ * @see PhptSourceTestPack#read
+ *
+ */
+
+public class PhptTestPackIndex {
+	protected static final byte[] MAGIC = new byte[]{'P', 'F', 'T', 'T', 'I', 'D', 'X', '1'};
+	/** entry was written without a charset (or without bork/unsupported info) */
+	protected static final int NO_STRING = -1;
+	protected final File index_file;
+	protected final ConcurrentHashMap<String,Entry> entries;
+	protected volatile boolean dirty;
+
+	protected static class Entry {
+		protected final long mtime, size;
+		protected final String charset_name, bork_info, unsupported_info;
+		protected final EnumMap<EPhptSection,String> sections;
+
+		protected Entry(long mtime, long size, String charset_name, String bork_info, String unsupported_info, EnumMap<EPhptSection,String> sections) {
+			this.mtime = mtime;
+			this.size = size;
+			this.charset_name = charset_name;
+			this.bork_info = bork_info;
+			this.unsupported_info = unsupported_info;
+			this.sections = sections;
+		}
+	} // end protected static class Entry
+
+	/**
+	 *
+	 * @param index_file - file to store index in. if null, index is only kept in memory
+	 */
+	public PhptTestPackIndex(File index_file) {
+		this.index_file = index_file;
+		entries = new ConcurrentHashMap<String,Entry>(16384);
+	}
+
+	/** decides where to store the index for the given test-pack: in the PFTT cache directory, or null if
+	 * the PFTT directory isn't known (index is then only kept in memory)
+	 *
+	 * @param pftt_dir
+	 * @param test_pack_dir
+	 * @return
+	 */
+	public static File getIndexFile(String pftt_dir, String test_pack_dir) {
+		if (StringUtil.isEmpty(pftt_dir))
+			return null;
+		return new File(pftt_dir+"/cache/index/phpt_"+FileSystemScenario.basename(test_pack_dir)+"_"+Integer.toHexString(test_pack_dir.hashCode())+".idx");
+	}
+
+	/** returns the indexed test if the file hasn't changed since it was indexed, or null
+	 *
+	 * @param test_pack
+	 * @param test_name
+	 * @param mtime - last modified time of the PHPT file
+	 * @param size - size of the PHPT file
+	 * @return
+	 */
+	public PhptTestCase get(PhptSourceTestPack test_pack, String test_name, long mtime, long size) {
+		Entry e = entries.get(test_name);
+		if (e==null || e.mtime!=mtime || e.size!=size)
+			return null;
+		CharsetICU charset = null;
+		if (e.charset_name!=null) {
+			try {
+				charset = (CharsetICU) CharsetICU.forNameICU(e.charset_name);
+			} catch ( Exception ex ) {
+				// charset not available anymore, load test normally
+				return null;
+			}
+		}
+		return PhptTestCase.loadIndexed(test_pack, test_name, e.sections, e.bork_info, e.unsupported_info, charset);
+	}
+
+	/** adds a test that was just loaded to the index
+	 *
+	 * @param test_name
+	 * @param mtime - last modified time of the PHPT file
+	 * @param size - size of the PHPT file
+	 * @param test_case
+	 */
+	public void put(String test_name, long mtime, long size, PhptTestCase test_case) {
+		if (test_case.containsAnySection(EPhptSection.EXPECT_EXTERNAL, EPhptSection.EXPECTF_EXTERNAL, EPhptSection.EXPECTREGEX_EXTERNAL))
+			return;
+		EnumMap<EPhptSection,String> sections = new EnumMap<EPhptSection,String>(EPhptSection.class);
+		for ( EPhptSection section : test_case.getSections() )
+			sections.put(section, test_case.get(section));
+		entries.put(test_name, new Entry(
+				mtime,
+				size,
+				test_case.getCommonCharset()==null?null:test_case.getCommonCharset().name(),
+				test_case.getBorkInfo(),
+				test_case.getUnsupportedInfo(),
+				sections
+			));
+		dirty = true;
+	}
+
+	/** removes the tests that aren't in test_names (ex: deleted from the test-pack) from the index
+	 *
+	 * @param test_names - names of all PHPT files currently in the test-pack
+	 */
+	public void retainAll(Collection<String> test_names) {
+		if (entries.keySet().retainAll(test_names))
+			dirty = true;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/** reads the index from its file. if file is missing or unreadable, the index is left empty.
+	 *
+	 * @param cm
+	 */
+	public void load(ConsoleManager cm) {
+		if (index_file==null || !index_file.isFile())
+			return;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(index_file)), 128*1024));
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				return;
+			int count = in.readInt();
+			for ( int i=0 ; i < count ; i++ ) {
+				String test_name = readString(in);
+				long mtime = in.readLong();
+				long size = in.readLong();
+				String charset_name = readString(in);
+				String bork_info = readString(in);
+				String unsupported_info = readString(in);
+				int section_count = in.readInt();
+				EnumMap<EPhptSection,String> sections = new EnumMap<EPhptSection,String>(EPhptSection.class);
+				EPhptSection section;
+				for ( int j=0 ; j < section_count ; j++ ) {
+					section = EPhptSection.valueOfEx(readString(in));
+					String text = readString(in);
+					// ignore sections that PFTT doesn't know about anymore
+					if (section!=null)
+						sections.put(section, text);
+				}
+				entries.put(test_name, new Entry(mtime, size, charset_name, bork_info, unsupported_info, sections));
+			}
+		} catch ( Exception ex ) {
+			// index is only a cache: start over with an empty index
+			entries.clear();
+			ConsoleManagerUtil.printStackTrace(PhptTestPackIndex.class, cm, ex);
+		} finally {
+			if (in!=null) {
+				try {
+					in.close();
+				} catch ( IOException ex ) {}
+			}
+		}
+	} // end public void load
+
+	/** writes the index to its file, if any tests were added since it was read
+	 *
+	 * @param cm
+	 */
+	public void save(ConsoleManager cm) {
+		if (index_file==null || !dirty)
+			return;
+		dirty = false;
+		index_file.getParentFile().mkdirs();
+		// write to temp file first, so an interrupted save can't leave a truncated index
+		File tmp_file = new File(index_file.getPath()+".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tmp_file)), 128*1024));
+			out.write(MAGIC);
+			// copy first: entries may be added while saving
+			Map<String,Entry> copy = new HashMap<String,Entry>(entries);
+			out.writeInt(copy.size());
+			for ( Map.Entry<String,Entry> me : copy.entrySet() ) {
+				Entry e = me.getValue();
+				writeString(out, me.getKey());
+				out.writeLong(e.mtime);
+				out.writeLong(e.size);
+				writeString(out, e.charset_name);
+				writeString(out, e.bork_info);
+				writeString(out, e.unsupported_info);
+				out.writeInt(e.sections.size());
+				for ( Map.Entry<EPhptSection,String> se : e.sections.entrySet() ) {
+					writeString(out, se.getKey().name());
+					writeString(out, se.getValue());
+				}
+			}
+			out.close();
+			out = null;
+
+			index_file.delete();
+			if (!tmp_file.renameTo(index_file))
+				tmp_file.delete();
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(PhptTestPackIndex.class, cm, ex);
+		} finally {
+			if (out!=null) {
+				try {
+					out.close();
+				} catch ( IOException ex ) {}
+				tmp_file.delete();
+			}
+		}
+	} // end public void save
+
+	/** like DataOutputStream#writeUTF, but also handles null and strings longer than 64K (sections can be big) */
+	protected static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str==null) {
+			out.writeInt(NO_STRING);
+			return;
+		}
+		byte[] b = str.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	protected static String readString(DataInputStream in) throws IOException {
+		int len = in.readInt();
+		if (len==NO_STRING)
+			return null;
+		byte[] b = new byte[len];
+		in.readFully(b);
+		return new String(b, "UTF-8");
+	}
+
+} // end public class PhptTestPackIndex
@@ -1,5 +1,8 @@
 package com.mostc.pftt.model.core;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+
 /** A PhpIni that can not be edited.
  * 
  * Attempts to edit (such as calling #putSingle) are silently ignored. No exceptions are thrown.
@@ -9,6 +12,33 @@ package com.mostc.pftt.model.core;
  */
 
 public class ReadOnlyPhpIni extends PhpIni {
+	
+	public ReadOnlyPhpIni() {
+		super();
+	}
+	
+	/** read-only copy of the given PhpIni
+	 * 
+	 * @see ConfigPool#intern
+	 * @param ini
+	 */
+	public ReadOnlyPhpIni(PhpIni ini) {
+		super(copyMap(ini));
+		this.is_default = ini.is_default;
+	}
+	
+	protected static HashMap<String,ArrayList<String>> copyMap(PhpIni ini) {
+		HashMap<String,ArrayList<String>> map = new HashMap<String,ArrayList<String>>(Math.max(4, ini.countDirectives() * 2));
+		for ( String directive : ini.getDirectives() ) {
+			String[] values = ini.getMulti(directive);
+			ArrayList<String> list = new ArrayList<String>(values.length);
+			for ( String value : values )
+				list.add(value);
+			map.put(directive, list);
+		}
+		return map;
+	}
+	
 	@Override
 	public void putSingle(String directive, String value) {
 		
@@ -16,13 +46,25 @@ public class ReadOnlyPhpIni extends PhpIni {
 	@Override
 	public void putMulti(String directive, String value) {
 		
+	}
+	@Override
+	public void setMulti(String directive, String[] values) {
+		
 	}
 	@Override
 	public void replaceAll(PhpIni ini) {
 		
+	}
+	@Override
+	public void appendAll(PhpIni ini) {
+		
 	}
 	@Override
 	public void remove(String directive) {
 		
+	}
+	@Override
+	public void removeValue(String directive, String value) {
+		
 	}
 }
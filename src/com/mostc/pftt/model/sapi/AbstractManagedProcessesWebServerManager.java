@@ -19,6 +19,7 @@ import com.mostc.pftt.model.core.PhpBuild;
 import com.mostc.pftt.model.core.PhpIni;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.results.EPrintType;
 import com.mostc.pftt.runner.AbstractPhptTestCaseRunner;
 import com.mostc.pftt.scenario.FileSystemScenario;
 import com.mostc.pftt.scenario.ScenarioSet;
@@ -38,9 +39,11 @@ public abstract class AbstractManagedProcessesWebServerManager extends WebServer
 	//
 	protected final Timer timer;
 	protected final DebuggerManager dbg_mgr;
+	protected final WarmWebServerPool warm_pool;
 	
 	public AbstractManagedProcessesWebServerManager() {
 		timer = new Timer();
+		warm_pool = new WarmWebServerPool(this);
 		
 		dbg_mgr = new WinDebugManager();
 		
@@ -128,9 +131,40 @@ public abstract class AbstractManagedProcessesWebServerManager extends WebServer
 		return could;
 	} // end public static CouldConnect canConnect
 	
+	/** spare web servers started in the background
+	 * 
+	 * @return
+	 */
+	public WarmWebServerPool getWarmPool() {
+		return warm_pool;
+	}
+	
+	@Override
+	public void close(ConsoleManager cm, boolean debug) {
+		warm_pool.close(cm);
+		if (cm!=null && warm_pool.getHitCount()+warm_pool.getMissCount() > 0)
+			cm.println(EPrintType.CLUE, getClass(), "Web Server Warm Pool: hits="+warm_pool.getHitCount()+" misses="+warm_pool.getMissCount()+" started="+warm_pool.getStartedCount()+" wasted="+warm_pool.getWastedCount());
+		super.close(cm, debug);
+	}
+	
 	static final int MAX_TOTAL_ATTEMPTS = 3;
 	@Override
 	protected WebServerInstance createWebServerInstance(ConsoleManager cm, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, Map<String,String> env, final String docroot, final boolean debugger_attached, final Object server_name, boolean is_replacement) {
+		if (!debugger_attached) {
+			// use a web server that was already started in the background, if there is one
+			WebServerInstance spare = warm_pool.take(cm, fs, host, scenario_set, build, ini, env, docroot);
+			if (spare!=null)
+				return spare;
+		}
+		return startWebServerInstance(cm, fs, host, scenario_set, build, ini, env, docroot, debugger_attached, server_name, is_replacement);
+	}
+	
+	/** starts a new web server and waits until it accepts connections
+	 * 
+	 * @see #createWebServerInstance
+	 * @return running web server or CrashedWebServerInstance if it couldn't be started
+	 */
+	protected WebServerInstance startWebServerInstance(ConsoleManager cm, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, Map<String,String> env, final String docroot, final boolean debugger_attached, final Object server_name, boolean is_replacement) {
 		String sapi_output = "";
 		int port_attempts;
 		boolean found_port;
@@ -251,7 +285,7 @@ public abstract class AbstractManagedProcessesWebServerManager extends WebServer
 		
 		// return this failure message to client code
 		return new CrashedWebServerInstance(fs, host, this, ini, env, sapi_output);
-	} // end protected WebServerInstance createWebServerInstance
+	} // end protected WebServerInstance startWebServerInstance
 	
 	@Overridable
 	protected CouldConnect _canConnect(String listen_address, int port, boolean is_replacement) {
@@ -33,7 +33,8 @@ public class TestCaseGroupKey implements IClosable {
 			return true;
 		} else if (o instanceof TestCaseGroupKey) {
 			TestCaseGroupKey c = (TestCaseGroupKey) o;
-			return (this.env==null?c.env==null||c.env.isEmpty():this.env.equals(c.env)) &&
+			// PhpIni#equals and #hashCode are cheap for the same (or interned) instance @see ConfigPool
+			return (this.env==c.env||(this.env==null?c.env.isEmpty():this.env.equals(c.env))) &&
 					PhptTestCase.isEquivalentForTestCase(this.ini, c.ini);
 		} else {
 			return false;
@@ -0,0 +1,339 @@
+package com.mostc.pftt.model.sapi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.mostc.pftt.host.AHost;
+import com.mostc.pftt.model.core.PhpBuild;
+import com.mostc.pftt.model.core.PhpIni;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.scenario.FileSystemScenario;
+import com.mostc.pftt.scenario.ScenarioSet;
+import com.mostc.pftt.util.TimerUtil;
+
+/** Keeps spare web server instances running in the background, so a test thread that needs a web server
+ * (because its web server crashed, or it moved to another TestCaseGroup) gets one immediately instead of
+ * waiting for the web server to start and accept connections.
+ *
+ * Spares are kept for each PhpIni and ENV (@see TestCaseGroupKey). The number of spares for each is based on how
+ * often web servers with that PhpIni and ENV were requested recently: groups that crash a lot get more spares, groups
+ * that don't get requested again get none. Spares beyond that number (ex: once a group's tests are done) are closed
+ * every EVICT_INTERVAL_SECONDS, and all spares of a group that wasn't requested for IDLE_TIMEOUT_MILLIS are closed,
+ * so they don't keep running (and keep their ports) until the pool is closed.
+ *
+ * Web servers with a debugger attached are never pooled.
+ *
+ * @see AbstractManagedProcessesWebServerManager#createWebServerInstance
+ *
+ */
+
+@ThreadSafe
+public class WarmWebServerPool {
+	public static final int MAX_SPARES_PER_KEY = 4;
+	public static final int STARTER_THREAD_COUNT = 2;
+	/** request rate is halved every minute, so spares stop being started for a group after it stops needing them */
+	protected static final long RATE_HALF_LIFE_MILLIS = 60*1000;
+	/** spares of a PhpIni and ENV that wasn't requested for this long are all closed */
+	protected static final long IDLE_TIMEOUT_MILLIS = 2*60*1000;
+	/** how often spares that are no longer needed are looked for */
+	public static final int EVICT_INTERVAL_SECONDS = 15;
+	protected final AbstractManagedProcessesWebServerManager ws_mgr;
+	protected final HashMap<TestCaseGroupKey,Entry> entries;
+	protected final AtomicLong hits, misses, started, wasted;
+	protected ExecutorService starter;
+	protected TimerUtil.RepeatingThread evictor;
+
+	public WarmWebServerPool(AbstractManagedProcessesWebServerManager ws_mgr) {
+		this.ws_mgr = ws_mgr;
+		entries = new HashMap<TestCaseGroupKey,Entry>();
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		started = new AtomicLong();
+		wasted = new AtomicLong();
+	}
+
+	/** spares for 1 PhpIni and ENV */
+	protected class Entry {
+		protected final TestCaseGroupKey key;
+		protected final ConsoleManager cm;
+		protected final FileSystemScenario fs;
+		protected final AHost host;
+		protected final ScenarioSet scenario_set;
+		protected final PhpBuild build;
+		protected final String docroot;
+		protected final LinkedList<WebServerInstance> spares;
+		protected int starting;
+		protected double rate;
+		protected long rate_millis, last_request_millis;
+
+		protected Entry(TestCaseGroupKey key, ConsoleManager cm, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, String docroot) {
+			this.key = key;
+			this.cm = cm;
+			this.fs = fs;
+			this.host = host;
+			this.scenario_set = scenario_set;
+			this.build = build;
+			this.docroot = docroot;
+			spares = new LinkedList<WebServerInstance>();
+			rate_millis = last_request_millis = System.currentTimeMillis();
+		}
+
+		protected boolean isFor(FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, String docroot) {
+			return this.fs==fs && this.host==host && this.scenario_set==scenario_set && this.build==build && (this.docroot==null?docroot==null:this.docroot.equals(docroot));
+		}
+
+		/** decays request rate to now */
+		protected double getRate(long now) {
+			rate = rate * Math.pow(0.5, (double)(now - rate_millis) / RATE_HALF_LIFE_MILLIS);
+			rate_millis = now;
+			return rate;
+		}
+
+		protected int getTargetSpareCount() {
+			final long now = System.currentTimeMillis();
+			if (now - last_request_millis > IDLE_TIMEOUT_MILLIS)
+				return 0;
+			return Math.min(MAX_SPARES_PER_KEY, (int)Math.ceil(getRate(now) - 0.25d));
+		}
+
+	} // end protected class Entry
+
+	/** gets a running spare web server for the PhpIni and ENV, if there is one, and starts more spares in the background if needed.
+	 *
+	 * @param cm
+	 * @param fs
+	 * @param host
+	 * @param scenario_set
+	 * @param build
+	 * @param ini
+	 * @param env
+	 * @param docroot
+	 * @return spare web server or null if none (caller must start a web server itself)
+	 */
+	@Nullable
+	public WebServerInstance take(ConsoleManager cm, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, Map<String,String> env, String docroot) {
+		final TestCaseGroupKey key = new TestCaseGroupKey(ini, env);
+		WebServerInstance spare = null;
+		ArrayList<WebServerInstance> dead = null;
+		Entry e;
+		synchronized(entries) {
+			e = entries.get(key);
+			if (e==null || !e.isFor(fs, host, scenario_set, build, docroot)) {
+				// first request for this PhpIni and ENV (or test-pack/build changed): nothing to hand over
+				if (e!=null)
+					dead = new ArrayList<WebServerInstance>(e.spares);
+				entries.put(key, new Entry(key, cm, fs, host, scenario_set, build, docroot));
+				startEvictor();
+			} else {
+				// requested again: more spares will probably be needed
+				e.last_request_millis = System.currentTimeMillis();
+				e.getRate(e.last_request_millis);
+				e.rate += 1.0d;
+
+				WebServerInstance c;
+				while ((c = e.spares.poll()) != null) {
+					if (c.isRunning()) {
+						spare = c;
+						break;
+					}
+					// crashed while waiting
+					if (dead==null)
+						dead = new ArrayList<WebServerInstance>(2);
+					dead.add(c);
+				}
+				refill(e);
+			}
+		}
+		if (dead!=null) {
+			for ( WebServerInstance c : dead ) {
+				wasted.incrementAndGet();
+				c.close(cm);
+			}
+		}
+		if (spare==null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return spare;
+	} // end public WebServerInstance take
+
+	/** starts spares in background until there are enough. must be called while synchronized on #entries */
+	protected void refill(final Entry e) {
+		final int target = e.getTargetSpareCount();
+		while (e.spares.size() + e.starting < target) {
+			e.starting++;
+			getStarter().execute(new Runnable() {
+					@Override
+					public void run() {
+						startSpare(e);
+					}
+				});
+		}
+	}
+
+	protected void startSpare(Entry e) {
+		WebServerInstance web = null;
+		try {
+			// not in a hurry here, so use the slower HTTP check (@see AbstractManagedProcessesWebServerManager#canConnect)
+			web = ws_mgr.startWebServerInstance(e.cm, e.fs, e.host, e.scenario_set, e.build, e.key.getPhpIni(), e.key.getEnv(), e.docroot, false, null, true);
+		} catch ( Throwable t ) {
+			ConsoleManagerUtil.printStackTrace(WarmWebServerPool.class, e.cm, t);
+		}
+		boolean keep = false;
+		synchronized(entries) {
+			e.starting--;
+			// if pool was closed while starting, entry won't be there anymore
+			if (web!=null && web.isRunning() && entries.get(e.key)==e) {
+				e.spares.add(web);
+				keep = true;
+			}
+		}
+		if (web!=null) {
+			if (keep) {
+				started.incrementAndGet();
+			} else {
+				// failed to start, or pool closed while it was starting
+				wasted.incrementAndGet();
+				web.close(e.cm);
+			}
+		}
+	} // end protected void startSpare
+
+	/** closes spares that are no longer needed: more than the (decayed) request rate calls for or not requested
+	 * for IDLE_TIMEOUT_MILLIS. entries with no spares that are idle are removed.
+	 * 
+	 * @return number of spares closed
+	 */
+	protected int evictIdle() {
+		ArrayList<WebServerInstance> idle = null;
+		ConsoleManager cm = null;
+		synchronized(entries) {
+			Iterator<Entry> it = entries.values().iterator();
+			while (it.hasNext()) {
+				Entry e = it.next();
+				int target = e.getTargetSpareCount();
+				while (e.spares.size() > target) {
+					if (idle==null)
+						idle = new ArrayList<WebServerInstance>(4);
+					// close the oldest spares first
+					idle.add(e.spares.poll());
+					cm = e.cm;
+				}
+				if (target==0 && e.spares.isEmpty() && e.starting==0)
+					// entry is created again if PhpIni and ENV are requested again
+					it.remove();
+			}
+		}
+		if (idle==null)
+			return 0;
+		for ( WebServerInstance c : idle ) {
+			wasted.incrementAndGet();
+			c.close(cm);
+		}
+		return idle.size();
+	} // end protected int evictIdle
+	
+	protected synchronized void startEvictor() {
+		if (evictor!=null)
+			return;
+		evictor = TimerUtil.repeatEverySeconds(EVICT_INTERVAL_SECONDS, new TimerUtil.RepeatingRunnable() {
+				@Override
+				public void run(TimerUtil.RepeatingThread thread) {
+					// closing web servers can take a while: don't do it on the timer thread
+					getStarter().execute(new Runnable() {
+							@Override
+							public void run() {
+								evictIdle();
+							}
+						});
+				}
+			});
+	}
+	
+	protected synchronized ExecutorService getStarter() {
+		if (starter==null) {
+			final AtomicInteger thread_count = new AtomicInteger();
+			starter = Executors.newFixedThreadPool(STARTER_THREAD_COUNT, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "WarmWebServerPool-"+thread_count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		}
+		return starter;
+	}
+
+	/** closes all spare web servers (and any that are still starting). pool starts over empty.
+	 *
+	 * @param cm
+	 */
+	public void close(ConsoleManager cm) {
+		ArrayList<WebServerInstance> spares = new ArrayList<WebServerInstance>();
+		synchronized(entries) {
+			for ( Entry e : entries.values() )
+				spares.addAll(e.spares);
+			entries.clear();
+		}
+		for ( WebServerInstance c : spares ) {
+			wasted.incrementAndGet();
+			c.close(cm);
+		}
+		synchronized(this) {
+			if (evictor!=null)
+				evictor.close();
+			evictor = null;
+			if (starter!=null)
+				starter.shutdownNow();
+			starter = null;
+		}
+	}
+
+	public int getSpareCount() {
+		int count = 0;
+		synchronized(entries) {
+			for ( Entry e : entries.values() )
+				count += e.spares.size();
+		}
+		return count;
+	}
+
+	/** number of times a spare web server was handed over */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** number of times a web server had to be started because there was no spare */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** number of spare web servers started */
+	public long getStartedCount() {
+		return started.get();
+	}
+
+	/** number of spare web servers closed without being used (crashed while waiting or no longer needed) */
+	public long getWastedCount() {
+		return wasted.get();
+	}
+
+	@Override
+	public String toString() {
+		return "WarmWebServerPool[hits="+getHitCount()+" misses="+getMissCount()+" started="+getStartedCount()+" wasted="+getWastedCount()+" spares="+getSpareCount()+"]";
+	}
+
+} // end public class WarmWebServerPool
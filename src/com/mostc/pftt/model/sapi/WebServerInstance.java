@@ -15,6 +15,7 @@ import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.model.TestCase;
 import com.mostc.pftt.model.core.PhpIni;
 import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.runner.HttpConnectionPool;
 import com.mostc.pftt.scenario.FileSystemScenario;
 
 /** an instance of a web server
@@ -34,6 +35,7 @@ public abstract class WebServerInstance extends SAPIInstance implements IWebServ
 	protected final Map<String,String> env;
 	protected final String[] cmd_array;
 	protected final WebServerManager ws_mgr;
+	protected final HttpConnectionPool conn_pool;
 	WebServerInstance replacement; // @see WebServerManager#getWebServerInstance
 	
 	public WebServerInstance(FileSystemScenario fs, AHost host, WebServerManager ws_mgr, String[] cmd_array, PhpIni ini, Map<String,String> env) {
@@ -44,6 +46,7 @@ public abstract class WebServerInstance extends SAPIInstance implements IWebServ
 		this.env = env;
 		active_test_cases = new LinkedList<TestCase>();
 		all_test_cases = new ArrayList<TestCase>(256);
+		conn_pool = new HttpConnectionPool();
 	}
 	
 	@Override
@@ -51,6 +54,16 @@ public abstract class WebServerInstance extends SAPIInstance implements IWebServ
 	
 	public abstract boolean isDebuggerAttached();
 	
+	/** keep-alive connections to this web server, shared by all test runners sending requests to it.
+	 * 
+	 * closed when the web server crashes or is closed.
+	 * 
+	 * @return
+	 */
+	public HttpConnectionPool getConnectionPool() {
+		return conn_pool;
+	}
+	
 	@Override
 	public int hashCode() {
 		return this.getPort() + StringUtil.hashCode(this.getHostname());
@@ -99,6 +112,8 @@ public abstract class WebServerInstance extends SAPIInstance implements IWebServ
 			
 			// if crash, record output with all tests that were running during crash
 			crashed = true;
+			// connections to dead server are useless (replacement will have its own pool)
+			conn_pool.close();
 						
 			StringBuilder sb = new StringBuilder(1024);
 			
@@ -220,6 +235,7 @@ public abstract class WebServerInstance extends SAPIInstance implements IWebServ
 	
 	@Override
 	public void close(ConsoleManager cm) {
+		conn_pool.close();
 		try {
 			do_close(cm);
 		} finally {
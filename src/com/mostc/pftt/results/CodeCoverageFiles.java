@@ -0,0 +1,92 @@
+package com.mostc.pftt.results;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.mostc.pftt.host.AHost;
+
+/** Interns the file names code coverage is stored for: each file name is given an int ID once, and its PHP code
+ * is read and stored once, no matter how many tests executed it.
+ *
+ * Not shared across the JVM: each test-pack runner has 1 for its run (@see AbstractLocalTestPackRunner#getCodeCoverageFiles)
+ * and each CodeCoverageSummary has its own, so the names and PHP code are released with them.
+ *
+ * @see TestCaseCodeCoverage
+ * @see CodeCoverageSummary
+ *
+ */
+
+@ThreadSafe
+public class CodeCoverageFiles {
+	/** file name => file ID */
+	protected final HashMap<String,Integer> file_ids;
+	/** file ID => file name */
+	protected final ArrayList<String> file_names;
+	/** file ID => PHP code of file */
+	protected final ArrayList<String> php_codes;
+
+	public CodeCoverageFiles() {
+		file_ids = new HashMap<String,Integer>();
+		file_names = new ArrayList<String>();
+		php_codes = new ArrayList<String>();
+	}
+
+	/** returns the ID for the given file name, adding it if it doesn't have 1 yet
+	 *
+	 * @param filename
+	 * @return
+	 */
+	public synchronized int getFileId(String filename) {
+		Integer file_id = file_ids.get(filename);
+		if (file_id==null) {
+			file_id = file_names.size();
+			file_ids.put(filename, file_id);
+			file_names.add(filename);
+			php_codes.add(null);
+		}
+		return file_id;
+	}
+
+	/** returns the ID for the given file name, or -1 if it doesn't have 1
+	 *
+	 * @param filename
+	 * @return
+	 */
+	public synchronized int findFileId(String filename) {
+		Integer file_id = file_ids.get(filename);
+		return file_id == null ? -1 : file_id;
+	}
+
+	public synchronized String getFileName(int file_id) {
+		return file_names.get(file_id);
+	}
+
+	/** PHP code of the file as it was when it was first executed in this run, or null if it wasn't read
+	 *
+	 * @param file_id
+	 * @return
+	 */
+	public synchronized String getPhpCode(int file_id) {
+		return php_codes.get(file_id);
+	}
+
+	/** reads the PHP code of the file from the host, if it hasn't been read yet
+	 *
+	 * @param file_id
+	 * @param host
+	 * @param path - path of file on host
+	 */
+	public void readPhpCode(int file_id, AHost host, String path) {
+		if (getPhpCode(file_id)!=null)
+			return;
+		// read without holding the lock. another thread may read it too, only the first is kept
+		String php_code = host.mReadFileAsStringEx(path);
+		synchronized(this) {
+			if (php_codes.get(file_id)==null)
+				php_codes.set(file_id, php_code);
+		}
+	}
+
+} // end public class CodeCoverageFiles
@@ -4,23 +4,43 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.kxml2.io.KXmlSerializer;
 import org.xmlpull.v1.XmlSerializer;
 
 import com.mostc.pftt.scenario.ScenarioSet;
 
+/** Code coverage of all the tests run with each ScenarioSet.
+ * 
+ * Each file's lines are merged (@see LineCoverage#union): a line is covered if any test executed it.
+ * 
+ * File names are interned once for the summary (@see CodeCoverageFiles), shared by all its ScenarioSets.
+ * 
+ * @see TestCaseCodeCoverage
+ *
+ */
+
 public class CodeCoverageSummary implements ISerializer {
 	protected final HashMap<ScenarioSet,ScenarioSetCoverage> cov_map;
+	/** tests may come from different runs, which each have their own file IDs. this summary has its own */
+	protected final CodeCoverageFiles files;
 	protected final String test_pack_name_and_version;
 
 	public CodeCoverageSummary(String test_pack_name_and_version) {
 		this.test_pack_name_and_version = test_pack_name_and_version;
 		cov_map = new HashMap<ScenarioSet,ScenarioSetCoverage>();
+		files = new CodeCoverageFiles();
 	}
 	
 	public class ScenarioSetCoverage {
-		protected int class_count, method_count, line_count, class_exe, method_exe, line_exe;
+		protected int class_count, method_count, class_exe, method_exe;
+		/** file ID => lines of file executed by any test */
+		protected final HashMap<Integer,LineCoverage> file_map;
+		
+		public ScenarioSetCoverage() {
+			file_map = new HashMap<Integer,LineCoverage>();
+		}
 		
 		public int getTotalClassCount() {
 			return class_count;
@@ -29,6 +49,9 @@ public class CodeCoverageSummary implements ISerializer {
 			return method_count;
 		}
 		public int getTotalLineCount() {
+			int line_count = 0;
+			for ( LineCoverage lines : file_map.values() )
+				line_count += lines.getExecutableLineCount();
 			return line_count;
 		}
 		public int getExecutedClassCount() {
@@ -38,16 +61,37 @@ public class CodeCoverageSummary implements ISerializer {
 			return method_exe;
 		}
 		public int getExecutedLineCount() {
+			int line_exe = 0;
+			for ( LineCoverage lines : file_map.values() )
+				line_exe += lines.getExecutedLineCount();
 			return line_exe;
 		}
 		
+		/** lines of the given file executed by any test, or null
+		 * 
+		 * @param filename
+		 * @return
+		 */
+		public LineCoverage getLineCoverage(String filename) {
+			int file_id = files.findFileId(filename);
+			return file_id == -1 ? null : file_map.get(file_id);
+		}
+		
 		public void add(TestCaseCodeCoverage cc) {
 			class_count += cc.getTotalClassCount();
 			class_exe += cc.getExecutedClassCount();
 			method_count += cc.getTotalMethodCount();
 			method_exe += cc.getExecutedMethodCount();
-			line_count += cc.getTotalLineCount();
-			line_exe += cc.getExecutedLineCount();
+			for ( int cc_file_id : cc.getFileIds() ) {
+				// cc's file ID is from its run. look up the name once per file (not per line)
+				int file_id = files.getFileId(cc.getFileName(cc_file_id));
+				LineCoverage lines = file_map.get(file_id);
+				if (lines==null)
+					// copy: cc's lines may still be changed
+					file_map.put(file_id, new LineCoverage(cc.getLineCoverage(cc_file_id)));
+				else
+					lines.union(cc.getLineCoverage(cc_file_id));
+			}
 		}
 		
 		public float classCoverage() {
@@ -59,11 +103,14 @@ public class CodeCoverageSummary implements ISerializer {
 		}
 		
 		public float lineCoverage() {
-			return 100.0f * ((float)line_exe) / ((float)line_count);
+			return 100.0f * ((float)getExecutedLineCount()) / ((float)getTotalLineCount());
 		}
 	}
 	
 	public void addTestCase(ScenarioSet scenario_set, TestCaseCodeCoverage cc) {
+		if (cc==null)
+			// test was run without code coverage (or crashed)
+			return;
 		ScenarioSetCoverage cov = cov_map.get(scenario_set);
 		if (cov==null) {
 			cov = new ScenarioSetCoverage();
@@ -73,6 +120,30 @@ public class CodeCoverageSummary implements ISerializer {
 		cov.add(cc);
 	}
 	
+	/** lines of the given file executed by tests with every ScenarioSet (@see LineCoverage#intersect), or null
+	 * if no test executed the file
+	 * 
+	 * @param filename
+	 * @return
+	 */
+	public LineCoverage getCommonLineCoverage(String filename) {
+		int file_id = files.findFileId(filename);
+		if (file_id==-1)
+			return null;
+		LineCoverage common = null;
+		for ( ScenarioSetCoverage cov : cov_map.values() ) {
+			LineCoverage lines = cov.file_map.get(file_id);
+			if (lines==null)
+				// no test with this ScenarioSet executed the file
+				lines = new LineCoverage();
+			if (common==null)
+				common = new LineCoverage(lines);
+			else
+				common.intersect(lines);
+		}
+		return common == null || common.isEmpty() ? null : common;
+	}
+	
 	@Override
 	public void serial(XmlSerializer serial) throws IllegalArgumentException, IllegalStateException, IOException {
 		ScenarioSetCoverage cov;
@@ -91,6 +162,8 @@ public class CodeCoverageSummary implements ISerializer {
 			serial.attribute("pftt", "executedClassCount", Integer.toString(cov.getExecutedClassCount()));
 			serial.attribute("pftt", "executedMethodCount", Integer.toString(cov.getExecutedMethodCount()));
 			serial.attribute("pftt", "executedLineCount", Integer.toString(cov.getExecutedLineCount()));
+			for ( Map.Entry<Integer,LineCoverage> e : cov.file_map.entrySet() )
+				TestCaseCodeCoverage.serialFile(serial, files.getFileName(e.getKey()), e.getValue());
 			serial.endTag("pftt", "scenarioSetCoverage");
 		}
 		serial.endTag("pftt", "codeCoverageSummary");
@@ -0,0 +1,348 @@
+package com.mostc.pftt.results;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.kxml2.io.KXmlSerializer;
+import org.xmlpull.v1.XmlSerializer;
+
+/** Reads segment files written by CompactResultWriter.
+ *
+ * Records are replayed into an XmlSerializer, so the legacy 1-XML-file-per-result layout can be
+ * exported on demand (@see #exportXml).
+ *
+ * @see CompactResultWriter
+ *
+ */
+
+public class CompactResultReader {
+
+	/** handles records as they're read from the segment files */
+	public static abstract class RecordHandler {
+		/** called at start of each record
+		 *
+		 * @param name
+		 * @param path
+		 * @param status
+		 * @return XmlSerializer to replay the record's document into or NULL to skip the document
+		 * @throws IOException
+		 */
+		public abstract XmlSerializer startRecord(String name, String path, String status) throws IOException;
+
+		public void sideFile(String path, String suffix, String content) throws IOException {
+		}
+
+		public void endRecord(String name, String path, XmlSerializer serial) throws IOException {
+		}
+	}
+
+	public static boolean exists(File dir) {
+		return listSegments(dir).length > 0;
+	}
+
+	/** lists segment files in the order they were written
+	 *
+	 * @param dir
+	 * @return
+	 */
+	public static File[] listSegments(File dir) {
+		File[] files = dir.listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.startsWith(CompactResultWriter.SEGMENT_PREFIX) && name.endsWith(CompactResultWriter.SEGMENT_SUFFIX);
+				}
+			});
+		if (files==null)
+			return new File[0];
+		// zero-padded names sort in write order
+		Arrays.sort(files);
+		return files;
+	}
+
+	/** reads all records from all segments in the directory
+	 *
+	 * @param dir
+	 * @param handler
+	 * @throws IOException
+	 */
+	public static void read(File dir, RecordHandler handler) throws IOException {
+		for ( File segment : listSegments(dir) )
+			readSegment(segment, handler);
+	}
+
+	/** reads the name and status of every record (without replaying the documents)
+	 *
+	 * @param dir
+	 * @return map of record name to status. if a record was written more than once, the last one is returned
+	 * @throws IOException
+	 */
+	public static LinkedHashMap<String,String> readStatus(File dir) throws IOException {
+		final LinkedHashMap<String,String> out = new LinkedHashMap<String,String>();
+		read(dir, new RecordHandler() {
+				@Override
+				public XmlSerializer startRecord(String name, String path, String status) {
+					out.put(name, status);
+					return null;
+				}
+			});
+		return out;
+	}
+
+	/** exports every record to a pretty-printed XML file (and its side files) in the same layout
+	 * PFTT used before result segments (1 file per result).
+	 *
+	 * @param dir - directory with segment files
+	 * @param out_dir - directory to write XML files to
+	 * @return number of records exported
+	 * @throws IOException
+	 */
+	public static int exportXml(File dir, final File out_dir) throws IOException {
+		final int[] count = new int[1];
+		read(dir, new RecordHandler() {
+				OutputStream out;
+
+				@Override
+				public XmlSerializer startRecord(String name, String path, String status) throws IOException {
+					File f = new File(out_dir, path+".xml");
+					f.getParentFile().mkdirs();
+					out = new BufferedOutputStream(new FileOutputStream(f));
+
+					KXmlSerializer serial = new KXmlSerializer();
+					serial.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+					serial.setOutput(out, null);
+					return serial;
+				}
+
+				@Override
+				public void sideFile(String path, String suffix, String content) throws IOException {
+					File f = new File(out_dir, path+suffix);
+					f.getParentFile().mkdirs();
+					FileWriter fw = new FileWriter(f);
+					fw.write(content);
+					fw.close();
+				}
+
+				@Override
+				public void endRecord(String name, String path, XmlSerializer serial) throws IOException {
+					serial.flush();
+					out.close();
+					count[0]++;
+				}
+			});
+		return count[0];
+	}
+
+	public static void readSegment(File segment, RecordHandler handler) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 64 * 1024));
+		try {
+			byte[] magic = new byte[CompactResultWriter.MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, CompactResultWriter.MAGIC))
+				throw new IOException("not a result segment: "+segment);
+
+			BlockDecoder d = new BlockDecoder(handler);
+			Inflater inflater = new Inflater();
+			byte[] compressed = new byte[0], raw = new byte[0];
+			try {
+				for (;;) {
+					int compressed_len, raw_len;
+					try {
+						compressed_len = in.readInt();
+					} catch ( EOFException ex ) {
+						break;
+					}
+					raw_len = in.readInt();
+					if (compressed.length < compressed_len)
+						compressed = new byte[compressed_len];
+					if (raw.length < raw_len)
+						raw = new byte[raw_len];
+					try {
+						in.readFully(compressed, 0, compressed_len);
+					} catch ( EOFException ex ) {
+						// last block was only partially written (PFTT interrupted?)
+						break;
+					}
+
+					inflater.reset();
+					inflater.setInput(compressed, 0, compressed_len);
+					try {
+						int n = 0;
+						while (n < raw_len && !inflater.finished())
+							n += inflater.inflate(raw, n, raw_len-n);
+					} catch ( DataFormatException ex ) {
+						throw new IOException("corrupt block in "+segment, ex);
+					}
+
+					d.decode(raw, raw_len);
+				}
+			} finally {
+				inflater.end();
+			}
+		} finally {
+			in.close();
+		}
+	} // end public static void readSegment
+
+	/** decodes the ops in blocks of a segment. dictionary continues from one block to the next. */
+	protected static class BlockDecoder {
+		protected final RecordHandler handler;
+		protected final ArrayList<String> dictionary;
+		protected byte[] buf;
+		protected int pos, len;
+		protected String record_name, record_path;
+		protected XmlSerializer serial;
+
+		protected BlockDecoder(RecordHandler handler) {
+			this.handler = handler;
+			dictionary = new ArrayList<String>(1024);
+		}
+
+		protected void decode(byte[] buf, int len) throws IOException {
+			this.buf = buf;
+			this.len = len;
+			pos = 0;
+			String a, b, c;
+			while (pos < len) {
+				int op = buf[pos++];
+				switch(op) {
+				case CompactResultWriter.OP_DICT:
+					dictionary.add(readString());
+					break;
+				case CompactResultWriter.OP_START_RECORD:
+					record_name = readRef();
+					record_path = readRef();
+					serial = handler.startRecord(record_name, record_path, readRef());
+					break;
+				case CompactResultWriter.OP_END_RECORD:
+					if (serial!=null)
+						handler.endRecord(record_name, record_path, serial);
+					serial = null;
+					break;
+				case CompactResultWriter.OP_SIDE_FILE:
+					a = readRef();
+					b = readRef();
+					if (serial!=null)
+						handler.sideFile(record_path, a, b);
+					break;
+				case CompactResultWriter.OP_START_DOCUMENT:
+					a = readRef();
+					b = readRef();
+					if (serial!=null)
+						serial.startDocument(a, b==null?null:Boolean.valueOf(b));
+					break;
+				case CompactResultWriter.OP_END_DOCUMENT:
+					if (serial!=null)
+						serial.endDocument();
+					break;
+				case CompactResultWriter.OP_SET_PREFIX:
+					a = readRef();
+					b = readRef();
+					if (serial!=null)
+						serial.setPrefix(a, b);
+					break;
+				case CompactResultWriter.OP_START_TAG:
+					a = readRef();
+					b = readRef();
+					if (serial!=null)
+						serial.startTag(a, b);
+					break;
+				case CompactResultWriter.OP_ATTRIBUTE:
+					a = readRef();
+					b = readRef();
+					c = readRef();
+					if (serial!=null)
+						serial.attribute(a, b, c);
+					break;
+				case CompactResultWriter.OP_END_TAG:
+					a = readRef();
+					b = readRef();
+					if (serial!=null)
+						serial.endTag(a, b);
+					break;
+				case CompactResultWriter.OP_TEXT:
+					a = readRef();
+					if (serial!=null && a!=null)
+						serial.text(a);
+					break;
+				case CompactResultWriter.OP_CDSECT:
+					a = readRef();
+					if (serial!=null)
+						serial.cdsect(a);
+					break;
+				case CompactResultWriter.OP_ENTITY_REF:
+					a = readRef();
+					if (serial!=null)
+						serial.entityRef(a);
+					break;
+				case CompactResultWriter.OP_PROCESSING_INSTRUCTION:
+					a = readRef();
+					if (serial!=null)
+						serial.processingInstruction(a);
+					break;
+				case CompactResultWriter.OP_COMMENT:
+					a = readRef();
+					if (serial!=null)
+						serial.comment(a);
+					break;
+				case CompactResultWriter.OP_DOCDECL:
+					a = readRef();
+					if (serial!=null)
+						serial.docdecl(a);
+					break;
+				case CompactResultWriter.OP_IGNORABLE_WHITESPACE:
+					a = readRef();
+					if (serial!=null)
+						serial.ignorableWhitespace(a);
+					break;
+				default:
+					throw new IOException("unknown op in result segment: "+op);
+				} // end switch
+			} // end while
+		} // end protected void decode
+
+		protected int readVarInt() {
+			int i = 0, shift = 0, b;
+			do {
+				b = buf[pos++] & 0xFF;
+				i |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return i;
+		}
+
+		protected String readString() throws IOException {
+			int n = readVarInt();
+			String str = new String(buf, pos, n, "UTF-8");
+			pos += n;
+			return str;
+		}
+
+		protected String readRef() throws IOException {
+			int id = readVarInt();
+			switch(id) {
+			case CompactResultWriter.REF_NULL:
+				return null;
+			case CompactResultWriter.REF_INLINE:
+				return readString();
+			default:
+				return dictionary.get(id - CompactResultWriter.REF_FIRST_ID);
+			}
+		}
+
+	} // end protected static class BlockDecoder
+
+} // end public class CompactResultReader
@@ -0,0 +1,471 @@
+package com.mostc.pftt.results;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.xmlpull.v1.XmlSerializer;
+
+/** Writes results into a few append-only segment files instead of 1 XML file per result.
+ *
+ * Implements XmlSerializer so anything that serializes itself to XML (ex: PhptTestResult#serial) can
+ * be stored here without a second serialization format. Each result is a record holding 1 XML document
+ * and any side files (.cmd, .sh, .php) that go with it.
+ *
+ * Tag names, attribute values and text are stored once per segment in a string dictionary and
+ * referenced by id after that, so test names, INI, ENV and section text that repeat across results
+ * are only stored once. Short strings (tag and attribute names, status, etc...) are added the first time
+ * they're seen. Longer strings are only added once they repeat, so mostly unique test output isn't kept
+ * in memory. The dictionary is capped at MAX_DICTIONARY_CHARS: once full, a new segment (with a new,
+ * empty dictionary) is started after the current record. Records are collected into blocks which are
+ * compressed with Deflate.
+ *
+ * A segment is self-contained (it has its own dictionary) so if PFTT is interrupted only the
+ * last (unflushed) block is lost.
+ *
+ * @see CompactResultReader
+ *
+ */
+
+@NotThreadSafe
+public class CompactResultWriter implements XmlSerializer {
+	public static final String SEGMENT_PREFIX = "results-";
+	public static final String SEGMENT_SUFFIX = ".seg";
+	protected static final byte[] MAGIC = new byte[]{'P', 'F', 'T', 'T', 'S', 'E', 'G', '1'};
+	//
+	protected static final int OP_DICT = 1;
+	protected static final int OP_START_RECORD = 2;
+	protected static final int OP_END_RECORD = 3;
+	protected static final int OP_START_DOCUMENT = 4;
+	protected static final int OP_END_DOCUMENT = 5;
+	protected static final int OP_START_TAG = 6;
+	protected static final int OP_ATTRIBUTE = 7;
+	protected static final int OP_END_TAG = 8;
+	protected static final int OP_TEXT = 9;
+	protected static final int OP_CDSECT = 10;
+	protected static final int OP_ENTITY_REF = 11;
+	protected static final int OP_PROCESSING_INSTRUCTION = 12;
+	protected static final int OP_COMMENT = 13;
+	protected static final int OP_DOCDECL = 14;
+	protected static final int OP_IGNORABLE_WHITESPACE = 15;
+	protected static final int OP_SET_PREFIX = 16;
+	protected static final int OP_SIDE_FILE = 17;
+	//
+	/** string reference to NULL */
+	protected static final int REF_NULL = 0;
+	/** string reference to a string that follows inline (not in dictionary) */
+	protected static final int REF_INLINE = 1;
+	/** first dictionary id */
+	protected static final int REF_FIRST_ID = 2;
+	/** strings longer than this are written inline instead of being added to the dictionary (so the
+	 * dictionary doesn't keep big outputs in memory) */
+	public static final int MAX_DICTIONARY_STRING_LENGTH = 16 * 1024;
+	/** strings up to this long are added to the dictionary the first time they're seen. longer strings
+	 * are only added the second time they're seen (@see #seen_hashes) */
+	public static final int MAX_SHORT_STRING_LENGTH = 128;
+	/** total length of strings in the dictionary before starting a new segment */
+	public static final int MAX_DICTIONARY_CHARS = 4 * 1024 * 1024;
+	/** number of slots in #seen_hashes */
+	protected static final int SEEN_HASHES_SIZE = 8192;
+	/** uncompressed size of a block before its compressed and written */
+	public static final int BLOCK_SIZE = 256 * 1024;
+	/** size of segment file before starting a new segment */
+	public static final long MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+	//
+	protected final File dir;
+	protected final HashMap<String,Integer> dictionary;
+	/** hashes of long strings that were written inline, by hash. a string that hashes to a slot that holds its
+	 * hash has (probably) been seen before, so its added to the dictionary. fixed size, so it doesn't grow with
+	 * the number of results */
+	protected final int[] seen_hashes;
+	protected final ByteArrayOutputStream block_buf;
+	protected final DataOutputStream block;
+	protected final Deflater deflater;
+	protected final ArrayList<String> tag_stack;
+	protected byte[] deflate_buf;
+	protected int segment_index, next_id, dictionary_chars;
+	protected long segment_size;
+	protected OutputStream segment_out;
+	protected boolean in_record, closed;
+	protected int record_count;
+
+	public CompactResultWriter(File dir) throws IOException {
+		this.dir = dir;
+
+		dir.mkdirs();
+
+		dictionary = new HashMap<String,Integer>();
+		seen_hashes = new int[SEEN_HASHES_SIZE];
+		block_buf = new ByteArrayOutputStream(BLOCK_SIZE + 4096);
+		block = new DataOutputStream(block_buf);
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		deflate_buf = new byte[BLOCK_SIZE];
+		tag_stack = new ArrayList<String>(8);
+
+		// append-only: never reopen an existing segment, start a new one after the last
+		segment_index = CompactResultReader.listSegments(dir).length;
+		openSegment();
+	}
+
+	protected void openSegment() throws IOException {
+		File f;
+		do {
+			f = new File(dir, SEGMENT_PREFIX+String.format("%04d", segment_index)+SEGMENT_SUFFIX);
+			segment_index++;
+		} while (f.exists());
+
+		segment_out = new BufferedOutputStream(new FileOutputStream(f), 64 * 1024);
+		segment_out.write(MAGIC);
+		segment_size = MAGIC.length;
+
+		dictionary.clear();
+		Arrays.fill(seen_hashes, 0);
+		dictionary_chars = 0;
+		next_id = REF_FIRST_ID;
+	}
+
+	/** starts a new record. a record holds 1 XML document and any number of side files.
+	 *
+	 * @param name - name of the result (ex: test case name)
+	 * @param path - relative path (without extension) used when exporting the record as files
+	 * @param status - status of the result, so it can be read without replaying the document
+	 * @throws IOException
+	 */
+	public void startRecord(String name, String path, String status) throws IOException {
+		if (closed)
+			throw new IllegalStateException("CompactResultWriter is closed");
+		if (in_record)
+			throw new IllegalStateException("previous record not ended");
+		in_record = true;
+		tag_stack.clear();
+
+		writeRef(name);
+		writeRef(path);
+		writeRef(status);
+		block.writeByte(OP_START_RECORD);
+		writeRefId(name);
+		writeRefId(path);
+		writeRefId(status);
+	}
+
+	/** adds a file to the current record (ex: .cmd, .sh or .php file to reproduce a test)
+	 *
+	 * @param suffix - appended to the record's path to get the file name (ex: .php)
+	 * @param content
+	 * @throws IOException
+	 */
+	public void addSideFile(String suffix, String content) throws IOException {
+		checkInRecord();
+		op(OP_SIDE_FILE, suffix, content);
+	}
+
+	public void endRecord() throws IOException {
+		checkInRecord();
+		block.writeByte(OP_END_RECORD);
+		in_record = false;
+		record_count++;
+
+		if (dictionary_chars >= MAX_DICTIONARY_CHARS) {
+			// dictionary is full: start a new segment (with an empty dictionary). can only be done between records
+			flushBlock();
+			if (segment_size > MAGIC.length) {
+				segment_out.close();
+				openSegment();
+			}
+		} else if (block.size() >= BLOCK_SIZE) {
+			flushBlock();
+		}
+	}
+
+	public int getRecordCount() {
+		return record_count;
+	}
+
+	protected void checkInRecord() {
+		if (!in_record)
+			throw new IllegalStateException("not in a record. call #startRecord first");
+	}
+
+	/** compresses and writes the current block to the segment file. only done between records. */
+	protected void flushBlock() throws IOException {
+		block.flush();
+		if (block_buf.size()==0)
+			return;
+		byte[] raw = block_buf.toByteArray();
+		block_buf.reset();
+
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		int len = 0;
+		while (!deflater.finished()) {
+			if (len==deflate_buf.length) {
+				byte[] b = new byte[deflate_buf.length*2];
+				System.arraycopy(deflate_buf, 0, b, 0, len);
+				deflate_buf = b;
+			}
+			len += deflater.deflate(deflate_buf, len, deflate_buf.length-len);
+		}
+
+		writeInt(segment_out, len);
+		writeInt(segment_out, raw.length);
+		segment_out.write(deflate_buf, 0, len);
+		segment_out.flush();
+		segment_size += 8 + len;
+
+		if (segment_size >= MAX_SEGMENT_SIZE) {
+			segment_out.close();
+			openSegment();
+		}
+	}
+
+	public void close() throws IOException {
+		if (closed)
+			return;
+		if (in_record)
+			endRecord();
+		flushBlock();
+		segment_out.close();
+		deflater.end();
+		closed = true;
+	}
+
+	protected static void writeInt(OutputStream out, int i) throws IOException {
+		out.write((i >>> 24) & 0xFF);
+		out.write((i >>> 16) & 0xFF);
+		out.write((i >>> 8) & 0xFF);
+		out.write(i & 0xFF);
+	}
+
+	protected void writeVarInt(int i) throws IOException {
+		while ((i & ~0x7F) != 0) {
+			block.writeByte((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		block.writeByte(i);
+	}
+
+	protected void writeString(String str) throws IOException {
+		byte[] b = str.getBytes("UTF-8");
+		writeVarInt(b.length);
+		block.write(b);
+	}
+
+	/** adds string to dictionary (if its not already there and is worth adding). must be called before the op that uses it. */
+	protected void writeRef(String str) throws IOException {
+		if (str==null || str.length() > MAX_DICTIONARY_STRING_LENGTH || dictionary_chars >= MAX_DICTIONARY_CHARS || dictionary.containsKey(str))
+			return;
+		if (str.length() > MAX_SHORT_STRING_LENGTH) {
+			// only keep long strings that repeat
+			int h = str.hashCode();
+			int slot = (h & 0x7fffffff) % SEEN_HASHES_SIZE;
+			if (seen_hashes[slot]!=h || h==0) {
+				seen_hashes[slot] = h;
+				return;
+			}
+		}
+		dictionary.put(str, next_id++);
+		dictionary_chars += str.length();
+		block.writeByte(OP_DICT);
+		writeString(str);
+	}
+
+	protected void writeRefId(String str) throws IOException {
+		if (str==null) {
+			writeVarInt(REF_NULL);
+			return;
+		}
+		Integer id = dictionary.get(str);
+		if (id==null) {
+			writeVarInt(REF_INLINE);
+			writeString(str);
+		} else {
+			writeVarInt(id.intValue());
+		}
+	}
+
+	protected void op(int op, String a) throws IOException {
+		writeRef(a);
+		block.writeByte(op);
+		writeRefId(a);
+	}
+
+	protected void op(int op, String a, String b) throws IOException {
+		writeRef(a);
+		writeRef(b);
+		block.writeByte(op);
+		writeRefId(a);
+		writeRefId(b);
+	}
+
+	protected void op(int op, String a, String b, String c) throws IOException {
+		writeRef(a);
+		writeRef(b);
+		writeRef(c);
+		block.writeByte(op);
+		writeRefId(a);
+		writeRefId(b);
+		writeRefId(c);
+	}
+
+	//
+	// XmlSerializer
+
+	@Override
+	public void setFeature(String name, boolean state) throws IllegalArgumentException, IllegalStateException {
+		// ignore: indenting, etc... is decided when exporting
+	}
+
+	@Override
+	public boolean getFeature(String name) {
+		return false;
+	}
+
+	@Override
+	public void setProperty(String name, Object value) throws IllegalArgumentException, IllegalStateException {
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		return null;
+	}
+
+	@Override
+	public void setOutput(OutputStream os, String encoding) throws IOException, IllegalArgumentException, IllegalStateException {
+		throw new IllegalStateException("output is always the segment files");
+	}
+
+	@Override
+	public void setOutput(Writer writer) throws IOException, IllegalArgumentException, IllegalStateException {
+		throw new IllegalStateException("output is always the segment files");
+	}
+
+	@Override
+	public void startDocument(String encoding, Boolean standalone) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_START_DOCUMENT, encoding, standalone==null?null:standalone.toString());
+	}
+
+	@Override
+	public void endDocument() throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		block.writeByte(OP_END_DOCUMENT);
+	}
+
+	@Override
+	public void setPrefix(String prefix, String namespace) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_SET_PREFIX, prefix, namespace);
+	}
+
+	@Override
+	public String getPrefix(String namespace, boolean generatePrefix) throws IllegalArgumentException {
+		return null;
+	}
+
+	@Override
+	public int getDepth() {
+		return tag_stack.size();
+	}
+
+	@Override
+	public String getNamespace() {
+		return null;
+	}
+
+	@Override
+	public String getName() {
+		return tag_stack.isEmpty() ? null : tag_stack.get(tag_stack.size()-1);
+	}
+
+	@Override
+	public XmlSerializer startTag(String namespace, String name) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_START_TAG, namespace, name);
+		tag_stack.add(name);
+		return this;
+	}
+
+	@Override
+	public XmlSerializer attribute(String namespace, String name, String value) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_ATTRIBUTE, namespace, name, value);
+		return this;
+	}
+
+	@Override
+	public XmlSerializer endTag(String namespace, String name) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_END_TAG, namespace, name);
+		if (!tag_stack.isEmpty())
+			tag_stack.remove(tag_stack.size()-1);
+		return this;
+	}
+
+	@Override
+	public XmlSerializer text(String text) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_TEXT, text);
+		return this;
+	}
+
+	@Override
+	public XmlSerializer text(char[] buf, int start, int len) throws IOException, IllegalArgumentException, IllegalStateException {
+		return text(new String(buf, start, len));
+	}
+
+	@Override
+	public void cdsect(String text) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_CDSECT, text);
+	}
+
+	@Override
+	public void entityRef(String text) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_ENTITY_REF, text);
+	}
+
+	@Override
+	public void processingInstruction(String text) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_PROCESSING_INSTRUCTION, text);
+	}
+
+	@Override
+	public void comment(String text) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_COMMENT, text);
+	}
+
+	@Override
+	public void docdecl(String text) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_DOCDECL, text);
+	}
+
+	@Override
+	public void ignorableWhitespace(String text) throws IOException, IllegalArgumentException, IllegalStateException {
+		checkInRecord();
+		op(OP_IGNORABLE_WHITESPACE, text);
+	}
+
+	/** does nothing. blocks are only written between records (@see #endRecord) or when closed (@see #close)
+	 * so they can be compressed well.
+	 */
+	@Override
+	public void flush() throws IOException {
+	}
+
+} // end public class CompactResultWriter
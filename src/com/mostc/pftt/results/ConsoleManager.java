@@ -106,5 +106,26 @@ public interface ConsoleManager {
 	public boolean isIgnoreOutput();
 	public String getDebuggerName();
 	public DebuggerManager getDebuggerManager();
+	/**
+	 * should PHPT results be stored in compressed result segments (TRUE) or 1 XML file per test (FALSE)
+	 * 
+	 * @see -compact_results console option
+	 * @return
+	 */
+	public boolean isCompactResults();
+	/**
+	 * should SKIPIF output cached from previous test runs NOT be used (TRUE) or be used (FALSE)
+	 * 
+	 * @see -no_skipif_cache console option
+	 * @return
+	 */
+	public boolean isNoSkipIfCache();
+	/**
+	 * should EXPECTF sections be matched with both matchers and any difference in results be reported (TRUE) or not (FALSE)
+	 * 
+	 * @see -expectf_diff console option
+	 * @return
+	 */
+	public boolean isExpectFDiff();
 	
 } // end public class ConsoleManager
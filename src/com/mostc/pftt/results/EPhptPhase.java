@@ -0,0 +1,37 @@
+package com.mostc.pftt.results;
+
+/** phases of running a PhptTestCase that are timed by PhptTimings.
+ *
+ * Some phases are part of another phase: SPAWN and DECODE are part of EXECUTE (and of SKIPIF and CLEAN if
+ * they run a process), DIFF is part of EVALUATE.
+ *
+ * SERIALIZE is timed on the result-pack writer thread, all other phases on the thread running the test.
+ *
+ * @see PhptTimings
+ *
+ */
+
+public enum EPhptPhase {
+	/** creating the test's files (up to executing SKIPIF section) */
+	PREPARE,
+	/** executing (or batching) SKIPIF section and checking its output */
+	SKIPIF,
+	/** creating the files and command to execute TEST section */
+	PREPARE_TEST,
+	/** executing TEST section, including SPAWN and DECODE */
+	EXECUTE,
+	/** starting a process */
+	SPAWN,
+	/** converting a process' output to a String */
+	DECODE,
+	/** checking output against EXPECT, EXPECTF or EXPECTREGEX section, including DIFF */
+	EVALUATE,
+	/** generating a diff (and regular expression dump) for a failing test */
+	DIFF,
+	/** queuing result for result-pack writer (includes waiting if writer is behind) */
+	REPORT,
+	/** writing result to result-pack */
+	SERIALIZE,
+	/** executing CLEAN section and deleting test's files */
+	CLEAN
+}
@@ -0,0 +1,155 @@
+package com.mostc.pftt.results;
+
+import java.util.BitSet;
+
+import com.mostc.pftt.results.TestCaseCodeCoverage.ELineState;
+
+/** Coverage of the lines of 1 file: 3 bitsets (executed, not executed and not executable) indexed by line number.
+ *
+ * A line is in at most 1 of the bitsets. A line that isn't in any of them is ELineState#UNKNOWN.
+ *
+ * Merging (#union, #intersect) works on whole words of the bitsets, so it takes time proportional to the number
+ * of lines in the file / 64 instead of the number of lines.
+ *
+ * @see TestCaseCodeCoverage
+ * @see CodeCoverageSummary
+ *
+ */
+
+public class LineCoverage {
+	protected final BitSet executed, not_executed, not_executable;
+
+	public LineCoverage() {
+		executed = new BitSet();
+		not_executed = new BitSet();
+		not_executable = new BitSet();
+	}
+
+	public LineCoverage(LineCoverage other) {
+		executed = (BitSet) other.executed.clone();
+		not_executed = (BitSet) other.not_executed.clone();
+		not_executable = (BitSet) other.not_executable.clone();
+	}
+
+	public void setLineState(int line_num, ELineState state) {
+		setLineState(line_num, line_num, state);
+	}
+
+	/** sets lines from_line_num to to_line_num (inclusive) to the given state */
+	public void setLineState(int from_line_num, int to_line_num, ELineState state) {
+		executed.clear(from_line_num, to_line_num+1);
+		not_executed.clear(from_line_num, to_line_num+1);
+		not_executable.clear(from_line_num, to_line_num+1);
+		switch(state) {
+		case EXECUTED:
+			executed.set(from_line_num, to_line_num+1);
+			break;
+		case NOT_EXECUTED:
+			not_executed.set(from_line_num, to_line_num+1);
+			break;
+		case NOT_EXECUTABLE:
+			not_executable.set(from_line_num, to_line_num+1);
+			break;
+		default:
+			break;
+		}
+	}
+
+	public ELineState getLineState(int line_num) {
+		if (line_num < 0)
+			return ELineState.UNKNOWN;
+		else if (executed.get(line_num))
+			return ELineState.EXECUTED;
+		else if (not_executed.get(line_num))
+			return ELineState.NOT_EXECUTED;
+		else if (not_executable.get(line_num))
+			return ELineState.NOT_EXECUTABLE;
+		else
+			return ELineState.UNKNOWN;
+	}
+
+	/** merges other into this: a line is executed if it was executed in either, otherwise not executed if it
+	 * was executable in either.
+	 *
+	 * ex: lines executed by any test
+	 *
+	 * @param other
+	 */
+	public void union(LineCoverage other) {
+		executed.or(other.executed);
+		not_executed.or(other.not_executed);
+		not_executed.andNot(executed);
+		not_executable.or(other.not_executable);
+		not_executable.andNot(executed);
+		not_executable.andNot(not_executed);
+	}
+
+	/** merges other into this: a line is executed only if it was executed in both, otherwise not executed if it
+	 * was executable in either.
+	 *
+	 * ex: lines executed by every scenario set
+	 *
+	 * @param other
+	 */
+	public void intersect(LineCoverage other) {
+		// executable in either
+		not_executed.or(executed);
+		not_executed.or(other.executed);
+		not_executed.or(other.not_executed);
+		executed.and(other.executed);
+		not_executed.andNot(executed);
+		not_executable.or(other.not_executable);
+		not_executable.andNot(executed);
+		not_executable.andNot(not_executed);
+	}
+
+	/** number of lines that were executed */
+	public int getExecutedLineCount() {
+		return executed.cardinality();
+	}
+
+	/** number of lines that could have been executed (executed or not executed) */
+	public int getExecutableLineCount() {
+		return executed.cardinality() + not_executed.cardinality();
+	}
+
+	public boolean isEmpty() {
+		return executed.isEmpty() && not_executed.isEmpty() && not_executable.isEmpty();
+	}
+
+	/** line numbers in the given state, as a compact list of ranges: ex: 1-5,8,10-12
+	 *
+	 * @param state
+	 * @return
+	 */
+	public String toRanges(ELineState state) {
+		switch(state) {
+		case EXECUTED:
+			return toRanges(executed);
+		case NOT_EXECUTED:
+			return toRanges(not_executed);
+		case NOT_EXECUTABLE:
+			return toRanges(not_executable);
+		default:
+			return "";
+		}
+	}
+
+	protected static String toRanges(BitSet lines) {
+		StringBuilder sb = new StringBuilder(64);
+		int start = lines.nextSetBit(0), end;
+		while (start >= 0) {
+			end = lines.nextClearBit(start) - 1;
+			if (sb.length()>0)
+				sb.append(',');
+			sb.append(start);
+			if (end > start) {
+				sb.append('-');
+				sb.append(end);
+			}
+			start = lines.nextSetBit(end + 1);
+		}
+		return sb.toString();
+	}
+
+} // end public class LineCoverage
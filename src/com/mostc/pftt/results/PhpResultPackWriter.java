@@ -9,6 +9,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
@@ -18,6 +22,7 @@ import com.mostc.pftt.model.TestCase;
 import com.mostc.pftt.model.app.EPhpUnitTestStatus;
 import com.mostc.pftt.model.app.PhpUnitSourceTestPack;
 import com.mostc.pftt.model.app.PhpUnitTestCase;
+import com.mostc.pftt.model.core.ConfigPool;
 import com.mostc.pftt.model.core.EBuildBranch;
 import com.mostc.pftt.model.core.EPhptTestStatus;
 import com.mostc.pftt.model.core.PhpBuild;
@@ -28,7 +33,6 @@ import com.mostc.pftt.model.ui.EUITestStatus;
 import com.mostc.pftt.model.ui.UITestPack;
 import com.mostc.pftt.scenario.ScenarioSet;
 import com.mostc.pftt.scenario.ScenarioSetSetup;
-import com.mostc.pftt.util.TimerUtil;
 
 /** Writes the result-pack from a test run.
  * 
@@ -46,14 +50,24 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	protected PrintWriter global_exception_writer;
 	protected LocalConsoleManager cm;
 	protected PhpBuild build;
-	//protected LinkedBlockingQueue<ResultQueueEntry> results;
-	protected LinkedList<ResultQueueEntry> results;
-	protected boolean run_writer_thread = true;
+	protected volatile boolean run_writer_thread = true;
 	protected final PhpBuildInfo build_info;
 	protected final EBuildBranch test_pack_branch;
 	protected final String test_pack_version;
-	protected final Thread writer_thread;
+	protected final ResultQueueWorker[] writer_threads;
 	protected final Config config;
+	/** default number of writer threads. results are sharded across them by (host, scenario set)
+	 * so different scenario sets are written in parallel while results for the same writer
+	 * stay in order */
+	public static final int DEFAULT_WRITER_THREAD_COUNT = 4;
+	/** default number of results each writer thread may have queued before test threads
+	 * block in #addResult (backpressure, so a slow disk can't grow the heap without bound) */
+	public static final int DEFAULT_RESULT_QUEUE_CAPACITY = 512;
+	/** config scripts (processPhptTestResult, etc...) and the console/gui aren't thread-safe, so only
+	 * 1 writer thread may call them at a time */
+	protected final Object shared_lock = new Object();
+	/** PhpInis and ENVs of results written to this result-pack @see #addResult */
+	protected final ConfigPool config_pool;
 	
 	protected class UITestScenarioSetGroup {
 		protected final HashMap<String,HashMap<ScenarioSetSetup,UITestWriter>> map;
@@ -107,12 +121,29 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 	
 	public PhpResultPackWriter(LocalHost local_host, LocalConsoleManager cm, File telem_base_dir, PhpBuild build, PhptSourceTestPack src_test_pack, Config config) throws Exception {
+		this(local_host, cm, telem_base_dir, build, src_test_pack, config, DEFAULT_WRITER_THREAD_COUNT, DEFAULT_RESULT_QUEUE_CAPACITY);
+	}
+	
+	/**
+	 * 
+	 * @param local_host
+	 * @param cm
+	 * @param telem_base_dir
+	 * @param build
+	 * @param src_test_pack
+	 * @param config
+	 * @param writer_thread_count - number of threads writing results
+	 * @param result_queue_capacity - maximum results queued per writer thread before #addResult blocks
+	 * @throws Exception
+	 */
+	public PhpResultPackWriter(LocalHost local_host, LocalConsoleManager cm, File telem_base_dir, PhpBuild build, PhptSourceTestPack src_test_pack, Config config, int writer_thread_count, int result_queue_capacity) throws Exception {
 		super(local_host);
 		
 		this.config = config;
 		
 		ui_test_writer_map = new HashMap<AHost,HashMap<String,UITestScenarioSetGroup>>(16);
 		phpt_writer_map = new HashMap<AHost,HashMap<ScenarioSetSetup,HashMap<String,PhptResultWriter>>>(3);
+		config_pool = new ConfigPool();
 		phpunit_writer_map = new HashMap<AHost,HashMap<String,PhpUnitScenarioSetGroup>>(16);
 		
 		cm.w = this;
@@ -144,39 +175,125 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			ConsoleManagerUtil.printStackTrace(PhpResultPackWriter.class, cm, ex);
 		}
 		
-		results = new LinkedList<ResultQueueEntry>();//new LinkedBlockingQueue<ResultQueueEntry>();
-		
 		global_exception_writer = new PrintWriter(new FileWriter(this.telem_dir+"/GLOBAL_EXCEPTIONS.txt"));
 		
-		writer_thread = new Thread() {
-				@Override
-				public void run() {
-					ResultQueueEntry q = null;
+		writer_threads = new ResultQueueWorker[Math.max(1, writer_thread_count)];
+		for ( int i=0 ; i < writer_threads.length ; i++ ) {
+			writer_threads[i] = new ResultQueueWorker(i, Math.max(1, result_queue_capacity));
+			writer_threads[i].start();
+		}
+	}
+	
+	/** writes queued results for 1 shard of (host, scenario set)s.
+	 * 
+	 * blocks on its queue instead of polling it, so results are written as soon as they're added
+	 * and #wait returns as soon as the last result is written.
+	 *
+	 */
+	protected class ResultQueueWorker extends Thread {
+		protected final BlockingQueue<ResultQueueEntry> queue;
+		/** entries added but not yet handled (includes the entry currently being handled) */
+		protected final AtomicInteger pending;
+		/** set once StopQueueEntry was handled: nothing will take entries from the queue anymore */
+		protected volatile boolean stopped;
+		
+		protected ResultQueueWorker(int i, int capacity) {
+			super("ResultWriter"+i);
+			queue = new ArrayBlockingQueue<ResultQueueEntry>(capacity);
+			pending = new AtomicInteger();
+		}
+		
+		/** queues the entry. blocks the calling (test) thread if the writer is too far behind.
+		 * 
+		 * @param e
+		 * @return FALSE if entry was dropped because this writer was stopped or the calling thread was interrupted
+		 */
+		protected boolean add(ResultQueueEntry e) {
+			pending.incrementAndGet();
+			try {
+				while (!stopped) {
+					// wait in steps, so if writer is stopped while this thread waits, this thread won't block forever
+					if (queue.offer(e, 1, TimeUnit.SECONDS))
+						return true;
+				}
+				ConsoleManagerUtil.printStackTrace(PhpResultPackWriter.class, cm, new IllegalStateException("Result-pack writer closed, dropped: "+e));
+			} catch ( InterruptedException ex ) {
+				// test thread is being stopped: let it stop (don't keep it waiting on the queue)
+				Thread.currentThread().interrupt();
+			}
+			if (pending.decrementAndGet()==0) {
+				synchronized(pending) {
+					pending.notifyAll();
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		public void run() {
+			ResultQueueEntry q;
+			for (;;) {
+				try {
+					q = queue.take();
+				} catch ( InterruptedException ex ) {
+					continue;
+				}
+				if (q instanceof StopQueueEntry) {
+					stopped = true;
+					break;
+				}
+				try {
+					q.handle();
+				} catch ( Exception ex ) {
+					ConsoleManagerUtil.printStackTrace(PhpResultPackWriter.class, ex);
+				} finally {
+					q = null; // for gc
 					
-					while (run_writer_thread || !results.isEmpty()) {
-						try {
-							synchronized(results) {
-								q = results.isEmpty() ? null : results.removeFirst();
-							}
-						} catch ( Exception ex ) {
-						}
-						if (q==null) {
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-							}
-							continue;
+					if (pending.decrementAndGet()==0) {
+						synchronized(pending) {
+							pending.notifyAll();
 						}
-						try {
-							q.handle();
-						} catch ( Exception ex ) {
-							ConsoleManagerUtil.printStackTrace(PhpResultPackWriter.class, ex);
-						}
-						q = null; // for gc
 					}
 				}
-			};
-		writer_thread.start();
+			}
+			synchronized(pending) {
+				pending.set(0);
+				pending.notifyAll();
+			}
+		}
+		
+		/** waits until all entries queued so far have been handled
+		 * 
+		 * @return FALSE if interrupted
+		 */
+		protected boolean waitEmpty() {
+			synchronized(pending) {
+				while (pending.get()>0) {
+					try {
+						pending.wait(1000);
+					} catch ( InterruptedException ex ) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		
+	} // end protected class ResultQueueWorker
+	
+	protected ResultQueueWorker getWriterThread(AHost this_host, ScenarioSetSetup this_scenario_set_setup) {
+		// ScenarioSetSetup#hashCode is its ScenarioSet#hashCode, so #wait(AHost, ScenarioSet) finds the same thread
+		return getWriterThread(this_host, this_scenario_set_setup==null?0:this_scenario_set_setup.hashCode());
+	}
+	
+	protected ResultQueueWorker getWriterThread(AHost this_host, int scenario_set_hash) {
+		int h = (this_host==null?0:this_host.hashCode()) * 31 + scenario_set_hash;
+		h ^= (h >>> 16);
+		return writer_threads[(h & 0x7fffffff) % writer_threads.length];
+	}
+	
+	protected void enqueue(HSResultQueueEntry e) {
+		getWriterThread(e.this_host, e.this_scenario_set_setup).add(e);
 	}
 
 	protected abstract class ResultQueueEntry {
@@ -194,6 +311,15 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 		
 	}
 	
+	/** tells a ResultQueueWorker to exit after handling everything queued before it */
+	protected class StopQueueEntry extends ResultQueueEntry {
+		
+		@Override
+		public void handle() {
+		}
+		
+	}
+	
 	protected abstract class PhptQueueEntry extends HSResultQueueEntry {
 		protected final PhptSourceTestPack src_test_pack;
 		
@@ -238,7 +364,9 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			
 			// TODO sg.code_coverage_summary.addTestCase(this_scenario_set, cc);
 			
-			w.addResult(test_name, comment, status, verified_html, screenshot_png, sapi_output, sapi_config);
+			synchronized(w) {
+				w.addResult(test_name, comment, status, verified_html, screenshot_png, sapi_output, sapi_config);
+			}
 			
 			System.out.println(_toString(status)+" "+test_name); // TODO
 		}
@@ -290,7 +418,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 		}
 	}
 	
-	protected UITestScenarioSetGroup getCreateUITestWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, UITestPack test_pack, String web_browser_name_and_version) throws IllegalArgumentException, IllegalStateException, FileNotFoundException, IOException {
+	protected synchronized UITestScenarioSetGroup getCreateUITestWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, UITestPack test_pack, String web_browser_name_and_version) throws IllegalArgumentException, IllegalStateException, FileNotFoundException, IOException {
 		String test_pack_name_and_version = test_pack.getNameAndVersionInfo().intern();
 		
 		HashMap<String,UITestScenarioSetGroup> a = ui_test_writer_map.get(this_host);
@@ -344,22 +472,31 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 
 		@Override
 		public void handle() throws IOException {
-			config.processPhptTestResult(cm, this_result);
+			synchronized(shared_lock) {
+				config.processPhptTestResult(cm, this_result);
+			}
 			PhptResultWriter w = getCreatePhptResultWriter(this_host, this_scenario_set_setup, src_test_pack);
 			
+			final long start = w.serialize_timings.start();
 			w.writeResult(cm, this_host, this_scenario_set_setup, this_result);
+			w.serialize_timings.end(EPhptPhase.SERIALIZE, start);
 			this_result.extra = null;
 			this_result.code_coverage = null;
 			
 			// show on console
 			// TODO
-			w.count++;
-			System.out.println(w.count+" "+_toString(this_result.status)+" "+this_result.test_case);
+			int count;
+			synchronized(w) {
+				count = ++w.count;
+			}
+			System.out.println(count+" "+_toString(this_result.status)+" "+this_result.test_case);
 			
 			if (cm!=null) {
 				// show in tui/gui (if open)
 				// TODO cm.showResult(host, getTotalCount(), completed++, this_result);
-				cm.showResult(host, 0, 0, this_result);
+				synchronized(shared_lock) {
+					cm.showResult(host, 0, 0, this_result);
+				}
 			}
 		}
 		
@@ -369,7 +506,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 		return getCreatePhptResultWriter(this_host, this_scenario_set_setup, test_pack.getNameAndVersionString());
 	}
 	
-	protected PhptResultWriter getCreatePhptResultWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, String test_pack_name) throws IOException {
+	protected synchronized PhptResultWriter getCreatePhptResultWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, String test_pack_name) throws IOException {
 		HashMap<ScenarioSetSetup,HashMap<String,PhptResultWriter>> a = phpt_writer_map.get(this_host);
 		HashMap<String,PhptResultWriter> b;
 		PhptResultWriter w = null;
@@ -404,14 +541,20 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 
 		@Override
 		public void handle() throws IllegalArgumentException, IllegalStateException, IOException {
-			config.processPhpUnitTestResult(cm, this_result);
+			synchronized(shared_lock) {
+				config.processPhpUnitTestResult(cm, this_result);
+			}
 			PhpUnitScenarioSetGroup sg = getCreatePhpUnitResultWriter(
 					this_host,
 					this_scenario_set_setup,
 					this_result.test_case.getPhpUnitDist().getSourceTestPack()
 				);
-			if (sg.code_coverage_summary!=null)
-				sg.code_coverage_summary.addTestCase(this_scenario_set_setup.getScenarioSet(), this_result.code_coverage);
+			if (sg.code_coverage_summary!=null) {
+				// group is shared by all scenario sets, which may be written by different writer threads
+				synchronized(sg) {
+					sg.code_coverage_summary.addTestCase(this_scenario_set_setup.getScenarioSet(), this_result.code_coverage);
+				}
+			}
 			
 			PhpUnitResultWriter w = sg.getWriter(this_scenario_set_setup);
 			
@@ -419,17 +562,22 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			
 			// show on console
 			// TODO
-			w.count++;
-			System.out.println(w.count+" "+_toString(this_result.status)+" "+this_result.test_case);
+			int count;
+			synchronized(w) {
+				count = ++w.count;
+			}
+			System.out.println(count+" "+_toString(this_result.status)+" "+this_result.test_case);
 			
 			if (cm!=null) {
-				cm.showResult(this_host, 0, w.count, this_result);
+				synchronized(shared_lock) {
+					cm.showResult(this_host, 0, count, this_result);
+				}
 			}
 		}
 		
 	} // end protected class PhpUnitResultQueueEntry
 	
-	protected PhpUnitScenarioSetGroup getCreatePhpUnitResultWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, PhpUnitSourceTestPack src_test_pack) throws FileNotFoundException, IOException {
+	protected synchronized PhpUnitScenarioSetGroup getCreatePhpUnitResultWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, PhpUnitSourceTestPack src_test_pack) throws FileNotFoundException, IOException {
 		String test_pack_name_and_version = src_test_pack.getNameAndVersionString().intern();
 		
 		HashMap<String,PhpUnitScenarioSetGroup> a = phpunit_writer_map.get(this_host);
@@ -544,25 +692,19 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	@Override
 	public void notifyStart(AHost host, ScenarioSetSetup scenario_set_setup, PhptSourceTestPack src_test_pack, PhptTestCase test_case) {
 		PhptTestStartQueueEntry e = new PhptTestStartQueueEntry(host, scenario_set_setup, src_test_pack, test_case.getName());
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	@Override
 	public void notifyStart(AHost host, ScenarioSetSetup scenario_set_setup, PhpUnitSourceTestPack src_test_pack, PhpUnitTestCase test_case) {
 		PhpUnitTestStartQueueEntry e = new PhpUnitTestStartQueueEntry(host, scenario_set_setup, src_test_pack, test_case.getName());
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	@Override
 	public void notifyStart(AHost host, ScenarioSetSetup scenario_set_setup, UITestPack test_pack, String web_browser_name_and_version, String test_name) {
 		UITestStartQueueEntry e = new UITestStartQueueEntry(host, scenario_set_setup, test_pack, web_browser_name_and_version, test_name);
-		synchronized(e) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	public File getResultPackPath() {
@@ -575,9 +717,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	
 	public void addResult(AHost this_host, ScenarioSetSetup this_scenario_set_setup, String test_name, String comment, EUITestStatus status, String verified_html, byte[] screenshot_png, UITestPack test_pack, String web_browser_name_and_version, String sapi_output, String sapi_config) {
 		UIResultQueueEntry e = new UIResultQueueEntry(this_host, this_scenario_set_setup, test_name, comment, status, verified_html, screenshot_png, test_pack, web_browser_name_and_version, sapi_output, sapi_config);
-		synchronized(e) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	public void addTestException(AHost this_host, ScenarioSetSetup this_scenario_set_setup, PhptTestCase test_file, Throwable ex, Object a) {
@@ -607,11 +747,13 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	
 	@Override
 	public void addResult(AHost this_host, ScenarioSetSetup this_scenario_set_setup, PhptSourceTestPack src_test_pack, PhptTestResult result) {
+		// results wait in the queue with their own PhpIni and ENV (ENV is created for each test): share equal ones
+		result.ini = config_pool.intern(result.ini);
+		result.env = config_pool.intern(result.env);
+		
 		// enqueue result to be handled by another thread to avoid delaying every phpt thread
 		PhptResultQueueEntry e = new PhptResultQueueEntry(this_host, this_scenario_set_setup, src_test_pack, result);
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	// TODO rename these
@@ -651,9 +793,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	@Override
 	public void addResult(AHost host, ScenarioSetSetup scenario_set_setup, PhpUnitTestResult result) {
 		PhpUnitResultQueueEntry e = new PhpUnitResultQueueEntry(host, scenario_set_setup, result);
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	protected class NotifyPhptFinishedEntry extends PhptQueueEntry {
@@ -671,9 +811,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	
 	public void notifyPhptFinished(AHost host, ScenarioSetSetup scenario_set, PhptSourceTestPack src_test_pack) {
 		NotifyPhptFinishedEntry e = new NotifyPhptFinishedEntry(host, scenario_set, src_test_pack);
-		synchronized(e) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	protected class NotifyPhpUnitFinishedEntry extends PhpUnitQueueEntry {
@@ -693,9 +831,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	
 	public void notifyPhpUnitFinished(AHost host, ScenarioSetSetup scenario_set_setup, PhpUnitSourceTestPack src_test_pack) {
 		NotifyPhpUnitFinishedEntry e = new NotifyPhpUnitFinishedEntry(host, scenario_set_setup, src_test_pack);
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	protected class NotifyUITestFinishedEntry extends UIQueueEntry {
@@ -714,18 +850,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	
 	public void notifyUITestFinished(AHost host, ScenarioSetSetup scenario_set_setup, UITestPack test_pack, String web_browser_name_and_version) {
 		NotifyUITestFinishedEntry e = new NotifyUITestFinishedEntry(host, scenario_set_setup, test_pack, web_browser_name_and_version);
-		synchronized(results) {
-			results.add(e);
-		}
-	}
-	
-	protected class CloseQueueEntry extends ResultQueueEntry {
-
-		@Override
-		public void handle() throws IllegalArgumentException, IllegalStateException, IOException {
-			doClose();
-		}
-		
+		enqueue(e);
 	}
 	
 	@Override
@@ -736,29 +861,45 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	public void close(boolean block) {
 		if (run_writer_thread) {
 			run_writer_thread = false;
-			CloseQueueEntry e = new CloseQueueEntry();
-			synchronized(results) {
-				results.add(e);
-			}
 			if (block) {
-				while (!results.isEmpty()) {
-					if (!TimerUtil.trySleepMillis(100))
-						break;
-				}
+				stopWriterThreads();
+				doClose();
+			} else {
+				// let writer threads finish what's queued, then close
+				new Thread("ResultWriterClose") {
+						@Override
+						public void run() {
+							stopWriterThreads();
+							doClose();
+						}
+					}.start();
 			}
 		} else {
 			doClose();
 		}
 	}
 	
-	public void wait(AHost host, ScenarioSet scenario_set) {
-		// TODO
-		while (!results.isEmpty()) {
-			if (!TimerUtil.trySleepMillis(100))
+	protected void stopWriterThreads() {
+		for ( ResultQueueWorker t : writer_threads )
+			t.add(new StopQueueEntry());
+		for ( ResultQueueWorker t : writer_threads ) {
+			try {
+				t.join();
+			} catch ( InterruptedException ex ) {
 				break;
+			}
 		}
 	}
 	
+	/** blocks until all results queued so far for the host and scenario set have been written
+	 * 
+	 * @param host
+	 * @param scenario_set
+	 */
+	public void wait(AHost host, ScenarioSet scenario_set) {
+		getWriterThread(host, scenario_set==null?0:scenario_set.hashCode()).waitEmpty();
+	}
+	
 	protected void doClose() {
 		run_writer_thread = false;
 		
@@ -776,7 +917,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	} // end protected void doClose
 	
 	@Override
-	public Collection<AbstractPhptRW> getPHPT(AHost host, String test_pack_name) {
+	public synchronized Collection<AbstractPhptRW> getPHPT(AHost host, String test_pack_name) {
 		HashMap<ScenarioSetSetup,HashMap<String,PhptResultWriter>> map_a = phpt_writer_map.get(host);
 		if (map_a==null)
 			return null;
@@ -802,7 +943,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractPhptRW> getPHPT(AHost host) {
+	public synchronized Collection<AbstractPhptRW> getPHPT(AHost host) {
 		HashMap<ScenarioSetSetup,HashMap<String,PhptResultWriter>> map_a = phpt_writer_map.get(host);
 		if (map_a==null)
 			return null;
@@ -813,7 +954,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractPhptRW> getPHPT() {
+	public synchronized Collection<AbstractPhptRW> getPHPT() {
 		LinkedList<AbstractPhptRW> out = new LinkedList<AbstractPhptRW>();
 		for ( AHost host : phpt_writer_map.keySet() ) {
 			for ( ScenarioSetSetup scenario_set : phpt_writer_map.get(host).keySet() ) {
@@ -824,7 +965,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractPhpUnitRW> getPhpUnit(AHost host, ScenarioSetSetup scenario_set) {
+	public synchronized Collection<AbstractPhpUnitRW> getPhpUnit(AHost host, ScenarioSetSetup scenario_set) {
 		HashMap<String,PhpUnitScenarioSetGroup> a = phpunit_writer_map.get(host);
 		LinkedList<AbstractPhpUnitRW> out = new LinkedList<AbstractPhpUnitRW>();
 		if (a==null)
@@ -838,7 +979,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractPhpUnitRW> getPhpUnit(AHost host) {
+	public synchronized Collection<AbstractPhpUnitRW> getPhpUnit(AHost host) {
 		HashMap<String,PhpUnitScenarioSetGroup> a = phpunit_writer_map.get(host);
 		LinkedList<AbstractPhpUnitRW> out = new LinkedList<AbstractPhpUnitRW>();
 		if (a==null)
@@ -851,7 +992,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractPhpUnitRW> getPhpUnit() {
+	public synchronized Collection<AbstractPhpUnitRW> getPhpUnit() {
 		LinkedList<AbstractPhpUnitRW> out = new LinkedList<AbstractPhpUnitRW>();
 		for ( AHost host : phpunit_writer_map.keySet() ) {
 			for ( String test_pack_name_and_version : phpunit_writer_map.get(host).keySet() ) {
@@ -867,7 +1008,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public AbstractPhpUnitRW getPhpUnit(AHost host, String test_pack_name_and_version, ScenarioSetSetup scenario_set) {
+	public synchronized AbstractPhpUnitRW getPhpUnit(AHost host, String test_pack_name_and_version, ScenarioSetSetup scenario_set) {
 		HashMap<String,PhpUnitScenarioSetGroup> a = phpunit_writer_map.get(host);
 		if (a==null)
 			return null;
@@ -887,7 +1028,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractPhpUnitRW> getPhpUnit(AHost host, String test_pack_name_and_version) {
+	public synchronized Collection<AbstractPhpUnitRW> getPhpUnit(AHost host, String test_pack_name_and_version) {
 		HashMap<String,PhpUnitScenarioSetGroup> a = phpunit_writer_map.get(host);
 		LinkedList<AbstractPhpUnitRW> out = new LinkedList<AbstractPhpUnitRW>();
 		if (a==null)
@@ -901,7 +1042,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractPhpUnitRW> getPhpUnit(String test_pack_name_and_version) {
+	public synchronized Collection<AbstractPhpUnitRW> getPhpUnit(String test_pack_name_and_version) {
 		LinkedList<AbstractPhpUnitRW> out = new LinkedList<AbstractPhpUnitRW>();
 		for ( HashMap<String,PhpUnitScenarioSetGroup> a : phpunit_writer_map.values() ) {
 			PhpUnitScenarioSetGroup b = a.get(test_pack_name_and_version);
@@ -914,7 +1055,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public AbstractUITestRW getUITest(AHost host, ScenarioSetSetup scenario_set) {
+	public synchronized AbstractUITestRW getUITest(AHost host, ScenarioSetSetup scenario_set) {
 		HashMap<String,UITestScenarioSetGroup> a = ui_test_writer_map.get(host);
 		if (a==null)
 			return null;
@@ -928,7 +1069,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractUITestRW> getUITest(AHost host) {
+	public synchronized Collection<AbstractUITestRW> getUITest(AHost host) {
 		HashMap<String,UITestScenarioSetGroup> a = ui_test_writer_map.get(host);
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
 		if (a==null)
@@ -943,7 +1084,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractUITestRW> getUITest() {
+	public synchronized Collection<AbstractUITestRW> getUITest() {
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
 		for ( HashMap<String,UITestScenarioSetGroup> a : ui_test_writer_map.values() ) {
 			for ( UITestScenarioSetGroup b : a.values() ) {
@@ -957,7 +1098,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractUITestRW> getUITest(AHost host, String test_pack_name_and_version, ScenarioSetSetup scenario_set) {
+	public synchronized Collection<AbstractUITestRW> getUITest(AHost host, String test_pack_name_and_version, ScenarioSetSetup scenario_set) {
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
 		HashMap<String,UITestScenarioSetGroup> a = ui_test_writer_map.get(host);
 		if (a!=null) {
@@ -974,7 +1115,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractUITestRW> getUITest(AHost host, String test_pack_name_and_version) {
+	public synchronized Collection<AbstractUITestRW> getUITest(AHost host, String test_pack_name_and_version) {
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
 		HashMap<String,UITestScenarioSetGroup> a = ui_test_writer_map.get(host);
 		if (a!=null) {
@@ -990,7 +1131,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AbstractUITestRW> getUITest(String test_pack_name_and_version) {
+	public synchronized Collection<AbstractUITestRW> getUITest(String test_pack_name_and_version) {
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
 		for ( HashMap<String,UITestScenarioSetGroup> a : ui_test_writer_map.values() ) {
 			UITestScenarioSetGroup b = a.get(test_pack_name_and_version);
@@ -1015,13 +1156,14 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<AHost> getHosts() {
+	public synchronized Collection<AHost> getHosts() {
 		// TODO combine phpunit_writer_map and uitest_writer_map
-		return phpt_writer_map.keySet();
+		// copy: map may be changed by writer threads after returning
+		return new ArrayList<AHost>(phpt_writer_map.keySet());
 	}
 
 	@Override
-	public Collection<String> getPhptTestPacks(AHost host) {
+	public synchronized Collection<String> getPhptTestPacks(AHost host) {
 		LinkedList<String> out = new LinkedList<String>();
 		for ( HashMap<String,PhptResultWriter> a : phpt_writer_map.get(host).values() ) {
 			for ( String test_pack : a.keySet() ) {
@@ -1033,7 +1175,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<ScenarioSet> getPhptScenarioSets(AHost host, String phpt_test_pack) {
+	public synchronized Collection<ScenarioSet> getPhptScenarioSets(AHost host, String phpt_test_pack) {
 		LinkedList<ScenarioSet> out = new LinkedList<ScenarioSet>();
 		for ( ScenarioSetSetup s : phpt_writer_map.get(host).keySet() ) {
 			HashMap<String,PhptResultWriter> a = phpt_writer_map.get(host).get(s);
@@ -1044,12 +1186,12 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	}
 
 	@Override
-	public Collection<String> getPhpUnitTestPacks(AHost host) {
-		return phpunit_writer_map.get(host).keySet();
+	public synchronized Collection<String> getPhpUnitTestPacks(AHost host) {
+		return new ArrayList<String>(phpunit_writer_map.get(host).keySet());
 	}
 
 	@Override
-	public Collection<ScenarioSet> getPhpUnitScenarioSets(AHost host, String phpunit_test_pack) {
+	public synchronized Collection<ScenarioSet> getPhpUnitScenarioSets(AHost host, String phpunit_test_pack) {
 		LinkedList<ScenarioSet> out = new LinkedList<ScenarioSet>();
 		for ( ScenarioSetSetup s : phpunit_writer_map.get(host).get(phpunit_test_pack).map.keySet() )
 			out.add(s.getScenarioSet());
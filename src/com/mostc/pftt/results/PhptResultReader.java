@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.mostc.pftt.main.PfttMain;
 import com.mostc.pftt.model.core.EBuildBranch;
@@ -45,13 +46,19 @@ public class PhptResultReader extends AbstractPhptRW {
 		status_list_map.put(EPhptTestStatus.BORK, new StatusListEntry(tally.bork));
 		status_list_map.put(EPhptTestStatus.TEST_EXCEPTION, new StatusListEntry(tally.exception));
 		//
+		Map<String,String> compact_status = null;
 		for ( EPhptTestStatus status : status_list_map.keySet() ) {
 			//if (status==EPhptTestStatus.FAIL)
 				//continue; // TODO temp
 			StatusListEntry e = status_list_map.get(status);
 			
 			try {
-				e.readTestNames(cm, new File(dir+"/"+status+".txt"), new File(dir+"/"+status+".journal.txt"));
+				if (!e.readTestNames(cm, new File(dir+"/"+status+".txt"), new File(dir+"/"+status+".journal.txt")) && hasCompactResults()) {
+					// no list or journal (PFTT crashed?) but can get them from result segments (@see -compact_results)
+					if (compact_status==null)
+						compact_status = CompactResultReader.readStatus(dir);
+					e.readTestNames(compact_status, status);
+				}
 			} catch ( Exception ex ) {
 				cm.addGlobalException(EPrintType.SKIP_OPERATION, getClass(), "open", ex, "error reading tests for status: "+status);
 			}
@@ -60,6 +67,25 @@ public class PhptResultReader extends AbstractPhptRW {
 		}
 	} // end public void open
 	
+	/** 
+	 * 
+	 * @see -compact_results console option
+	 * @return TRUE if results were stored in result segments instead of 1 XML file per test
+	 */
+	public boolean hasCompactResults() {
+		return CompactResultReader.exists(dir);
+	}
+	
+	/** writes the results stored in result segments as 1 XML file per test (the layout used without -compact_results)
+	 * 
+	 * @param out_dir - directory to write to. usually #getPath so the XSL stylesheet reference works
+	 * @return number of results written
+	 * @throws IOException
+	 */
+	public int exportXml(File out_dir) throws IOException {
+		return CompactResultReader.exportXml(dir, out_dir);
+	}
+	
 	protected class StatusListEntry {
 		/** count reported in tally file. should match test_names#size */
 		protected final int count;
@@ -70,7 +96,7 @@ public class PhptResultReader extends AbstractPhptRW {
 			this.count = count;
 			test_names = new ArrayList<String>(count);
 		}
-		public void readTestNames(ConsoleManager cm, File list_file, File journal_file) throws IOException {
+		public boolean readTestNames(ConsoleManager cm, File list_file, File journal_file) throws IOException {
 			if (list_file.exists()) {
 				
 				PfttMain.readStringListFromFile(test_names, list_file);
@@ -78,6 +104,17 @@ public class PhptResultReader extends AbstractPhptRW {
 				cm.println(EPrintType.CLUE, getClass(), "Previous test run interrupted? Found only backup journal: "+journal_file.getName());
 				
 				PfttMain.readStringListFromFile(test_names, journal_file);
+			} else {
+				return false;
+			}
+			return true;
+		}
+		
+		public void readTestNames(Map<String,String> compact_status, EPhptTestStatus status) {
+			String status_str = status.toString();
+			for ( Map.Entry<String,String> e : compact_status.entrySet() ) {
+				if (status_str.equals(e.getValue()))
+					test_names.add(e.getKey());
 			}
 		}
 		
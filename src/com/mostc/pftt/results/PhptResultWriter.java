@@ -41,6 +41,12 @@ public class PhptResultWriter extends AbstractPhptRW {
 	protected final PhpBuildInfo build_info;
 	protected final EBuildBranch test_pack_branch;
 	protected final String test_pack_version;
+	/** only used with -compact_results. created when first result is written */
+	protected CompactResultWriter compact;
+	/** SERIALIZE times. only recorded by the writer thread for this scenario set */
+	protected final PhptTimings serialize_timings;
+	/** times of the threads that ran the tests (@see #addTimings) */
+	protected final PhptTimings run_timings;
 	
 	public PhptResultWriter(File dir, AHost host, ScenarioSetSetup scenario_set_setup, PhpBuildInfo build_info, EBuildBranch test_pack_branch, String test_pack_version) throws IOException {
 		this.dir = dir;
@@ -56,6 +62,8 @@ public class PhptResultWriter extends AbstractPhptRW {
 		started_pw = new PrintWriter(new FileWriter(new File(dir, "STARTED.txt")));
 		
 		status_list_map = new HashMap<EPhptTestStatus,StatusListEntry>();
+		serialize_timings = new PhptTimings();
+		run_timings = new PhptTimings();
 		serial  = new KXmlSerializer();
 		// setup serializer to indent XML (pretty print) so its easy for people to read
 		serial.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
@@ -129,6 +137,8 @@ public class PhptResultWriter extends AbstractPhptRW {
 		
 		started_pw.close();
 		all_csv_pw.close();
+		if (compact!=null)
+			compact.close();
 		
 		// write tally file
 		try {
@@ -154,6 +164,13 @@ public class PhptResultWriter extends AbstractPhptRW {
 			ConsoleManagerUtil.printStackTrace(PhptResultWriter.class, ex);
 		}
 		
+		// write time spent in each phase
+		try {
+			getTimings().writeCSV(new File(dir, "timings.csv"));
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(PhptResultWriter.class, ex);
+		}
+		
 		for ( StatusListEntry e : status_list_map.values() )
 			e.close();
 		
@@ -162,6 +179,30 @@ public class PhptResultWriter extends AbstractPhptRW {
 		}
 	} // end public void close
 	
+	/** adds timings of threads that ran tests for this scenario set (after they're done running tests)
+	 * 
+	 * @param timings
+	 */
+	public void addTimings(PhptTimings timings) {
+		synchronized(run_timings) {
+			run_timings.merge(timings);
+		}
+	}
+	
+	/** returns time spent in each phase, by test threads and by the writer thread. SERIALIZE times
+	 * may be incomplete if results are still queued.
+	 * 
+	 * @return
+	 */
+	public PhptTimings getTimings() {
+		PhptTimings timings = new PhptTimings();
+		synchronized(run_timings) {
+			timings.merge(run_timings);
+		}
+		timings.merge(serialize_timings);
+		return timings;
+	}
+	
 	public void notifyStart(String test_name) {
 		started_pw.println(test_name);
 	}
@@ -214,7 +255,15 @@ public class PhptResultWriter extends AbstractPhptRW {
 		
 		
 		//
-		if (store_all || !cm.isNoResultFileForPassSkipXSkip()) {
+		if (cm.isCompactResults()) {
+			if (store_all || !cm.isNoResultFileForPassSkipXSkip()) {
+				try {
+					writeCompactResult(result, test_case_base_name, store_all);
+				} catch ( Exception ex ) {
+					ConsoleManagerUtil.printStackTrace(EPrintType.OPERATION_FAILED_CONTINUING, getClass(), cm, "handleResult", ex, "", dir, test_case_base_name);
+				}
+			}
+		} else if (store_all || !cm.isNoResultFileForPassSkipXSkip()) {
 			// may want to skip storing result files for PASS, SKIP or XSKIP tests
 			try {
 				File result_file = new File(dir, test_case_base_name+".xml");
@@ -242,7 +291,7 @@ public class PhptResultWriter extends AbstractPhptRW {
 		//
 		
 		//
-		if (store_all && StringUtil.isNotEmpty(result.shell_script)) {
+		if (store_all && StringUtil.isNotEmpty(result.shell_script) && !cm.isCompactResults()) {
 			// store .cmd|.sh and .php file
 			// (if no .cmd|.sh don't need a .php file; .php file needed for .cmd|.sh)
 			String file_str = result.test_case.get(EPhptSection.FILE);
@@ -277,6 +326,37 @@ public class PhptResultWriter extends AbstractPhptRW {
 		all_csv_pw.print(result.run_time_micros);
 		all_csv_pw.println();
 	} // end public void writeResult
+	
+	/** stores result (and its .cmd|.sh and .php files) as 1 record in the result segments instead of
+	 * writing separate files.
+	 * 
+	 * @see CompactResultReader#exportXml - to get the XML files
+	 * @param result
+	 * @param test_case_base_name
+	 * @param store_all
+	 * @throws IOException
+	 */
+	protected void writeCompactResult(PhptTestResult result, String test_case_base_name, boolean store_all) throws IOException {
+		if (compact==null)
+			compact = new CompactResultWriter(dir);
+		
+		compact.startRecord(result.test_case.getName(), test_case_base_name, result.status.toString());
+		
+		compact.startDocument(null, null);
+		result.serial(compact, store_all, StringUtil.repeat("../", 1+AHost.countUp(test_case_base_name, dir.getAbsolutePath()))+"/phptresult.xsl");
+		result.extra = null;
+		compact.endDocument();
+		
+		if (store_all && StringUtil.isNotEmpty(result.shell_script)) {
+			String file_str = result.test_case.get(EPhptSection.FILE);
+			if (StringUtil.isNotEmpty(file_str)) {
+				compact.addSideFile(host.isWindows()?".cmd":".sh", result.shell_script);
+				compact.addSideFile(".php", file_str);
+			}
+		}
+		
+		compact.endRecord();
+	} // end protected void writeCompactResult
 
 	@Override
 	public String getOSName() {
@@ -5,6 +5,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +22,7 @@ import com.github.mattficken.io.StringUtil;
 import com.github.mattficken.io.Trie;
 import com.ibm.icu.charset.CharsetICU;
 import com.mostc.pftt.host.AHost;
+import com.mostc.pftt.model.core.ConfigPool;
 import com.mostc.pftt.model.core.EPhptTestStatus;
 import com.mostc.pftt.model.core.PhpIni;
 import com.mostc.pftt.model.core.PhptSourceTestPack;
@@ -3313,9 +3315,25 @@ public class PhptTestResult implements ISerializer {
 	}
 
 	public static PhptTestResult parse(XmlPullParser parser, PhptSourceTestPack test_pack) throws IllegalCharsetNameException, UnsupportedCharsetException, XmlPullParserException, IOException {
+		return parse(parser, test_pack, null);
+	}
+	
+	/** 
+	 * 
+	 * @param parser
+	 * @param test_pack
+	 * @param config_pool - shares the PhpIni and ENV of this result with other results parsed with the same pool. if null, not shared
+	 * @return
+	 * @throws IllegalCharsetNameException
+	 * @throws UnsupportedCharsetException
+	 * @throws XmlPullParserException
+	 * @throws IOException
+	 */
+	public static PhptTestResult parse(XmlPullParser parser, PhptSourceTestPack test_pack, @Nullable ConfigPool config_pool) throws IllegalCharsetNameException, UnsupportedCharsetException, XmlPullParserException, IOException {
 		PhptTestResult result = new PhptTestResult();
 		
 		LinkedList<String> cmd_parts = null;
+		HashMap<String,String> env = null;
 		String tag_name = "", env_name = null;
 		main_loop:
 		while(true) {
@@ -3360,7 +3378,8 @@ public class PhptTestResult implements ISerializer {
 				else if (tag_name.equals("preoverrideActual"))
 					result.preoverride_actual = parser.getText();
 				else if (tag_name.equals("ini"))
-					result.ini = new PhpIni(parser.getText());
+					// most results have 1 of a few PhpInis: share them @see ConfigPool
+					result.ini = config_pool==null ? new PhpIni(parser.getText()) : config_pool.parseIni(parser.getText());
 				else if (tag_name.equals("expectFOutput"))
 					result.expectf_output = parser.getText();
 				else if (tag_name.equals("shellScript"))
@@ -3378,8 +3397,11 @@ public class PhptTestResult implements ISerializer {
 					result.regex_output = parser.getText();
 				else if (tag_name.equals("env")) {
 					String env_value = parser.getText();
-					if (StringUtil.isNotEmpty(env_name) && StringUtil.isNotEmpty(env_value))
-						result.env.put(env_name, env_value);
+					if (StringUtil.isNotEmpty(env_name) && StringUtil.isNotEmpty(env_value)) {
+						if (env==null)
+							env = new HashMap<String,String>();
+						env.put(env_name, env_value);
+					}
 				}
 				break;
 			default:
@@ -3388,6 +3410,8 @@ public class PhptTestResult implements ISerializer {
 		
 		if (cmd_parts!=null)
 			result.cmd_array = (String[])cmd_parts.toArray(new String[cmd_parts.size()]);
+		if (env!=null)
+			result.env = config_pool==null ? env : config_pool.intern(env);
 		
 		return result;
 	} // end public static PhptTestResult parse
@@ -0,0 +1,222 @@
+package com.mostc.pftt.results;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/** Times each phase of running PhptTestCases (count, total, max and a histogram for each EPhptPhase).
+ *
+ * Each thread records into its own PhptTimings, so recording is just a few array writes (no locks or atomics).
+ * When the test run is done, the timings of all threads are merged (@see #merge) and written to
+ * the result-pack as timings.csv for each scenario set.
+ *
+ * Code that isn't passed the PhptTimings (ex: AHost#exec*) can use #current to record into the timings of
+ * the thread running the test. If the thread isn't running PHPTs, #current returns a PhptTimings that
+ * doesn't record anything.
+ *
+ * Histogram bucket 0 counts times less than 1 microsecond, bucket N counts times from 2^(N-1) up to 2^N microseconds.
+ *
+ * @see EPhptPhase
+ * @see PhptResultWriter#close
+ * @see com.mostc.pftt.runner.LocalPhptTestPackRunner#showTally
+ *
+ */
+
+@NotThreadSafe
+public class PhptTimings {
+	public static final int HISTOGRAM_BUCKETS = 40;
+	protected static final EPhptPhase[] PHASES = EPhptPhase.values();
+	protected static final PhptTimings DISABLED = new PhptTimings(false);
+	protected static final ThreadLocal<PhptTimings> current = new ThreadLocal<PhptTimings>() {
+			@Override
+			protected PhptTimings initialValue() {
+				return DISABLED;
+			}
+		};
+	protected final boolean enabled;
+	protected final long[] count, total_nanos, max_nanos;
+	/** [phase][bucket] */
+	protected final long[][] histogram;
+
+	public PhptTimings() {
+		this(true);
+	}
+
+	protected PhptTimings(boolean enabled) {
+		this.enabled = enabled;
+		count = new long[PHASES.length];
+		total_nanos = new long[PHASES.length];
+		max_nanos = new long[PHASES.length];
+		histogram = new long[PHASES.length][HISTOGRAM_BUCKETS];
+	}
+
+	/** returns the timings of the current thread (never null)
+	 *
+	 * @see #makeCurrent
+	 * @return
+	 */
+	public static PhptTimings current() {
+		return current.get();
+	}
+
+	/** makes these the timings that #current returns on this thread */
+	public void makeCurrent() {
+		current.set(this);
+	}
+
+	/** stops recording timings on this thread */
+	public static void clearCurrent() {
+		current.remove();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** returns start time to pass to #end
+	 *
+	 * @return
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	/** records time since start
+	 *
+	 * @param phase
+	 * @param start_nanos - from #start
+	 */
+	public void end(EPhptPhase phase, long start_nanos) {
+		if (enabled)
+			add(phase, System.nanoTime() - start_nanos);
+	}
+
+	public void add(EPhptPhase phase, long nanos) {
+		if (!enabled)
+			return;
+		if (nanos < 0)
+			// clock went backwards
+			nanos = 0;
+		final int i = phase.ordinal();
+		count[i]++;
+		total_nanos[i] += nanos;
+		if (nanos > max_nanos[i])
+			max_nanos[i] = nanos;
+		histogram[i][bucket(nanos / 1000L)]++;
+	}
+
+	protected static int bucket(long micros) {
+		return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	}
+
+	/** adds other timings to these timings. other timings must not be recording at the same time
+	 *
+	 * @param o
+	 */
+	public void merge(PhptTimings o) {
+		for ( int i=0 ; i < PHASES.length ; i++ ) {
+			count[i] += o.count[i];
+			total_nanos[i] += o.total_nanos[i];
+			if (o.max_nanos[i] > max_nanos[i])
+				max_nanos[i] = o.max_nanos[i];
+			for ( int j=0 ; j < HISTOGRAM_BUCKETS ; j++ )
+				histogram[i][j] += o.histogram[i][j];
+		}
+	}
+
+	public long count(EPhptPhase phase) {
+		return count[phase.ordinal()];
+	}
+
+	public long totalMicros(EPhptPhase phase) {
+		return total_nanos[phase.ordinal()] / 1000L;
+	}
+
+	public long meanMicros(EPhptPhase phase) {
+		final int i = phase.ordinal();
+		return count[i] == 0 ? 0 : total_nanos[i] / count[i] / 1000L;
+	}
+
+	public long maxMicros(EPhptPhase phase) {
+		return max_nanos[phase.ordinal()] / 1000L;
+	}
+
+	/** estimates a percentile from the histogram (upper bound of the bucket it falls in)
+	 *
+	 * @param phase
+	 * @param percentile - 0.0 to 1.0
+	 * @return
+	 */
+	public long percentileMicros(EPhptPhase phase, double percentile) {
+		final int i = phase.ordinal();
+		if (count[i]==0)
+			return 0;
+		final long target = (long) Math.ceil(count[i] * percentile);
+		long seen = 0;
+		for ( int j=0 ; j < HISTOGRAM_BUCKETS ; j++ ) {
+			seen += histogram[i][j];
+			if (seen >= Math.max(1, target))
+				return Math.min(maxMicros(phase), j==0 ? 0 : (1L << j) - 1);
+		}
+		return maxMicros(phase);
+	}
+
+	public void writeCSV(File file) throws IOException {
+		PrintWriter pw = new PrintWriter(new FileWriter(file));
+		try {
+			writeCSV(pw);
+		} finally {
+			pw.close();
+		}
+	}
+
+	public void writeCSV(PrintWriter pw) {
+		pw.print("'phase','count','total_micros','mean_micros','p50_micros','p90_micros','p99_micros','max_micros'");
+		for ( int j=0 ; j < HISTOGRAM_BUCKETS ; j++ ) {
+			pw.print(",'lt_");
+			pw.print(1L << j);
+			pw.print("_micros'");
+		}
+		pw.println();
+		for ( EPhptPhase phase : PHASES ) {
+			pw.print("'");
+			pw.print(phase);
+			pw.print("',");
+			pw.print(count(phase));
+			pw.print(',');
+			pw.print(totalMicros(phase));
+			pw.print(',');
+			pw.print(meanMicros(phase));
+			pw.print(',');
+			pw.print(percentileMicros(phase, 0.5d));
+			pw.print(',');
+			pw.print(percentileMicros(phase, 0.9d));
+			pw.print(',');
+			pw.print(percentileMicros(phase, 0.99d));
+			pw.print(',');
+			pw.print(maxMicros(phase));
+			for ( int j=0 ; j < HISTOGRAM_BUCKETS ; j++ ) {
+				pw.print(',');
+				pw.print(histogram[phase.ordinal()][j]);
+			}
+			pw.println();
+		}
+	} // end public void writeCSV
+
+	/** prints total time and percentiles of each phase that was recorded
+	 *
+	 * @param cm
+	 * @param clazz
+	 */
+	public void printSummary(ConsoleManager cm, Class<?> clazz) {
+		for ( EPhptPhase phase : PHASES ) {
+			if (count(phase)==0)
+				continue;
+			cm.println(EPrintType.CLUE, clazz, "Time "+phase+": "+(totalMicros(phase)/1000L)+" ms total over "+count(phase)+" (mean="+meanMicros(phase)+"us p50="+percentileMicros(phase, 0.5d)+"us p99="+percentileMicros(phase, 0.99d)+"us max="+maxMicros(phase)+"us)");
+		}
+	}
+
+} // end public class PhptTimings
@@ -2,16 +2,21 @@ package com.mostc.pftt.results;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.xmlpull.v1.XmlSerializer;
 
-import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
 
 /** Stores information about what parts of the code were executed, etc...
+ * 
+ * Each file's lines are stored as bitsets (@see LineCoverage) and file names are interned for the run (@see CodeCoverageFiles):
+ * each file name is given an ID once and its PHP code is only read and stored once, no matter how many tests executed it.
  * 
  * @see PhpParser
+ * @see CodeCoverageSummary
  * 
  * @author Matt Ficken
  *
@@ -25,26 +30,50 @@ public class TestCaseCodeCoverage implements ISerializer {
 			NOT_EXECUTABLE,
 			UNKNOWN
 		};
-		
-	protected final HashMap<String,FileInfo> file_map;
+	
+	/** file ID => coverage of file's lines */
+	protected final HashMap<Integer,LineCoverage> file_map;
+	protected final CodeCoverageFiles files;
 	protected final AHost host;
 	protected final String file_root;
-	protected int class_count, method_count, line_count, class_exe, method_exe, line_exe;
+	protected int class_count, method_count, class_exe, method_exe;
 	
-	public TestCaseCodeCoverage(AHost host, String file_root) {
+	public TestCaseCodeCoverage(CodeCoverageFiles files, AHost host, String file_root) {
+		this.files = files;
 		this.host = host;
 		this.file_root = file_root;
-		file_map = new HashMap<String,FileInfo>();
+		file_map = new HashMap<Integer,LineCoverage>();
 	}
 	
-	public TestCaseCodeCoverage(AHost host) {
-		this(host, null);
+	public TestCaseCodeCoverage(CodeCoverageFiles files, AHost host) {
+		this(files, host, null);
 	}
 	
 	public Set<String> getFileNames() {
+		LinkedHashSet<String> names = new LinkedHashSet<String>();
+		for ( int file_id : file_map.keySet() )
+			names.add(files.getFileName(file_id));
+		return names;
+	}
+	
+	/** IDs of files this has coverage of. @see #getFileName */
+	public Set<Integer> getFileIds() {
 		return file_map.keySet();
 	}
 	
+	public String getFileName(int file_id) {
+		return files.getFileName(file_id);
+	}
+	
+	/** coverage of the lines of the given file, or null
+	 * 
+	 * @param file_id
+	 * @return
+	 */
+	public LineCoverage getLineCoverage(int file_id) {
+		return file_map.get(file_id);
+	}
+	
 	public int getTotalClassCount() {
 		return class_count;
 	}
@@ -52,6 +81,9 @@ public class TestCaseCodeCoverage implements ISerializer {
 		return method_count;
 	}
 	public int getTotalLineCount() {
+		int line_count = 0;
+		for ( LineCoverage lines : file_map.values() )
+			line_count += lines.getExecutableLineCount();
 		return line_count;
 	}
 	public int getExecutedClassCount() {
@@ -61,45 +93,46 @@ public class TestCaseCodeCoverage implements ISerializer {
 		return method_exe;
 	}
 	public int getExecutedLineCount() {
+		int line_exe = 0;
+		for ( LineCoverage lines : file_map.values() )
+			line_exe += lines.getExecutedLineCount();
 		return line_exe;
 	}
 	
-	protected static class FileInfo {
-		protected final HashMap<Integer,ELineState> line_map;
-		protected final String php_code;
-		
-		public FileInfo(String php_code) {
-			this.php_code = php_code;
-			line_map = new HashMap<Integer,ELineState>();
-		}
-	}
-	
 	public void setLineState(String filename, int line_num, ELineState stat) {
-		FileInfo file_info = file_map.get(filename);
-		if (file_info==null) {
-			file_info = new FileInfo(host == null ? null : host.mReadFileAsStringEx(filename));
+		if (line_num < 0)
+			return;
+		int file_id = files.getFileId(file_root == null ? filename : AHost.pathFrom(file_root, filename));
+		LineCoverage lines = file_map.get(file_id);
+		if (lines==null) {
+			lines = new LineCoverage();
+			file_map.put(file_id, lines);
 			
-			file_map.put(file_root == null ? filename : AHost.pathFrom(file_root, filename), file_info);
-		} else {
-			file_info.line_map.put(line_num, stat);
+			if (host!=null)
+				// read file once for the run (not once for each test that executes it)
+				files.readPhpCode(file_id, host, filename);
 		}
+		lines.setLineState(line_num, stat);
 	}
 	
 	public ELineState getLineState(String filename, int line_num) {
-		FileInfo file_info = file_map.get(filename);
-		if (file_info==null)
-			return ELineState.UNKNOWN;
-		ELineState state = file_info.line_map.get(line_num);
-		return state == null ? ELineState.UNKNOWN : state;
+		int file_id = files.findFileId(filename);
+		LineCoverage lines = file_id == -1 ? null : file_map.get(file_id);
+		return lines == null ? ELineState.UNKNOWN : lines.getLineState(line_num);
 	}
 	
 	public boolean isExecuted(String filename, int line_num) {
 		return getLineState(filename, line_num) == ELineState.EXECUTED;
 	}
 	
+	/** PHP code of the given file, as read when the run first executed it, or null if this has no coverage of it
+	 * 
+	 * @param filename
+	 * @return
+	 */
 	public String getPhpCode(String filename) {
-		FileInfo file_info = file_map.get(filename);
-		return file_info == null ? null : file_info.php_code;
+		int file_id = files.findFileId(filename);
+		return file_id == -1 || !file_map.containsKey(file_id) ? null : files.getPhpCode(file_id);
 	}
 
 	public void addExecutedLine(String filename, int line_num) {
@@ -125,38 +158,28 @@ public class TestCaseCodeCoverage implements ISerializer {
 		serial.attribute("pftt", "countExecutedMethods", Integer.toString(getExecutedMethodCount()));
 		serial.attribute("pftt", "countExecutedLines", Integer.toString(getExecutedLineCount()));
 		
-		
-		for ( String filename : file_map.keySet() ) {
-			FileInfo file_info = file_map.get(filename);
-			serial.startTag("pftt", "file");
-			serial.attribute("pftt", "filename", filename);
-			String[] lines = StringUtil.splitLines(file_info.php_code);
-			for ( int line_num : file_info.line_map.keySet() ) {
-				String line_tag;
-				switch(file_info.line_map.get(line_num)) {
-				case EXECUTED:
-					line_tag = "exeLine";
-					break;
-				case NOT_EXECUTED:
-					line_tag = "notExeLine";
-					break;
-				case NOT_EXECUTABLE:
-					line_tag = "notExecutable";
-					break;
-				default:
-					line_tag = "unknownLine";
-					break;
-				}
-				serial.startTag("pftt", line_tag);
-				serial.attribute("pftt", "line_num", Integer.toString(line_num));
-				if (line_num < lines.length)
-					serial.text(lines[line_num]);
-				serial.endTag("pftt", line_tag);
-			}
-			serial.endTag("pftt", "file");
-		}
+		for ( Map.Entry<Integer,LineCoverage> e : file_map.entrySet() )
+			serialFile(serial, files.getFileName(e.getKey()), e.getValue());
 		
 		serial.endTag("pftt", "codeCoverage");
 	}
 	
+	/** writes the lines of a file as ranges of line numbers (ex: exeLines="1-5,8,10-12") instead of a tag for each line
+	 * 
+	 * @param serial
+	 * @param filename
+	 * @param lines
+	 * @throws IllegalArgumentException
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 */
+	public static void serialFile(XmlSerializer serial, String filename, LineCoverage lines) throws IllegalArgumentException, IllegalStateException, IOException {
+		serial.startTag("pftt", "file");
+		serial.attribute("pftt", "filename", filename);
+		serial.attribute("pftt", "exeLines", lines.toRanges(ELineState.EXECUTED));
+		serial.attribute("pftt", "notExeLines", lines.toRanges(ELineState.NOT_EXECUTED));
+		serial.attribute("pftt", "notExecutableLines", lines.toRanges(ELineState.NOT_EXECUTABLE));
+		serial.endTag("pftt", "file");
+	}
+	
 } // end public class TestCaseCodeCoverage
@@ -10,15 +10,23 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.annotation.Nullable;
 
 import com.mostc.pftt.host.AHost;
+import com.mostc.pftt.host.LocalHost;
 import com.mostc.pftt.host.RemoteHost;
 import com.mostc.pftt.main.Config;
 import com.mostc.pftt.model.ActiveTestPack;
@@ -31,6 +39,7 @@ import com.mostc.pftt.model.sapi.AbstractManagedProcessesWebServerManager;
 import com.mostc.pftt.model.sapi.SAPIInstance;
 import com.mostc.pftt.model.sapi.TestCaseGroupKey;
 import com.mostc.pftt.model.sapi.WebServerInstance;
+import com.mostc.pftt.results.CodeCoverageFiles;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.ConsoleManagerUtil;
 import com.mostc.pftt.results.EPrintType;
@@ -53,6 +62,10 @@ import com.mostc.pftt.scenario.ScenarioSetSetup;
  * Dynamic Thread Pooling: dynamically increases and decreases the number of threads used to run tests
  * as slower or faster test are encountered to maximize cpu utilization.
  * 
+ * Work Stealing: each thread claims its own thread-safe TestCaseGroup and runs it (so its WebServerInstance
+ * is reused for the whole group). Once all groups are claimed, idle threads steal the remaining tests of
+ * the group that has the most left. Non-thread-safe extensions are never shared between threads.
+ * 
  */
 
 public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S extends SourceTestPack<A,T>, T extends TestCase> extends AbstractTestPackRunner<S, T> {
@@ -71,6 +84,19 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 	protected ScenarioSetSetup scenario_set_setup;
 	protected LinkedBlockingQueue<NonThreadSafeExt<T>> non_thread_safe_exts = new LinkedBlockingQueue<NonThreadSafeExt<T>>();
 	protected LinkedBlockingQueue<TestCaseGroup<T>> thread_safe_groups = new LinkedBlockingQueue<TestCaseGroup<T>>();
+	/** thread-safe groups claimed by a thread (from #thread_safe_groups) that other threads may steal tests from */
+	protected final ConcurrentLinkedQueue<TestCaseGroup<T>> claimed_groups = new ConcurrentLinkedQueue<TestCaseGroup<T>>();
+	/** notified when a thread finishes, so #executeTestCases doesn't have to wait to notice */
+	protected final Object threads_lock = new Object();
+	// thread pool utilization: time threads spent running tests vs time threads were alive
+	protected final AtomicLong busy_nanos = new AtomicLong(), alive_nanos = new AtomicLong();
+	protected final AtomicInteger steal_count = new AtomicInteger();
+	/** created once (@see #getRunTimeHistory), then read by all test threads without locking */
+	protected volatile TestRunTimeHistory run_time_history;
+	/** shared by runners for several hosts: once false, all of them stop (@see #setRunFlag) */
+	protected volatile AtomicBoolean run_flag;
+	/** file names (and PHP code) of code coverage for this run @see TestCaseCodeCoverage */
+	protected final CodeCoverageFiles code_coverage_files = new CodeCoverageFiles();
 	
 	public static class NonThreadSafeExt<T extends TestCase> {
 		public String[] ext_names;
@@ -92,6 +118,28 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 	public ScenarioSetSetup getScenarioSetSetup() {
 		return scenario_set_setup;
 	}
+	public CodeCoverageFiles getCodeCoverageFiles() {
+		return code_coverage_files;
+	}
+	
+	/** how long each test took to run the last time(s) it was run on this host with this scenario set.
+	 * 
+	 * @return
+	 */
+	public TestRunTimeHistory getRunTimeHistory() {
+		TestRunTimeHistory history = run_time_history;
+		if (history!=null)
+			return history;
+		synchronized(this) {
+			if (run_time_history==null) {
+				history = new TestRunTimeHistory(TestRunTimeHistory.getHistoryFile(LocalHost.getInstance().getPfttDir(), runner_host.getName(), scenario_set.getName()));
+				history.load(cm);
+				// only publish once loaded
+				run_time_history = history;
+			}
+			return run_time_history;
+		}
+	}
 	
 	
 	public static class TestCaseGroup<T extends TestCase> {
@@ -325,6 +373,8 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		} finally {
 			// be sure all running WebServerInstances, or other SAPIInstances are
 			// closed by end of testing (otherwise `php.exe -S` will keep on running)
+			// remember how long tests took, to order them next time
+			getRunTimeHistory().save(cm);
 			System.out.println("327");
 			close();
 			System.out.println("329");
@@ -375,30 +425,19 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		TestCaseGroupKey group_key = null;
 		LinkedList<TestCaseGroup<T>> thread_safe_list = new LinkedList<TestCaseGroup<T>>();
 		thread_safe_test_count = 0;
-				
-		for (T test_case : test_cases) {
-			try {
-				if (cm.isInSkipList(test_case))
-					continue; // skip
-				
-				group_key = createGroupKey(cm, test_case, storage_host, group_key, build, runner_fs, runner_host);
-				
+		
+		final int group_thread_count = decideGroupThreadCount(test_cases.size());
+		if (group_thread_count > 1) {
+			groupTestCasesParallel(thread_safe_list, test_cases, group_thread_count);
+		} else {
+			for (T test_case : test_cases) {
+				group_key = prepareGroupKey(test_case, group_key);
 				if (group_key==null)
 					continue; // skip
-			} catch ( Exception ex ) {
-				cm.addGlobalException(EPrintType.OPERATION_FAILED_CONTINUING, getClass(), "groupTestCases", ex, "", storage_host, test_case, sapi_scenario);
 				
-				continue;
-			}
-			
-			// @see -no_nts console option- if used, all test cases should go to #handleTS
-			// if -no_nts not used, see if #handleNTS wants to handle them
-			if (!cm.isThreadSafety() || !handleNTS(group_key, test_case)) {
-				// test case is thread-safe or we're ignoring thread-safety (-no_nts)
-				handleTS(thread_safe_list, group_key, test_case);
-			}
-			//
-		} // end while
+				addToGroup(thread_safe_list, group_key, test_case);
+			} // end while
+		}
 		
 		//
 		postGroup(thread_safe_list, test_cases);
@@ -465,6 +504,141 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 	
 	protected void reportGroups() {}
 	
+	/** gets group key for test case (or null to skip it)
+	 * 
+	 * @param test_case
+	 * @param group_key - last group key created by this thread or null
+	 * @return
+	 */
+	@Nullable
+	protected TestCaseGroupKey prepareGroupKey(T test_case, @Nullable TestCaseGroupKey group_key) {
+		try {
+			if (cm.isInSkipList(test_case))
+				return null; // skip
+			
+			return createGroupKey(cm, test_case, storage_host, group_key, build, runner_fs, runner_host);
+		} catch ( Exception ex ) {
+			cm.addGlobalException(EPrintType.OPERATION_FAILED_CONTINUING, getClass(), "groupTestCases", ex, "", storage_host, test_case, sapi_scenario);
+			
+			return null;
+		}
+	}
+	
+	protected void addToGroup(LinkedList<TestCaseGroup<T>> thread_safe_list, TestCaseGroupKey group_key, T test_case) {
+		// @see -no_nts console option- if used, all test cases should go to #handleTS
+		// if -no_nts not used, see if #handleNTS wants to handle them
+		if (!cm.isThreadSafety() || !handleNTS(group_key, test_case)) {
+			// test case is thread-safe or we're ignoring thread-safety (-no_nts)
+			handleTS(thread_safe_list, group_key, test_case);
+		}
+	}
+	
+	/** fewer tests than this are grouped by 1 thread (not worth starting threads for) */
+	protected static final int MIN_PARALLEL_GROUP_TEST_COUNT = 64;
+	
+	/** decides how many threads to create group keys with (1 to do it all on this thread)
+	 * 
+	 * @see #isParallelGroupOk
+	 * @param test_count
+	 * @return
+	 */
+	protected int decideGroupThreadCount(int test_count) {
+		if (!isParallelGroupOk() || test_count < MIN_PARALLEL_GROUP_TEST_COUNT || cm.isDebugAll() || cm.isDebugList())
+			return 1;
+		return Math.max(1, Math.min(runner_host.getCPUCount(), test_count / MIN_PARALLEL_GROUP_TEST_COUNT));
+	}
+	
+	/** TRUE if #createGroupKey can be called by several threads at once.
+	 * 
+	 * #createGroupKey must then do anything that isn't thread-safe (ex: asking Scenarios) while holding a lock
+	 * @see LocalPhptTestPackRunner#createGroupKey
+	 * 
+	 * @return
+	 */
+	protected boolean isParallelGroupOk() {
+		return false;
+	}
+	
+	/** creates group keys (checking if tests will be skipped, creating PhpInis and preparing test files) on several threads.
+	 * 
+	 * This thread adds each test to its group, in the same order as test_cases, as soon as its key is ready, so
+	 * groups (and tests in them) are in the same order as if #createGroupKey was called on 1 thread.
+	 * 
+	 * Groups are only added to #thread_safe_groups after all tests are grouped, so testing doesn't start until then.
+	 * A group isn't finished until the last test is grouped (any test may have its key), #postGroup orders the
+	 * whole list, #decideThreadCount counts groups and -run_group_times clones whole groups. Also, a thread drops
+	 * a claimed group once it's empty (@see #findGroupToSteal), so tests added to it later would never run.
+	 * 
+	 * @param thread_safe_list
+	 * @param test_cases
+	 * @param thread_count
+	 * @throws InterruptedException
+	 */
+	protected void groupTestCasesParallel(LinkedList<TestCaseGroup<T>> thread_safe_list, List<T> test_cases, int thread_count) throws InterruptedException {
+		final int n = test_cases.size();
+		final ArrayList<T> tests = new ArrayList<T>(test_cases);
+		final AtomicReferenceArray<TestCaseGroupKey> keys = new AtomicReferenceArray<TestCaseGroupKey>(n);
+		// TRUE once keys[i] is final (may be null to skip test)
+		final AtomicIntegerArray done = new AtomicIntegerArray(n);
+		final AtomicInteger next = new AtomicInteger();
+		final Object done_lock = new Object();
+		
+		final AtomicInteger thread_num = new AtomicInteger();
+		final ExecutorService group_executor = Executors.newFixedThreadPool(thread_count, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "GroupTestCases-"+thread_num.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		for ( int t=0 ; t < thread_count ; t++ ) {
+			group_executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						// each thread reuses its own last group key @see SAPIScenario#createTestGroupKey
+						TestCaseGroupKey group_key = null;
+						int i;
+						while ((i = next.getAndIncrement()) < n) {
+							try {
+								group_key = prepareGroupKey(tests.get(i), group_key);
+								keys.set(i, group_key);
+							} finally {
+								// even if Error thrown, don't leave grouping thread waiting for this test
+								done.set(i, 1);
+								synchronized(done_lock) {
+									done_lock.notifyAll();
+								}
+							}
+						}
+					}
+				});
+		}
+		
+		try {
+			TestCaseGroupKey group_key;
+			for ( int i=0 ; i < n ; i++ ) {
+				if (done.get(i)==0) {
+					synchronized(done_lock) {
+						while (done.get(i)==0)
+							done_lock.wait(100);
+					}
+				}
+				group_key = keys.get(i);
+				if (group_key==null)
+					continue; // skip
+				keys.set(i, null);
+				
+				addToGroup(thread_safe_list, group_key, tests.get(i));
+			}
+		} finally {
+			// if interrupted, stop the other threads too
+			next.set(n);
+			group_executor.shutdown();
+			while (!group_executor.awaitTermination(1, TimeUnit.SECONDS)) {}
+		}
+	} // end protected void groupTestCasesParallel
+	
 	// @see -run_group_times_list support
 	private int runGroupTimes(int run_group_times_all, TestCaseGroup<T> group) {
 		if (!cm.isRunGroupTimesList())
@@ -526,6 +700,49 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		
 	}
 	
+	/** checks if there are any tests left that a thread could run (including tests it could steal)
+	 * 
+	 * @return
+	 */
+	protected boolean hasWork() {
+		return !thread_safe_groups.isEmpty() || !non_thread_safe_exts.isEmpty() || findGroupToSteal(null) != null;
+	}
+	
+	/** finds a claimed thread-safe group that still has tests to run.
+	 * 
+	 * prefers a group with the same TestCaseGroupKey (so the thread can keep its WebServerInstance), otherwise
+	 * the group with the most tests left.
+	 * 
+	 * @param group_key - key of group thread last ran or null
+	 * @return group or null if all tests have been taken
+	 */
+	@Nullable
+	protected TestCaseGroup<T> findGroupToSteal(@Nullable TestCaseGroupKey group_key) {
+		TestCaseGroup<T> largest = null;
+		int largest_size = 0, size;
+		Iterator<TestCaseGroup<T>> it = claimed_groups.iterator();
+		while (it.hasNext()) {
+			TestCaseGroup<T> g = it.next();
+			size = g.test_cases.size();
+			if (size==0) {
+				// nothing left to steal. thread that claimed it is running its last test
+				it.remove();
+				continue;
+			}
+			if (group_key!=null && group_key.equals(g.group_key))
+				return g;
+			if (size > largest_size) {
+				largest = g;
+				largest_size = size;
+			}
+		}
+		return largest;
+	}
+	
+	protected static int percent(long part, long whole) {
+		return whole <= 0 ? 0 : (int) Math.min(100, (part * 100) / whole);
+	}
+	
 	protected int init_thread_count, max_thread_count;
 	protected void decideThreadCount() {
 		init_thread_count = runner_host.getCPUCount();
@@ -582,6 +799,9 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		cm.println(EPrintType.IN_PROGRESS, getClass(), "Starting up Test Threads: thread_count="+init_thread_count+" max="+max_thread_count+" runner_host="+runner_host+" sapi_scenario="+sapi_scenario);
 			
 		test_count.set(0);
+		busy_nanos.set(0);
+		alive_nanos.set(0);
+		steal_count.set(0);
 		
 		for ( int i=0 ; i < init_thread_count ; i++ ) { 
 			start_thread(parallel);
@@ -631,10 +851,13 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 					// no threads have jobs left to do, stop waiting
 					break;
 				} else {
-					// wait a while before checking again
-					Thread.sleep(threads.size()>3?1000:50);
+					// wait a while before checking again (or until a thread finishes)
+					synchronized(threads_lock) {
+						threads_lock.wait(threads.size()>3?1000:50);
+					}
 				}
 			}
+			cm.println(EPrintType.CLUE, getClass(), "Thread Pool: utilization="+percent(busy_nanos.get(), alive_nanos.get())+"% steals="+steal_count.get());
 			// wait for queued results to be written before returning
 			// (this is important as PFTT may close the result-pack after returning and we want to 
 			//  make sure all the results get written first!)
@@ -666,6 +889,9 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		protected LinkedBlockingQueue<T> jobs;
 		protected WebServerInstance thread_wsi;
 		protected T test_case;
+		// per-thread utilization
+		protected long thread_start_nanos, thread_busy_nanos;
+		protected int thread_test_count, thread_group_count, thread_steal_count;
 		
 		protected TestPackThread(boolean parallel) {
 			this.run_thread = new AtomicBoolean(true);
@@ -700,13 +926,14 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 						
 		@Override
 		public void run() {
+			thread_start_nanos = System.nanoTime();
 			// pick a non-thread-safe(NTS) extension that isn't already running then run it
 			//
 			// keep doing that until they're all done, then execute all the thread-safe tests
 			// (if there aren't enough NTS extensions to fill all the threads, some threads will only execute thread-safe tests)
 			//
 			try {
-				while (shouldRun()&&(!thread_safe_groups.isEmpty()||!non_thread_safe_exts.isEmpty())) {//thread_safe_test_count==0)) {
+				while (shouldRun()&&hasWork()) {
 					try {
 						runNonThreadSafe();
 						
@@ -730,12 +957,18 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 					}
 				}
 				
-				if (threads.size()==0&&shouldRun()&&(!thread_safe_groups.isEmpty()||!non_thread_safe_exts.isEmpty())) {
+				if (threads.size()==0&&shouldRun()&&hasWork()) {
 					//// TODO temp azure test 
 					createNewThread();
 				}
 				
-				cm.println(EPrintType.CLUE, getClass(), "Thread Pool: THREAD FINISHED. pool size="+threads.size());
+				final long alive = System.nanoTime() - thread_start_nanos;
+				alive_nanos.addAndGet(alive);
+				busy_nanos.addAndGet(thread_busy_nanos);
+				cm.println(EPrintType.CLUE, getClass(), "Thread Pool: THREAD FINISHED. pool size="+threads.size()+" tests="+thread_test_count+" groups="+thread_group_count+" steals="+thread_steal_count+" utilization="+percent(thread_busy_nanos, alive)+"%");
+				synchronized(threads_lock) {
+					threads_lock.notifyAll();
+				}
 			}
 		} // end public void run
 		
@@ -794,16 +1027,22 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		
 		protected void runThreadSafe() throws InterruptedException {
 			while (shouldRun()) {
-				// thread-safe can share groups between threads
-				// (this allows larger groups to be distributed  between threads)
-				group = thread_safe_groups.peek();
-				if (group==null) {
-					break;
-				} else if (group.test_cases.isEmpty()) {
-					while (thread_safe_groups.remove(group)) {}
+				// claim a whole group for this thread, so the same WebServerInstance can be used for the whole group
+				group = thread_safe_groups.poll();
+				if (group!=null) {
+					// leave it where other threads can steal from it
+					claimed_groups.add(group);
+					thread_group_count++;
 				} else {
-					exec_jobs(false, group.group_key, group.test_cases);
+					// all groups claimed. thread-safe can share groups between threads
+					// (this allows larger groups to be distributed between threads)
+					group = findGroupToSteal(group_key);
+					if (group==null)
+						break;
+					thread_steal_count++;
+					steal_count.incrementAndGet();
 				}
+				exec_jobs(false, group.group_key, group.test_cases);
 			}
 		} // end protected void runThreadSafe
 		
@@ -818,7 +1057,7 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		
 		protected boolean shouldRun() {
 			final long max_run_time_millis = getMaxRunTimeMillis();
-			return run_thread.get() && runner_state.get()==ETestPackRunnerState.RUNNING && (max_run_time_millis<1000||Math.abs(System.currentTimeMillis() - start_time_millis) < max_run_time_millis);
+			return run_thread.get() && runner_state.get()==ETestPackRunnerState.RUNNING && (run_flag==null||run_flag.get()) && (max_run_time_millis<1000||Math.abs(System.currentTimeMillis() - start_time_millis) < max_run_time_millis);
 		}
 		
 		protected abstract void prepareExec(TestCaseGroupKey group_key, PhpIni ini, Map<String,String> env, IScenarioSetup s);
@@ -827,6 +1066,7 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 			this.group_key = group_key;
 			LinkedList<T> completed_tests = new LinkedList<T>();
 			this.jobs = jobs;
+			final TestRunTimeHistory history = getRunTimeHistory();
 			
 			sapi_scenario.prep(cm, storage_host, scenario_set_setup, build, runner_fs, runner_host, group_key.getPhpIni(), group_key.getEnv(), active_test_pack, src_test_pack);
 			
@@ -851,6 +1091,7 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 				//
 				
 				int a = run_test_times_all;
+				final long busy_start_nanos = System.nanoTime();
 				
 				// @see -run_test_times_list console option
 				if (cm.isInRunTestTimesList(test_case)) {
@@ -951,6 +1192,12 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 					}
 				} // end for
 				
+				final long test_nanos = System.nanoTime() - busy_start_nanos;
+				thread_busy_nanos += test_nanos;
+				thread_test_count++;
+				if (!cm.isDebugAll() && !cm.isInDebugList(test_case))
+					// debugger makes test times meaningless
+					history.record(test_case.getName(), (test_nanos / 1000) / Math.max(1, a));
 				test_run_start_time.set(0);
 				if (test_count.incrementAndGet() > cm.getRunCount() && cm.getRunCount() > 0 ) {
 					// run maximum number of tests, don't run any more
@@ -1009,6 +1256,15 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		}
 	}
 
+	/** stops running tests (like #setState NOT_RUNNING) as soon as run_flag is set to false, even if
+	 * that's done for another runner (ex: runners for other hosts running the same test-pack at the same time)
+	 * 
+	 * @param run_flag
+	 */
+	public void setRunFlag(AtomicBoolean run_flag) {
+		this.run_flag = run_flag;
+	}
+	
 	@Override
 	public void setState(ETestPackRunnerState state) throws IllegalStateException {
 		this.runner_state.set(state);
@@ -1,6 +1,7 @@
 package com.mostc.pftt.runner;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -13,6 +14,7 @@ import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.host.ExecOutput;
 import com.mostc.pftt.host.Host;
 import com.mostc.pftt.model.app.EPhpUnitTestStatus;
+import com.mostc.pftt.model.app.EPhpUnitWorkerCheck;
 import com.mostc.pftt.model.app.PhpUnitActiveTestPack;
 import com.mostc.pftt.model.app.PhpUnitTemplate;
 import com.mostc.pftt.model.app.PhpUnitTestCase;
@@ -78,8 +80,11 @@ public abstract class AbstractPhpUnitTestCaseRunner extends AbstractApplicationU
 		this.reflection_only = reflection_only;
 	}
 	
-	@Override
-	protected String generatePhpScript() {
+	/** ENV vars the PHP script sets for the test
+	 * 
+	 * @return
+	 */
+	protected HashMap<String,String> createTemplateEnv() {
 		HashMap<String,String> env = new HashMap<String,String>();
 		
 		// BN: some phpunit tests (symfony) seem to not cleanup files or directories they create, sometimes
@@ -96,6 +101,12 @@ public abstract class AbstractPhpUnitTestCaseRunner extends AbstractApplicationU
 		// provide this info too, just like for PHPT tests
 		env.put("PFTT_SCENARIO_SET", scenario_set.getNameWithVersionInfo());
 		
+		return env;
+	}
+	
+	@Override
+	protected String generatePhpScript() {
+		HashMap<String,String> env = createTemplateEnv();
 		
 		//////// prepared, generate PHP code
 		
@@ -120,6 +131,32 @@ public abstract class AbstractPhpUnitTestCaseRunner extends AbstractApplicationU
 			);
 	}
 	
+	/** generates the PHP code for a PhpUnitWorker. same configuration as #generatePhpScript, but the worker
+	 * runs whatever tests it's sent instead of only this test.
+	 * 
+	 * @see PhpUnitTemplate#renderWorkerTemplate
+	 * @param checks
+	 * @return
+	 */
+	protected String generateWorkerPhpScript(Collection<EPhpUnitWorkerCheck> checks) {
+		return PhpUnitTemplate.renderWorkerTemplate(
+				host, 
+				scenario_set.getScenarioSet(), 
+				test_case.getPhpUnitDist().getSourceTestPack().getPreBootstrapCode(cm, host, scenario_set.getScenarioSet(), build),
+				PhpUnitActiveTestPack.norm(sapi_scenario, test_case.getPhpUnitDist().getBootstrapFile() == null ? 
+						null : 
+						test_case.getPhpUnitDist().getBootstrapFile().getAbsolutePath()),
+				test_case.getPhpUnitDist().getSourceTestPack().getPostBootstrapCode(cm, host, scenario_set.getScenarioSet(), build),
+				include_path,
+				include_files,
+				globals,
+				constants,
+				createTemplateEnv(),
+				my_temp_dir,
+				checks
+			);
+	}
+	
 	protected boolean use_cgi() {
 		return false;
 	}
@@ -249,19 +286,19 @@ System.out.println("187");
 						line_it.remove(); // remove this line from output_str
 					} else if (line.startsWith("exe=")) {
 						if (code_coverage==null)
-							code_coverage = new TestCaseCodeCoverage(host);
+							code_coverage = new TestCaseCodeCoverage(r.getCodeCoverageFiles(), host);
 						code_coverage.addExecutedLine(file, Integer.parseInt(line.substring("exe=".length())));
 						
 						line_it.remove(); // remove this line from output_str
 					} else if (line.startsWith("didnt_exe=")) {
 						if (code_coverage==null)
-							code_coverage = new TestCaseCodeCoverage(host);
+							code_coverage = new TestCaseCodeCoverage(r.getCodeCoverageFiles(), host);
 						code_coverage.addNotExecutedLine(file, Integer.parseInt(line.substring("didnt_exe=".length())));
 						
 						line_it.remove(); // remove this line from output_str
 					} else if (line.startsWith("no_exe=")) {
 						if (code_coverage==null)
-							code_coverage = new TestCaseCodeCoverage(host);
+							code_coverage = new TestCaseCodeCoverage(r.getCodeCoverageFiles(), host);
 						code_coverage.addNonExecutableLine(file, Integer.parseInt(line.substring("no_exe=".length())));
 						
 						line_it.remove(); // remove this line from output_str
@@ -18,6 +18,7 @@ import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.model.core.EPhptSection;
 import com.mostc.pftt.model.core.EPhptTestStatus;
+import com.mostc.pftt.model.core.ExpectedOutputMatcher;
 import com.mostc.pftt.model.core.PhpBuild;
 import com.mostc.pftt.model.core.PhpIni;
 import com.mostc.pftt.model.core.PhptActiveTestPack;
@@ -26,8 +27,10 @@ import com.mostc.pftt.model.core.PhptSourceTestPack;
 import com.mostc.pftt.model.core.PhptTestCase;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.results.EPhptPhase;
 import com.mostc.pftt.results.ITestResultReceiver;
 import com.mostc.pftt.results.PhptTestResult;
+import com.mostc.pftt.results.PhptTimings;
 import com.mostc.pftt.results.TestCaseCodeCoverage;
 import com.mostc.pftt.runner.LocalPhptTestPackRunner.PhptThread;
 import com.mostc.pftt.runner.PhptTestPreparer.PreparedPhptTestCase;
@@ -35,6 +38,7 @@ import com.mostc.pftt.scenario.FileSystemScenario;
 import com.mostc.pftt.scenario.SAPIScenario;
 import com.mostc.pftt.scenario.ScenarioSetSetup;
 import com.mostc.pftt.util.GZIPOutputStreamLevel;
+import com.mostc.pftt.util.LineDiff;
 import com.mostc.pftt.util.StringUtil2.LengthLimitStringWriter;
 
 public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<LocalPhptTestPackRunner.PhptThread,LocalPhptTestPackRunner> {
@@ -85,6 +89,26 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 
 	protected abstract void stop(boolean force);
 	
+	/** matches the output against the EXPECTF or EXPECTREGEX section.
+	 * 
+	 * with -expectf_diff, also reports (to GLOBAL_EXCEPTIONS.txt) tests where matching the EXPECTF tokens would give
+	 * a different result than matching with RE
+	 * 
+	 * @see ExpectedOutputMatcher#getDifference
+	 * @param remove_warning_and_error
+	 * @param output_trim
+	 * @return
+	 */
+	protected boolean matchExpected(boolean remove_warning_and_error, String output_trim) {
+		ExpectedOutputMatcher matcher = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, remove_warning_and_error);
+		if (cm!=null && cm.isExpectFDiff()) {
+			String diff = matcher.getDifference(output_trim);
+			if (diff!=null)
+				twriter.addGlobalException(host, "EXPECTF matcher difference: "+prep.test_case.getName()+" "+scenario_set+": "+diff);
+		}
+		return matcher.match(output_trim);
+	}
+	
 	@Override
 	public String getSAPIOutput() {
 		return "PFTT: during "+current_section+" PHPT test section\n"+doGetSAPIOutput();
@@ -124,7 +148,12 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 	 */
 	@Override
 	public void runTest(ConsoleManager cm, LocalPhptTestPackRunner.PhptThread t, LocalPhptTestPackRunner r) throws IOException, Exception, Throwable {
-		if (!prepare())
+		// @see PhptTimings#current - set by PhptThread
+		final PhptTimings timings = PhptTimings.current();
+		long start = timings.start();
+		final boolean prepared = prepare();
+		timings.end(EPhptPhase.PREPARE, start);
+		if (!prepared)
 			// test is SKIP BORK EXCEPTION etc...
 			return;
 		if (prep.skipif_file!=null) {
@@ -159,13 +188,13 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 					}
 				} else {
 					current_section = EPhptSection.SKIPIF; // @see #getSAPIOutput
-					if ( evalSkipIf(executeSkipIf()) ) {
+					if ( runSkipIf(r, timings) ) {
 						return;
 					}
 				}
 			} else {
 				current_section = EPhptSection.SKIPIF; // @see #getSAPIOutput
-				if ( evalSkipIf(executeSkipIf()) ) {
+				if ( runSkipIf(r, timings) ) {
 					return;
 				}
 			}
@@ -174,16 +203,20 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 		
 		current_section = EPhptSection.TEST; // @see #getSAPIOutput
 		// no SKIPIF section or executed SKIPIF says to execute the TEST section
+		start = timings.start();
 		prepareTest();
+		timings.end(EPhptPhase.PREPARE_TEST, start);
 		//
+		start = timings.start();
 		String test_output = executeTest();
+		timings.end(EPhptPhase.EXECUTE, start);
 		
 		//
 		if (xdebug) {
 			// read and filter code coverage data from the output
 			// @see PhpUnitTemplate#renderXDebugPhptTemplate
 			StringBuilder sb = new StringBuilder(4096);
-			code_coverage = new TestCaseCodeCoverage(host, prep.test_file);
+			code_coverage = new TestCaseCodeCoverage(r.getCodeCoverageFiles(), host, prep.test_file);
 			String filename = prep.test_file; // can assume it starts here
 			for ( String line : StringUtil.splitLines(test_output)) {
 				if (line.startsWith("exe=")) {
@@ -204,10 +237,16 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 		//
 		if (not_crashed) {
 			//
+			start = timings.start();
 			PhptTestResult result = evalTest(test_output, prep.test_case.getCommonCharset());
-			if (result!=null)
+			timings.end(EPhptPhase.EVALUATE, start);
+			if (result!=null) {
+				start = timings.start();
 				twriter.addResult(host, scenario_set, src_test_pack, result);
+				timings.end(EPhptPhase.REPORT, start);
+			}
 			
+			start = timings.start();
 			// some tests create files/dirs which, which will cause the test to fail again
 			// if its run in-place from the same test-pack
 			if (!cm.isPhptNotInPlace()&&prep.test_clean!=null) {
@@ -219,6 +258,23 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 			if(result.status.name() == EPhptTestStatus.PASS.toString()) {
 				removeTempFiles();
 			}
+			timings.end(EPhptPhase.CLEAN, start);
+		}
+	}
+	
+	/** executes SKIPIF section and records how long it took
+	 * 
+	 * @param r
+	 * @param timings
+	 * @return TRUE if test should be skipped
+	 * @throws Exception
+	 */
+	protected boolean runSkipIf(LocalPhptTestPackRunner r, PhptTimings timings) throws Exception {
+		final long start = timings.start();
+		try {
+			return evalSkipIf(getSkipIfOutput(r));
+		} finally {
+			timings.end(EPhptPhase.SKIPIF, start);
 		}
 	}
 	
@@ -261,6 +317,35 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 	 */
 	protected abstract String executeSkipIf() throws Exception;
 	
+	/** gets output of SKIPIF section from the SKIPIF cache, or executes it (and caches its output)
+	 * 
+	 * @see PhptSkipIfCache
+	 * @param r
+	 * @return
+	 * @throws Exception
+	 */
+	protected String getSkipIfOutput(LocalPhptTestPackRunner r) throws Exception {
+		final PhptSkipIfCache cache = r==null ? null : r.getSkipIfCache();
+		if (cache==null)
+			return executeSkipIf();
+		final String key = cache.getKey(prep.test_case, ini);
+		String output = cache.get(key);
+		if (output!=null)
+			return output;
+		output = executeSkipIf();
+		if (output!=null && isSkipIfCacheable())
+			cache.put(key, output);
+		return output;
+	}
+	
+	/** checks if output of SKIPIF that was just executed can be reused by later test runs
+	 * 
+	 * @return FALSE if SKIPIF timed out or crashed
+	 */
+	protected boolean isSkipIfCacheable() {
+		return !is_timeout;
+	}
+	
 	/** evaluates the execution output of the SKIPIF section to decide if test should be
 	 * skipped. reports result to PhptTelemetryManager.
 	 *  
@@ -491,7 +576,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 			String output_trim = output.trim();
 			
 			try {
-				expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, false).match(output_trim); 
+				expected_re_match = matchExpected(false, output_trim); 
 			} catch (Throwable ex) {
 				twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ConsoleManagerUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 				throw ex;
@@ -502,7 +587,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 			} 
 			if (prep.test_case.expectsWarningOrFatalError()) {
 				try {
-					expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, true).match(output_trim); 
+					expected_re_match = matchExpected(true, output_trim); 
 				} catch (Throwable ex) {
 					twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ConsoleManagerUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 					throw ex;
@@ -522,7 +607,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 			} else {
 				// compare again
 				try {
-					expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, false).match(output_trim); 
+					expected_re_match = matchExpected(false, output_trim); 
 				} catch (Throwable ex) {
 					twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ConsoleManagerUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 					throw ex;
@@ -532,7 +617,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 				}
 				if (prep.test_case.expectsWarningOrFatalError()) {
 					try {
-						expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, true).match(output_trim); 
+						expected_re_match = matchExpected(true, output_trim); 
 					} catch (Throwable ex) {
 						twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ConsoleManagerUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 						throw ex;
@@ -580,11 +665,28 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 		}
 		
 		// if here, test failed!
-
+		final PhptTimings timings = PhptTimings.current();
+		final long diff_start = timings.start();
+		try {
+			return evalFail(output, charset, preoverride_actual);
+		} finally {
+			timings.end(EPhptPhase.DIFF, diff_start);
+		}
+	} // end protected PhptTestResult evalTest
+	
+	/** generates the result (and diff) for a test that didn't pass
+	 * 
+	 * @param output
+	 * @param charset
+	 * @param preoverride_actual
+	 * @return
+	 * @throws Throwable
+	 */
+	protected PhptTestResult evalFail(String output, Charset charset, String preoverride_actual) throws Throwable {
 		// generate a diff
 		String[] actual_lines = StringUtil.splitLines(output);
 		String[] expected_lines = StringUtil.splitLines(prep.test_case.getExpected());
-		Diff<String> diff = new Diff<String>(expected_lines, actual_lines);
+		Diff<String> diff = new LineDiff(expected_lines, actual_lines);
 
 		String expectf;
 		// generate the EXPECTF section to show the user the regular expression that was actually used (generated from EXPECTF section) to evaluate test output
@@ -625,7 +727,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 		//
 		
 		return result;
-	} // end protected PhptTestResult evalTest
+	} // end protected PhptTestResult evalFail
 	
 	protected PhptTestResult notifyPassOrXFail(PhptTestResult result) {
 		if (cm.isGetActualIniAll()) {
@@ -24,8 +24,10 @@ import com.mostc.pftt.model.core.PhptOverrideManager;
 import com.mostc.pftt.model.core.PhptSourceTestPack;
 import com.mostc.pftt.model.core.PhptTestCase;
 import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.EPhptPhase;
 import com.mostc.pftt.results.ITestResultReceiver;
 import com.mostc.pftt.results.PhptTestResult;
+import com.mostc.pftt.results.PhptTimings;
 import com.mostc.pftt.results.TestCaseCodeCoverage;
 import com.mostc.pftt.runner.LocalPhptTestPackRunner.PhptThread;
 import com.mostc.pftt.runner.PhptTestPreparer.PreparedPhptTestCase;
@@ -33,6 +35,7 @@ import com.mostc.pftt.scenario.SAPIScenario;
 import com.mostc.pftt.scenario.ScenarioSetSetup;
 import com.mostc.pftt.util.ErrorUtil;
 import com.mostc.pftt.util.GZIPOutputStreamLevel;
+import com.mostc.pftt.util.LineDiff;
 import com.mostc.pftt.util.StringUtil2.LengthLimitStringWriter;
 
 public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRunner {
@@ -66,7 +69,12 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 	 */
 	@Override
 	public void runTest(ConsoleManager cm, LocalPhptTestPackRunner.PhptThread t, LocalPhptTestPackRunner r) throws IOException, Exception, Throwable {
-		if (!prepare())
+		// @see PhptTimings#current - set by PhptThread
+		final PhptTimings timings = PhptTimings.current();
+		long start = timings.start();
+		final boolean prepared = prepare();
+		timings.end(EPhptPhase.PREPARE, start);
+		if (!prepared)
 			// test is SKIP BORK EXCEPTION etc...
 			return;
 		if (prep.skipif_file!=null) {
@@ -93,14 +101,14 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 					// extension is already loaded
 				} else {
 					current_section = EPhptSection.SKIPIF; // @see #getSAPIOutput
-					if ( evalSkipIf(executeSkipIf()) ) {
+					if ( runSkipIf(timings) ) {
 						twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.SKIP, prep.test_case, skipif_code, null, null, null, ini, null, null, null, null, null, null, null));
 						return;
 					}
 				}
 			} else {
 				current_section = EPhptSection.SKIPIF; // @see #getSAPIOutput
-				if ( evalSkipIf(executeSkipIf()) ) {
+				if ( runSkipIf(timings) ) {
 					twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.SKIP, prep.test_case, skipif_code, null, null, null, ini, null, null, null, null, null, null, null));
 					return;
 				}
@@ -110,16 +118,20 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 		
 		current_section = EPhptSection.TEST; // @see #getSAPIOutput
 		// no SKIPIF section or executed SKIPIF says to execute the TEST section
+		start = timings.start();
 		prepareTest();
+		timings.end(EPhptPhase.PREPARE_TEST, start);
 		//
+		start = timings.start();
 		String test_output = executeTest();
+		timings.end(EPhptPhase.EXECUTE, start);
 		
 		//
 		if (xdebug) {
 			// read and filter code coverage data from the output
 			// @see PhpUnitTemplate#renderXDebugPhptTemplate
 			StringBuilder sb = new StringBuilder(4096);
-			code_coverage = new TestCaseCodeCoverage(host, prep.test_file);
+			code_coverage = new TestCaseCodeCoverage(r.getCodeCoverageFiles(), host, prep.test_file);
 			String filename = prep.test_file; // can assume it starts here
 			for ( String line : StringUtil.splitLines(test_output)) {
 				if (line.startsWith("exe=")) {
@@ -140,20 +152,45 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 		//
 		if (not_crashed) {
 			//
+			start = timings.start();
 			PhptTestResult result = evalTest(test_output, prep.test_case.getCommonCharset());
-			if (result!=null)
+			timings.end(EPhptPhase.EVALUATE, start);
+			if (result!=null) {
+				start = timings.start();
 				twriter.addResult(host, scenario_set, src_test_pack, result);
+				timings.end(EPhptPhase.REPORT, start);
+			}
 			
+			start = timings.start();
 			// some tests create files/dirs which, which will cause the test to fail again
 			// if its run in-place from the same test-pack
 			if (!cm.isPhptNotInPlace()&&prep.test_clean!=null&&!host.isBusy()) {
 				current_section = EPhptSection.CLEAN; // @see #getSAPIOutput
 				executeClean(); // #executeClean != #doRunTestClean
 			}
+			timings.end(EPhptPhase.CLEAN, start);
 		}
 		
-		if (!host.isBusy())
+		if (!host.isBusy()) {
+			start = timings.start();
 			doRunTestClean(cm);
+			timings.end(EPhptPhase.CLEAN, start);
+		}
+	}
+	
+	/** executes SKIPIF section and records how long it took
+	 * 
+	 * @param timings
+	 * @return TRUE if test should be skipped
+	 * @throws Exception
+	 */
+	protected boolean runSkipIf(PhptTimings timings) throws Exception {
+		final long start = timings.start();
+		try {
+			return evalSkipIf(executeSkipIf());
+		} finally {
+			timings.end(EPhptPhase.SKIPIF, start);
+		}
 	}
 	
 	protected void redoCrashedTest() throws Exception {
@@ -439,7 +476,7 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 			String output_trim = output.trim();
 			
 			try {
-				expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, false).match(output_trim); 
+				expected_re_match = matchExpected(false, output_trim); 
 			} catch (Throwable ex) {
 				twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ErrorUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 				throw ex;
@@ -450,7 +487,7 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 			} 
 			if (prep.test_case.expectsWarningOrFatalError()) {
 				try {
-					expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, true).match(output_trim); 
+					expected_re_match = matchExpected(true, output_trim); 
 				} catch (Throwable ex) {
 					twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ErrorUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 					throw ex;
@@ -470,7 +507,7 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 			} else {
 				// compare again
 				try {
-					expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, false).match(output_trim); 
+					expected_re_match = matchExpected(false, output_trim); 
 				} catch (Throwable ex) {
 					twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ErrorUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 					throw ex;
@@ -480,7 +517,7 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 				}
 				if (prep.test_case.expectsWarningOrFatalError()) {
 					try {
-						expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, true).match(output_trim); 
+						expected_re_match = matchExpected(true, output_trim); 
 					} catch (Throwable ex) {
 						twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ErrorUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 						throw ex;
@@ -523,11 +560,13 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 		}
 		
 		// if here, test failed!
+		final PhptTimings timings = PhptTimings.current();
+		final long diff_start = timings.start();
 
 		// generate a diff
 		String[] actual_lines = StringUtil.splitLines(output);
 		String[] expected_lines = StringUtil.splitLines(prep.test_case.getExpected());
-		Diff<String> diff = new Diff<String>(expected_lines, actual_lines);
+		Diff<String> diff = new LineDiff(expected_lines, actual_lines);
 
 		String expectf;
 		// generate the EXPECTF section to show the user the regular expression that was actually used (generated from EXPECTF section) to evaluate test output
@@ -543,8 +582,10 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 		} else {
 			result = notifyNotPass(notifyFail(new PhptTestResult(host, is_timeout?EPhptTestStatus.TIMEOUT:EPhptTestStatus.FAIL, prep.test_case, output, actual_lines, expected_lines, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), diff, expectf, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage)));
 		}
-		if (result==null)
+		if (result==null) {
+			timings.end(EPhptPhase.DIFF, diff_start);
 			return null; // redoing
+		}
 		
 		//
 		// set result#regex_compiler_dump and result#regex_output dump if test result is FAIL or XFAIL_WORKS and test has an EXPECTF or EXPECTREGEX section
@@ -567,6 +608,7 @@ public abstract class AbstractPhptTestCaseRunner2 extends AbstractPhptTestCaseRu
 		}
 		//
 		
+		timings.end(EPhptPhase.DIFF, diff_start);
 		return result;
 	} // end protected PhptTestResult evalTest
 	
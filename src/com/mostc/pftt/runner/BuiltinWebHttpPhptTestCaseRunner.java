@@ -1,7 +1,6 @@
 package com.mostc.pftt.runner;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.util.Map;
 
 import org.apache.http.params.HttpParams;
@@ -23,7 +22,6 @@ import com.mostc.pftt.runner.PhptTestPreparer.PreparedPhptTestCase;
 import com.mostc.pftt.scenario.BuiltinWebServerScenario;
 import com.mostc.pftt.scenario.FileSystemScenario;
 import com.mostc.pftt.scenario.ScenarioSetSetup;
-import com.mostc.pftt.util.TimerUtil;
 
 public class BuiltinWebHttpPhptTestCaseRunner extends HttpPhptTestCaseRunner {
 	
@@ -57,17 +55,7 @@ public class BuiltinWebHttpPhptTestCaseRunner extends HttpPhptTestCaseRunner {
 	protected void stop(boolean force) {
 		if (web!=null)
 			web.close(cm);
-		final Socket s = test_socket;
-		if (s==null)
-			return;
-		TimerUtil.runThread(new Runnable() {
-			public void run() {
-				try {
-				s.close();
-				} catch ( Exception ex ) {}
-			}
-		});
-		test_socket = null;
+		shutdownConnection();
 	}
 		
 	@Override
@@ -1,6 +1,7 @@
 package com.mostc.pftt.runner;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 
 import com.github.mattficken.io.IOUtil;
@@ -20,22 +21,36 @@ import com.mostc.pftt.util.NTStatus;
 public class CliPhpUnitTestCaseRunner extends AbstractPhpUnitTestCaseRunner {
 	protected ExecHandle running_test_handle;
 	protected String output_str;
+	/** if not null, test is run in this worker @see PhpUnitWorkerScenario
+	 * 
+	 * only used with reflection_only. a worker can't call the test method inline (@see PhpUnitTemplate#renderWorkerTemplate)
+	 * so opcache wouldn't see the call. without reflection_only each test gets its own process */
+	protected final PhpUnitWorker worker;
+	protected volatile boolean is_stopped;
 
 	public CliPhpUnitTestCaseRunner(FileSystemScenario fs, CliScenario sapi_scenario, PhpUnitThread thread, ITestResultReceiver tmgr, Map<String, String> globals, Map<String, String> env, ConsoleManager cm, AHost host, ScenarioSetSetup scenario_set_setup, PhpBuild build, PhpUnitTestCase test_case, String my_temp_dir, Map<String, String> constants, String include_path, String[] include_files, PhpIni ini, boolean reflection_only) {
 		super(fs, sapi_scenario, thread, tmgr, globals, env, cm, host, scenario_set_setup, build, test_case, my_temp_dir, constants, include_path, include_files, ini, reflection_only);
+		worker = thread == null || !reflection_only ? null : thread.getPhpUnitWorker();
 	}
 	
 	@Override
 	protected void stop(boolean force) {
+		is_stopped = true;
+		if (worker!=null)
+			worker.stop();
 		if (running_test_handle==null)
 			return;
 		running_test_handle.close(cm, force);
 	}
 	
-	private void doExecute(String template_file, String ini_dir) throws Exception {
+	protected String getCommandLine(String template_file, String ini_dir) {
 		ini_dir = "C:\\php-sdk\\php-7.0.4-nts-Win32-VC14-x86\\php.ini"; // TODO temp
+		return build.getPhpExe()+" -c "+ini_dir+" "+template_file;
+	}
+	
+	private void doExecute(String template_file, String ini_dir) throws Exception {
 		running_test_handle = host.execThread(
-				build.getPhpExe()+" -c "+ini_dir+" "+template_file,
+				getCommandLine(template_file, ini_dir),
 				env,
 				test_case.getPhpUnitDist().getPath().getAbsolutePath()
 			);
@@ -58,10 +73,81 @@ public class CliPhpUnitTestCaseRunner extends AbstractPhpUnitTestCaseRunner {
 		is_timeout = running_test_handle.isTimedOut();
 	}
 	
+	/** runs test in the thread's PhpUnitWorker, starting a new worker process if needed
+	 * 
+	 * @param ini_dir
+	 * @throws Exception
+	 */
+	protected void executeInWorker(String ini_dir) throws Exception {
+		final String worker_file = my_temp_dir+"/worker.php";
+		final String cmd = getCommandLine(worker_file, ini_dir);
+		final String cwd = test_case.getPhpUnitDist().getPath().getAbsolutePath();
+		
+		// start a new worker process if this test needs a different configuration than the running one
+		final String key = getWorkerKey(cmd, cwd);
+		if (!worker.isStarted(key)) {
+			fs.saveTextFile(worker_file, generateWorkerPhpScript(worker.getPollutionChecks()));
+			
+			worker.start(key, cmd, env, cwd, getMaxTestRuntimeSeconds());
+		}
+		
+		output_str = worker.runTest(test_case, getMaxTestRuntimeSeconds(), IOUtil.HALF_MEGABYTE);
+		
+		is_crashed = worker.isCrashed();
+		is_timeout = worker.isTimedOut();
+	}
+	
+	/** identifies the worker configuration this test needs, from the same inputs #generateWorkerPhpScript uses (so
+	 * the script only has to be generated when a new worker is started).
+	 * 
+	 * The rest of #generateWorkerPhpScript's inputs (host, scenario set, build, checks) are the same for all of
+	 * the thread's tests.
+	 * 
+	 * @param cmd
+	 * @param cwd
+	 * @return
+	 */
+	protected String getWorkerKey(String cmd, String cwd) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(cmd).append('\n');
+		sb.append(env).append('\n');
+		sb.append(cwd).append('\n');
+		// pre and post bootstrap code come from the test-pack
+		sb.append(test_case.getPhpUnitDist().getSourceTestPack().getNameAndVersionString()).append('\n');
+		sb.append(test_case.getPhpUnitDist().getBootstrapFile()).append('\n');
+		sb.append(include_path).append('\n');
+		sb.append(Arrays.toString(include_files)).append('\n');
+		sb.append(globals).append('\n');
+		sb.append(constants).append('\n');
+		sb.append(my_temp_dir);
+		return sb.toString();
+	}
+	
+	@Override
+	protected void prepareTemplate(String template_file) throws IllegalStateException, IOException {
+		if (worker!=null)
+			// worker doesn't need a template for each test (only if it crashes @see #execute)
+			return;
+		super.prepareTemplate(template_file);
+	}
+	
 	@Override
 	protected String execute(String template_file) throws IOException, Exception {
 		final String ini_dir = build.prepare(cm, fs, host); // XXX store PhpIni in my_temp_dir ?
 		
+		if (worker!=null) {
+			executeInWorker(ini_dir);
+			if (!is_crashed || is_stopped)
+				return output_str;
+			
+			// crash may have been caused by an earlier test the worker ran. run test again in its own process
+			// so its result is the same as without a worker
+			is_crashed = false;
+			is_timeout = false;
+			
+			super.prepareTemplate(template_file);
+		}
+		
 		doExecute(template_file, ini_dir);
 		if (is_crashed && running_test_handle.getExitCode() != -2
 				&& running_test_handle.getExitCode() != NTStatus.STATUS_ACCESS_VIOLATION) {
@@ -5,6 +5,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
 
 import com.github.mattficken.io.IOUtil;
 import com.github.mattficken.io.StringUtil;
@@ -22,6 +27,7 @@ import com.mostc.pftt.model.core.PhptSourceTestPack;
 import com.mostc.pftt.model.core.PhptTestCase;
 import com.mostc.pftt.model.sapi.CliSAPIInstance;
 import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.ConsoleManagerUtil;
 import com.mostc.pftt.results.ITestResultReceiver;
 import com.mostc.pftt.results.PhpResultPack;
 import com.mostc.pftt.results.PhptTestResult;
@@ -155,8 +161,8 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		// generate it now so it can be used in the shell script
 		test_cmd = sapi.createPhpCommand(exe_type, prep.test_file, query_string, debugger_attached);
 		
-		prepareSTDIN();
-		createShellScript();
+		// shell script and .stdin file are only for reproducing the test by hand. nothing reads them
+		// while testing, so they're only written if test doesn't pass (@see #notifyNotPass)
 	} // end protected void prepareTest
 	
 	@Override
@@ -201,12 +207,27 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		
 		
 		
+		if (thread!=null && !debugger_attached && exe_type==EExecutableType.CLI) {
+			// try running it along with the SKIPIFs of the next tests in this group (1 PHP process for all of them)
+			String batch_output = thread.getSkipIfBatch(sapi).getOutput(cm, prep, env, thread.getUpcomingTests());
+			if (batch_output!=null) {
+				output = new ExecOutput();
+				output.output = batch_output;
+				return batch_output;
+			}
+		}
+		
 		// execute SKIPIF (5 second timeout since its a little bit of PHP code that doesn't do much)
 		output = sapi.execute(exe_type, prep.base_file_name, prep.skipif_file, null, 5, env, active_test_pack.getStorageDirectory(), debugger_attached);
 					
 		return output.output; 
 	} // end String executeSkipIf
 	
+	@Override
+	protected boolean isSkipIfCacheable() {
+		return super.isSkipIfCacheable() && (output==null || !output.isCrashed());
+	}
+	
 	@Override
 	protected void redoCrashedTest() throws Exception {
 		test_cmd = sapi.createPhpCommand(exe_type, prep.test_file, query_string, debugger_attached);
@@ -309,11 +330,28 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			return null; // no crash at all
 	}
 
+	@Override
+	protected PhptTestResult notifyNotPass(PhptTestResult result) {
+		if (test_cmd!=null) {
+			// write files to reproduce test with
+			try {
+				prepareSTDIN();
+				createShellScript();
+			} catch ( Exception ex ) {
+				ConsoleManagerUtil.printStackTrace(CliPhptTestCaseRunner.class, cm, ex);
+			}
+		}
+		return super.notifyNotPass(result);
+	}
+	
 	protected void createShellScript() throws IOException, Exception {
 		// useful: rm -rf `find ./ -name "*.sh"`
 		//
 		// create a .cmd (Windows batch script) or .sh (shell script) that will actually execute PHP
 		// this enables PHP to be executed like what PFTT does, but using a shell|batch script
+		if (shell_file!=null)
+			// already written
+			return;
 		shell_file = prep.test_file + (host.isWindows() ? ".cmd" : ".sh" );
 		if (shell_file.startsWith(active_test_pack.getStorageDirectory())) {
 			shell_file = shell_file.substring(active_test_pack.getStorageDirectory().length());
@@ -321,6 +359,39 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 				shell_file = shell_file.substring(1);
 			shell_file = this.active_test_pack.getStorageDirectory()+"/"+shell_file;
 		}
+		fs.saveTextFile(shell_file, getShellScript());
+		
+		if (!host.isWindows()) {
+			// make shell script executable on linux
+			makeExecutable(shell_file);
+		}
+	} // end protected void createShellScript
+	
+	/** sets executable permission in-process if possible, instead of starting chmod just for that
+	 * 
+	 * @param file
+	 * @throws Exception
+	 */
+	protected void makeExecutable(String file) throws Exception {
+		if (!host.isRemote()) {
+			try {
+				Path path = Paths.get(file);
+				Set<PosixFilePermission> perms = Files.getPosixFilePermissions(path);
+				perms.add(PosixFilePermission.OWNER_EXECUTE);
+				perms.add(PosixFilePermission.GROUP_EXECUTE);
+				perms.add(PosixFilePermission.OTHERS_EXECUTE);
+				Files.setPosixFilePermissions(path, perms);
+				return;
+			} catch ( UnsupportedOperationException ex ) {
+				// file system doesn't support POSIX permissions (ex: SMB share): fallback to chmod
+			} catch ( IOException ex ) {
+				// fallback to chmod
+			}
+		}
+		host.exec(cm, getClass(), "chmod +x \""+file+"\"", AHost.FOUR_HOURS, null, null, active_test_pack.getStorageDirectory());
+	}
+	
+	protected String generateShellScript() {
 		StringWriter sw = new StringWriter();
 		PrintWriter fw = new PrintWriter(sw);
 		if (host.isWindows()) {
@@ -348,17 +419,12 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		}
 		fw.println(test_cmd);
 		fw.close();
-		shell_script = sw.toString();
-		fs.saveTextFile(shell_file, shell_script);
-			
-		
-		if (!host.isWindows()) {
-			// make shell script executable on linux
-			host.exec(cm, getClass(), "chmod +x \""+shell_file+"\"", AHost.FOUR_HOURS, null, null, active_test_pack.getStorageDirectory());
-		}
-	} // end protected void createShellScript
+		return sw.toString();
+	} // end protected String generateShellScript
 
 	protected void prepareSTDIN() throws IOException {
+		if (stdin_post==null)
+			return;
 		String stdin_file = prep.test_file + ".stdin";
 		if (stdin_file.startsWith(active_test_pack.getStorageDirectory())) {
 			stdin_file = stdin_file.substring(active_test_pack.getStorageDirectory().length());
@@ -367,9 +433,7 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			stdin_file = this.active_test_pack.getStorageDirectory()+"/"+stdin_file;
 		}
 		new File(stdin_file).getParentFile().mkdirs();
-		if (stdin_post!=null) {
-			fs.saveFile(stdin_file, stdin_post);
-		}
+		fs.saveFile(stdin_file, stdin_post);
 	} // end protected void prepareSTDIN
 
 	@Override
@@ -379,6 +443,8 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 	
 	@Override
 	protected String getShellScript() {
+		if (shell_script==null && test_cmd!=null)
+			shell_script = generateShellScript();
 		return shell_script;
 	}
 
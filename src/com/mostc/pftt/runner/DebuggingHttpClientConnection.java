@@ -18,9 +18,20 @@ import org.apache.http.io.SessionOutputBuffer;
 import org.apache.http.params.HttpParams;
 
 public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
-	protected final ByteArrayOutputStream response, request;
+	protected volatile ByteArrayOutputStream response, request;
 	
-	public DebuggingHttpClientConnection(@Nullable ByteArrayOutputStream request, ByteArrayOutputStream response) {
+	public DebuggingHttpClientConnection(@Nullable ByteArrayOutputStream request, @Nullable ByteArrayOutputStream response) {
+		this.request = request;
+		this.response = response;
+	}
+	
+	/** changes where the request and response bytes are copied to. a pooled (keep-alive)
+	 * connection is used for several tests, so the bytes need to go to the current test.
+	 * 
+	 * @param request - or null to not copy request
+	 * @param response - or null to not copy response
+	 */
+	public void setCapture(@Nullable ByteArrayOutputStream request, @Nullable ByteArrayOutputStream response) {
 		this.request = request;
 		this.response = response;
 	}
@@ -28,7 +39,7 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 	@Override
 	protected SessionInputBuffer createSessionInputBuffer(final Socket socket, int buffersize, final HttpParams params) throws IOException {
 		InputStream in = socket.getInputStream();
-		DebuggingInputStream din = new DebuggingInputStream(response, in);
+		DebuggingInputStream din = new DebuggingInputStream(this, in);
 		
 		return new DebugSocketInputBuffer(socket, din, buffersize, params);
 	}
@@ -36,24 +47,25 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 	@Override
 	protected SessionOutputBuffer createSessionOutputBuffer(final Socket socket, int buffersize, final HttpParams params) throws IOException {
 		OutputStream out = socket.getOutputStream();
-		DebuggingOutputStream dout = new DebuggingOutputStream(request, out);
+		DebuggingOutputStream dout = new DebuggingOutputStream(this, out);
 		
 		return new DebugSocketOutputBuffer(socket, dout, buffersize, params);
 	}
 	
 	protected static class DebuggingInputStream extends InputStream {
-		protected final ByteArrayOutputStream bin;
+		protected final DebuggingHttpClientConnection conn;
 		protected final InputStream real;
 
-		public DebuggingInputStream(ByteArrayOutputStream bin, InputStream real) {
-			this.bin = bin;
+		public DebuggingInputStream(DebuggingHttpClientConnection conn, InputStream real) {
+			this.conn = conn;
 			this.real = real;
 		}
 		
 		@Override
 		public int read(byte[] buf, int off, int len) throws IOException {
 			len = real.read(buf, off, len);
-			if (len!=-1)
+			final ByteArrayOutputStream bin = conn.response;
+			if (len!=-1 && bin!=null)
 				bin.write(buf, off, len);
 			return len;
 		}
@@ -61,7 +73,8 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 		@Override
 		public int read(byte[] buf) throws IOException {
 			int len = real.read(buf);
-			if (len!=-1)
+			final ByteArrayOutputStream bin = conn.response;
+			if (len!=-1 && bin!=null)
 				bin.write(buf, 0, len);
 			return len;
 		}
@@ -69,30 +82,32 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 		@Override
 		public int read() throws IOException {
 			int i = real.read();
-			bin.write(i);
+			final ByteArrayOutputStream bin = conn.response;
+			if (bin!=null)
+				bin.write(i);
 			return i;
 		}
 		
 		@Override
 		public void close() throws IOException {
-			bin.close();
 			real.close();
 		}
 		
 	} // end protected static class DebuggingInputStream
 	
 	protected static class DebuggingOutputStream extends OutputStream {
-		protected final ByteArrayOutputStream bout;
+		protected final DebuggingHttpClientConnection conn;
 		protected final OutputStream real;
 
-		public DebuggingOutputStream(ByteArrayOutputStream bout, OutputStream real) {
-			this.bout = bout;
+		public DebuggingOutputStream(DebuggingHttpClientConnection conn, OutputStream real) {
+			this.conn = conn;
 			this.real = real;
 		}
 		
 		@Override
 		public void write(byte[] buf, int off, int len) throws IOException {
 			real.write(buf, off, len);
+			final ByteArrayOutputStream bout = conn.request;
 			if (bout!=null)
 				bout.write(buf, off, len);
 		}
@@ -100,6 +115,7 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 		@Override
 		public void write(byte[] buf) throws IOException {
 			real.write(buf);
+			final ByteArrayOutputStream bout = conn.request;
 			if (bout!=null)
 				bout.write(buf);
 		}
@@ -107,6 +123,7 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 		@Override
 		public void write(int b) throws IOException {
 			real.write(b);
+			final ByteArrayOutputStream bout = conn.request;
 			if (bout!=null)
 				bout.write(b);
 		}
@@ -114,8 +131,6 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 		@Override
 		public void close() throws IOException {
 			real.close();
-			if (bout!=null)
-				bout.close();
 		}
 		
 	} // end protected static class DebuggingOutputStream
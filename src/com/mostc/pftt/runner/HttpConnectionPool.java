@@ -0,0 +1,164 @@
+package com.mostc.pftt.runner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.LinkedList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/** Pool of keep-alive HTTP connections to 1 web server instance.
+ *
+ * Reusing connections avoids a TCP handshake (and a socket left in TIME_WAIT) for each SKIPIF, TEST and
+ * CLEAN request.
+ *
+ * When the web server crashes or is closed, #close is called, which closes the idle connections and
+ * any connections that are in use when they are released.
+ *
+ * @see com.mostc.pftt.model.sapi.WebServerInstance#getConnectionPool
+ *
+ */
+
+@ThreadSafe
+public class HttpConnectionPool {
+	public static final int DEFAULT_MAX_IDLE = 16;
+	public static final int SOCKET_TIMEOUT_MILLIS = 60*1000;
+	protected static final DefaultConnectionReuseStrategy REUSE_STRATEGY = new DefaultConnectionReuseStrategy();
+	protected final LinkedList<DebuggingHttpClientConnection> idle;
+	protected final int max_idle;
+	protected boolean closed;
+
+	public HttpConnectionPool() {
+		this(DEFAULT_MAX_IDLE);
+	}
+
+	public HttpConnectionPool(int max_idle) {
+		this.max_idle = max_idle;
+		idle = new LinkedList<DebuggingHttpClientConnection>();
+	}
+
+	/** gets an idle connection to the web server, or opens a new one if there aren't any.
+	 *
+	 * request and response bytes will be copied to the given streams (until #release)
+	 *
+	 * @param hostname
+	 * @param port
+	 * @param params
+	 * @param request_bytes
+	 * @param response_bytes
+	 * @return
+	 * @throws IOException
+	 */
+	public DebuggingHttpClientConnection acquire(String hostname, int port, HttpParams params, @Nullable ByteArrayOutputStream request_bytes, @Nullable ByteArrayOutputStream response_bytes) throws IOException {
+		DebuggingHttpClientConnection conn;
+		for (;;) {
+			synchronized(idle) {
+				if (closed)
+					throw new IOException("web server closed");
+				conn = idle.pollLast();
+			}
+			if (conn==null)
+				break;
+			// server may have closed it (keep-alive timeout, etc...)
+			if (conn.isOpen() && !conn.isStale()) {
+				conn.setCapture(request_bytes, response_bytes);
+				return conn;
+			}
+			closeQuietly(conn);
+		}
+
+		Socket socket = new Socket();
+		socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+		socket.setTcpNoDelay(true);
+		socket.setKeepAlive(true);
+		try {
+			socket.connect(new InetSocketAddress(hostname, port));
+		} catch ( IOException ex ) {
+			socket.close();
+			throw ex;
+		}
+
+		conn = new DebuggingHttpClientConnection(request_bytes, response_bytes);
+		conn.bind(socket, params);
+		conn.setSocketTimeout(SOCKET_TIMEOUT_MILLIS);
+		return conn;
+	} // end public DebuggingHttpClientConnection acquire
+
+	/** returns the connection to the pool, if the response allows it to be reused. otherwise closes it.
+	 *
+	 * reads and discards any part of the response entity that hasn't been read yet.
+	 *
+	 * @param conn
+	 * @param response - response to last request on connection or null if request failed (connection will be closed)
+	 * @param context
+	 */
+	public void release(DebuggingHttpClientConnection conn, @Nullable HttpResponse response, HttpContext context) {
+		if (conn==null)
+			return;
+		boolean reuse = false;
+		if (response!=null && conn.isOpen()) {
+			try {
+				if (REUSE_STRATEGY.keepAlive(response, context)) {
+					// must read whole response before sending next request on connection
+					EntityUtils.consume(response.getEntity());
+					reuse = true;
+				}
+			} catch ( Exception ex ) {
+				reuse = false;
+			}
+		}
+		// stop copying to the last test's streams
+		conn.setCapture(null, null);
+		if (reuse) {
+			synchronized(idle) {
+				if (!closed && idle.size() < max_idle) {
+					idle.addLast(conn);
+					return;
+				}
+			}
+		}
+		closeQuietly(conn);
+	} // end public void release
+
+	/** closes all idle connections and any in use connections when they're released. any #acquire after this fails.
+	 *
+	 * called when web server crashes or is closed.
+	 */
+	public void close() {
+		LinkedList<DebuggingHttpClientConnection> conns;
+		synchronized(idle) {
+			closed = true;
+			conns = new LinkedList<DebuggingHttpClientConnection>(idle);
+			idle.clear();
+		}
+		for ( DebuggingHttpClientConnection conn : conns )
+			closeQuietly(conn);
+	}
+
+	public boolean isClosed() {
+		synchronized(idle) {
+			return closed;
+		}
+	}
+
+	public int getIdleCount() {
+		synchronized(idle) {
+			return idle.size();
+		}
+	}
+
+	protected static void closeQuietly(DebuggingHttpClientConnection conn) {
+		try {
+			conn.shutdown();
+		} catch ( Exception ex ) {}
+	}
+
+} // end public class HttpConnectionPool
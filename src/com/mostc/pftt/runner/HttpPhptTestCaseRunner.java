@@ -2,8 +2,6 @@ package com.mostc.pftt.runner;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Map;
@@ -45,7 +43,7 @@ import com.mostc.pftt.scenario.FileSystemScenario;
 import com.mostc.pftt.scenario.WebServerScenario;
 import com.mostc.pftt.scenario.ScenarioSetSetup;
 import com.mostc.pftt.util.TimerUtil;
-import com.mostc.pftt.util.TimerUtil.TimerThread;
+import com.mostc.pftt.util.TimerUtil.ScheduledTimeout;
 
 /** Runs PHPT Test Cases against PHP while its running under a Web Server (builtin, IIS or Apache)
  * 
@@ -63,7 +61,6 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 	protected final HttpParams params;
 	protected final HttpProcessor httpproc;
 	protected final HttpRequestExecutor httpexecutor;
-	protected Socket test_socket;
 
 	public HttpPhptTestCaseRunner(boolean xdebug, FileSystemScenario fs, WebServerScenario sapi_scenario, PhpIni ini, Map<String,String> env, HttpParams params, HttpProcessor httpproc, HttpRequestExecutor httpexecutor, WebServerManager smgr, WebServerInstance web, PhptThread thread, PreparedPhptTestCase prep, ConsoleManager cm, ITestResultReceiver twriter, AHost host, ScenarioSetSetup scenario_set, PhpBuild build, PhptSourceTestPack src_test_pack, PhptActiveTestPack active_test_pack) {
 		super(xdebug, fs, sapi_scenario, ini, thread, prep, cm, twriter, host, scenario_set, build, src_test_pack, active_test_pack);
@@ -310,46 +307,51 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 	protected void stop(boolean force) {
 		if (force && is_replacement && web !=null && !web.isDebuggerAttached())
 			web.close(cm);
-		final Socket s = test_socket;
-		if (s==null)
+		shutdownConnection();
+	}
+	
+	/** shuts down the connection the current request is using (if any), which interrupts the request.
+	 * 
+	 * the connection won't be returned to the web server's pool.
+	 */
+	protected void shutdownConnection() {
+		final DebuggingHttpClientConnection c = conn.getAndSet(null);
+		if (c==null)
 			return;
 		TimerUtil.runThread(new Runnable() {
 			public void run() {
 				try {
-				s.close();
+				c.shutdown();
 				} catch ( Exception ex ) {}
 			}
 		});
-		test_socket = null;
 	}
 	
-	static Random random = new Random();
-	// TODO temp static int count;
-	protected String do_http_get(String path, int i) throws Exception {
-		//System.out.println("GET "+web.getHostname()+":"+web.getPort()+" "+path);
-		//if (count++<30)
-			//System.exit(0);
-		//Thread.sleep(1000*(10+random.nextInt(40))); // TODO temp
-		HttpContext context = new BasicHttpContext(null);
-		HttpHost http_host = new HttpHost(web.getHostname(), web.getPort());
-		
-		DebuggingHttpClientConnection conn = this.conn.get();
-		if (conn!=null) {
-			conn.close();
-			conn = null;
-		}
-		conn = new DebuggingHttpClientConnection(request_bytes, response_bytes);
-		this.conn.set(conn);
-		test_socket = null;
-		final TimerThread timeout_task = TimerUtil.waitSeconds(
+	/** schedules notifying the thread that the test is slow (so it can start another thread to speed things up).
+	 * 
+	 * uses the shared timeout scheduler instead of a thread per request.
+	 * 
+	 * @return
+	 */
+	protected ScheduledTimeout scheduleSlowTimeout() {
+		return TimerUtil.scheduleSeconds(
 				sapi_scenario.getSlowTestTimeSeconds(), 
 				new Runnable() {
 						public void run() {
 							// test is slow, launch another thread to speed things up
 							thread.notifySlowTest();
 						}
-					},
-				// 60 seconds from start (not 60 from 20)
+					}
+			);
+	}
+	
+	/** schedules failing the test if it runs for longer than PhptTestCase#MAX_TEST_TIME_SECONDS 
+	 * (from start of the request).
+	 * 
+	 * @return
+	 */
+	protected ScheduledTimeout scheduleMaxTimeout() {
+		return TimerUtil.scheduleSeconds(
 				PhptTestCase.MAX_TEST_TIME_SECONDS,
 				new Runnable() {
 						public void run() {
@@ -361,34 +363,36 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 								return;
 							}
 							
-							DebuggingHttpClientConnection conn = HttpPhptTestCaseRunner.this.conn.get();
-							if (conn!=null) {
-								try {
-								conn.close();
-								} catch ( Exception ex ) {}
-								HttpPhptTestCaseRunner.this.conn.set(null);	
-							}
-							if (test_socket!=null) {
-								try {
-								test_socket.close();
-								} catch ( Exception ex ) {}
-								test_socket = null;
-							}
+							shutdownConnection();
 						}
 					}
 			);
+	}
+	
+	static Random random = new Random();
+	// TODO temp static int count;
+	protected String do_http_get(String path, int i) throws Exception {
+		//System.out.println("GET "+web.getHostname()+":"+web.getPort()+" "+path);
+		//if (count++<30)
+			//System.exit(0);
+		//Thread.sleep(1000*(10+random.nextInt(40))); // TODO temp
+		HttpContext context = new BasicHttpContext(null);
+		HttpHost http_host = new HttpHost(web.getHostname(), web.getPort());
+		
+		// reuse a keep-alive connection to the web server if possible
+		final HttpConnectionPool pool = web.getConnectionPool();
+		final DebuggingHttpClientConnection conn = pool.acquire(web.getHostname(), web.getPort(), params, request_bytes, response_bytes);
+		this.conn.set(conn);
+		final ScheduledTimeout slow_task = scheduleSlowTimeout();
+		// 60 seconds from start (not 60 from 20)
+		final ScheduledTimeout timeout_task = scheduleMaxTimeout();
 		HttpGet request = null;
+		HttpResponse response = null;
+		boolean failed = false;
 		try {
 			context.setAttribute(ExecutionContext.HTTP_CONNECTION, conn);
 			context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, http_host);
 			
-			test_socket = new Socket();
-			test_socket.setSoTimeout(60*1000);
-			test_socket.connect(new InetSocketAddress(http_host.getHostName(), web.getPort()));// TODO temp http_host.getPort()));
-			
-			conn.bind(test_socket, params);
-			conn.setSocketTimeout(60*1000);
-			
 			request = new HttpGet("/php-test-pack-5.4.38/"+path); // TODO temp 
 			if (cookie_str!=null)
 				request.setHeader("Cookie", cookie_str);
@@ -403,11 +407,12 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			
 			httpexecutor.preProcess(request, httpproc, context);
 			
-			HttpResponse response = httpexecutor.execute(request, conn, context);
+			response = httpexecutor.execute(request, conn, context);
 			
 			response.setParams(params);
 			httpexecutor.postProcess(response, httpproc, context);
 			
+			slow_task.close();
 			timeout_task.close();
 			
 			//
@@ -470,17 +475,17 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			} else {
 				return IOUtil.toString(response.getEntity().getContent(), IOUtil.HALF_MEGABYTE);
 			}
+		} catch ( Exception ex ) {
+			// connection may be in the middle of a request/response: don't reuse it
+			failed = true;
+			throw ex;
 		} finally {
+			slow_task.close();
+			timeout_task.close();
 			if (request!=null)
-				request.releaseConnection();			
-			try {
-			if (test_socket!=null)
-				test_socket.close();
-			} catch ( Throwable t ) {}
-			try {
-			if (conn!=null)
-				conn.close();
-			} catch ( Throwable t ) {}
+				request.releaseConnection();
+			this.conn.compareAndSet(conn, null);
+			pool.release(conn, failed?null:response, context);
 		}
 	} // end protected String do_http_get
 	
@@ -495,60 +500,20 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		HttpContext context = new BasicHttpContext(null);
 		HttpHost http_host = new HttpHost(web.getHostname(), web.getPort());
 		
-		DebuggingHttpClientConnection conn = this.conn.get();
-		if (conn!=null) {
-			conn.close();
-			conn = null;
-		}
-		conn = new DebuggingHttpClientConnection(request_bytes, response_bytes);
+		// reuse a keep-alive connection to the web server if possible
+		final HttpConnectionPool pool = web.getConnectionPool();
+		final DebuggingHttpClientConnection conn = pool.acquire(web.getHostname(), web.getPort(), params, request_bytes, response_bytes);
 		this.conn.set(conn);
-		final TimerThread timeout_task = TimerUtil.waitSeconds(
-				sapi_scenario.getSlowTestTimeSeconds(), 
-				new Runnable() {
-						public void run() {
-							// test is slow, launch another thread to speed things up
-							thread.notifySlowTest();
-						}
-					},
-				// 60 seconds from start
-				PhptTestCase.MAX_TEST_TIME_SECONDS,
-				new Runnable() {
-					public void run() {
-						is_timeout = true;
-						
-						if (true) { // TODO temp
-							twriter.addResult(host, scenario_set, src_test_pack, notifyNotPass(new PhptTestResult(host, EPhptTestStatus.FAIL, prep.test_case, null, null, null, null, ini, env, null, stdin_post, null, null, null, null, web==null?null:web.getSAPIOutput(), web==null?null:web.getSAPIConfig())));
-							return;
-						}
-						
-						DebuggingHttpClientConnection conn = HttpPhptTestCaseRunner.this.conn.get();
-						if (conn!=null) {
-							try {
-							conn.close();
-							} catch ( Exception ex ) {}
-							HttpPhptTestCaseRunner.this.conn.set(null);
-						}
-						if (test_socket!=null) {
-							try {
-							test_socket.close();
-							} catch ( Exception ex ) {}
-							test_socket = null;
-						}
-					}
-				}
-			);
+		final ScheduledTimeout slow_task = scheduleSlowTimeout();
+		// 60 seconds from start
+		final ScheduledTimeout timeout_task = scheduleMaxTimeout();
 		HttpPost request = null;
+		HttpResponse response = null;
+		boolean failed = false;
 		try {
 			context.setAttribute(ExecutionContext.HTTP_CONNECTION, conn);
 			context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, http_host);
 			
-			test_socket = new Socket();
-			test_socket.setSoTimeout(60*1000);
-			test_socket.connect(new InetSocketAddress(http_host.getHostName(), http_host.getPort()));
-			
-			conn.bind(test_socket, params);
-			conn.setSocketTimeout(60*1000);
-			
 			request = new HttpPost(path);
 			if (content_type!=null)
 				request.setHeader("Content-Type", content_type);
@@ -559,11 +524,12 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			
 			httpexecutor.preProcess(request, httpproc, context);		
 			
-			HttpResponse response = httpexecutor.execute(request, conn, context);
+			response = httpexecutor.execute(request, conn, context);
 			
 			response.setParams(params);
 			httpexecutor.postProcess(response, httpproc, context);
 			
+			slow_task.close();
 			timeout_task.close();
 			
 			//
@@ -591,17 +557,17 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			} else {
 				return IOUtil.toString(response.getEntity().getContent(), IOUtil.HALF_MEGABYTE);
 			}
+		} catch ( Exception ex ) {
+			// connection may be in the middle of a request/response: don't reuse it
+			failed = true;
+			throw ex;
 		} finally {
+			slow_task.close();
+			timeout_task.close();
 			if (request!=null)
 				request.releaseConnection();
-			try {
-			if (test_socket!=null)
-				test_socket.close();
-			} catch ( Throwable t ) {}
-			try {
-			if (conn!=null)
-				conn.close();
-			} catch ( Throwable t ) {}
+			this.conn.compareAndSet(conn, null);
+			pool.release(conn, failed?null:response, context);
 		}
 	} // end protected String do_http_post
 	
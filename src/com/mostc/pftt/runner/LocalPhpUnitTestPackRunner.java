@@ -28,6 +28,7 @@ import com.mostc.pftt.scenario.IScenarioSetup;
 import com.mostc.pftt.scenario.ScenarioSetSetup;
 import com.mostc.pftt.scenario.WebServerScenario;
 import com.mostc.pftt.scenario.PhpUnitReflectionOnlyScenario;
+import com.mostc.pftt.scenario.PhpUnitWorkerScenario;
 import com.mostc.pftt.scenario.ScenarioSet;
 
 public class LocalPhpUnitTestPackRunner extends AbstractLocalApplicationTestPackRunner<PhpUnitActiveTestPack, PhpUnitSourceTestPack, PhpUnitTestCase> {
@@ -91,6 +92,7 @@ public class LocalPhpUnitTestPackRunner extends AbstractLocalApplicationTestPack
 	public class PhpUnitThread extends TestPackThread<PhpUnitTestCase> {
 		protected final String my_temp_dir;
 		protected AbstractPhpUnitTestCaseRunner r;
+		protected PhpUnitWorker worker;
 
 		ScenarioSetSetup ss; // TODO temp azure 
 		
@@ -113,10 +115,27 @@ public class LocalPhpUnitTestPackRunner extends AbstractLocalApplicationTestPack
 			return super.getMaxRunTimeMillis() / 3;
 		}
 		
+		/** returns this thread's PhpUnitWorker or null if not using workers
+		 * 
+		 * @see PhpUnitWorkerScenario
+		 * @return
+		 */
+		public PhpUnitWorker getPhpUnitWorker() {
+			if (worker==null) {
+				PhpUnitWorkerScenario s = scenario_set.getScenario(PhpUnitWorkerScenario.class);
+				if (s!=null)
+					worker = new PhpUnitWorker(cm, runner_host, s);
+			}
+			return worker;
+		}
+		
 		@Override
 		public void run() {
 			super.run();
 			
+			if (worker!=null)
+				worker.close();
+			
 			// be sure to cleanup
 			/* TODO if (!AzureWebsitesScenario.check(sapi_scenario)) {
 				runner_fs.deleteIfExists(my_temp_dir);
@@ -5,14 +5,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
 import com.mostc.pftt.host.AHost;
+import com.mostc.pftt.host.ContentSync;
+import com.mostc.pftt.host.LocalHost;
 import com.mostc.pftt.main.Config;
 import com.mostc.pftt.main.IENVINIFilter;
 import com.mostc.pftt.model.core.EPhptSection;
@@ -23,6 +29,7 @@ import com.mostc.pftt.model.core.PhpIni;
 import com.mostc.pftt.model.core.PhptActiveTestPack;
 import com.mostc.pftt.model.core.PhptSourceTestPack;
 import com.mostc.pftt.model.core.PhptTestCase;
+import com.mostc.pftt.model.sapi.CliSAPIInstance;
 import com.mostc.pftt.model.sapi.TestCaseGroupKey;
 import com.mostc.pftt.results.AbstractPhptRW;
 import com.mostc.pftt.results.ConsoleManager;
@@ -32,6 +39,8 @@ import com.mostc.pftt.results.ITestResultReceiver;
 import com.mostc.pftt.results.PhpResultPackWriter;
 import com.mostc.pftt.results.PhptResultWriter;
 import com.mostc.pftt.results.PhptTestResult;
+import com.mostc.pftt.results.PhptTimings;
+import com.mostc.pftt.runner.PhptTestPreparer.PreparedPhptTestCase;
 import com.mostc.pftt.scenario.EScenarioSetPermutationLayer;
 import com.mostc.pftt.scenario.FileSystemScenario;
 import com.mostc.pftt.scenario.IScenarioSetup;
@@ -53,6 +62,16 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 	protected final IENVINIFilter filter;
 	protected final boolean xdebug;
 	protected final PhptTestPreparer preparer;
+	protected final Map<TestCaseGroupKey,PhptSkipIfBatch> skipif_batches;
+	/** test => its files prepared for this runner. PhptTestCases are shared by runners for other hosts
+	 * (@see com.mostc.pftt.main.PfttMain#runPhptOnHosts), so this can't be stored in the PhptTestCase */
+	protected final ConcurrentHashMap<PhptTestCase,PreparedPhptTestCase> prepared;
+	/** timings of each thread that ran tests (each thread records into its own, merged in #showTally) */
+	protected final ConcurrentLinkedQueue<PhptTimings> thread_timings;
+	/** may be shared by runners for other storage hosts (@see #shareSkipIfCache) */
+	protected AtomicReference<PhptSkipIfCache> skipif_cache;
+	/** copy of test-pack this test run is using (@see ContentSync#tryLock) */
+	protected String locked_test_pack_dir;
 	
 	public LocalPhptTestPackRunner(ConsoleManager cm, ITestResultReceiver twriter, ScenarioSet scenario_set, PhpBuild build, AHost storage_host, AHost runner_host, IENVINIFilter filter) {
 		super(cm, twriter, scenario_set, build, storage_host, runner_host);
@@ -62,6 +81,90 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 		xdebug = scenario_set.contains(XDebugScenario.class);
 		
 		preparer = new PhptTestPreparer(xdebug);
+		
+		skipif_batches = Collections.synchronizedMap(new IdentityHashMap<TestCaseGroupKey,PhptSkipIfBatch>());
+		prepared = new ConcurrentHashMap<PhptTestCase,PreparedPhptTestCase>();
+		thread_timings = new ConcurrentLinkedQueue<PhptTimings>();
+		skipif_cache = new AtomicReference<PhptSkipIfCache>();
+	}
+	
+	/** uses the same SKIPIF cache as other runners that run SKIPIFs on the same runner host with the same build
+	 * and scenario set (ex: runners for other storage hosts @see com.mostc.pftt.main.PfttMain#runPhptOnHosts).
+	 * 
+	 * Otherwise each would load its own copy of the same cache file and overwrite the others' when saving it.
+	 * 
+	 * @param skipif_cache - holds the cache once the first runner creates it
+	 */
+	public void shareSkipIfCache(AtomicReference<PhptSkipIfCache> skipif_cache) {
+		this.skipif_cache = skipif_cache;
+	}
+	
+	/** creates timings for a thread that will run tests
+	 * 
+	 * @see PhptTimings#makeCurrent
+	 * @return
+	 */
+	protected PhptTimings createThreadTimings() {
+		PhptTimings timings = new PhptTimings();
+		thread_timings.add(timings);
+		return timings;
+	}
+	
+	/** output of SKIPIFs from previous runs of this build with this scenario set.
+	 * 
+	 * @return cache or null if -no_skipif_cache console option used
+	 */
+	@Nullable
+	public PhptSkipIfCache getSkipIfCache() {
+		if (cm.isNoSkipIfCache())
+			return null;
+		synchronized(skipif_cache) {
+			PhptSkipIfCache cache = skipif_cache.get();
+			if (cache==null) {
+				cache = new PhptSkipIfCache(
+						PhptSkipIfCache.getCacheFile(LocalHost.getInstance().getPfttDir(), runner_host.getName(), build, scenario_set.getName()),
+						PhptSkipIfCache.getBuildId(runner_host, build),
+						PhptSkipIfCache.getTestPackId(src_test_pack)
+					);
+				cache.load(cm);
+				skipif_cache.set(cache);
+			}
+			return cache;
+		}
+	}
+	
+	@Override
+	public void close() {
+		synchronized(this) {
+			PhptSkipIfCache cache = skipif_cache.get();
+			if (cache!=null)
+				// if shared, only writes what was added since the last save
+				cache.save(cm);
+			if (locked_test_pack_dir!=null) {
+				// copy can be used by next test run
+				ContentSync.unlock(storage_host, locked_test_pack_dir);
+				locked_test_pack_dir = null;
+			}
+		}
+		prepared.clear();
+		super.close();
+	}
+	
+	/** gets the batch to run SKIPIFs of tests in the given group with
+	 * 
+	 * @param group_key
+	 * @param sapi
+	 * @return
+	 */
+	public PhptSkipIfBatch getSkipIfBatch(TestCaseGroupKey group_key, CliSAPIInstance sapi) {
+		synchronized(skipif_batches) {
+			PhptSkipIfBatch batch = skipif_batches.get(group_key);
+			if (batch==null) {
+				batch = new PhptSkipIfBatch(runner_fs, sapi, active_test_pack.getStorageDirectory());
+				skipif_batches.put(group_key, batch);
+			}
+			return batch;
+		}
 	}
 	
 	@Override
@@ -75,6 +178,8 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 	protected void setupStorageAndTestPack(ITestPackStorageDir storage_dir, List<PhptTestCase> test_cases) {
 		// generate name of directory on that storage to store the copy of the test-pack
 		String local_test_pack_dir = null, remote_test_pack_dir = null;
+		// if -auto or -phpt-not-in-place console option, copy test-pack and run phpts from that copy
+		final boolean copy_test_pack = cm.isPhptNotInPlace() || !runner_fs.allowPhptInPlace();
 		{
 			String local_path = storage_dir.getLocalPath(storage_host);
 			String remote_path = storage_dir.getRemotePath(storage_host);
@@ -86,8 +191,16 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 				// don't want long directory paths or lots of nesting, just put in /php-sdk (breaks some PHPTs)
 				local_test_pack_dir = local_path + "/TEMP-" + FileSystemScenario.basename(src_test_pack.getSourceDirectory()) + (i==0?"":"-" + millis) + "/";
 				remote_test_pack_dir = remote_path + "/TEMP-" + FileSystemScenario.basename(src_test_pack.getSourceDirectory()) + (i==0?"":"-" + millis) + "/";
-				if (!storage_host.mExists(remote_test_pack_dir) || !runner_host.mExists(local_test_pack_dir))
+				if (!storage_host.mExists(remote_test_pack_dir) || !runner_host.mExists(local_test_pack_dir)) {
+					if (copy_test_pack && ContentSync.tryLock(storage_host, remote_test_pack_dir))
+						locked_test_pack_dir = remote_test_pack_dir;
 					break;
+				} else if (copy_test_pack && ContentSync.isSyncedFrom(storage_host, remote_test_pack_dir, src_test_pack.getSourceDirectory())
+						&& ContentSync.tryLock(storage_host, remote_test_pack_dir)) {
+					// copy from an earlier test run that isn't being used now: only changed files will be copied (@see PhptSourceTestPack#install)
+					locked_test_pack_dir = remote_test_pack_dir;
+					break;
+				}
 				millis++;
 				if (i%100==0)
 					millis = System.currentTimeMillis();
@@ -101,12 +214,12 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 		// copy
 		if (active_test_pack==null) {
 			try {
-				// if -auto or -phpt-not-in-place console option, copy test-pack and run phpts from that copy
-				if (!cm.isPhptNotInPlace() && runner_fs.allowPhptInPlace())
+				if (!copy_test_pack) {
 					active_test_pack = src_test_pack.installInPlace(cm, runner_host);
-				else
+				} else {
 					// copy test-pack onto (remote) file system
 					active_test_pack = src_test_pack.install(cm, storage_host, local_test_pack_dir, remote_test_pack_dir, sapi_scenario);
+				}
 			} catch (Exception ex ) {
 				cm.addGlobalException(EPrintType.OPERATION_FAILED_CONTINUING, getClass(), "runTestList", ex, "", storage_host, runner_fs, active_test_pack);
 			}
@@ -136,6 +249,20 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 		sapi_scenario.sortTestCases(test_cases);
 	}
 	
+	@Override
+	protected boolean isParallelGroupOk() {
+		// only preparing test files is done in parallel. @see #createGroupKey
+		return true;
+	}
+	
+	/** Scenarios (#willSkip, #createTestGroupKey) and PhpBuild (version, default PhpIni, etc...) cache what they find
+	 * in fields without locking, so when tests are grouped by several threads, only 1 thread asks them at a time */
+	protected final Object group_key_lock = new Object();
+	/** every distinct group key created during this run (guarded by #group_key_lock). tests with the same INI get the same
+	 * group key instance, so they share 1 PhpIni, ENV and SAPIInstance instead of each test with an INI section keeping
+	 * its own copies until its group is run (@see CliScenario#createTestGroupKey) */
+	protected final HashMap<TestCaseGroupKey,TestCaseGroupKey> group_keys = new HashMap<TestCaseGroupKey,TestCaseGroupKey>();
+	
 	@Override
 	protected TestCaseGroupKey createGroupKey(ConsoleManager cm,
 				PhptTestCase test_case, AHost storage_host,
@@ -148,6 +275,26 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 			//return null;
 		}
 		
+		synchronized(group_key_lock) {
+			group_key = createGroupKeyLocked(cm, test_case, group_key, fs);
+			if (group_key==null)
+				return null;
+			// equal keys end up in the same TestCaseGroup anyway (@see #handleTS), which uses the first one
+			TestCaseGroupKey shared = group_keys.get(group_key);
+			if (shared==null)
+				group_keys.put(group_key, group_key);
+			else
+				group_key = shared;
+		}
+		
+		// each test gets its own files, so this can be done by several threads at once
+		prepared.put(test_case, preparer.prepare(test_case, fs, runner_host, active_test_pack));
+		
+		return group_key;
+	} // end protected TestCaseGroupKey createGroupKey
+	
+	@Nullable
+	protected TestCaseGroupKey createGroupKeyLocked(ConsoleManager cm, PhptTestCase test_case, TestCaseGroupKey group_key, FileSystemScenario fs) throws Exception {
 		final ESAPIType sapi_type = sapi_scenario.getSAPIType();
 		for ( Scenario scenario : scenario_set ) {
 			// usually just asking sapi_scenario, sometimes file system scenario
@@ -176,10 +323,8 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 			return null;
 		}
 		
-		test_case.prep = preparer.prepare(test_case, fs, runner_host, active_test_pack);
-		
 		return group_key;
-	} // end protected TestCaseGroupKey createGroupKey
+	} // end protected TestCaseGroupKey createGroupKeyLocked
 	
 	@Override
 	protected boolean handleNTS(TestCaseGroupKey group_key, PhptTestCase test_case) {
@@ -195,8 +340,24 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 	
 	@Override
 	protected void postGroup(LinkedList<TestCaseGroup<PhptTestCase>> thread_safe_list, List<PhptTestCase> test_cases) {
-		// evenly mix up large and small groups
-		{
+		final TestRunTimeHistory history = getRunTimeHistory();
+		final long default_micros = history.getAverageMicros();
+		if (!history.isEmpty()) {
+			// longest-processing-time-first: start groups with the most run time first, so they don't
+			// end up being the last groups still running
+			final HashMap<TestCaseGroup<PhptTestCase>,Long> group_micros = new HashMap<TestCaseGroup<PhptTestCase>,Long>();
+			for ( TestCaseGroup<PhptTestCase> tg : thread_safe_list )
+				group_micros.put(tg, estimateMicros(history, default_micros, tg));
+			Collections.sort(thread_safe_list, new Comparator<TestCaseGroup<PhptTestCase>>() {
+					@Override
+					public int compare(TestCaseGroup<PhptTestCase> a, TestCaseGroup<PhptTestCase> b) {
+						return group_micros.get(b).compareTo(group_micros.get(a));
+					}
+				});
+		} else {
+			// no history yet (first run on this host with this scenario set)
+			//
+			// evenly mix up large and small groups
 			HashMap<Integer,LinkedList<TestCaseGroup<PhptTestCase>>> map = new HashMap<Integer,LinkedList<TestCaseGroup<PhptTestCase>>>();
 			Integer key;
 			LinkedList<TestCaseGroup<PhptTestCase>> l;
@@ -231,27 +392,74 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 			buf = new ArrayList<PhptTestCase>(a.test_cases.size());
 			buf.addAll(a.test_cases);
 			sapi_scenario.sortTestCases(buf);
+			if (!history.isEmpty())
+				sortSlowestFirst(history, default_micros, buf);
 			a.test_cases.clear();
 			for ( PhptTestCase t : buf )
 				a.test_cases.add(t);
 		}
 		LinkedList<NonThreadSafeExt<PhptTestCase>> b = new LinkedList<NonThreadSafeExt<PhptTestCase>>();
 		b.addAll(non_thread_safe_exts);
+		if (!history.isEmpty()) {
+			for ( NonThreadSafeExt<PhptTestCase> ext : b ) {
+				for ( TestCaseGroup<PhptTestCase> g : ext.test_groups ) {
+					buf = new ArrayList<PhptTestCase>(g.test_cases.size());
+					buf.addAll(g.test_cases);
+					sortSlowestFirst(history, default_micros, buf);
+					g.test_cases.clear();
+					g.test_cases.addAll(buf);
+				}
+			}
+		}
 		Collections.sort(b, new Comparator<NonThreadSafeExt<PhptTestCase>>() {
 				@Override
 				public int compare(NonThreadSafeExt<PhptTestCase> a, NonThreadSafeExt<PhptTestCase> b) {
-					int ca = 0, cb = 0;
+					// NTS extension tests run in 1 thread: start the one that will take longest first
+					long ca = 0, cb = 0;
 					for ( TestCaseGroup<PhptTestCase> g : a.test_groups )
-						ca += g.test_cases.size();
+						ca += history.isEmpty() ? g.test_cases.size() : estimateMicros(history, default_micros, g);
 					for ( TestCaseGroup<PhptTestCase> g : b.test_groups )
-						cb += g.test_cases.size();
-					return cb - ca;
+						cb += history.isEmpty() ? g.test_cases.size() : estimateMicros(history, default_micros, g);
+					return Long.compare(cb, ca);
 				}
 			});
 		non_thread_safe_exts.clear();
 		non_thread_safe_exts.addAll(b);
 	} // end protected void postGroup
 	
+	/** guesses how long the test will take to run, from how long it took before.
+	 * 
+	 * tests that haven't been run before are guessed to take the average time (longer if SAPIScenario thinks they're slow).
+	 * 
+	 * @param history
+	 * @param default_micros - average run time
+	 * @param test_case
+	 * @return
+	 */
+	protected long estimateMicros(TestRunTimeHistory history, long default_micros, PhptTestCase test_case) {
+		final long micros = history.getMicros(test_case.getName());
+		if (micros!=TestRunTimeHistory.UNKNOWN)
+			return micros;
+		return sapi_scenario.isSlowTest(test_case) ? default_micros * 4 : default_micros;
+	}
+	
+	protected long estimateMicros(TestRunTimeHistory history, long default_micros, TestCaseGroup<PhptTestCase> group) {
+		long micros = 0;
+		for ( PhptTestCase test_case : group.test_cases )
+			micros += estimateMicros(history, default_micros, test_case);
+		return micros;
+	}
+	
+	/** sorts tests so the slowest run first. stable, so tests with the same time keep the order from SAPIScenario#sortTestCases */
+	protected void sortSlowestFirst(final TestRunTimeHistory history, final long default_micros, List<PhptTestCase> test_cases) {
+		Collections.sort(test_cases, new Comparator<PhptTestCase>() {
+				@Override
+				public int compare(PhptTestCase a, PhptTestCase b) {
+					return Long.compare(estimateMicros(history, default_micros, b), estimateMicros(history, default_micros, a));
+				}
+			});
+	}
+	
 	@Override
 	protected void reportGroups() {
 		PhptResultWriter phpt = (PhptResultWriter) ((PhpResultPackWriter)twriter).getPHPT(runner_host, scenario_set_setup, src_test_pack.getNameAndVersionString());
@@ -267,15 +475,52 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 	
 	public class PhptThread extends TestPackThread<PhptTestCase> {
 		protected final LinkedList<AbstractPhptTestCaseRunner> runners;
+		protected final PhptTimings timings;
 		
 		protected PhptThread(boolean parallel) {
 			super(parallel);
 			runners = new LinkedList<AbstractPhptTestCaseRunner>();
+			timings = createThreadTimings();
+		}
+		
+		/** @see LocalPhptTestPackRunner#getSkipIfBatch */
+		public PhptSkipIfBatch getSkipIfBatch(CliSAPIInstance sapi) {
+			return LocalPhptTestPackRunner.this.getSkipIfBatch(group_key, sapi);
+		}
+		
+		/** prepared tests this thread will run next from its current TestCaseGroup */
+		public Iterable<PreparedPhptTestCase> getUpcomingTests() {
+			final Iterable<PhptTestCase> upcoming = jobs;
+			if (upcoming==null)
+				return Collections.<PreparedPhptTestCase>emptyList();
+			return new Iterable<PreparedPhptTestCase>() {
+					@Override
+					public Iterator<PreparedPhptTestCase> iterator() {
+						final Iterator<PhptTestCase> it = upcoming.iterator();
+						return new Iterator<PreparedPhptTestCase>() {
+								@Override
+								public boolean hasNext() {
+									return it.hasNext();
+								}
+								@Override
+								public PreparedPhptTestCase next() {
+									// null if test wasn't prepared (ex: it was skipped)
+									return prepared.get(it.next());
+								}
+								@Override
+								public void remove() {
+									throw new UnsupportedOperationException();
+								}
+							};
+					}
+				};
 		}
 
 		@Override
 		protected void runTest(TestCaseGroupKey group_key, PhptTestCase test_case, boolean debugger_attached) throws IOException, Exception, Throwable {
-			
+			// record into this thread's timings (@see AbstractPhptTestCaseRunner#runTest and LocalHost#exec_impl)
+			timings.makeCurrent();
+			final PreparedPhptTestCase prep = prepared.get(test_case);
 			
 			if (test_case.containsSection(EPhptSection.PFTT_RUN_PARALLEL)) {
 				
@@ -294,7 +539,7 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 				// PFTT_RUN_PARALLEL implementation
 				
 				for (int i=0;i<set.run_times;i++) {
-					runners.add( sapi_scenario.createPhptTestCaseRunner(this, group_key, test_case.prep, cm, twriter, runner_fs, runner_host, scenario_set_setup, build, src_test_pack, active_test_pack, xdebug, debugger_attached) );
+					runners.add( sapi_scenario.createPhptTestCaseRunner(this, group_key, prep, cm, twriter, runner_fs, runner_host, scenario_set_setup, build, src_test_pack, active_test_pack, xdebug, debugger_attached) );
 				}
 				
 				twriter.notifyStart(runner_host, scenario_set_setup, src_test_pack, test_case);
@@ -307,6 +552,7 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 					// run all tests and wait for all tests to finish BEFORE starting next batch of tests
 					for (int j=0;j<set.parallel;j++) {
 						final AbstractPhptTestCaseRunner r = runners.removeFirst();
+						final PhptTimings par_timings = createThreadTimings();
 						
 						// Note: does not record the result status of each test, instead records the WORST result
 						//       @see com.mostc.pftt.results.PhptResultWriter.writeResult(ConsoleManager, AHost, ScenarioSetSetup, PhptTestResult)
@@ -314,6 +560,7 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 						//       so, if 1 of the test runs is a FAIL the test is marked FAIL (even if the others PASS) ... or TIMEOUT
 						Thread t = new Thread("RunParallel-"+i+"-j") {
 							public void run() {
+								par_timings.makeCurrent();
 								try {
 									r.runTest(cm, PhptThread.this, LocalPhptTestPackRunner.this);
 								} catch ( Throwable t) {
@@ -357,7 +604,7 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 			} else {
 			
 			
-				AbstractPhptTestCaseRunner r = sapi_scenario.createPhptTestCaseRunner(this, group_key, test_case.prep, cm, twriter, runner_fs, runner_host, scenario_set_setup, build, src_test_pack, active_test_pack, xdebug, debugger_attached);
+				AbstractPhptTestCaseRunner r = sapi_scenario.createPhptTestCaseRunner(this, group_key, prep, cm, twriter, runner_fs, runner_host, scenario_set_setup, build, src_test_pack, active_test_pack, xdebug, debugger_attached);
 				
 				if (runners.isEmpty()) {
 					runners.add(r);
@@ -427,6 +674,35 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 			}
 		}
 		cm.println(EPrintType.CLUE, getClass(), "Pass Rate(%): "+phpt.passRate());
+		int skipif_batch_count = 0, skipif_batched_count = 0;
+		synchronized(skipif_batches) {
+			for ( PhptSkipIfBatch batch : skipif_batches.values() ) {
+				skipif_batch_count += batch.getBatchCount();
+				skipif_batched_count += batch.getBatchedCount();
+			}
+			// done with batches (and any outputs they still have)
+			skipif_batches.clear();
+		}
+		if (skipif_batch_count > 0)
+			cm.println(EPrintType.CLUE, getClass(), "Ran "+skipif_batched_count+" SKIPIF sections in "+skipif_batch_count+" PHP processes");
+		
+		reportTimings((PhptResultWriter)phpt);
+	}
+	
+	/** merges timings of all threads that ran tests into result-pack (written to timings.csv) and shows
+	 * where time was spent
+	 * 
+	 * @param phpt
+	 */
+	protected void reportTimings(PhptResultWriter phpt) {
+		PhptTimings timings = new PhptTimings();
+		PhptTimings t;
+		// threads are done running tests, so their timings won't change
+		while ( ( t = thread_timings.poll() ) != null )
+			timings.merge(t);
+		phpt.addTimings(timings);
+		
+		phpt.getTimings().printSummary(cm, getClass());
 	}
 
 	@Override
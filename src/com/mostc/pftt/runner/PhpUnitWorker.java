@@ -0,0 +1,339 @@
+package com.mostc.pftt.runner;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.mostc.pftt.host.AHost;
+import com.mostc.pftt.host.AHost.ExecHandle;
+import com.mostc.pftt.host.LocalHost.LocalExecHandle;
+import com.mostc.pftt.model.app.EPhpUnitWorkerCheck;
+import com.mostc.pftt.model.app.PhpUnitTestCase;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.EPrintType;
+import com.mostc.pftt.scenario.PhpUnitWorkerScenario;
+import com.mostc.pftt.util.TimerUtil;
+import com.mostc.pftt.util.TimerUtil.TimerThread;
+
+/** A long-lived PHP process that runs PhpUnitTestCases one after another, so the bootstrap is only loaded once
+ * instead of once for each test.
+ *
+ * Each PhpUnitThread has its own worker. Tests are sent 1 per line on the process' STDIN and the process prints the
+ * same output (status=, run_time=, etc...) as if the test was run in its own process, followed by an end line.
+ *
+ * The worker's process is replaced (recycled) after:
+ * -it crashes, exits or times out
+ * -a test changes global state (@see EPhpUnitWorkerCheck)
+ * -it has run PhpUnitWorkerScenario#getMaxTestsPerWorker tests
+ * -the configuration it was started with changes (@see #isStarted)
+ *
+ * Output printed while loading the bootstrap is added to the output of every test, the same as it would be if each
+ * test had its own process.
+ *
+ * @see PhpUnitWorkerScenario
+ * @see com.mostc.pftt.model.app.PhpUnitTemplate#renderWorkerTemplate - PHP side
+ * @see CliPhpUnitTestCaseRunner
+ *
+ */
+
+@NotThreadSafe
+public class PhpUnitWorker {
+	public static final String READY_LINE = "pftt_worker_ready";
+	public static final String END_LINE_PREFIX = "pftt_worker_end=";
+	/** requests are encoded as UTF-8 */
+	protected static final Charset REQUEST_CHARSET = Charset.forName("UTF-8");
+	protected final ConsoleManager cm;
+	protected final AHost host;
+	protected final PhpUnitWorkerScenario scenario;
+	protected ExecHandle handle;
+	protected InputStream stdout;
+	protected OutputStream stdin;
+	protected String key, preamble_output, polluted;
+	protected int test_count, nonce, exit_code, start_count;
+	protected boolean is_crashed, is_timeout;
+	/** set by timer thread or #stop */
+	protected volatile boolean timed_out, stopped;
+
+	public PhpUnitWorker(ConsoleManager cm, AHost host, PhpUnitWorkerScenario scenario) {
+		this.cm = cm;
+		this.host = host;
+		this.scenario = scenario;
+	}
+
+	public Set<EPhpUnitWorkerCheck> getPollutionChecks() {
+		return scenario.getPollutionChecks();
+	}
+
+	/** checks if worker's process is running with the given configuration
+	 *
+	 * @param key - string that's different for each configuration (command line, ENV vars, worker script, etc...)
+	 * @return
+	 */
+	public boolean isStarted(String key) {
+		return handle!=null && key.equals(this.key);
+	}
+
+	/** starts a new process (closing the old one, if any) and waits for it to load the bootstrap
+	 *
+	 * @param key - @see #isStarted
+	 * @param cmd - command line to run worker script @see PhpUnitTemplate#renderWorkerTemplate
+	 * @param env
+	 * @param chdir
+	 * @param timeout_sec - max time to load bootstrap
+	 * @throws Exception
+	 */
+	public void start(String key, String cmd, Map<String,String> env, String chdir, int timeout_sec) throws Exception {
+		close();
+
+		this.key = key;
+		test_count = 0;
+		exit_code = 0;
+		timed_out = false;
+		stopped = false;
+		start_count++;
+		// copy ENV: LocalHost#exec_impl may change it
+		handle = host.execThread(cmd, env==null?null:new HashMap<String,String>(env), chdir);
+		stdout = new BufferedInputStream(handle.getSTDOUT());
+		stdin = handle.getSTDIN();
+
+		StringBuilder sb = new StringBuilder(256);
+		final TimerThread timer = startTimer(timeout_sec);
+		try {
+			if (readOutput(sb, READY_LINE, 0)) {
+				// remove the line break the worker prints before READY_LINE
+				if (sb.length()>0)
+					sb.setLength(sb.length()-1);
+			} else {
+				// process exited while loading bootstrap (ex: fatal error). #runTest will report this
+				// for each test (like it would be reported if each test had its own process)
+				exited();
+			}
+		} finally {
+			timer.close();
+		}
+		preamble_output = sb.toString();
+	} // end public void start
+
+	/** runs the test in the worker's process and returns its output.
+	 *
+	 * After this, check #isCrashed and #isTimedOut. If the process exited or crashed, or if the worker should be
+	 * recycled, the process is closed and #isStarted will return false.
+	 *
+	 * @param test_case
+	 * @param timeout_sec
+	 * @param max_chars - stop recording output after this much
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public String runTest(PhpUnitTestCase test_case, int timeout_sec, int max_chars) throws IOException, InterruptedException {
+		is_crashed = false;
+		is_timeout = false;
+		polluted = null;
+
+		StringBuilder sb = new StringBuilder(preamble_output.length()+256);
+		sb.append(preamble_output);
+		if (handle==null) {
+			// process exited while loading bootstrap
+			is_crashed = AHost.isCrashExitCode(host, exit_code, false);
+			return sb.toString();
+		}
+
+		final String end_line = END_LINE_PREFIX+(++nonce);
+
+		StringBuilder req = new StringBuilder(256);
+		req.append(test_case.getClassName());
+		req.append('\t');
+		req.append(test_case.getMethodName());
+		req.append('\t');
+		req.append(test_case.getAbsoluteFileName());
+		req.append('\t');
+		if (test_case.getDependsMethodName()!=null)
+			req.append(test_case.getDependsMethodName());
+		req.append('\t');
+		if (test_case.getDataProviderMethodName()!=null)
+			req.append(test_case.getDataProviderMethodName());
+		req.append('\t');
+		req.append(test_case.getArgCount());
+		req.append('\t');
+		req.append(nonce);
+		req.append('\n');
+
+		boolean ended = false;
+		final TimerThread timer = startTimer(timeout_sec);
+		try {
+			stdin.write(req.toString().getBytes(REQUEST_CHARSET));
+			stdin.flush();
+
+			ended = readOutput(sb, end_line, max_chars);
+		} catch ( IOException ex ) {
+			// process exited or was closed (by timer or #stop)
+		} finally {
+			timer.close();
+		}
+		test_count++;
+
+		if (!ended) {
+			exited();
+		} else if (polluted.length()>0) {
+			if (cm!=null)
+				cm.println(EPrintType.CLUE, getClass(), "Recycling worker: "+test_case.getName()+" changed "+polluted);
+			close();
+		} else if (test_count >= scenario.getMaxTestsPerWorker()) {
+			close();
+		}
+
+		return sb.toString();
+	} // end public String runTest
+
+	/** reads lines of output until the line starting with stop_line (or process exits).
+	 *
+	 * Bytes are widened to chars, \r\n becomes \n and a \n is added after each line: the same as
+	 * ExecHandle#run does when not given a charset.
+	 *
+	 * @param sb
+	 * @param stop_line
+	 * @param max_chars - 0 for no limit
+	 * @return true if stop_line was read, false if process exited
+	 * @throws IOException
+	 */
+	protected boolean readOutput(StringBuilder sb, String stop_line, int max_chars) throws IOException {
+		final int max_len = max_chars < 1 ? Integer.MAX_VALUE : max_chars;
+		final StringBuilder line = new StringBuilder(128);
+		int b;
+		boolean cr = false;
+		for (;;) {
+			b = stdout.read();
+			if (b==-1) {
+				if (cr)
+					line.append('\r');
+				append(sb, line, max_len);
+				return false;
+			} else if (b=='\n') {
+				// \r\n => \n
+				cr = false;
+				if (line.indexOf(stop_line)==0 && (line.length()==stop_line.length() || line.charAt(stop_line.length())==' ')) {
+					// ex: pftt_worker_end=<nonce> polluted=<checks>
+					final int i = line.indexOf(" polluted=");
+					polluted = i==-1 ? "" : line.substring(i+" polluted=".length());
+					return true;
+				}
+				append(sb, line, max_len);
+				line.setLength(0);
+			} else {
+				if (cr)
+					line.append('\r');
+				cr = b=='\r';
+				if (!cr)
+					line.append((char)b);
+			}
+		}
+	} // end protected boolean readOutput
+
+	protected static void append(StringBuilder sb, StringBuilder line, int max_len) {
+		if (sb.length()+line.length()+1 > max_len)
+			// keep reading (to find end line) but drop output
+			return;
+		sb.append(line);
+		sb.append('\n');
+	}
+
+	protected TimerThread startTimer(int timeout_sec) {
+		return TimerUtil.waitSeconds(timeout_sec, new Runnable() {
+				@Override
+				public void run() {
+					timed_out = true;
+					final ExecHandle h = handle;
+					if (h!=null)
+						h.close(cm, true);
+				}
+			});
+	}
+
+	/** process exited (or was closed): gets exit code and crash/timeout status */
+	protected void exited() throws InterruptedException {
+		final ExecHandle h = handle;
+		handle = null;
+		if (h instanceof LocalExecHandle)
+			exit_code = ((LocalExecHandle)h).waitForExit();
+		else
+			exit_code = h.getExitCode();
+		is_timeout = timed_out;
+		is_crashed = !stopped && AHost.isCrashExitCode(host, exit_code, false);
+		if (h.isRunning())
+			h.close(cm, true);
+	}
+
+	public boolean isCrashed() {
+		return is_crashed;
+	}
+
+	public boolean isTimedOut() {
+		return is_timeout;
+	}
+
+	public int getExitCode() {
+		return exit_code;
+	}
+
+	/** names of EPhpUnitWorkerChecks changed by the last test (comma separated), empty if none.
+	 *
+	 * null if the last test didn't finish.
+	 *
+	 * @return
+	 */
+	public String getPollution() {
+		return polluted;
+	}
+
+	/** number of processes this worker has started */
+	public int getStartCount() {
+		return start_count;
+	}
+
+	/** KILLs the process (ex: running test took too long). called from another thread */
+	public void stop() {
+		stopped = true;
+		final ExecHandle h = handle;
+		if (h!=null)
+			h.close(cm, true);
+	}
+
+	/** ends the process. closes STDIN so the worker exits normally (and runs shutdown functions, destructors, etc...
+	 * like it would if each test had its own process). KILLs it if it doesn't exit in time.
+	 *
+	 */
+	public void close() {
+		final ExecHandle h = handle;
+		if (h==null)
+			return;
+		handle = null;
+		try {
+			stdin.close();
+		} catch ( IOException ex ) {}
+		final TimerThread timer = TimerUtil.waitSeconds(10, new Runnable() {
+				@Override
+				public void run() {
+					h.close(cm, true);
+				}
+			});
+		try {
+			if (h instanceof LocalExecHandle)
+				((LocalExecHandle)h).waitForExit();
+			else
+				h.close(cm, true);
+		} catch ( InterruptedException ex ) {
+			h.close(cm, true);
+		} finally {
+			timer.close();
+		}
+	} // end public void close
+
+} // end public class PhpUnitWorker
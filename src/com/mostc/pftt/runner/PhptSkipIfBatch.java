@@ -0,0 +1,415 @@
+package com.mostc.pftt.runner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.mostc.pftt.host.ExecOutput;
+import com.mostc.pftt.model.core.EExecutableType;
+import com.mostc.pftt.model.core.EPhptSection;
+import com.mostc.pftt.model.sapi.CliSAPIInstance;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.runner.PhptTestPreparer.PreparedPhptTestCase;
+import com.mostc.pftt.scenario.FileSystemScenario;
+
+/** Runs the SKIPIF sections of many PHPTs from the same TestCaseGroup in 1 PHP process, instead of starting
+ * a PHP process for each SKIPIF.
+ *
+ * A harness script includes each SKIPIF file inside a function (so each gets its own variable scope) and
+ * prints its output between markers, which are then split back into the output of each SKIPIF.
+ *
+ * If a SKIPIF exits (ex: die("skip ...")) or has a fatal error, the harness can't go on: its output is still
+ * captured, and the SKIPIFs after it are batched again. If a SKIPIF crashes PHP, times out or fails because of
+ * a function or class another SKIPIF in the batch declared, it is run by itself (the same as if it hadn't been batched).
+ *
+ * Only SKIPIFs that don't depend on the test's own ENV, request (GET, POST, etc...) or script filename are batched.
+ * SKIPIFs that could change state the next SKIPIF would see (include other files, define constants, functions or classes,
+ * change INI, ENV, globals, etc...) aren't batched either (@see #canBatch). After each SKIPIF, the harness also
+ * restores INI settings, error_reporting and the current directory.
+ *
+ * Many php-src SKIPIFs only include their directory's skipif.inc (ex: include 'skipif.inc';). Those are batched if that
+ * skipif.inc doesn't have any side effects either: including it again for each SKIPIF then does the same as running each
+ * SKIPIF by itself. include_once/require_once of it are changed to include/require in a copy of the SKIPIF that only the
+ * batch uses, or the SKIPIFs after the first wouldn't run it.
+ *
+ * Threads running tests of the same group each run their own batches at the same time. If a thread's SKIPIF is in
+ * a batch another thread is running, it waits for that batch instead of running its SKIPIF again.
+ *
+ * @see CliPhptTestCaseRunner#executeSkipIf
+ * @see LocalPhptTestPackRunner#getSkipIfBatch
+ *
+ */
+
+@ThreadSafe
+public class PhptSkipIfBatch {
+	public static final int MAX_BATCH_SIZE = 100;
+	/** same timeout as for 1 SKIPIF, plus 1 second for each other SKIPIF in the batch */
+	public static final int SKIPIF_TIMEOUT_SECONDS = 5;
+	public static final int MAX_BATCH_TIMEOUT_SECONDS = 60;
+	/** maximum outputs kept for tests that haven't asked for them yet (ex: a test that was in a batch but then wasn't run
+	 * because testing was stopped). oldest are dropped after this (those tests then just run their SKIPIF by themselves) */
+	public static final int MAX_KEPT_OUTPUTS = 4 * MAX_BATCH_SIZE;
+	/** SKIPIFs that call any of these (or use these keywords) could change what the SKIPIFs after them in a batch see */
+	protected static final String[] SIDE_EFFECTS = new String[] {
+			"include", "require", "define(", "function ", "class ", "interface ", "trait ", "global ", "$GLOBALS", "$_ENV", "$_SERVER",
+			"ini_set", "ini_alter", "dl(", "putenv", "set_error_handler", "set_exception_handler", "setlocale", "error_reporting",
+			"date_default_timezone_set", "chdir", "set_include_path", "spl_autoload_register", "mb_internal_encoding",
+			"iconv_set_encoding", "register_shutdown_function", "ob_start", "declare"
+		};
+	/** include or require of skipif.inc from the same directory (ex: include 'skipif.inc'; require_once __DIR__.'/skipif.inc';) */
+	protected static final Pattern PAT_SKIPIF_INC = Pattern.compile("(?i)\\b(include|require)(_once)?\\s*\\(?\\s*(?:(?:__DIR__|dirname\\s*\\(\\s*__FILE__\\s*\\))\\s*\\.\\s*)?(['\"])/?skipif\\.inc\\3\\s*\\)?");
+	protected static final String SKIPIF_INC = "skipif.inc";
+	protected static final Random RANDOM = new Random();
+	protected final FileSystemScenario fs;
+	protected final CliSAPIInstance sapi;
+	protected final String storage_dir;
+	/** output of SKIPIFs that were run in a batch but haven't been asked for yet */
+	protected final LinkedHashMap<String,String> outputs;
+	/** SKIPIFs that have to be run by themselves */
+	protected final Set<String> fallbacks;
+	/** SKIPIFs in batches being run (by any thread) */
+	protected final HashSet<String> running;
+	protected int batch_count, batched_count, fallback_count;
+	/** directory => if its skipif.inc has no side effects (@see #canBatch) */
+	protected final HashMap<String,Boolean> skipif_inc_ok;
+
+	@SuppressWarnings("serial")
+	public PhptSkipIfBatch(FileSystemScenario fs, CliSAPIInstance sapi, String storage_dir) {
+		this.fs = fs;
+		this.sapi = sapi;
+		this.storage_dir = storage_dir;
+		outputs = new LinkedHashMap<String,String>() {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+					return size() > MAX_KEPT_OUTPUTS;
+				}
+			};
+		fallbacks = Collections.newSetFromMap(new LinkedHashMap<String,Boolean>() {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+					return size() > MAX_KEPT_OUTPUTS;
+				}
+			});
+		running = new HashSet<String>();
+		skipif_inc_ok = new HashMap<String,Boolean>();
+	}
+
+	/** gets the output of the test's SKIPIF.
+	 *
+	 * if it hasn't been run yet, runs it in a batch with the SKIPIFs of the upcoming tests.
+	 *
+	 * @param cm
+	 * @param prep
+	 * @param env - ENV the SKIPIF would be run with
+	 * @param upcoming - tests that are going to be run next in the same TestCaseGroup
+	 * @return output of SKIPIF or null if SKIPIF must be run by itself
+	 * @throws Exception
+	 */
+	@Nullable
+	public String getOutput(ConsoleManager cm, PreparedPhptTestCase prep, Map<String,String> env, Iterable<PreparedPhptTestCase> upcoming) throws Exception {
+		final String name = prep.test_case.getName();
+		final ArrayList<PreparedPhptTestCase> batch;
+		synchronized(this) {
+			// if SKIPIF is in a batch another thread is running, wait for it instead of running the SKIPIF again
+			while (running.contains(name))
+				wait();
+			if (fallbacks.remove(name))
+				return null;
+			String output = outputs.remove(name);
+			if (output!=null)
+				return output;
+			if (!canBatch(prep))
+				return null;
+
+			batch = new ArrayList<PreparedPhptTestCase>(MAX_BATCH_SIZE);
+			batch.add(prep);
+			for ( PreparedPhptTestCase p : upcoming ) {
+				if (batch.size() >= MAX_BATCH_SIZE)
+					break;
+				if (p==null || p==prep || !canBatch(p))
+					continue;
+				if (outputs.containsKey(p.getName()) || fallbacks.contains(p.getName()) || running.contains(p.getName()))
+					continue;
+				batch.add(p);
+			}
+			if (batch.size() < 2)
+				// nothing to save by batching
+				return null;
+			for ( PreparedPhptTestCase p : batch )
+				running.add(p.getName());
+		}
+
+		// run PHP without holding the lock, so other threads can run their own batches
+		final HashMap<String,String> batch_outputs = new HashMap<String,String>();
+		final HashSet<String> batch_fallbacks = new HashSet<String>();
+		try {
+			runBatch(cm, batch, env, batch_outputs, batch_fallbacks);
+		} finally {
+			synchronized(this) {
+				for ( PreparedPhptTestCase p : batch ) {
+					final String p_name = p.getName();
+					running.remove(p_name);
+					if (batch_outputs.containsKey(p_name))
+						outputs.put(p_name, batch_outputs.get(p_name));
+					else
+						// includes SKIPIFs not run because of an exception
+						fallbacks.add(p_name);
+				}
+				notifyAll();
+			}
+		}
+		// output (if any) was just added, don't leave it in #outputs
+		synchronized(this) {
+			fallbacks.remove(name);
+			return outputs.remove(name);
+		}
+	} // end public String getOutput
+
+	/** checks if SKIPIF can be run with other SKIPIFs without changing its result
+	 *
+	 * must be called while holding the lock on this object.
+	 *
+	 * @param prep
+	 * @return
+	 */
+	protected boolean canBatch(PreparedPhptTestCase prep) {
+		if (prep.skipif_file==null)
+			return false;
+		// ENV and request sections change the ENV the SKIPIF is run with, which won't be the same for the batch
+		if (prep.test_case.containsAnySection(EPhptSection.ENV, EPhptSection.GET, EPhptSection.POST, EPhptSection.PUT, EPhptSection.POST_RAW, EPhptSection.COOKIE, EPhptSection.EXPECTHEADERS))
+			return false;
+		final String skipif = prep.test_case.get(EPhptSection.SKIPIF);
+		if (skipif==null)
+			return false;
+		final Matcher m = PAT_SKIPIF_INC.matcher(skipif);
+		if (m.find()) {
+			// only includes skipif.inc: ok if skipif.inc (included again for each SKIPIF) has no side effects either
+			Boolean ok = skipif_inc_ok.get(prep.test_dir);
+			if (ok==null) {
+				String skipif_inc;
+				try {
+					skipif_inc = fs.getContents(fs.joinIntoOnePath(prep.test_dir, SKIPIF_INC));
+				} catch ( Exception ex ) {
+					skipif_inc = null;
+				}
+				ok = Boolean.valueOf(skipif_inc!=null && !hasSideEffects(skipif_inc));
+				skipif_inc_ok.put(prep.test_dir, ok);
+			}
+			return ok.booleanValue() && !hasSideEffects(m.replaceAll(""));
+		}
+		return !hasSideEffects(skipif);
+	}
+	
+	protected static boolean hasSideEffects(String php_code) {
+		// script filename will be the harness, not the SKIPIF file
+		if (php_code.contains("SCRIPT_FILENAME") || php_code.contains("PATH_TRANSLATED") || php_code.contains("argv"))
+			return true;
+		final String php_code_lc = php_code.toLowerCase();
+		for ( String side_effect : SIDE_EFFECTS ) {
+			if (php_code_lc.contains(side_effect.toLowerCase()))
+				return true;
+		}
+		return false;
+	}
+	
+	/** returns the SKIPIF file the harness should include: a copy if the SKIPIF has include_once or require_once of
+	 * skipif.inc (changed to include or require, so it's run for every SKIPIF in the batch), otherwise the SKIPIF file itself.
+	 * 
+	 * copy is in the same directory so relative includes, __DIR__ and __FILE__ work the same
+	 * 
+	 * @param prep
+	 * @return
+	 * @throws Exception
+	 */
+	protected String getBatchFile(PreparedPhptTestCase prep) throws Exception {
+		final String skipif = prep.test_case.get(EPhptSection.SKIPIF);
+		final Matcher m = PAT_SKIPIF_INC.matcher(skipif);
+		boolean once = false;
+		final StringBuffer sb = new StringBuffer(skipif.length());
+		while (m.find()) {
+			if (m.group(2)==null)
+				continue;
+			once = true;
+			// drop the _once
+			m.appendReplacement(sb, Matcher.quoteReplacement(skipif.substring(m.start(), m.start(2))+skipif.substring(m.end(2), m.end())));
+		}
+		if (!once)
+			return prep.skipif_file;
+		m.appendTail(sb);
+		final String batch_file = prep.skipif_file.substring(0, prep.skipif_file.length() - ".skip.php".length()) + ".skip.batch.php";
+		fs.saveTextFile(batch_file, sb.toString());
+		return batch_file;
+	}
+
+	protected void runBatch(ConsoleManager cm, List<PreparedPhptTestCase> batch, Map<String,String> env, Map<String,String> batch_outputs, Set<String> batch_fallbacks) throws Exception {
+		int start = 0;
+		while (start < batch.size()) {
+			final List<PreparedPhptTestCase> part = batch.subList(start, batch.size());
+			if (part.size()==1) {
+				// last one: no point in running harness for it
+				batch_fallbacks.add(part.get(0).getName());
+				synchronized(this) {
+					fallback_count++;
+				}
+				break;
+			}
+			final String token = Long.toHexString(RANDOM.nextLong() & Long.MAX_VALUE);
+			final String harness_file = fs.joinIntoOnePath(storage_dir, "PFTT_SKIPIF_BATCH_"+token+".php");
+			final ArrayList<String> files = new ArrayList<String>(part.size());
+
+			HashMap<String,String> batch_env = new HashMap<String,String>(env);
+			batch_env.put(AbstractPhptTestCaseRunner.ENV_SCRIPT_FILENAME, harness_file);
+			batch_env.put(AbstractPhptTestCaseRunner.ENV_PATH_TRANSLATED, harness_file);
+
+			ExecOutput eo;
+			try {
+				for ( PreparedPhptTestCase p : part )
+					files.add(getBatchFile(p));
+				fs.saveTextFile(harness_file, createHarness(token, files));
+				
+				eo = sapi.execute(EExecutableType.CLI, "SKIPIF_BATCH_"+token, harness_file, null, Math.min(MAX_BATCH_TIMEOUT_SECONDS, SKIPIF_TIMEOUT_SECONDS + part.size()), batch_env, storage_dir, false);
+			} finally {
+				fs.deleteIfExists(harness_file);
+				for ( int i=0 ; i < files.size() ; i++ ) {
+					if (!files.get(i).equals(part.get(i).skipif_file))
+						fs.deleteIfExists(files.get(i));
+				}
+			}
+			int done = splitOutput(token, eo.output==null?"":eo.output, part, batch_outputs);
+			final boolean fallback = done < part.size();
+			if (fallback) {
+				// this one crashed or timed out
+				batch_fallbacks.add(part.get(done).getName());
+			}
+			synchronized(this) {
+				batch_count++;
+				batched_count += done;
+				if (fallback)
+					fallback_count++;
+			}
+			if (fallback)
+				done++;
+			start += done;
+		}
+	} // end protected void runBatch
+
+	/** splits harness output into output of each SKIPIF
+	 *
+	 * @param token
+	 * @param output
+	 * @param part
+	 * @param batch_outputs - output of each SKIPIF that finished is added here
+	 * @return number of SKIPIFs that finished (or exited)
+	 */
+	protected static int splitOutput(String token, String output, List<PreparedPhptTestCase> part, Map<String,String> batch_outputs) {
+		final String marker = "PFTT_SKIPIF_"+token+"_";
+		// anything printed before first SKIPIF (ex: startup warnings) would've been printed by each SKIPIF if run by itself
+		int pos = output.indexOf(marker+"BEGIN:0\n");
+		if (pos==-1)
+			return 0;
+		final String preamble = output.substring(0, pos);
+		for ( int i=0 ; i < part.size() ; i++ ) {
+			String begin = marker+"BEGIN:"+i+"\n";
+			// output may have been trimmed, so don't need \n after last marker
+			String end = "\n"+marker+"END:"+i;
+			int b = output.indexOf(begin, pos);
+			if (b==-1)
+				return i;
+			b += begin.length();
+			int e = output.indexOf(end, b);
+			if (e==-1) {
+				e = output.indexOf("\n"+marker+"EXIT:"+i, b);
+				// redeclare error only happens because of the other SKIPIFs in the batch
+				if (e==-1 || output.substring(b, e).contains("Cannot redeclare"))
+					return i;
+				// SKIPIF exited or had a fatal error. harness stopped here
+				batch_outputs.put(part.get(i).getName(), preamble + output.substring(b, e));
+				return i + 1;
+			}
+			batch_outputs.put(part.get(i).getName(), preamble + output.substring(b, e));
+			pos = e + end.length();
+		}
+		return part.size();
+	} // end protected int splitOutput
+
+	/** creates the harness script that includes each SKIPIF file (@see #getBatchFile)
+	 * 
+	 * @param token
+	 * @param files
+	 * @return
+	 */
+	protected static String createHarness(String token, List<String> files) {
+		final String marker = "PFTT_SKIPIF_"+token+"_";
+		StringBuilder sb = new StringBuilder(256 + (files.size() * 128));
+		sb.append("<?php\n");
+		sb.append("$GLOBALS['__pftt_skipif_current'] = null;\n");
+		// SKIPIF called exit() or had a fatal error: end its output so the rest of the output can still be split
+		sb.append("function __pftt_skipif_shutdown() {\n");
+		sb.append("\tif ($GLOBALS['__pftt_skipif_current']===null) return;\n");
+		sb.append("\t$out = '';\n");
+		sb.append("\twhile (ob_get_level() > $GLOBALS['__pftt_skipif_ob_level']) $out = ob_get_clean() . $out;\n");
+		sb.append("\techo $out, \"\\n").append(marker).append("EXIT:\", $GLOBALS['__pftt_skipif_current'], \"\\n\";\n");
+		sb.append("}\n");
+		sb.append("register_shutdown_function('__pftt_skipif_shutdown');\n");
+		// include in a function so SKIPIFs don't share variables
+		sb.append("function __pftt_skipif_run($__pftt_file) { include $__pftt_file; }\n");
+		// state to restore after each SKIPIF (SKIPIFs that obviously change state aren't batched, @see #canBatch)
+		sb.append("$__pftt_ini = ini_get_all(null, false);\n");
+		sb.append("$__pftt_error_reporting = error_reporting();\n");
+		sb.append("$__pftt_cwd = getcwd();\n");
+		sb.append("$__pftt_files = array(\n");
+		for ( String file : files ) {
+			sb.append("\t'");
+			sb.append(file.replace("\\", "\\\\").replace("'", "\\'"));
+			sb.append("',\n");
+		}
+		sb.append(");\n");
+		sb.append("foreach ($__pftt_files as $__pftt_i => $__pftt_file) {\n");
+		sb.append("\t$GLOBALS['__pftt_skipif_current'] = $__pftt_i;\n");
+		sb.append("\techo \"").append(marker).append("BEGIN:$__pftt_i\\n\";\n");
+		sb.append("\t$GLOBALS['__pftt_skipif_ob_level'] = ob_get_level();\n");
+		sb.append("\tob_start();\n");
+		sb.append("\t__pftt_skipif_run($__pftt_file);\n");
+		sb.append("\t$__pftt_out = '';\n");
+		sb.append("\twhile (ob_get_level() > $GLOBALS['__pftt_skipif_ob_level']) $__pftt_out = ob_get_clean() . $__pftt_out;\n");
+		sb.append("\t$GLOBALS['__pftt_skipif_current'] = null;\n");
+		sb.append("\tforeach (ini_get_all(null, false) as $__pftt_k => $__pftt_v) { if (!array_key_exists($__pftt_k, $__pftt_ini) || $__pftt_ini[$__pftt_k]!==$__pftt_v) ini_restore($__pftt_k); }\n");
+		sb.append("\terror_reporting($__pftt_error_reporting);\n");
+		sb.append("\tif ($__pftt_cwd!==false) chdir($__pftt_cwd);\n");
+		sb.append("\techo $__pftt_out, \"\\n").append(marker).append("END:$__pftt_i\\n\";\n");
+		sb.append("}\n");
+		return sb.toString();
+	} // end protected static String createHarness
+
+	/** number of PHP processes run for batches */
+	public synchronized int getBatchCount() {
+		return batch_count;
+	}
+
+	/** number of SKIPIFs run in a batch */
+	public synchronized int getBatchedCount() {
+		return batched_count;
+	}
+
+	/** number of SKIPIFs that were in a batch but had to be run by themselves */
+	public synchronized int getFallbackCount() {
+		return fallback_count;
+	}
+
+	@Override
+	public String toString() {
+		return "PhptSkipIfBatch[batches="+getBatchCount()+" batched="+getBatchedCount()+" fallbacks="+getFallbackCount()+"]";
+	}
+
+} // end public class PhptSkipIfBatch
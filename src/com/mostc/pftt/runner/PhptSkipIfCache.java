@@ -0,0 +1,278 @@
+package com.mostc.pftt.runner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import com.github.mattficken.io.StringUtil;
+import com.mostc.pftt.host.AHost;
+import com.mostc.pftt.model.core.EPhptSection;
+import com.mostc.pftt.model.core.PhpBuild;
+import com.mostc.pftt.model.core.PhpIni;
+import com.mostc.pftt.model.core.PhptSourceTestPack;
+import com.mostc.pftt.model.core.PhptTestCase;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.results.EPrintType;
+
+/** Remembers the output of each SKIPIF section from one test run to the next, so SKIPIFs don't have to be
+ * run again when the same build is tested with the same scenario set.
+ *
+ * Output is stored for each test by a hash of its SKIPIF and ENV sections and the PhpIni it was run with,
+ * so changing any of those runs the SKIPIF again. The whole cache is thrown away if the build (php executable)
+ * or the test-pack changed since it was stored, including any of the test-pack's non-PHPT files (ex: skipif.inc), since
+ * SKIPIFs often include them.
+ *
+ * Output of SKIPIFs that timed out or crashed is not cached.
+ *
+ * Thread-safe: SKIPIFs are run by all the test threads. Runners that run SKIPIFs on the same runner host with the same
+ * build and scenario set share 1 cache (@see LocalPhptTestPackRunner#shareSkipIfCache), since they use the same cache file.
+ *
+ * @see -no_skipif_cache console option
+ * @see LocalPhptTestPackRunner#getSkipIfCache
+ * @see AbstractPhptTestCaseRunner#getSkipIfOutput
+ *
+ */
+
+public class PhptSkipIfCache {
+	protected static final String HEADER_BUILD = "#build\t", HEADER_TEST_PACK = "#test_pack\t";
+	protected final File cache_file;
+	protected final String build_id, test_pack_id;
+	protected final ConcurrentHashMap<String,String> outputs;
+	protected volatile boolean dirty;
+
+	/**
+	 *
+	 * @param cache_file - file to store cache in. if null, cache is only kept in memory
+	 * @param build_id - @see #getBuildId
+	 * @param test_pack_id - @see #getTestPackId
+	 */
+	public PhptSkipIfCache(@Nullable File cache_file, String build_id, String test_pack_id) {
+		this.cache_file = cache_file;
+		this.build_id = build_id;
+		this.test_pack_id = test_pack_id;
+		outputs = new ConcurrentHashMap<String,String>(16384);
+	}
+
+	/** decides where to store the cache for the given build and scenario set: in the PFTT cache directory, or null if
+	 * the PFTT directory isn't known (cache is then only kept in memory)
+	 *
+	 * @param pftt_dir
+	 * @param host_name
+	 * @param build
+	 * @param scenario_set_name
+	 * @return
+	 */
+	public static File getCacheFile(String pftt_dir, String host_name, PhpBuild build, String scenario_set_name) {
+		if (StringUtil.isEmpty(pftt_dir))
+			return null;
+		final String key = host_name+"_"+build.getBuildPath()+"_"+scenario_set_name;
+		return new File(pftt_dir+"/cache/skipif/"+(host_name+"_"+scenario_set_name).replaceAll("[^A-Za-z0-9_\\-]", "_")+"_"+Integer.toHexString(key.hashCode())+".txt");
+	}
+
+	/** identifies the build: if php executable is rebuilt or replaced, this changes and the cache is thrown away
+	 *
+	 * @param host
+	 * @param build
+	 * @return
+	 */
+	public static String getBuildId(AHost host, PhpBuild build) {
+		final String php_exe = build.getPhpExe();
+		return build.getBuildPath()+"|"+host.mSize(php_exe)+"|"+host.mMTime(php_exe);
+	}
+
+	/** identifies the test-pack: if a different test-pack is run, or any of its non-PHPT files (that SKIPIFs may include)
+	 * were changed, the cache is thrown away
+	 *
+	 * must be called after the test-pack is read
+	 *
+	 * @param src_test_pack
+	 * @return
+	 */
+	public static String getTestPackId(PhptSourceTestPack src_test_pack) {
+		return src_test_pack.getSourceDirectory()+"|"+src_test_pack.getNameAndVersionString()+"|"+src_test_pack.getNonPhptFilesFingerprint();
+	}
+
+	/** key for test's SKIPIF output with the given PhpIni
+	 *
+	 * @param test_case
+	 * @param ini
+	 * @return
+	 */
+	public String getKey(PhptTestCase test_case, PhpIni ini) {
+		int hc = 31 + PhptTestCase.hashCode(ini);
+		hc = ( hc * 31 ) + StringUtil.toString(test_case.get(EPhptSection.SKIPIF)).hashCode();
+		hc = ( hc * 31 ) + StringUtil.toString(test_case.get(EPhptSection.ENV)).hashCode();
+		return test_case.getName()+"\t"+Integer.toHexString(hc);
+	}
+
+	/** returns cached SKIPIF output or null if not cached
+	 *
+	 * @param key - @see #getKey
+	 * @return
+	 */
+	@Nullable
+	public String get(String key) {
+		return outputs.get(key);
+	}
+
+	/** stores SKIPIF output
+	 *
+	 * @param key - @see #getKey
+	 * @param output
+	 */
+	public void put(String key, String output) {
+		if (!output.equals(outputs.put(key, output)))
+			dirty = true;
+	}
+
+	public boolean isEmpty() {
+		return outputs.isEmpty();
+	}
+
+	public int size() {
+		return outputs.size();
+	}
+
+	/** reads the cache from its file. if file is missing or unreadable, or was stored for a different build or
+	 * test-pack, the cache is left empty.
+	 *
+	 * @param cm
+	 */
+	public void load(ConsoleManager cm) {
+		if (cache_file==null || !cache_file.isFile())
+			return;
+		BufferedReader r = null;
+		try {
+			r = new BufferedReader(new InputStreamReader(new FileInputStream(cache_file), "UTF-8"), 128*1024);
+			if (!(HEADER_BUILD+build_id).equals(r.readLine()) || !(HEADER_TEST_PACK+test_pack_id).equals(r.readLine())) {
+				// build or test-pack changed: SKIPIFs have to be run again
+				cm.println(EPrintType.CLUE, PhptSkipIfCache.class, "Build or test-pack (or its .inc files, etc...) changed, not using cached SKIPIF output: "+cache_file);
+				dirty = true;
+				return;
+			}
+			String line;
+			int i, j;
+			while ( ( line = r.readLine() ) != null ) {
+				i = line.indexOf('\t');
+				if (i < 1)
+					continue;
+				j = line.indexOf('\t', i+1);
+				if (j==-1)
+					continue;
+				outputs.put(line.substring(0, j), unescape(line.substring(j+1)));
+			}
+		} catch ( Exception ex ) {
+			// cache only saves time: start over with an empty cache
+			outputs.clear();
+			ConsoleManagerUtil.printStackTrace(PhptSkipIfCache.class, cm, ex);
+		} finally {
+			if (r!=null) {
+				try {
+					r.close();
+				} catch ( IOException ex ) {}
+			}
+		}
+	} // end public void load
+
+	/** writes the cache to its file, if any SKIPIFs were run since it was read
+	 *
+	 * Saves of the same cache are done 1 at a time.
+	 *
+	 * @param cm
+	 */
+	public synchronized void save(ConsoleManager cm) {
+		if (cache_file==null || !dirty)
+			return;
+		dirty = false;
+		cache_file.getParentFile().mkdirs();
+		File tmp_file = null;
+		PrintWriter pw = null;
+		try {
+			// write to temp file first, so an interrupted save can't leave a truncated cache. temp file is unique so
+			// another PFTT process saving the same cache can't write to it too
+			tmp_file = File.createTempFile(cache_file.getName()+".", ".tmp", cache_file.getParentFile());
+			pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp_file), "UTF-8"));
+			pw.println(HEADER_BUILD+build_id);
+			pw.println(HEADER_TEST_PACK+test_pack_id);
+			// copy first: SKIPIFs may still be run while saving
+			for ( Map.Entry<String,String> e : new HashMap<String,String>(outputs).entrySet() ) {
+				pw.print(e.getKey());
+				pw.print('\t');
+				pw.println(escape(e.getValue()));
+			}
+			pw.close();
+			pw = null;
+
+			cache_file.delete();
+			if (!tmp_file.renameTo(cache_file))
+				tmp_file.delete();
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(PhptSkipIfCache.class, cm, ex);
+		} finally {
+			if (pw!=null) {
+				pw.close();
+				tmp_file.delete();
+			}
+		}
+	} // end public void save
+
+	/** stores output on 1 line */
+	protected static String escape(String output) {
+		StringBuilder sb = new StringBuilder(output.length()+16);
+		for ( int i=0 ; i < output.length() ; i++ ) {
+			char c = output.charAt(i);
+			switch(c) {
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	protected static String unescape(String line) {
+		StringBuilder sb = new StringBuilder(line.length());
+		for ( int i=0 ; i < line.length() ; i++ ) {
+			char c = line.charAt(i);
+			if (c=='\\' && i+1 < line.length()) {
+				c = line.charAt(++i);
+				switch(c) {
+				case 'n':
+					c = '\n';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+} // end public class PhptSkipIfCache
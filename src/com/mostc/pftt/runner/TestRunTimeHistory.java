@@ -0,0 +1,185 @@
+package com.mostc.pftt.runner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.mattficken.io.StringUtil;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+
+/** Remembers how long each test took to run on a host with a scenario set, from one test run to the next.
+ *
+ * Used to run the slowest tests (and the groups with the most run time) first, so a few long tests aren't
+ * left running at the end of the test run while the other threads are idle (longest-processing-time-first).
+ *
+ * Thread-safe: run times are recorded by all the test threads.
+ *
+ * @see AbstractLocalTestPackRunner#getRunTimeHistory
+ * @see LocalPhptTestPackRunner#postGroup
+ *
+ */
+
+public class TestRunTimeHistory {
+	/** returned for tests that have never been run */
+	public static final long UNKNOWN = -1L;
+	protected final File history_file;
+	protected final ConcurrentHashMap<String,Long> run_times;
+	protected volatile boolean dirty;
+
+	/**
+	 *
+	 * @param history_file - file to store history in. if null, history is only kept in memory
+	 */
+	public TestRunTimeHistory(File history_file) {
+		this.history_file = history_file;
+		run_times = new ConcurrentHashMap<String,Long>(16384);
+	}
+
+	/** decides where to store the history for the given host and scenario set: in the PFTT cache directory, or null if
+	 * the PFTT directory isn't known (history is then only kept in memory)
+	 *
+	 * @param pftt_dir
+	 * @param host_name
+	 * @param scenario_set_name
+	 * @return
+	 */
+	public static File getHistoryFile(String pftt_dir, String host_name, String scenario_set_name) {
+		if (StringUtil.isEmpty(pftt_dir))
+			return null;
+		final String key = host_name+"_"+scenario_set_name;
+		return new File(pftt_dir+"/cache/runtime/"+key.replaceAll("[^A-Za-z0-9_\\-]", "_")+"_"+Integer.toHexString(key.hashCode())+".txt");
+	}
+
+	/** records how long the test took to run.
+	 *
+	 * if test was run before, this is averaged with the previous time(s) so one unusually slow run doesn't reorder everything.
+	 *
+	 * @param test_name
+	 * @param micros
+	 */
+	public void record(String test_name, long micros) {
+		if (micros < 0)
+			return;
+		Long prev = run_times.putIfAbsent(test_name, micros);
+		// if another thread recorded the same test at the same time, average with its time instead of replacing it
+		while (prev!=null && !run_times.replace(test_name, prev, ( ( prev.longValue() * 3 ) + micros ) / 4)) {
+			prev = run_times.putIfAbsent(test_name, micros);
+		}
+		if (!dirty)
+			// avoid a volatile write (and cache line contention between test threads) for every test
+			dirty = true;
+	}
+
+	/** returns how long the test took to run before (in microseconds) or #UNKNOWN
+	 *
+	 * @param test_name
+	 * @return
+	 */
+	public long getMicros(String test_name) {
+		Long micros = run_times.get(test_name);
+		return micros==null ? UNKNOWN : micros.longValue();
+	}
+
+	public boolean isEmpty() {
+		return run_times.isEmpty();
+	}
+
+	public int size() {
+		return run_times.size();
+	}
+
+	/** average run time of all tests in history, to guess the run time of tests that haven't been run before
+	 *
+	 * @return
+	 */
+	public long getAverageMicros() {
+		long total = 0;
+		int count = 0;
+		for ( Long micros : run_times.values() ) {
+			total += micros.longValue();
+			count++;
+		}
+		return count==0 ? 0 : total / count;
+	}
+
+	/** reads the history from its file. if file is missing or unreadable, the history is left empty.
+	 *
+	 * @param cm
+	 */
+	public void load(ConsoleManager cm) {
+		if (history_file==null || !history_file.isFile())
+			return;
+		BufferedReader r = null;
+		try {
+			r = new BufferedReader(new InputStreamReader(new FileInputStream(history_file), "UTF-8"), 128*1024);
+			String line;
+			int i;
+			while ( ( line = r.readLine() ) != null ) {
+				i = line.lastIndexOf('\t');
+				if (i < 1)
+					continue;
+				try {
+					run_times.put(line.substring(0, i), Long.valueOf(line.substring(i+1)));
+				} catch ( NumberFormatException ex ) {
+					// ignore line
+				}
+			}
+		} catch ( Exception ex ) {
+			// history is only used for ordering tests: start over with an empty history
+			run_times.clear();
+			ConsoleManagerUtil.printStackTrace(TestRunTimeHistory.class, cm, ex);
+		} finally {
+			if (r!=null) {
+				try {
+					r.close();
+				} catch ( IOException ex ) {}
+			}
+		}
+	} // end public void load
+
+	/** writes the history to its file, if any tests were run since it was read
+	 *
+	 * @param cm
+	 */
+	public void save(ConsoleManager cm) {
+		if (history_file==null || !dirty)
+			return;
+		dirty = false;
+		history_file.getParentFile().mkdirs();
+		// write to temp file first, so an interrupted save can't leave a truncated history
+		File tmp_file = new File(history_file.getPath()+".tmp");
+		PrintWriter pw = null;
+		try {
+			pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp_file), "UTF-8"));
+			// copy first: tests may still be recorded while saving
+			for ( Map.Entry<String,Long> e : new HashMap<String,Long>(run_times).entrySet() ) {
+				pw.print(e.getKey());
+				pw.print('\t');
+				pw.println(e.getValue());
+			}
+			pw.close();
+			pw = null;
+
+			history_file.delete();
+			if (!tmp_file.renameTo(history_file))
+				tmp_file.delete();
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(TestRunTimeHistory.class, cm, ex);
+		} finally {
+			if (pw!=null) {
+				pw.close();
+				tmp_file.delete();
+			}
+		}
+	} // end public void save
+
+} // end public class TestRunTimeHistory
@@ -0,0 +1,82 @@
+package com.mostc.pftt.scenario;
+
+import java.util.EnumSet;
+
+import com.mostc.pftt.host.Host;
+import com.mostc.pftt.model.app.EPhpUnitWorkerCheck;
+import com.mostc.pftt.model.core.PhpBuild;
+import com.mostc.pftt.results.ConsoleManager;
+
+/** Runs PhpUnit tests in long-lived PHP processes (workers) instead of starting a new process for each test.
+ *
+ * Each thread has 1 worker, which loads the test-pack's bootstrap once and then runs each test the thread
+ * sends it (over STDIN), so the start-up cost (starting PHP, bootstrap, autoloader) is paid once per worker
+ * instead of once per test.
+ *
+ * To keep results the same as running each test in its own process, a worker is replaced with a new process:
+ * -after it crashes or times out (and a crashed test is run again in its own process)
+ * -after a test pollutes global state (@see EPhpUnitWorkerCheck)
+ * -after it has run #getMaxTestsPerWorker tests
+ * -if the configuration (INI, ENV, globals, etc...) changes
+ *
+ * Only used with CLI (other SAPIs already run multiple tests in each process), and only when tests are run with
+ * PhpUnit's reflection (not for test-packs under development @see LocalPhpUnitTestPackRunner#setupStorageAndTestPack).
+ *
+ * @see com.mostc.pftt.runner.PhpUnitWorker
+ * @see com.mostc.pftt.model.app.PhpUnitTemplate#renderWorkerTemplate
+ *
+ */
+
+public class PhpUnitWorkerScenario extends OptionScenario {
+	public static final int DEFAULT_MAX_TESTS_PER_WORKER = 100;
+	protected final int max_tests_per_worker;
+	protected final EnumSet<EPhpUnitWorkerCheck> checks;
+
+	public PhpUnitWorkerScenario() {
+		this(DEFAULT_MAX_TESTS_PER_WORKER);
+	}
+
+	public PhpUnitWorkerScenario(int max_tests_per_worker) {
+		this(max_tests_per_worker, EnumSet.allOf(EPhpUnitWorkerCheck.class));
+	}
+
+	public PhpUnitWorkerScenario(int max_tests_per_worker, EPhpUnitWorkerCheck... checks) {
+		this(max_tests_per_worker, checks.length==0 ? EnumSet.noneOf(EPhpUnitWorkerCheck.class) : EnumSet.of(checks[0], checks));
+	}
+
+	public PhpUnitWorkerScenario(int max_tests_per_worker, EnumSet<EPhpUnitWorkerCheck> checks) {
+		this.max_tests_per_worker = Math.max(1, max_tests_per_worker);
+		this.checks = checks;
+	}
+
+	/** number of tests a worker runs before it is replaced with a new process */
+	public int getMaxTestsPerWorker() {
+		return max_tests_per_worker;
+	}
+
+	/** global state checked after each test. if a test changes any of it, the worker is replaced */
+	public EnumSet<EPhpUnitWorkerCheck> getPollutionChecks() {
+		return checks;
+	}
+
+	@Override
+	public Class<?> getSerialKey(EScenarioSetPermutationLayer layer) {
+		return PhpUnitWorkerScenario.class;
+	}
+
+	@Override
+	public IScenarioSetup setup(ConsoleManager cm, FileSystemScenario fs, Host host, PhpBuild build, ScenarioSet scenario_set, EScenarioSetPermutationLayer layer) {
+		return SETUP_SUCCESS;
+	}
+
+	@Override
+	public String getName() {
+		return "PhpUnit-Worker";
+	}
+
+	@Override
+	public boolean isImplemented() {
+		return true;
+	}
+
+} // end public class PhpUnitWorkerScenario
@@ -0,0 +1,223 @@
+package com.mostc.pftt.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/** Captures output of a process (or anything else) in fixed-size chunks borrowed from a shared pool.
+ *
+ * Growing doesn't copy what was already captured (unlike a byte[] or StringBuilder that doubles in size), and
+ * chunks are reused by the next capture instead of being left for GC. Output past #MAX_IN_MEMORY bytes is written
+ * to a temporary file instead of being kept in memory, so each capture holds at most #MAX_IN_MEMORY bytes of chunks
+ * no matter how much a test prints, and a test printing megabytes doesn't drain the pool.
+ *
+ * The output is still turned into a String right after (ExecOutput#output, which evalTest, the diff and the result
+ * writer all take). The temporary file only keeps the raw bytes from being held in memory along with that String
+ * while it is decoded: it bounds the capture, not the String.
+ *
+ * #close must be called to return the chunks to the pool and delete the temporary file.
+ *
+ * @see com.mostc.pftt.host.LocalHost.LocalExecHandle#do_exec_copy_lines
+ *
+ */
+
+@NotThreadSafe
+public class CaptureBuffer implements Closeable {
+	public static final int CHUNK_SIZE = 32*1024;
+	/** output past this many bytes is written to a temporary file */
+	public static final int MAX_IN_MEMORY = 256*1024;
+	/** most idle chunks to keep for reuse (8 MB) */
+	protected static final int MAX_POOLED_CHUNKS = 256;
+	protected static final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<byte[]>();
+	protected static final AtomicInteger pool_size = new AtomicInteger();
+	protected final ArrayList<byte[]> chunks;
+	/** bytes used in last chunk */
+	protected int last_len;
+	protected long size;
+	protected boolean ascii;
+	protected File spill_file;
+	protected OutputStream spill_out;
+	protected byte[] spill_buf;
+
+	public CaptureBuffer() {
+		chunks = new ArrayList<byte[]>(8);
+		last_len = CHUNK_SIZE;
+		ascii = true;
+	}
+
+	/** reads once from stream (blocking until something can be read)
+	 *
+	 * @param in
+	 * @return number of bytes read or -1 at end of stream
+	 * @throws IOException
+	 */
+	public int read(InputStream in) throws IOException {
+		byte[] buf;
+		int off;
+		if (spill_out!=null || size >= MAX_IN_MEMORY) {
+			if (spill_out==null)
+				startSpill();
+			buf = spill_buf;
+			off = 0;
+		} else {
+			if (last_len == CHUNK_SIZE) {
+				chunks.add(takeChunk());
+				last_len = 0;
+			}
+			buf = chunks.get(chunks.size()-1);
+			off = last_len;
+		}
+		final int n = in.read(buf, off, buf.length-off);
+		if (n < 1)
+			return n;
+		if (ascii) {
+			for ( int i=off ; i < off+n ; i++ ) {
+				// ESC, SO and SI are 7-bit but switch charsets in ISO-2022 (ex: ISO-2022-JP): have to decode those too
+				if (buf[i] < 0 || buf[i] == 0x1B || buf[i] == 0x0E || buf[i] == 0x0F) {
+					ascii = false;
+					break;
+				}
+			}
+		}
+		if (buf==spill_buf)
+			spill_out.write(buf, 0, n);
+		else
+			last_len += n;
+		size += n;
+		return n;
+	} // end public int read
+
+	protected void startSpill() throws IOException {
+		// not File#deleteOnExit: that keeps every file name until exit. #close deletes it
+		spill_file = File.createTempFile("PFTT_capture_", ".tmp");
+		spill_out = new FileOutputStream(spill_file);
+		spill_buf = takeChunk();
+	}
+
+	/** number of bytes captured */
+	public long size() {
+		return size;
+	}
+
+	/** TRUE if all bytes captured are 7-bit ASCII, without any ISO-2022 escape or shift bytes (don't need to be decoded) */
+	public boolean isAscii() {
+		return ascii;
+	}
+
+	/** TRUE if some output was written to a temporary file */
+	public boolean isSpilled() {
+		return spill_file!=null;
+	}
+
+	/** streams over all bytes captured (without copying them)
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream getInputStream() throws IOException {
+		ArrayList<InputStream> streams = new ArrayList<InputStream>(chunks.size()+1);
+		for ( int i=0 ; i < chunks.size() ; i++ )
+			streams.add(new ByteArrayInputStream(chunks.get(i), 0, i+1==chunks.size() ? last_len : CHUNK_SIZE));
+		if (spill_file!=null) {
+			spill_out.flush();
+			streams.add(new FileInputStream(spill_file));
+		}
+		return new SequenceInputStream(Collections.enumeration(streams));
+	}
+
+	/** appends captured bytes to StringBuilder as chars, without decoding them. \r\n becomes \n
+	 *
+	 * @param sb
+	 * @throws IOException
+	 */
+	public void appendTo(StringBuilder sb) throws IOException {
+		sb.ensureCapacity(sb.length() + (int)Math.min(Integer.MAX_VALUE - 16, size) + 1);
+		boolean cr = false;
+		for ( int i=0 ; i < chunks.size() ; i++ )
+			cr = appendTo(sb, chunks.get(i), i+1==chunks.size() ? last_len : CHUNK_SIZE, cr);
+		if (spill_file!=null) {
+			spill_out.flush();
+			InputStream in = new FileInputStream(spill_file);
+			try {
+				int n;
+				while ( ( n = in.read(spill_buf) ) != -1 )
+					cr = appendTo(sb, spill_buf, n, cr);
+			} finally {
+				in.close();
+			}
+		}
+		if (cr)
+			sb.append('\r');
+	}
+
+	protected static boolean appendTo(StringBuilder sb, byte[] buf, int len, boolean cr) {
+		for ( int i=0 ; i < len ; i++ ) {
+			if (cr) {
+				cr = false;
+				if (buf[i]=='\n') {
+					// ignore \r
+					sb.append('\n');
+					continue;
+				}
+				sb.append('\r');
+			}
+			if (buf[i]=='\r')
+				cr = true;
+			else
+				sb.append((char)buf[i]);
+		}
+		return cr;
+	}
+
+	/** returns chunks to pool and deletes temporary file. buffer can't be used after this
+	 *
+	 */
+	@Override
+	public void close() {
+		for ( byte[] chunk : chunks )
+			giveChunk(chunk);
+		chunks.clear();
+		last_len = CHUNK_SIZE;
+		size = 0;
+		if (spill_file!=null) {
+			try {
+				spill_out.close();
+			} catch ( IOException ex ) {}
+			spill_file.delete();
+			spill_file = null;
+			spill_out = null;
+			giveChunk(spill_buf);
+			spill_buf = null;
+		}
+	}
+
+	protected static byte[] takeChunk() {
+		byte[] chunk = pool.poll();
+		if (chunk==null)
+			return new byte[CHUNK_SIZE];
+		pool_size.decrementAndGet();
+		return chunk;
+	}
+
+	protected static void giveChunk(byte[] chunk) {
+		if (pool_size.incrementAndGet() > MAX_POOLED_CHUNKS) {
+			// pool is full: let GC have it
+			pool_size.decrementAndGet();
+			return;
+		}
+		pool.add(chunk);
+	}
+
+} // end public class CaptureBuffer
@@ -0,0 +1,263 @@
+package com.mostc.pftt.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.incava.util.diff.Diff;
+import org.incava.util.diff.Difference;
+
+/** Diffs 2 arrays of lines using Myers' O((N+M)D) algorithm, in linear space (middle snake divide and conquer).
+ *
+ * Lines are first interned into int IDs, so comparing 2 lines is an int comparison and no boxed Integers or
+ * TreeMaps are used (unlike Diff's LCS, which gets slow and allocates a lot on outputs with tens of thousands of lines).
+ *
+ * Produces the same Difference model as Diff, so it can be used anywhere a Diff<String> is used (ex: PhptTestResult).
+ *
+ * If the outputs differ by more than #getMaxEditDistance lines, gives up looking for the shortest diff and
+ * reports everything between the common prefix and suffix as 1 change. A diff that big isn't readable anyway
+ * and would take the longest to compute.
+ *
+ * @see com.mostc.pftt.results.PhptTestResult#toString(String[], Diff, String[])
+ * @see LineDiffBenchmark
+ *
+ */
+
+@NotThreadSafe
+public class LineDiff extends Diff<String> {
+	public static final int DEFAULT_MAX_EDIT_DISTANCE = 2000;
+	protected final String[] a_lines, b_lines;
+	protected final int max_edit_distance;
+	protected int[] a_ids, b_ids;
+	/** TRUE for each line that was deleted from A or added to B */
+	protected boolean[] a_changed, b_changed;
+	/** forward and backward furthest reaching x for each diagonal */
+	protected int[] vf, vb;
+	protected boolean gave_up;
+	protected List<Difference> result;
+
+	/**
+	 *
+	 * @param a - `from` lines (ex: expected output)
+	 * @param b - `to` lines (ex: actual output)
+	 */
+	public LineDiff(String[] a, String[] b) {
+		this(a, b, DEFAULT_MAX_EDIT_DISTANCE);
+	}
+
+	/**
+	 *
+	 * @param a - `from` lines (ex: expected output)
+	 * @param b - `to` lines (ex: actual output)
+	 * @param max_edit_distance - most lines to add or delete before giving up
+	 */
+	public LineDiff(String[] a, String[] b, int max_edit_distance) {
+		super(a, b);
+		this.a_lines = a;
+		this.b_lines = b;
+		this.max_edit_distance = max_edit_distance;
+	}
+
+	public int getMaxEditDistance() {
+		return max_edit_distance;
+	}
+
+	/** TRUE if outputs differed by more than #getMaxEditDistance lines so the diff is just 1 big change */
+	public boolean isGaveUp() {
+		return gave_up;
+	}
+
+	/** runs diff (only the first time) and returns the results */
+	@Override
+	public List<Difference> diff() {
+		if (result!=null)
+			return result;
+		intern();
+		final int n = a_ids.length, m = b_ids.length;
+		a_changed = new boolean[n];
+		b_changed = new boolean[m];
+
+		int a_lo = 0, b_lo = 0, a_hi = n, b_hi = m;
+		while (a_lo < a_hi && b_lo < b_hi && a_ids[a_lo]==b_ids[b_lo]) {
+			a_lo++;
+			b_lo++;
+		}
+		while (a_lo < a_hi && b_lo < b_hi && a_ids[a_hi-1]==b_ids[b_hi-1]) {
+			a_hi--;
+			b_hi--;
+		}
+		if (a_lo < a_hi && b_lo < b_hi) {
+			final int max_d = Math.min(max_edit_distance, (a_hi - a_lo) + (b_hi - b_lo));
+			final int size = max_d + 3;
+			vf = new int[2*size+1];
+			vb = new int[2*size+1];
+			if (!compare(a_lo, a_hi, b_lo, b_hi, max_d)) {
+				// too different: everything between prefix and suffix is 1 change
+				gave_up = true;
+				mark(a_changed, a_lo, a_hi);
+				mark(b_changed, b_lo, b_hi);
+			}
+			vf = vb = null;
+		} else {
+			mark(a_changed, a_lo, a_hi);
+			mark(b_changed, b_lo, b_hi);
+		}
+		a_ids = b_ids = null;
+
+		result = toDifferences();
+		diffs = result;
+		return result;
+	} // end public List<Difference> diff
+
+	/** gives each distinct line a number, so lines can be compared as ints */
+	protected void intern() {
+		HashMap<String,Integer> ids = new HashMap<String,Integer>(Math.max(16, (a_lines.length + b_lines.length) * 2));
+		a_ids = intern(ids, a_lines);
+		b_ids = intern(ids, b_lines);
+	}
+
+	protected static int[] intern(HashMap<String,Integer> ids, String[] lines) {
+		int[] out = new int[lines.length];
+		for ( int i=0 ; i < lines.length ; i++ ) {
+			Integer id = ids.get(lines[i]);
+			if (id==null) {
+				id = ids.size();
+				ids.put(lines[i], id);
+			}
+			out[i] = id;
+		}
+		return out;
+	}
+
+	protected static void mark(boolean[] changed, int lo, int hi) {
+		for ( int i=lo ; i < hi ; i++ )
+			changed[i] = true;
+	}
+
+	/** marks changed lines between a[a_lo,a_hi) and b[b_lo,b_hi)
+	 *
+	 * @param max_d - most edits to search for or -1 for no limit
+	 * @return FALSE if more than max_d edits are needed
+	 */
+	protected boolean compare(int a_lo, int a_hi, int b_lo, int b_hi, int max_d) {
+		// skip common prefix and suffix
+		while (a_lo < a_hi && b_lo < b_hi && a_ids[a_lo]==b_ids[b_lo]) {
+			a_lo++;
+			b_lo++;
+		}
+		while (a_lo < a_hi && b_lo < b_hi && a_ids[a_hi-1]==b_ids[b_hi-1]) {
+			a_hi--;
+			b_hi--;
+		}
+		if (a_lo==a_hi) {
+			mark(b_changed, b_lo, b_hi);
+			return true;
+		} else if (b_lo==b_hi) {
+			mark(a_changed, a_lo, a_hi);
+			return true;
+		}
+		final int[] snake = middleSnake(a_lo, a_hi, b_lo, b_hi, max_d);
+		if (snake==null)
+			return false;
+		if ((snake[0]==a_lo && snake[1]==b_lo && snake[2]==a_hi && snake[3]==b_hi)
+				|| (snake[0]==a_hi && snake[1]==b_hi) || (snake[2]==a_lo && snake[3]==b_lo)) {
+			// can't split any further (shouldn't happen)
+			mark(a_changed, a_lo, a_hi);
+			mark(b_changed, b_lo, b_hi);
+			return true;
+		}
+		// each half needs fewer edits than the whole, so no limit from here on
+		compare(a_lo, snake[0], b_lo, snake[1], -1);
+		compare(snake[2], a_hi, snake[3], b_hi, -1);
+		return true;
+	} // end protected boolean compare
+
+	/** finds the middle snake of the shortest edit script by searching forward from the start and backward from
+	 * the end at the same time (Myers 1986, section 4b).
+	 *
+	 * @return {start x, start y, end x, end y} or null if more than max_d edits are needed
+	 */
+	protected int[] middleSnake(final int a_lo, final int a_hi, final int b_lo, final int b_hi, final int max_d) {
+		final int n = a_hi - a_lo, m = b_hi - b_lo;
+		final int delta = n - m;
+		final boolean odd = (delta & 1) != 0;
+		int d_max = (n + m + 1) / 2;
+		if (max_d >= 0)
+			d_max = Math.min(d_max, (max_d + 1) / 2);
+		// diagonals searched (from either end) stay within [-d_max-1,d_max+1]
+		final int off = vf.length / 2;
+		if (d_max + 1 > off)
+			d_max = off - 1;
+		vf[off+1] = 0;
+		vb[off+1] = 0;
+		int k, x, y, x0, y0, kb;
+		for ( int d=0 ; d <= d_max ; d++ ) {
+			// forward
+			for ( k=-d ; k <= d ; k+=2 ) {
+				if (k==-d || (k!=d && vf[off+k-1] < vf[off+k+1]))
+					x = vf[off+k+1];
+				else
+					x = vf[off+k-1] + 1;
+				y = x - k;
+				x0 = x;
+				y0 = y;
+				while (x < n && y < m && a_ids[a_lo+x]==b_ids[b_lo+y]) {
+					x++;
+					y++;
+				}
+				vf[off+k] = x;
+				kb = delta - k;
+				if (odd && kb >= -(d-1) && kb <= d-1 && x + vb[off+kb] >= n)
+					return new int[]{a_lo+x0, b_lo+y0, a_lo+x, b_lo+y};
+			}
+			// backward (on reversed lines)
+			for ( k=-d ; k <= d ; k+=2 ) {
+				if (k==-d || (k!=d && vb[off+k-1] < vb[off+k+1]))
+					x = vb[off+k+1];
+				else
+					x = vb[off+k-1] + 1;
+				y = x - k;
+				x0 = x;
+				y0 = y;
+				while (x < n && y < m && a_ids[a_hi-1-x]==b_ids[b_hi-1-y]) {
+					x++;
+					y++;
+				}
+				vb[off+k] = x;
+				kb = delta - k;
+				if (!odd && kb >= -d && kb <= d && x + vf[off+kb] >= n)
+					return new int[]{a_hi-x, b_hi-y, a_hi-x0, b_hi-y0};
+			}
+		}
+		return null;
+	} // end protected int[] middleSnake
+
+	/** groups each run of changed lines (between 2 matching lines) into 1 Difference, the same as Diff does */
+	protected List<Difference> toDifferences() {
+		ArrayList<Difference> list = new ArrayList<Difference>();
+		final int n = a_changed.length, m = b_changed.length;
+		int ai = 0, bi = 0, a_start, b_start;
+		while (ai < n || bi < m) {
+			if (ai < n && bi < m && !a_changed[ai] && !b_changed[bi]) {
+				// match
+				ai++;
+				bi++;
+				continue;
+			}
+			a_start = ai;
+			b_start = bi;
+			while (ai < n && a_changed[ai])
+				ai++;
+			while (bi < m && b_changed[bi])
+				bi++;
+			list.add(new Difference(
+					a_start, ai > a_start ? ai - 1 : Difference.NONE,
+					b_start, bi > b_start ? bi - 1 : Difference.NONE
+				));
+		}
+		return list;
+	} // end protected List<Difference> toDifferences
+
+} // end public class LineDiff
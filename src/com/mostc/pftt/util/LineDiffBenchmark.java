@@ -0,0 +1,67 @@
+package com.mostc.pftt.util;
+
+import java.util.List;
+import java.util.Random;
+
+import org.incava.util.diff.Diff;
+import org.incava.util.diff.Difference;
+
+/** Compares speed and memory of LineDiff against Diff on outputs like those of failing PHPTs:
+ * a few changed lines in a long output, a long output that's mostly different (ex: fuzz test),
+ * and a large array dump with many repeated lines.
+ *
+ * Usage: java com.mostc.pftt.util.LineDiffBenchmark [lines] [rounds]
+ *
+ * @see LineDiff
+ *
+ */
+
+public class LineDiffBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final int lines = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		final Random r = new Random(42);
+
+		String[] expected = new String[lines];
+		for ( int i=0 ; i < lines ; i++ )
+			expected[i] = "line "+i+": "+Long.toHexString(r.nextLong());
+		String[] actual = expected.clone();
+		for ( int i=0 ; i < 20 ; i++ )
+			actual[r.nextInt(lines)] = "Warning: something changed in "+i;
+		run("few_changes", expected, actual, rounds);
+
+		actual = new String[lines];
+		for ( int i=0 ; i < lines ; i++ )
+			actual[i] = i % 10 == 0 ? expected[i] : "fuzz "+Long.toHexString(r.nextLong());
+		run("mostly_different", expected, actual, rounds);
+
+		expected = new String[lines];
+		for ( int i=0 ; i < lines ; i++ )
+			expected[i] = i % 4 == 0 ? "  [" + (i/4) + "]=>" : i % 4 == 1 ? "  int(0)" : i % 4 == 2 ? "  string(0) \"\"" : "  NULL";
+		actual = expected.clone();
+		for ( int i=0 ; i < lines ; i+=97 )
+			actual[i] = "  int(1)";
+		run("array_dump", expected, actual, rounds);
+	} // end public static void main
+
+	protected static void run(String name, String[] expected, String[] actual, int rounds) {
+		System.out.println(name+" ("+expected.length+" lines)");
+		for ( int i=0 ; i < rounds ; i++ ) {
+			report("  LineDiff", new LineDiff(expected, actual));
+			report("  Diff    ", new Diff<String>(expected, actual));
+		}
+	}
+
+	protected static void report(String name, Diff<String> diff) {
+		final Runtime rt = Runtime.getRuntime();
+		System.gc();
+		final long mem_start = rt.totalMemory() - rt.freeMemory();
+		final long start = System.nanoTime();
+		List<Difference> list = diff.diff();
+		final long millis = (System.nanoTime() - start) / 1000000;
+		final long mem_end = rt.totalMemory() - rt.freeMemory();
+		System.out.println(name+" "+millis+" ms, "+list.size()+" differences, ~"+Math.max(0, (mem_end - mem_start) / 1024)+" KB");
+	}
+
+} // end public class LineDiffBenchmark
@@ -3,7 +3,12 @@ package com.mostc.pftt.util;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.mostc.pftt.host.LocalHost;
 import com.mostc.pftt.results.ConsoleManager;
@@ -123,11 +128,10 @@ public final class TimerUtil {
 		};
 	
 	public static <E extends Object> WaitableRunnable<E> runWaitSeconds(String name_prefix, int seconds, ObjectRunnable<E> or) {
-		WaitableRunnable<E> wr = new WaitableRunnable<E>(or);
+		WaitableRunnable<E> wr = new WaitableRunnable<E>(name_prefix, or);
 		try {
-			Thread t = runThread(name_prefix, wr);
-			t.setUncaughtExceptionHandler(IGNORE);
-			wr.t = t;
+			// run on a pooled timer thread (@see WaitableRunnable#run)
+			execute(wr);
 			wr.block(seconds);
 		} catch ( Throwable t ) {
 			ConsoleManagerUtil.printStackTrace(TimerUtil.class, t);
@@ -137,23 +141,49 @@ public final class TimerUtil {
 	
 	public static class WaitableRunnable<E extends Object> implements Runnable, IClosable {
 		protected Exception ex;
+		protected final String name_prefix;
 		protected final ObjectRunnable<E> or;
 		protected E result;
 		protected Thread t;
-		protected boolean ran;
+		protected boolean ran, closed;
 		protected final Object lock = new Object();
 		
-		protected WaitableRunnable(ObjectRunnable<E> or) {
+		protected WaitableRunnable(String name_prefix, ObjectRunnable<E> or) {
+			this.name_prefix = name_prefix;
 			this.or = or;
 		}
 		
 		public void run() {
+			// thread is pooled: only #close this runnable while it's running, not whatever the thread runs next
+			final Thread ct = Thread.currentThread();
+			final String name = ct.getName();
+			ct.setName(name_prefix);
+			synchronized(lock) {
+				if (closed) {
+					ct.setName(name);
+					return;
+				}
+				t = ct;
+			}
 			try {
 				result = or.run();
 			} catch ( Exception ex ) {
+				// may be an InterruptedException from #close
 				this.ex = ex;
+			} finally {
+				synchronized(lock) {
+					t = null;
+					// clear interrupt from #close (if any) so it doesn't hit whatever the pooled thread runs next
+					Thread.interrupted();
+				}
+				ct.setName(name);
 			}
-			unlock(true);
+			boolean c;
+			synchronized(lock) {
+				c = closed;
+			}
+			if (!c)
+				unlock(true);
 		}
 		
 		protected void block(int seconds) {
@@ -186,10 +216,18 @@ public final class TimerUtil {
 			}
 		}
 		
-		@SuppressWarnings("deprecation")
+		/** stops waiting for the runnable and interrupts it if it's still running.
+		 * 
+		 * Interrupts instead of Thread#stop: the thread is pooled, and stopping it could leave locks it held (or
+		 * objects it was changing) in a broken state for whatever runs on it next.
+		 */
 		public void close() {
 			unlock(false);
-			t.stop(new RuntimeException());
+			synchronized(lock) {
+				closed = true;
+				if (t!=null)
+					t.interrupt();
+			}
 		}
 		
 		public E getResult() {
@@ -215,6 +253,98 @@ public final class TimerUtil {
 		
 	}
 	
+	private static ThreadPoolExecutor timer_executor;
+	private static TimerWheel timer_wheel;
+	
+	/** threads that run timers that have expired (and #runWaitSeconds). threads are reused and exit if idle for 60 seconds.
+	 * 
+	 * @return
+	 */
+	protected static synchronized ThreadPoolExecutor getTimerExecutor() {
+		if (timer_executor==null) {
+			final AtomicInteger thread_count = new AtomicInteger();
+			timer_executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Timer-"+thread_count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		}
+		return timer_executor;
+	}
+	
+	/** single thread that keeps track of all timers (#waitSeconds, #repeatEverySeconds, #scheduleSeconds).
+	 * 
+	 * @return
+	 */
+	protected static synchronized TimerWheel getTimerWheel() {
+		if (timer_wheel==null)
+			timer_wheel = new TimerWheel("TimerWheel", TimerWheel.DEFAULT_TICK_MILLIS, getTimerExecutor());
+		return timer_wheel;
+	}
+	
+	/** runs the runnable on a pooled timer thread. falls back on #runThread if it can't.
+	 * 
+	 * @param r
+	 */
+	protected static void execute(Runnable r) {
+		try {
+			getTimerExecutor().execute(r);
+		} catch ( Throwable t ) {
+			// couldn't create thread, @see #runThread
+			runThread(r);
+		}
+	}
+	
+	/** number of timers waiting to expire */
+	public static int getPendingTimerCount() {
+		return getTimerWheel().getPendingCount();
+	}
+	
+	/** number of timers that expired */
+	public static long getFiredTimerCount() {
+		return getTimerWheel().getFiredCount();
+	}
+	
+	/** number of timers that were closed before they expired */
+	public static long getCancelledTimerCount() {
+		return getTimerWheel().getCancelledCount();
+	}
+	
+	/** runs the runnable after the given number of seconds, unless ScheduledTimeout#close is called first.
+	 * 
+	 * @param seconds
+	 * @param r
+	 * @return
+	 */
+	public static ScheduledTimeout scheduleSeconds(int seconds, Runnable r) {
+		return new ScheduledTimeout(getTimerWheel().schedule(seconds*1000L, r));
+	}
+	
+	public static class ScheduledTimeout implements IClosable {
+		protected final TimerWheel.Timeout timeout;
+		
+		protected ScheduledTimeout(TimerWheel.Timeout timeout) {
+			this.timeout = timeout;
+		}
+		
+		public void close() {
+			timeout.cancel();
+		}
+		
+		public boolean isClosed() {
+			return timeout.isCancelled();
+		}
+		
+		@Override
+		public void close(ConsoleManager cm) {
+			close();
+		}
+		
+	} // end public static class ScheduledTimeout
+	
 	public static boolean trySleepSeconds(int seconds) {
 		return trySleepMillis(seconds*1000);
 	}
@@ -232,7 +362,7 @@ public final class TimerUtil {
 	}
 	
 	protected static void createRThread(RepeatingOrTimingThread t) {
-		t.t = runThread("Timer", (Runnable)t);
+		t.schedule(t.seconds*1000L);
 	}
 
 	public static RepeatingThread repeatEverySeconds(int seconds, RepeatingRunnable r) {
@@ -251,13 +381,13 @@ public final class TimerUtil {
 		
 		@Override
 		public void run() {
-			while(true) {
-				doWait();
-				if (isClosed())
-					return;
-				
-				r.run(this);
-			}
+			if (isClosed())
+				return;
+			
+			r.run(this);
+			
+			// wait again after (not while) running
+			schedule(seconds*1000L);
 		}
 		
 	} // end public static class RepeatingThread
@@ -301,11 +431,7 @@ public final class TimerUtil {
 		
 		@Override
 		protected void fire2() {
-			runThread(new Runnable() {
-				public void run() {
-					b2.run();
-				}
-			});
+			execute(b2);
 			a2.run();
 		}
 		
@@ -324,15 +450,8 @@ public final class TimerUtil {
 			if (runnables2.length==0)
 				return;
 			
-			for ( int i=1 ; i < runnables2.length ; i++ ) {
-				final Runnable r = runnables2[i];
-				runThread(new Runnable() {
-						@Override
-						public void run() {
-							r.run();
-						}
-					});
-			}
+			for ( int i=1 ; i < runnables2.length ; i++ )
+				execute(runnables2[i]);
 			runnables2[0].run();
 		}
 		
@@ -341,38 +460,34 @@ public final class TimerUtil {
 	public static abstract class TimerThread2S extends TimerThread {
 		protected final int seconds2;
 		protected final Runnable r1;
+		protected final long start_nanos;
+		protected boolean fired1;
 		
 		public TimerThread2S(int seconds, Runnable r1, int seconds2) {
 			super(seconds);
 			this.r1 = r1;
 			this.seconds2 = seconds2 - seconds;
+			start_nanos = System.nanoTime();
 		}
 
 		@Override
 		public void run() {
-			doWait();
 			if (isClosed())
 				return;
 			
-			fire1();
-			
-			doWait2();
-			if (isClosed())
+			if (!fired1) {
+				fired1 = true;
+				fire1();
+				
+				// 2nd runnable(s) are run seconds2 from start, but never before 1st runnable finished
+				long elapsed_millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start_nanos);
+				schedule(Math.max(0, (seconds + seconds2) * 1000L - elapsed_millis));
 				return;
+			}
 			
 			fire2();
 		}
 		
-		protected void doWait2() {
-			sleeping.set(true);
-			try {
-				Thread.sleep(seconds2*1000);
-			} catch ( InterruptedException ex ) {
-				// get interrupt from #cancel and then stop waiting
-			}
-			sleeping.set(false);
-		}
-		
 		protected void fire1() {
 			r1.run();
 		}
@@ -420,11 +535,7 @@ public final class TimerUtil {
 		
 		@Override
 		protected void fire() {
-			runThread(new Runnable() {
-				public void run() {
-					b.run();
-				}
-			});
+			execute(b);
 			a.run();
 		}
 		
@@ -443,15 +554,8 @@ public final class TimerUtil {
 			if (runnables.length==0)
 				return;
 			
-			for ( int i=1 ; i < runnables.length ; i++ ) {
-				final Runnable r = runnables[i];
-				runThread(new Runnable() {
-						@Override
-						public void run() {
-							r.run();
-						}
-					});
-			}
+			for ( int i=1 ; i < runnables.length ; i++ )
+				execute(runnables[i]);
 			runnables[0].run();
 		}
 		
@@ -465,7 +569,6 @@ public final class TimerUtil {
 
 		@Override
 		public void run() {
-			doWait();
 			if (isClosed())
 				return;
 			
@@ -484,38 +587,39 @@ public final class TimerUtil {
 		
 	}
 	
+	/** Timer on the shared TimerWheel (doesn't have its own thread anymore, despite the name).
+	 * 
+	 * #run is called on a pooled timer thread each time the timer expires.
+	 *
+	 */
 	protected static abstract class RepeatingOrTimingThread implements Runnable, IClosable {
 		protected final int seconds;
-		protected final AtomicBoolean b, sleeping;
-		protected Thread t;
+		protected final AtomicBoolean b;
+		protected volatile TimerWheel.Timeout timeout;
 		
 		public RepeatingOrTimingThread(int seconds) {
 			this.seconds = seconds;
 			
 			b = new AtomicBoolean(false);
-			sleeping = new AtomicBoolean(false);
 		}
 		
 		public void close() {
 			b.set(true);
-			if (sleeping.get()) {
-				// interrupt #sleep not #fire
-				t.interrupt();
-			}
+			// cancel waiting, but don't interrupt #run if it's already running
+			final TimerWheel.Timeout t = timeout;
+			if (t!=null)
+				t.cancel();
 		}
 		
 		public boolean isClosed() {
 			return b.get();
 		}
 		
-		protected void doWait() {
-			sleeping.set(true);
-			try {
-				Thread.sleep(seconds*1000);
-			} catch ( InterruptedException ex ) {
-				// get interrupt from #cancel and then stop waiting
-			}
-			sleeping.set(false);
+		protected void schedule(long millis) {
+			timeout = getTimerWheel().schedule(millis, this);
+			// may have been closed while scheduling
+			if (isClosed())
+				timeout.cancel();
 		}
 		
 		@Override
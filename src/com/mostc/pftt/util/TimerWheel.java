@@ -0,0 +1,280 @@
+package com.mostc.pftt.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.mostc.pftt.results.ConsoleManagerUtil;
+
+/** Hierarchical timer wheel: schedules any number of timeouts using 1 thread.
+ *
+ * Timeouts are put in a slot of the lowest level wheel that covers their deadline. Each time the
+ * lowest level wheel wraps around, the next slot of the next level wheel is cascaded down into it (and so on).
+ * Adding and cancelling a timeout are O(1).
+ *
+ * Expired timeouts are run on the given Executor, never on the wheel's thread, so a slow task can't delay
+ * other timeouts.
+ *
+ * Most timeouts in PFTT are cancelled (the test or process finished in time), so cancelled timeouts are
+ * removed from their slot right away instead of waiting until they would've expired.
+ *
+ * @see TimerUtil
+ *
+ */
+
+@ThreadSafe
+public class TimerWheel {
+	public static final int DEFAULT_TICK_MILLIS = 100;
+	protected static final int WHEEL_BITS = 6;
+	protected static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+	protected static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	/** 4 levels of 64 slots at 100 millis per tick covers ~19 days. longer timeouts are cascaded down from the top level more than once */
+	protected static final int LEVELS = 4;
+	protected static final long MAX_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+	protected static final int ST_PENDING = 0, ST_CANCELLED = 1, ST_EXPIRED = 2;
+	protected final long tick_nanos, start_nanos;
+	protected final Executor executor;
+	protected final Bucket[][] wheels;
+	protected final ConcurrentLinkedQueue<Timeout> added, cancelled;
+	protected final AtomicInteger pending;
+	protected final AtomicLong fired_count, cancelled_count;
+	protected final Thread thread;
+	/** only used by wheel thread */
+	protected long tick;
+
+	public TimerWheel(String name, int tick_millis, Executor executor) {
+		this.executor = executor;
+		tick_nanos = TimeUnit.MILLISECONDS.toNanos(tick_millis);
+		wheels = new Bucket[LEVELS][WHEEL_SIZE];
+		for ( int i=0 ; i < LEVELS ; i++ ) {
+			for ( int j=0 ; j < WHEEL_SIZE ; j++ )
+				wheels[i][j] = new Bucket();
+		}
+		added = new ConcurrentLinkedQueue<Timeout>();
+		cancelled = new ConcurrentLinkedQueue<Timeout>();
+		pending = new AtomicInteger();
+		fired_count = new AtomicLong();
+		cancelled_count = new AtomicLong();
+		start_nanos = System.nanoTime();
+
+		thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runWheel();
+				}
+			}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** runs the task (on the Executor) after the given delay unless Timeout#cancel is called first
+	 *
+	 * @param delay_millis
+	 * @param task
+	 * @return
+	 */
+	public Timeout schedule(long delay_millis, Runnable task) {
+		long deadline_nanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay_millis));
+		// round up: never fire early
+		Timeout t = new Timeout(this, task, (deadline_nanos - start_nanos + tick_nanos - 1) / tick_nanos);
+		pending.incrementAndGet();
+		added.add(t);
+		return t;
+	}
+
+	/** number of timeouts that haven't expired or been cancelled yet */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/** number of timeouts that expired (and whose task was run) */
+	public long getFiredCount() {
+		return fired_count.get();
+	}
+
+	/** number of timeouts that were cancelled before they expired */
+	public long getCancelledCount() {
+		return cancelled_count.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TimerWheel[pending="+getPendingCount()+" fired="+getFiredCount()+" cancelled="+getCancelledCount()+"]";
+	}
+
+	public static class Timeout {
+		protected final TimerWheel wheel;
+		protected final Runnable task;
+		protected final long deadline;
+		protected final AtomicInteger state;
+		// only used by wheel thread
+		protected Bucket bucket;
+		protected Timeout prev, next;
+
+		protected Timeout(TimerWheel wheel, Runnable task, long deadline) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+			state = new AtomicInteger(ST_PENDING);
+		}
+
+		/** stops the task from being run, if it hasn't been run yet
+		 *
+		 * @return TRUE if cancelled, FALSE if task already ran (or is running) or was already cancelled
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(ST_PENDING, ST_CANCELLED))
+				return false;
+			wheel.pending.decrementAndGet();
+			wheel.cancelled_count.incrementAndGet();
+			wheel.cancelled.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == ST_CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == ST_EXPIRED;
+		}
+
+	} // end public static class Timeout
+
+	/** doubly-linked list of the timeouts in 1 slot */
+	protected static class Bucket {
+		protected Timeout head, tail;
+
+		protected void add(Timeout t) {
+			t.bucket = this;
+			t.prev = tail;
+			t.next = null;
+			if (tail==null)
+				head = t;
+			else
+				tail.next = t;
+			tail = t;
+		}
+
+		protected void remove(Timeout t) {
+			if (t.prev==null)
+				head = t.next;
+			else
+				t.prev.next = t.next;
+			if (t.next==null)
+				tail = t.prev;
+			else
+				t.next.prev = t.prev;
+			t.bucket = null;
+			t.prev = t.next = null;
+		}
+
+		protected Timeout clear() {
+			Timeout h = head;
+			head = tail = null;
+			return h;
+		}
+
+	} // end protected static class Bucket
+
+	protected void runWheel() {
+		for (;;) {
+			// wait for next tick. if wheel thread fell behind, catch up without waiting
+			long wait_nanos = start_nanos + (tick * tick_nanos) - System.nanoTime();
+			if (wait_nanos > 0) {
+				LockSupport.parkNanos(this, wait_nanos);
+				continue;
+			}
+			try {
+				processTick();
+			} catch ( Throwable t ) {
+				ConsoleManagerUtil.printStackTrace(TimerWheel.class, t);
+			}
+			tick++;
+		}
+	} // end protected void runWheel
+
+	protected void processTick() {
+		// when lower level wraps around, move next slot of higher level down. do highest level first
+		// so its timeouts can be moved down again by the lower levels
+		if ((tick & WHEEL_MASK) == 0)
+			cascade(1);
+
+		Timeout t;
+		while ((t = cancelled.poll()) != null) {
+			if (t.bucket!=null)
+				t.bucket.remove(t);
+		}
+		while ((t = added.poll()) != null) {
+			// may have been cancelled before wheel thread saw it
+			if (t.state.get()==ST_PENDING)
+				place(t);
+		}
+
+		Timeout next;
+		for ( t = wheels[0][(int)(tick & WHEEL_MASK)].clear() ; t != null ; t = next ) {
+			next = t.next;
+			t.bucket = null;
+			t.prev = t.next = null;
+			if (t.deadline > tick) {
+				// shouldn't happen, but never fire early
+				place(t);
+			} else if (t.state.compareAndSet(ST_PENDING, ST_EXPIRED)) {
+				pending.decrementAndGet();
+				fired_count.incrementAndGet();
+				fire(t);
+			}
+		}
+	} // end protected void processTick
+
+	protected void cascade(int level) {
+		if (level >= LEVELS)
+			return;
+		int idx = (int)((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+		if (idx==0)
+			cascade(level+1);
+		Timeout next;
+		for ( Timeout t = wheels[level][idx].clear() ; t != null ; t = next ) {
+			next = t.next;
+			t.bucket = null;
+			t.prev = t.next = null;
+			if (t.state.get()==ST_PENDING)
+				place(t);
+		}
+	}
+
+	protected void place(Timeout t) {
+		long delta = t.deadline - tick;
+		if (delta < WHEEL_SIZE) {
+			// due now (or overdue) => current slot, which is processed next
+			wheels[0][(int)(Math.max(t.deadline, tick) & WHEEL_MASK)].add(t);
+			return;
+		}
+		// too far in future for top level: put it as far out as possible. it'll get cascaded and placed again
+		long deadline = delta > MAX_TICKS ? tick + MAX_TICKS : t.deadline;
+		delta = deadline - tick;
+		int level = 1;
+		while (level < LEVELS-1 && delta >= (1L << (WHEEL_BITS * (level+1))))
+			level++;
+		wheels[level][(int)((deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK)].add(t);
+	}
+
+	protected void fire(Timeout t) {
+		try {
+			executor.execute(t.task);
+		} catch ( Throwable ex ) {
+			// executor couldn't run it (couldn't create thread?). don't lose the timeout
+			try {
+				TimerUtil.runThread("Timer", t.task);
+			} catch ( Throwable ex2 ) {
+				ConsoleManagerUtil.printStackTrace(TimerWheel.class, ex2);
+			}
+		}
+	}
+
+} // end public class TimerWheel